@@ -0,0 +1,96 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import org.graphstream.ui.gl.Context.NodeColorMode;
+import org.graphstream.ui.gl.Context.NodeSizeMode;
+
+/**
+ * Helpers shared by the {@link GraphBuffers} benchmarks. Ids are created
+ * once per trial so that benchmarks measure the buffers, not the creation of
+ * strings.
+ */
+class BenchmarkGraphs {
+	static final String SOURCE_ID = "bench";
+
+	static String[] ids(String prefix, int count) {
+		String[] ids = new String[count];
+
+		for (int i = 0; i < count; i++)
+			ids[i] = prefix + i;
+
+		return ids;
+	}
+
+	static GraphBuffers create(int maxNodes, int maxEdges) {
+		GraphBuffers gb = new GraphBuffers(null);
+		gb.init(NodeColorMode.EachNodeOneColor, NodeSizeMode.EachNodeOneSize,
+				maxNodes, maxEdges);
+
+		return gb;
+	}
+
+	static void addNodes(GraphBuffers gb, String[] nodeIds) {
+		for (int i = 0; i < nodeIds.length; i++)
+			gb.nodeAdded(SOURCE_ID, i, nodeIds[i]);
+	}
+
+	/**
+	 * Source of the i-th edge. Each node has one outgoing edge.
+	 */
+	static int edgeSource(int i, int nodes) {
+		return i % nodes;
+	}
+
+	/**
+	 * Target of the i-th edge, spread over the whole graph so that the
+	 * endpoints lookups do not all hit the same part of the index.
+	 */
+	static int edgeTarget(int i, int nodes) {
+		return (int) ((i * 7919L + 13) % nodes);
+	}
+
+	/**
+	 * Visit order of the nodes, a permutation of [0;nodes[ which does not
+	 * follow the insertion order.
+	 */
+	static int[] permutation(int nodes, long seed) {
+		int[] order = new int[nodes];
+		java.util.Random random = new java.util.Random(seed);
+
+		for (int i = 0; i < nodes; i++)
+			order[i] = i;
+
+		for (int i = nodes - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int t = order[i];
+			order[i] = order[j];
+			order[j] = t;
+		}
+
+		return order;
+	}
+}
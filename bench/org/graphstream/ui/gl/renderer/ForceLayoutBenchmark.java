@@ -0,0 +1,213 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.media.opengl.GL4;
+import javax.media.opengl.GLCapabilities;
+import javax.media.opengl.GLContext;
+import javax.media.opengl.GLDrawableFactory;
+import javax.media.opengl.GLException;
+import javax.media.opengl.GLOffscreenAutoDrawable;
+import javax.media.opengl.GLProfile;
+
+import org.graphstream.ui.layout.springbox.SpringBox;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One step of a force directed layout of a graph whose nodes each have one
+ * edge, the score being the time of a step:
+ * <ul>
+ * <li>{@link #springBox()}: SpringBox, as run by the LayoutRunner of the
+ * viewer, sending the moves to the buffers;</li>
+ * <li>{@link #cpuReference()}: an iteration of the {@link CPUForceLayout},
+ * quadratic in the number of nodes where SpringBox approximates the
+ * repulsion of far nodes;</li>
+ * <li>{@link #computeShader(GPU)}: the same iteration by the
+ * {@link ComputeLayout}, on an offscreen OpenGL 4.3 context. Without such a
+ * context, this benchmark fails and the others run. Mesa's software
+ * rasterizer provides one, with LIBGL_ALWAYS_SOFTWARE=1.</li>
+ * </ul>
+ * Layouts are heated before each step so that they never stabilize.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx4g",
+		"-Dgs.gl.layout.readback=0", "-Dgs.gl.shader.async=false" })
+public class ForceLayoutBenchmark {
+	@Param( { "1000", "10000" })
+	public int nodes;
+
+	protected GraphBuffers gb;
+	protected GraphBuffers[] drawn;
+	protected CPUForceLayout reference;
+	protected SpringBox springBox;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		String[] nodeIds = BenchmarkGraphs.ids("n", nodes);
+		String[] edgeIds = BenchmarkGraphs.ids("e", nodes);
+
+		gb = BenchmarkGraphs.create(nodes, nodes);
+		drawn = new GraphBuffers[] { gb };
+		springBox = new SpringBox(false, new Random(42));
+		springBox.addListener(gb);
+
+		BenchmarkGraphs.addNodes(gb, nodeIds);
+
+		for (int i = 0; i < nodes; i++)
+			springBox.nodeAdded(BenchmarkGraphs.SOURCE_ID, i, nodeIds[i]);
+
+		for (int i = 0; i < nodes; i++) {
+			String from = nodeIds[BenchmarkGraphs.edgeSource(i, nodes)];
+			String to = nodeIds[BenchmarkGraphs.edgeTarget(i, nodes)];
+
+			gb.edgeAdded(BenchmarkGraphs.SOURCE_ID, i, edgeIds[i], from, to,
+					false);
+			springBox.edgeAdded(BenchmarkGraphs.SOURCE_ID, i, edgeIds[i],
+					from, to, false);
+		}
+
+		/*
+		 * A few steps spread the nodes, all at the origin once added.
+		 */
+		for (int i = 0; i < 10; i++)
+			springBox.compute();
+
+		gb.flushPending();
+
+		reference = new CPUForceLayout();
+		reference.load(drawn);
+	}
+
+	@Benchmark
+	public SpringBox springBox() {
+		springBox.compute();
+		return springBox;
+	}
+
+	@Benchmark
+	public CPUForceLayout cpuReference() {
+		reference.temperature = reference.length;
+		reference.iterate(reference.nextTemperature());
+		return reference;
+	}
+
+	@Benchmark
+	public ComputeLayout computeShader(GPU gpu) {
+		gpu.layout.temperature = gpu.layout.length;
+		gpu.layout.round(gpu.gl, drawn, gpu.column);
+		gpu.gl.glFinish();
+		return gpu.layout;
+	}
+
+	/**
+	 * Offscreen context, current on the benchmark thread, and the layout
+	 * running there on the positions of the buffers.
+	 */
+	@State(Scope.Thread)
+	public static class GPU {
+		protected GLOffscreenAutoDrawable drawable;
+		protected GL4 gl;
+		protected ShaderManager shaders;
+		protected ComputeLayout layout;
+		protected ByteBuffer column;
+
+		@Setup(Level.Trial)
+		public void create(ForceLayoutBenchmark bench) {
+			GLProfile.initSingleton();
+
+			if (!GLProfile.isAvailable(GLProfile.GL4))
+				throw new IllegalStateException("no OpenGL 4 profile");
+
+			GLProfile profile = GLProfile.get(GLProfile.GL4);
+
+			try {
+				drawable = GLDrawableFactory.getFactory(profile)
+						.createOffscreenAutoDrawable(null,
+								new GLCapabilities(profile), null, 1, 1, null);
+			} catch (GLException e) {
+				throw new IllegalStateException("no offscreen drawable: "
+						+ e.getMessage());
+			}
+
+			drawable.display();
+
+			if (drawable.getContext().makeCurrent() == GLContext.CONTEXT_NOT_CURRENT)
+				throw new IllegalStateException("unable to use the context");
+
+			if (!ComputeLayout.isSupported(drawable.getContext()))
+				throw new IllegalStateException("no compute shaders with "
+						+ drawable.getContext().getGLVersion());
+
+			gl = drawable.getGL().getGL4();
+			shaders = new ShaderManager(drawable);
+			column = (ByteBuffer) bench.gb.createNewVertexBufferView();
+			layout = new ComputeLayout(gl, shaders);
+
+			/*
+			 * The first round uploads the graph and builds the program.
+			 */
+			layout.round(gl, bench.drawn, column);
+			gl.glFinish();
+
+			if (!layout.isProgramReady(gl))
+				throw new IllegalStateException("layout program not built");
+		}
+
+		@TearDown(Level.Trial)
+		public void destroy() {
+			if (drawable == null)
+				return;
+
+			if (gl != null) {
+				layout.dispose(gl, column);
+				shaders.dispose(gl);
+				drawable.getContext().release();
+			}
+
+			drawable.destroy();
+		}
+	}
+}
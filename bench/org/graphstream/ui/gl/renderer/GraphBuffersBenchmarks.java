@@ -0,0 +1,56 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the GraphBuffers benchmarks with the GC profiler, which reports the
+ * allocation rate of each benchmark along with its score.
+ *
+ * The first argument, if any, is a regular expression selecting the
+ * benchmarks to run, the second one the node counts, separated by commas.
+ */
+public class GraphBuffersBenchmarks {
+	public static void main(String... args) throws RunnerException {
+		String include = args.length > 0 ? args[0]
+				: GraphBuffersBenchmarks.class.getPackage().getName()
+						+ ".*Benchmark";
+
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.include(include).addProfiler(GCProfiler.class);
+
+		if (args.length > 1)
+			builder.param("nodes", args[1].split(","));
+
+		Options options = builder.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading of a whole graph in empty buffers: all the nodes, then all the
+ * edges. Each invocation loads {@link #nodes} nodes or edges, so the
+ * throughput is nodes / score.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx8g" })
+public class IngestionBenchmark {
+	@Param( { "10000", "1000000", "10000000" })
+	public int nodes;
+
+	protected String[] nodeIds;
+	protected String[] edgeIds;
+
+	@Setup(Level.Trial)
+	public void createIds() {
+		nodeIds = BenchmarkGraphs.ids("n", nodes);
+		edgeIds = BenchmarkGraphs.ids("e", nodes);
+	}
+
+	@Benchmark
+	public GraphBuffers nodeAdded(Empty state) {
+		BenchmarkGraphs.addNodes(state.gb, nodeIds);
+		return state.gb;
+	}
+
+	@Benchmark
+	public GraphBuffers edgeAdded(Nodes state) {
+		GraphBuffers gb = state.gb;
+
+		for (int i = 0; i < nodes; i++)
+			gb.edgeAdded(BenchmarkGraphs.SOURCE_ID, i, edgeIds[i],
+					nodeIds[BenchmarkGraphs.edgeSource(i, nodes)],
+					nodeIds[BenchmarkGraphs.edgeTarget(i, nodes)], false);
+
+		return gb;
+	}
+
+	/**
+	 * Empty buffers. Buffers are allocated once and cleared before each
+	 * invocation.
+	 */
+	@State(Scope.Benchmark)
+	public static class Empty {
+		protected GraphBuffers gb;
+
+		@Setup(Level.Invocation)
+		public void clear(IngestionBenchmark bench) {
+			if (gb == null)
+				gb = BenchmarkGraphs.create(bench.nodes, bench.nodes);
+
+			gb.graphCleared(BenchmarkGraphs.SOURCE_ID, 0);
+		}
+	}
+
+	/**
+	 * Buffers already containing all the nodes, so that only edges are
+	 * measured.
+	 */
+	@State(Scope.Benchmark)
+	public static class Nodes {
+		protected GraphBuffers gb;
+
+		@Setup(Level.Invocation)
+		public void fill(IngestionBenchmark bench) {
+			if (gb == null)
+				gb = BenchmarkGraphs.create(bench.nodes, bench.nodes);
+
+			gb.graphCleared(BenchmarkGraphs.SOURCE_ID, 0);
+			BenchmarkGraphs.addNodes(gb, bench.nodeIds);
+		}
+	}
+}
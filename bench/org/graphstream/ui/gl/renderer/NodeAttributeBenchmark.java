@@ -0,0 +1,131 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Coordinates updates through
+ * {@link GraphBuffers#nodeAttributeChanged(String, long, String, String, Object, Object)}
+ * , for each shape of value a source can send. Nodes are updated in a random
+ * order.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx8g" })
+public class NodeAttributeBenchmark {
+	@Param( { "10000", "1000000", "10000000" })
+	public int nodes;
+
+	/**
+	 * Shape of the value:
+	 * <ul>
+	 * <li>Float : "x" with a single Float,</li>
+	 * <li>float2 : "xy" with a float[2],</li>
+	 * <li>float3 : "xyz" with a float[3],</li>
+	 * <li>Float3 : "xyz" with an Object[] of three Float,</li>
+	 * <li>Double3 : "xyz" with an Object[] of three Double.</li>
+	 * </ul>
+	 */
+	@Param( { "Float", "float2", "float3", "Float3", "Double3" })
+	public String shape;
+
+	/**
+	 * Coalescing mode of the buffers. Pending updates are flushed once per
+	 * iteration, as a renderer would do once per frame.
+	 */
+	@Param( { "false", "true" })
+	public boolean coalesce;
+
+	protected String[] nodeIds;
+	protected int[] order;
+	protected GraphBuffers gb;
+
+	protected String attribute;
+	protected Object value;
+
+	protected int cursor;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		nodeIds = BenchmarkGraphs.ids("n", nodes);
+		order = BenchmarkGraphs.permutation(nodes, 42);
+		gb = BenchmarkGraphs.create(nodes, 1);
+
+		BenchmarkGraphs.addNodes(gb, nodeIds);
+		gb.setCoalescing(coalesce);
+
+		if (shape.equals("Float")) {
+			attribute = "x";
+			value = Float.valueOf(1.5f);
+		} else if (shape.equals("float2")) {
+			attribute = "xy";
+			value = new float[] { 1.5f, 2.5f };
+		} else if (shape.equals("float3")) {
+			attribute = "xyz";
+			value = new float[] { 1.5f, 2.5f, 3.5f };
+		} else if (shape.equals("Float3")) {
+			attribute = "xyz";
+			value = new Object[] { 1.5f, 2.5f, 3.5f };
+		} else if (shape.equals("Double3")) {
+			attribute = "xyz";
+			value = new Object[] { 1.5, 2.5, 3.5 };
+		} else
+			throw new IllegalArgumentException("unknown shape " + shape);
+	}
+
+	@Setup(Level.Iteration)
+	public void flush() {
+		gb.flushPending();
+	}
+
+	@Benchmark
+	public void nodeAttributeChanged() {
+		String id = nodeIds[order[cursor]];
+
+		if (++cursor == nodes)
+			cursor = 0;
+
+		gb.nodeAttributeChanged(BenchmarkGraphs.SOURCE_ID, cursor, id,
+				attribute, null, value);
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Bulk positions updates sent by a layout with
+ * {@link GraphBuffers#nodesMoved(java.util.Map)}. Batches of {@link #BATCH}
+ * random nodes are prepared once and sent in turn, the score is in moved
+ * nodes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx8g" })
+public class NodesMovedBenchmark {
+	public static final int BATCH = 1000;
+	public static final int BATCH_COUNT = 64;
+
+	@Param( { "10000", "1000000", "10000000" })
+	public int nodes;
+
+	protected GraphBuffers gb;
+	protected HashMap<String, float[]>[] batches;
+	protected int cursor;
+
+	@SuppressWarnings("unchecked")
+	@Setup(Level.Trial)
+	public void setup() {
+		String[] nodeIds = BenchmarkGraphs.ids("n", nodes);
+		int[] order = BenchmarkGraphs.permutation(nodes, 42);
+
+		gb = BenchmarkGraphs.create(nodes, 1);
+		BenchmarkGraphs.addNodes(gb, nodeIds);
+
+		batches = new HashMap[BATCH_COUNT];
+
+		for (int b = 0, k = 0; b < BATCH_COUNT; b++) {
+			batches[b] = new HashMap<String, float[]>();
+
+			for (int i = 0; i < BATCH; i++, k = (k + 1) % nodes)
+				batches[b].put(nodeIds[order[k]], new float[] { k, i, b });
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void nodesMoved() {
+		gb.nodesMoved(batches[cursor]);
+		cursor = (cursor + 1) % BATCH_COUNT;
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reload of the "ui.stylesheet" graph attribute, which restyles all the
+ * nodes. Two stylesheets are sent alternately so that each reload changes the
+ * colors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx8g" })
+public class StyleSheetBenchmark {
+	protected static final String[] STYLESHEETS = {
+			"node { fill-color: red; } node#n0 { fill-color: blue; }",
+			"node { fill-color: green; } node#n1 { fill-color: yellow; }" };
+
+	@Param( { "10000", "1000000", "10000000" })
+	public int nodes;
+
+	protected GraphBuffers gb;
+	protected int current;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		gb = BenchmarkGraphs.create(nodes, 1);
+		BenchmarkGraphs.addNodes(gb, BenchmarkGraphs.ids("n", nodes));
+	}
+
+	@Benchmark
+	public void reload() {
+		String old = STYLESHEETS[current];
+		current = 1 - current;
+
+		gb.graphAttributeChanged(BenchmarkGraphs.SOURCE_ID, 0,
+				"ui.stylesheet", old, STYLESHEETS[current]);
+	}
+}
@@ -22,13 +22,38 @@
  */
 package org.graphstream.ui.gl;
 
-import javax.media.opengl.GL2;
-import javax.media.opengl.glu.GLU;
-
+/**
+ * Camera looking at a watched point from some distance, with an orientation
+ * given by a quaternion.
+ *
+ * The camera keeps its view and projection matrices, see {@link Matrix4}.
+ * They are recomputed when the camera changes, and can be loaded in the GL
+ * or given to shaders, culling or picking. Matrices returned are never
+ * modified, new ones are created when the camera changes, so they can be
+ * kept until {@link #getVersion()} changes.
+ *
+ * The state of the camera is only changed by the methods of the camera,
+ * {@link #animate()} being called once per frame for the rotation
+ * animation and the modes following the graph.
+ */
 public class Camera {
+	/**
+	 * How the watched point is chosen.
+	 */
 	public static enum Mode {
+		/**
+		 * Follow the node given to {@link Camera#track(String)}.
+		 */
 		NODE_TRACKING,
+		/**
+		 * Watch a fixed point, or move to the point given to
+		 * {@link Camera#focusOn(float, float, float)}.
+		 */
 		STATIC,
+		/**
+		 * Follow the centroid of the graph, at a distance fitting the graph
+		 * bounds. Zooming changes the margin around the graph.
+		 */
 		CENTERED
 	}
 	
@@ -47,6 +72,11 @@ public class Camera {
 			this.deltaTeta = deltaTeta;
 		}
 	}
+
+	/**
+	 * Frames per second the speed of the rotation animation is given for.
+	 */
+	protected static final float ANIMATION_RATE = 60;
 	
 	protected Mode mode;
 	
@@ -54,113 +84,450 @@ public class Camera {
 	
 	protected final float[] watched = { 0, 0, 0 };
 	protected float distance = 7;
-	protected float gamma = 0;
-	protected float teta = 0;
-
-	protected final float[] eye = { 0, 0, 0 };
+	protected Quaternion orientation = Quaternion.IDENTITY;
 
 	protected float zoomFactor = 0.1f;
 
+	/**
+	 * Far plane, the near plane being at distance 1, except in the
+	 * {@link Mode#CENTERED} mode.
+	 */
 	protected float zFar = 100;
+
+	/**
+	 * Largest ratio between the far and near planes of the
+	 * {@link Mode#CENTERED} mode, for the precision of the depth buffer.
+	 */
+	protected static final float DEPTH_RATIO = 1024;
+
+	/**
+	 * Near and far planes of the {@link Mode#CENTERED} mode, fitted to the
+	 * bounds of the graph, 0 until they are known.
+	 */
+	protected float centeredNear, centeredFar;
+
+	/**
+	 * Frustum at the near plane, at distance 1.
+	 */
+	protected float left = -1, right = 1, bottom = -1, top = 1;
 	
 	protected RotationAnim rotationAnim = RotationAnim.NONE;
 	protected float rotationSpeed = 1;
+	protected long lastAnimation;
+
+	/**
+	 * Node followed in the {@link Mode#NODE_TRACKING} mode.
+	 */
+	protected String trackedNode;
+
+	/**
+	 * Scale of the distance fitting the graph in the {@link Mode#CENTERED}
+	 * mode.
+	 */
+	protected float zoom = 1;
+
+	/**
+	 * Part of the way to the target done each frame, set by the
+	 * "gs.gl.camera.smoothing" property (1 to jump to the target).
+	 */
+	protected float smoothing = Float.parseFloat(System.getProperty(
+			"gs.gl.camera.smoothing", "0.2"));
+
+	protected final float[] target = new float[3];
+
+	/**
+	 * Point the camera moves to in the {@link Mode#STATIC} mode, if focusing
+	 * is set.
+	 */
+	protected final float[] focus = new float[3];
+	protected boolean focusing;
+	protected final float[] min = new float[3];
+	protected final float[] max = new float[3];
+
+	/**
+	 * Matrices, null when they have to be recomputed.
+	 */
+	protected float[] rotation;
+	protected float[] view;
+	protected float[] projection;
+	protected float[] viewProjection;
+
+	protected int version;
 	
 	public Camera(Context ctx) {
 		this.ctx = ctx;
+		this.mode = Mode.STATIC;
+
+		String mode = System.getProperty("gs.gl.camera");
+
+		if (mode != null) {
+			try {
+				this.mode = Mode.valueOf(mode.toUpperCase());
+			} catch (IllegalArgumentException e) {
+				System.err.printf("unknown camera mode \"%s\"%n", mode);
+			}
+		}
+
+		trackedNode = System.getProperty("gs.gl.camera.node");
 	}
-	
-	public void pushModelView(GL2 gl, GLU glu) {
-		gl.glMatrixMode(GL2.GL_MODELVIEW);
-		gl.glPushMatrix();
-		gl.glLoadIdentity();
-		/*
-		eye[0] = (float) (distance * Math.sin(gamma) * Math.cos(teta));
-		eye[1] = (float) (distance * Math.sin(gamma) * Math.sin(teta));
-		eye[2] = (float) (distance * Math.cos(gamma));
-		 */
-		//glu.gluLookAt(eye[0], eye[1], eye[2], watched[0], watched[1],
-				//watched[2], 0, 1, 0);
-		glu.gluLookAt(0,0,distance, watched[0], watched[1],
-				watched[2], 0, 1, 0);
-
-		gl.glPushMatrix();
-		gl.glRotatef(gamma,0,1,0);
-		gl.glRotatef(teta,1,0,0);
-		
-		if( rotationAnim != RotationAnim.NONE ) {
-			gamma += rotationAnim.deltaGamma * rotationSpeed;
-			gamma %= 360;
-			teta += rotationAnim.deltaTeta * rotationSpeed;
-			teta %= 360;
+
+	public synchronized Mode getMode() {
+		return mode;
+	}
+
+	public synchronized void setMode(Mode mode) {
+		this.mode = mode;
+		focusing = false;
+		projectionChanged();
+	}
+
+	/**
+	 * Follow a node, switching to the {@link Mode#NODE_TRACKING} mode.
+	 */
+	public synchronized void track(String nodeId) {
+		trackedNode = nodeId;
+		mode = Mode.NODE_TRACKING;
+		focusing = false;
+		projectionChanged();
+	}
+
+	/**
+	 * Move the watched point to a point, switching to the
+	 * {@link Mode#STATIC} mode. The camera moves there smoothly, as when it
+	 * follows a node, then stays there.
+	 */
+	public synchronized void focusOn(float x, float y, float z) {
+		focus[0] = x;
+		focus[1] = y;
+		focus[2] = z;
+		focusing = true;
+		mode = Mode.STATIC;
+		projectionChanged();
+	}
+
+	/**
+	 * Move the watched point to the current position of a node. Unlike
+	 * {@link #track(String)}, the camera does not follow the node
+	 * afterwards.
+	 *
+	 * @return false if the node is unknown
+	 */
+	public synchronized boolean focusOn(String nodeId) {
+		if (!ctx.getRenderer().getNodePosition(nodeId, target))
+			return false;
+
+		focusOn(target[0], target[1], target[2]);
+		return true;
+	}
+
+	/**
+	 * Move the watched point to the current position of a node found with
+	 * {@link GraphRenderer#findNodes(String, boolean, String[], int[])},
+	 * without looking its id up again.
+	 *
+	 * @param poolIndex
+	 *            pool index of the node, as returned by the search
+	 * @return false if the renderer has no such node
+	 */
+	public synchronized boolean focusOn(int poolIndex) {
+		if (!ctx.getRenderer().getNodePosition(poolIndex, target))
+			return false;
+
+		focusOn(target[0], target[1], target[2]);
+		return true;
+	}
+
+	public synchronized String getTrackedNode() {
+		return trackedNode;
+	}
+
+	/**
+	 * Advance the camera to the current frame: apply the rotation animation
+	 * for the time elapsed since the last frame, and move the watched point,
+	 * and the distance in the {@link Mode#CENTERED} mode, toward their
+	 * targets.
+	 */
+	public synchronized void animate() {
+		long now = System.nanoTime();
+
+		if (rotationAnim != RotationAnim.NONE && lastAnimation != 0) {
+			float frames = (now - lastAnimation) * ANIMATION_RATE / 1e9f;
+
+			rotate(rotationAnim.deltaGamma * rotationSpeed * frames, 0, 1, 0,
+					true);
+			rotate(rotationAnim.deltaTeta * rotationSpeed * frames, 1, 0, 0,
+					false);
+		}
+
+		lastAnimation = now;
+
+		GraphRenderer renderer = ctx.getRenderer();
+
+		switch (mode) {
+		case NODE_TRACKING:
+			if (trackedNode != null
+					&& renderer.getNodePosition(trackedNode, target))
+				follow(target);
+			break;
+		case STATIC:
+			if (focusing)
+				follow(focus);
+			break;
+		case CENTERED:
+			if (renderer.getGraphBounds(min, max, target))
+				center(min, max, target, renderer.getViewHalfExtent());
+			break;
+		default:
+			break;
 		}
 	}
 
-	public void popModelView(GL2 gl) {
-		gl.glPopMatrix();
-		gl.glPopMatrix();
-		gl.glMatrixMode(GL2.GL_MODELVIEW);
+	protected void follow(float[] xyz) {
+		for (int i = 0; i < 3; i++) {
+			float w = watched[i] + (xyz[i] - watched[i]) * smoothing;
+
+			if (w != watched[i]) {
+				watched[i] = w;
+				viewChanged();
+			}
+		}
 	}
 
-	public float getZFar() {
+	/**
+	 * Move one step toward the centroid of the graph, at the distance
+	 * fitting its bounds, in the {@link Mode#CENTERED} mode.
+	 *
+	 * @param halfExtent
+	 *            half of the smallest side of the frustum at distance 1
+	 */
+	protected void center(float[] min, float[] max, float[] centroid,
+			float halfExtent) {
+		float radius = 0;
+
+		for (int i = 0; i < 3; i++) {
+			float d = Math.max(max[i] - centroid[i], centroid[i] - min[i]);
+			radius += d * d;
+		}
+
+		radius = (float) Math.sqrt(radius);
+
+		follow(centroid);
+
+		if (radius > 0) {
+			float fit = zoom * radius * (1 + 1 / halfExtent);
+			setDistance(distance + (fit - distance) * smoothing);
+			fitDepth(radius);
+		}
+	}
+
+	/**
+	 * Fit the near and far planes of the {@link Mode#CENTERED} mode to a
+	 * sphere around the watched point. The radius is doubled, since the
+	 * watched point moves smoothly toward the centroid.
+	 */
+	protected void fitDepth(float radius) {
+		float far = distance + 2 * radius;
+		float near = Math.max(distance - 2 * radius, far / DEPTH_RATIO);
+
+		if (near != centeredNear || far != centeredFar) {
+			centeredNear = near;
+			centeredFar = far;
+			projectionChanged();
+		}
+	}
+
+	protected void setDistance(float distance) {
+		if (distance != this.distance) {
+			this.distance = distance;
+			viewChanged();
+		}
+	}
+
+	protected void viewChanged() {
+		view = null;
+		viewProjection = null;
+		version++;
+	}
+
+	protected void projectionChanged() {
+		projection = null;
+		viewProjection = null;
+		version++;
+	}
+
+	/**
+	 * Counter incremented each time the matrices change.
+	 */
+	public synchronized int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Set the frustum at the near plane, which is at distance 1, usually
+	 * when the viewport is resized.
+	 */
+	public synchronized void setFrustum(float left, float right,
+			float bottom, float top) {
+		this.left = left;
+		this.right = right;
+		this.bottom = bottom;
+		this.top = top;
+
+		projectionChanged();
+	}
+
+	/**
+	 * Rotation of the graph.
+	 */
+	public synchronized float[] getRotationMatrix() {
+		if (rotation == null)
+			rotation = orientation.toMatrix(new float[16]);
+
+		return rotation;
+	}
+
+	/**
+	 * View matrix: the graph is rotated around the watched point, which is
+	 * then seen from the distance along the z axis.
+	 */
+	public synchronized float[] getViewMatrix() {
+		if (view == null) {
+			float[] t = new float[16];
+			float[] m = new float[16];
+
+			Matrix4.translation(t, -watched[0], -watched[1], -watched[2]);
+			Matrix4.multiply(getRotationMatrix(), t, m);
+			Matrix4.translation(t, 0, 0, -distance);
+
+			view = Matrix4.multiply(t, m, new float[16]);
+		}
+
+		return view;
+	}
+
+	/**
+	 * Projection matrix. The frustum is given at distance 1, so it is scaled
+	 * to the near plane, which only moves in the {@link Mode#CENTERED} mode.
+	 */
+	public synchronized float[] getProjectionMatrix() {
+		if (projection == null) {
+			float near = 1;
+			float far = Math.max(zFar, 1.001f);
+
+			if (mode == Mode.CENTERED && centeredFar > 0) {
+				near = centeredNear;
+				far = centeredFar;
+			}
+
+			projection = Matrix4.frustum(new float[16], left * near, right
+					* near, bottom * near, top * near, near, far);
+		}
+
+		return projection;
+	}
+
+	/**
+	 * Product of the projection and view matrices, transforming graph
+	 * coordinates to clip coordinates.
+	 */
+	public synchronized float[] getViewProjectionMatrix() {
+		if (viewProjection == null)
+			viewProjection = Matrix4.multiply(getProjectionMatrix(),
+					getViewMatrix(), new float[16]);
+
+		return viewProjection;
+	}
+
+	public synchronized float getZFar() {
 		return zFar;
 	}
-	
-	public float getColatitude() {
-		return gamma;
+
+	/**
+	 * Distance between the eye and the watched point.
+	 */
+	public synchronized float getDistance() {
+		return distance;
 	}
-	
-	public float getLongitude() {
-		return teta;
+
+	public synchronized Quaternion getOrientation() {
+		return orientation;
+	}
+
+	public synchronized void setOrientation(Quaternion orientation) {
+		this.orientation = orientation.normalize();
+		rotation = null;
+		viewChanged();
+	}
+
+	/**
+	 * Rotate the graph around an axis.
+	 *
+	 * @param viewSpace
+	 *            true if the axis is given in view space, false if it is
+	 *            given in graph space
+	 */
+	public synchronized void rotate(float degrees, float x, float y, float z,
+			boolean viewSpace) {
+		if (degrees == 0)
+			return;
+
+		Quaternion q = Quaternion.fromAxisAngle(degrees, x, y, z);
+
+		setOrientation(viewSpace ? q.multiply(orientation) : orientation
+				.multiply(q));
 	}
 	
 	public void rotateLeft() {
-		gamma += 1;
-		gamma %= 360;
+		rotate(1, 0, 1, 0, true);
 	}
 
 	public void rotateRight() {
-		gamma -= 1;
-		gamma %= 360;
+		rotate(-1, 0, 1, 0, true);
 	}
 
 	public void rotateUp() {
-		teta += 1;
-		teta %= 360;
+		rotate(1, 1, 0, 0, false);
 	}
 
 	public void rotateDown() {
-		teta -= 1;
-		teta %= 360;
+		rotate(-1, 1, 0, 0, false);
 	}
 
-	public void zoomIn() {
-		distance *= (1 - zoomFactor);
+	public synchronized void zoomIn() {
+		if (mode == Mode.CENTERED)
+			zoom *= (1 - zoomFactor);
+		else
+			setDistance(distance * (1 - zoomFactor));
 	}
 
-	public void zoomOut() {
-		distance *= (1 + zoomFactor);
+	public synchronized void zoomOut() {
+		if (mode == Mode.CENTERED)
+			zoom *= (1 + zoomFactor);
+		else
+			setDistance(distance * (1 + zoomFactor));
 	}
 	
-	public void increaseZFar() {
+	public synchronized void increaseZFar() {
 		zFar += 1;
+		projectionChanged();
 	}
 	
-	public void decreaseZFar() {
+	public synchronized void decreaseZFar() {
 		zFar -= 1;
 		zFar = Math.max(0,zFar);
+		projectionChanged();
 	}
 	
-	public void toggleRotationAnim( RotationAnim ra ) {
+	public synchronized void toggleRotationAnim( RotationAnim ra ) {
 		rotationAnim = ra;
 	}
 	
-	public void increaseRotationSpeed() {
+	public synchronized void increaseRotationSpeed() {
 		rotationSpeed += 0.1f;
 		rotationSpeed = Math.max(0,Math.min(2,rotationSpeed));
 	}
 	
-	public void decreaseRotationSpeed() {
+	public synchronized void decreaseRotationSpeed() {
 		rotationSpeed -= 0.1f;
 		rotationSpeed = Math.max(0,Math.min(2,rotationSpeed));
 	}
@@ -22,14 +22,22 @@
  */
 package org.graphstream.ui.gl;
 
+import javax.media.opengl.GLAutoDrawable;
 import javax.media.opengl.GLCapabilities;
+import javax.media.opengl.GLEventListener;
+import javax.media.opengl.GLProfile;
 
 import org.graphstream.stream.Source;
 import org.graphstream.ui.gl.engine.AWTEngine;
 import org.graphstream.ui.gl.engine.NEWTEngine;
+import org.graphstream.ui.gl.engine.OffscreenEngine;
 import org.graphstream.ui.gl.engine.SWINGEngine;
 import org.graphstream.ui.gl.event.KeyManager;
+import org.graphstream.ui.gl.metrics.Metrics;
+import org.graphstream.ui.gl.metrics.StartupMetrics;
+import org.graphstream.ui.gl.renderer.CoreProfileRenderer;
 import org.graphstream.ui.gl.renderer.GraphicGraphRenderer;
+import org.graphstream.ui.gl.renderer.SharedBuffers;
 import org.graphstream.ui.gl.renderer.VertexArrayRenderer;
 
 import com.jogamp.opengl.util.FPSAnimator;
@@ -48,7 +56,8 @@ public class Context {
 	}
 
 	public static enum EngineType {
-		AWT(AWTEngine.class), SWING(SWINGEngine.class), NEWT(NEWTEngine.class)
+		AWT(AWTEngine.class), SWING(SWINGEngine.class), NEWT(NEWTEngine.class), OFFSCREEN(
+				OffscreenEngine.class)
 		;
 		final Class<? extends Engine> clazz;
 
@@ -58,7 +67,45 @@ public class Context {
 	}
 
 	public static enum RendererType {
-		GRAPHIC_GRAPH, VERTEX_ARRAY
+		GRAPHIC_GRAPH, VERTEX_ARRAY,
+		/**
+		 * Vertex array objects and GLSL 3.30 programs, without fixed
+		 * function. Needs an OpenGL 3.3 core profile context.
+		 */
+		CORE_PROFILE
+		;
+
+		/**
+		 * Profile of the capabilities the drawable has to be created with.
+		 * The core profile is the OpenGL 4 one when available, so that the
+		 * layout can run on the GPU.
+		 */
+		public GLProfile getProfile() {
+			if (this == CORE_PROFILE)
+				return GLProfile.get(GLProfile.isAvailable(GLProfile.GL4)
+						? GLProfile.GL4 : GLProfile.GL3);
+
+			return GLProfile.getDefault();
+		}
+	}
+
+	/**
+	 * How the graph is rendered, for renderers supporting several modes.
+	 */
+	public static enum RenderMode {
+		/**
+		 * Nodes are drawn as points.
+		 */
+		POINTS,
+		/**
+		 * The density of nodes is drawn as a heat map.
+		 */
+		DENSITY,
+		/**
+		 * Density when the camera is farther than the
+		 * "gs.gl.density.distance" property, points otherwise.
+		 */
+		AUTO
 	}
 
 	protected Source source;
@@ -66,6 +113,8 @@ public class Context {
 
 	protected NodeColorMode nodeColorMode;
 	protected NodeSizeMode nodeSizeMode;
+
+	protected RenderMode renderMode;
 	
 	protected Fog fog;
 
@@ -75,21 +124,59 @@ public class Context {
 
 	protected KeyManager keyManager;
 
+	protected FPSAnimator animator;
+
 	protected boolean displayInfos = false;
 
 	protected boolean displayCompass = true;
 
 	protected final boolean use3d;
 
+	/**
+	 * Context this one shares its graph and GL objects with, or null.
+	 */
+	protected final Context sharedContext;
+
+	protected final StartupMetrics startup;
+
 	public Context(Source source, EngineType engineType,
 			RendererType rendererType) {
+		this(source, engineType, rendererType, null);
+	}
+
+	/**
+	 * Create a context drawing the graph of another context. The graph
+	 * buffers of the shared context are used, so events are processed once
+	 * for both views, and the GL context is shared, so GPU buffers are
+	 * uploaded once by the core profile renderer. The shared context must
+	 * use a renderer of the same type and be initialized first.
+	 *
+	 * @param shared
+	 *            the context to share with, or null
+	 */
+	public Context(Source source, EngineType engineType,
+			RendererType rendererType, Context shared) {
+		this.startup = new StartupMetrics();
+		this.startup.begin(StartupMetrics.Phase.CONTEXT);
 		this.use3d = true;
+		this.sharedContext = shared;
 		this.source = source;
 		this.camera = new Camera(this);
 		this.nodeColorMode = NodeColorMode.EachNodeOneColor;
 		this.nodeSizeMode = NodeSizeMode.EachNodeOneSize;
+		this.renderMode = RenderMode.POINTS;
 		this.fog = new Fog();
 
+		String mode = System.getProperty("gs.gl.mode");
+
+		if (mode != null) {
+			try {
+				this.renderMode = RenderMode.valueOf(mode.toUpperCase());
+			} catch (IllegalArgumentException e) {
+				System.err.printf("unknown render mode \"%s\"%n", mode);
+			}
+		}
+
 		try {
 			this.engine = engineType.clazz.newInstance();
 		} catch (InstantiationException e) {
@@ -100,20 +187,50 @@ public class Context {
 			System.exit(1);
 		}
 
+		SharedBuffers buffers = null;
+
+		if (shared != null
+				&& shared.getRenderer() instanceof VertexArrayRenderer)
+			buffers = ((VertexArrayRenderer) shared.getRenderer())
+					.getSharedBuffers();
+
 		switch (rendererType) {
 		case GRAPHIC_GRAPH:
 			this.renderer = new GraphicGraphRenderer(this, true);
 			break;
 		case VERTEX_ARRAY:
-			this.renderer = new VertexArrayRenderer(this);
+			this.renderer = new VertexArrayRenderer(this, buffers);
+			break;
+		case CORE_PROFILE:
+			this.renderer = new CoreProfileRenderer(this, buffers);
 			break;
 		}
 
 		this.keyManager = new KeyManager(this);
+
+		startup.end(StartupMetrics.Phase.CONTEXT);
+		Metrics.getRegistry().register(StartupMetrics.TYPE,
+				renderer.metricsName, startup);
 	}
 
 	public void init(GLCapabilities caps, boolean initWindow, String title,
 			int width, int height) {
+		init(caps, initWindow, title, width, height, true);
+	}
+
+	/**
+	 * Initialize the engine. If animate is false, no animator is started and
+	 * frames are only rendered when the drawable is explicitly displayed, as
+	 * done when exporting frames offscreen.
+	 */
+	public void init(GLCapabilities caps, boolean initWindow, String title,
+			int width, int height, boolean animate) {
+		startup.begin(StartupMetrics.Phase.WINDOW);
+
+		if (sharedContext != null)
+			engine.setSharedAutoDrawable(sharedContext.getEngine()
+					.getGLAutoDrawable());
+
 		engine.init(caps);
 
 		if (initWindow) {
@@ -122,12 +239,16 @@ public class Context {
 			engine.setWindowTitle(title);
 		}
 
-		engine.addGLEventListener(renderer);
+		startup.end(StartupMetrics.Phase.WINDOW);
+
+		engine.addGLEventListener(new StartupListener());
 		engine.addKeyListener(keyManager);
 
-		FPSAnimator animator = new FPSAnimator(engine.getGLAutoDrawable(), 60);
-		animator.add(engine.getGLAutoDrawable());
-		animator.start();
+		if (animate) {
+			animator = new FPSAnimator(engine.getGLAutoDrawable(), 60);
+			animator.add(engine.getGLAutoDrawable());
+			animator.start();
+		}
 	}
 
 	public Camera getCamera() {
@@ -146,6 +267,14 @@ public class Context {
 		return nodeSizeMode;
 	}
 
+	public RenderMode getRenderMode() {
+		return renderMode;
+	}
+
+	public void setRenderMode(RenderMode renderMode) {
+		this.renderMode = renderMode;
+	}
+
 	public Fog getFog() {
 		return fog;
 	}
@@ -158,6 +287,14 @@ public class Context {
 		return renderer;
 	}
 
+	/**
+	 * Timing of the startup of this context, also registered in the
+	 * {@link Metrics} registry.
+	 */
+	public StartupMetrics getStartupMetrics() {
+		return startup;
+	}
+
 	public void toggleFullscreen() {
 		engine.setFullscreen(!engine.isFullscreen());
 	}
@@ -177,4 +314,43 @@ public class Context {
 	public boolean is3DView() {
 		return use3d;
 	}
+
+	/**
+	 * Listener of the drawable forwarding to the renderer, timing its
+	 * initialization and its first frame.
+	 */
+	protected class StartupListener implements GLEventListener {
+		protected boolean drawn;
+
+		public void init(GLAutoDrawable drawable) {
+			startup.begin(StartupMetrics.Phase.GL_INIT);
+			renderer.init(drawable);
+			startup.end(StartupMetrics.Phase.GL_INIT);
+		}
+
+		public void display(GLAutoDrawable drawable) {
+			if (drawn) {
+				renderer.display(drawable);
+				return;
+			}
+
+			startup.begin(StartupMetrics.Phase.FIRST_FRAME);
+			renderer.display(drawable);
+			startup.end(StartupMetrics.Phase.FIRST_FRAME);
+
+			Startup.report(startup);
+			drawn = true;
+		}
+
+		public void reshape(GLAutoDrawable drawable, int x, int y, int width,
+				int height) {
+			renderer.reshape(drawable, x, y, width, height);
+		}
+
+		public void dispose(GLAutoDrawable drawable) {
+			renderer.dispose(drawable);
+			Metrics.getRegistry().unregister(StartupMetrics.TYPE,
+					renderer.metricsName);
+		}
+	}
 }
@@ -9,6 +9,13 @@ import com.jogamp.newt.event.KeyListener;
 public interface Engine {
 	void init(GLCapabilities caps);
 
+	/**
+	 * Share the GL objects of the drawable of another engine, so that views
+	 * of the same graph use the same buffers. Must be called before
+	 * {@link #init(GLCapabilities)}.
+	 */
+	void setSharedAutoDrawable(GLAutoDrawable drawable);
+
 	void setWindowSize(int width, int height);
 
 	void addGLEventListener(GLEventListener l);
@@ -23,7 +23,6 @@
 package org.graphstream.ui.gl;
 
 import java.awt.Font;
-import java.io.InputStream;
 
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
@@ -31,6 +30,11 @@ import javax.media.opengl.GLAutoDrawable;
 import javax.media.opengl.GLEventListener;
 import javax.media.opengl.glu.GLU;
 
+import org.graphstream.ui.gl.Context.RenderMode;
+import org.graphstream.ui.gl.metrics.FrameMetrics;
+import org.graphstream.ui.gl.metrics.FrameMetrics.Phase;
+import org.graphstream.ui.gl.metrics.GPUTimer;
+import org.graphstream.ui.gl.metrics.Metrics;
 import org.graphstream.ui.graphicGraph.stylesheet.StyleSheetListener;
 import org.graphstream.ui.layout.LayoutListener;
 
@@ -55,26 +59,27 @@ public abstract class GraphRenderer implements GLEventListener {
 	protected int nodeCount, edgeCount;
 	
 	protected float left, right, top, bottom;
+
+	protected final FrameMetrics metrics;
+	protected final GPUTimer gpuTimer;
+	protected final String metricsName;
+
+	/**
+	 * Distance of the camera over which the {@link RenderMode#AUTO} mode
+	 * draws the density, and whether it does.
+	 */
+	protected float densityDistance = Float.parseFloat(System.getProperty(
+			"gs.gl.density.distance", "20"));
+	protected boolean densityShown;
 	
 	public GraphRenderer(Context ctx) {
 		this.ctx = ctx;
+		this.metrics = new FrameMetrics();
+		this.gpuTimer = new GPUTimer(metrics);
+		this.metricsName = Metrics.getDefaultName(this);
 		width = height = 1;
 		frames = 0;
 		firstFrameDate = System.currentTimeMillis();
-		
-		InputStream fontIn = ClassLoader
-				.getSystemResourceAsStream("org/graphstream/ui/gl/resource/verdanab.ttf");
-
-		Font font = null;
-
-		try {
-			font = Font.createFont(Font.TRUETYPE_FONT, fontIn)
-					.deriveFont(18.0f);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-
-		textRenderer = new TextRenderer(font);
 	}
 
 	public void init(GLAutoDrawable drawable) {
@@ -95,33 +100,51 @@ public abstract class GraphRenderer implements GLEventListener {
 
 		initFog(gl);
 		setLighting(gl);
+
+		gpuTimer.init(gl);
+
+		Metrics.getRegistry().register(FrameMetrics.TYPE, metricsName, metrics);
 	}
 
 	public void dispose(GLAutoDrawable drawable) {
+		if (textRenderer != null) {
+			textRenderer.dispose();
+			textRenderer = null;
+		}
+
+		gpuTimer.dispose(drawable.getGL().getGL2());
+		Metrics.getRegistry().unregister(FrameMetrics.TYPE, metricsName);
 		glu.destroy();
 	}
 
 	public void display(GLAutoDrawable drawable) {
 		GL2 gl = drawable.getGL().getGL2();
+
+		metrics.beginFrame();
+		gpuTimer.begin(gl);
+		metrics.phase(Phase.BACKGROUND);
+
 		setFog(gl);
 		
 		gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
 
 		drawBackground(gl);
 
+		Camera camera = ctx.getCamera();
+		camera.animate();
+
 		gl.glMatrixMode(GL2.GL_PROJECTION);
-		gl.glPushMatrix();
+		gl.glLoadMatrixf(camera.getProjectionMatrix(), 0);
+		gl.glMatrixMode(GL2.GL_MODELVIEW);
 		gl.glLoadIdentity();
-		gl.glFrustum(left, right, bottom, top, 1, ctx.getCamera().getZFar());
 
 		drawContainer(gl);
-		
-		ctx.getCamera().pushModelView(gl, glu);
+
+		gl.glLoadMatrixf(camera.getViewMatrix(), 0);
+		metrics.phase(Phase.UPLOAD);
 		renderGraph(gl);
-		ctx.getCamera().popModelView(gl);
 
-		gl.glPopMatrix();
-		gl.glMatrixMode(GL2.GL_PROJECTION);
+		metrics.phase(Phase.OVERLAYS);
 
 		if( ctx.isCompassDisplayed() )
 			drawCompass(gl);
@@ -130,11 +153,117 @@ public abstract class GraphRenderer implements GLEventListener {
 			drawFPS(gl);
 
 		gl.glFlush();
+
+		gpuTimer.end(gl);
+		metrics.endFrame();
 	}
 
+	/**
+	 * Render the graph. The projection and modelview matrices of the GL are
+	 * those of the camera, shaders should rather use
+	 * {@link Camera#getViewProjectionMatrix()}. The {@link Phase#UPLOAD}
+	 * phase is started before calling this method, implementations should
+	 * switch to the
+	 * {@link Phase#NODES} and {@link Phase#EDGES} phases and report uploads and
+	 * draw calls to {@link #metrics}.
+	 */
 	protected abstract void renderGraph(GL2 gl);
+
+	public FrameMetrics getFrameMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Mode used to render the current frame: the mode of the context, the
+	 * {@link RenderMode#AUTO} mode being resolved with the distance of the
+	 * camera. The density stays shown until the camera gets 10% closer than
+	 * the threshold, so that zooming around it does not flicker.
+	 */
+	protected RenderMode getFrameRenderMode() {
+		RenderMode mode = ctx.getRenderMode();
+
+		if (mode != RenderMode.AUTO)
+			return mode;
+
+		float distance = ctx.getCamera().getDistance();
+
+		if (distance > densityDistance)
+			densityShown = true;
+		else if (distance < densityDistance * 0.9f)
+			densityShown = false;
+
+		return densityShown ? RenderMode.DENSITY : RenderMode.POINTS;
+	}
 	
 	public abstract LayoutListener getLayoutListener();
+
+	/**
+	 * Get the bounds of the graph, used by the {@link Camera.Mode#CENTERED}
+	 * camera. Renderers which do not keep bounds return false.
+	 *
+	 * @param min
+	 *            lower corner of the bounding box
+	 * @param max
+	 *            upper corner of the bounding box
+	 * @param centroid
+	 *            centroid of the nodes
+	 * @return false if the bounds are not known
+	 */
+	public boolean getGraphBounds(float[] min, float[] max, float[] centroid) {
+		return false;
+	}
+
+	/**
+	 * Get the position of a node, used by the
+	 * {@link Camera.Mode#NODE_TRACKING} camera.
+	 *
+	 * @return false if the node is unknown
+	 */
+	public boolean getNodePosition(String nodeId, float[] xyz) {
+		return false;
+	}
+
+	/**
+	 * Find the nodes whose id begins with, or contains, some text, so that
+	 * the camera can focus on them, see {@link Camera#focusOn(String)}.
+	 * Renderers which do not index ids find no node.
+	 *
+	 * @param substring
+	 *            true to find the ids containing the text, false to find the
+	 *            ids beginning with it
+	 * @param ids
+	 *            array receiving the ids, in order, its length being the
+	 *            maximum number of nodes found
+	 * @param poolIndexes
+	 *            array receiving the pool indexes of the nodes found, for
+	 *            {@link #getNodePosition(int, float[])} and
+	 *            {@link Camera#focusOn(int)}, or null
+	 * @return the number of nodes found
+	 */
+	public int findNodes(String text, boolean substring, String[] ids,
+			int[] poolIndexes) {
+		return 0;
+	}
+
+	/**
+	 * Current position of a node given its pool index, as returned by
+	 * {@link #findNodes(String, boolean, String[], int[])}. The index is
+	 * reused once the node is removed.
+	 *
+	 * @param xyz
+	 *            array receiving the coordinates
+	 * @return false if the renderer has no such node
+	 */
+	public boolean getNodePosition(int poolIndex, float[] xyz) {
+		return false;
+	}
+
+	/**
+	 * Half of the smallest side of the frustum at distance 1 from the eye.
+	 */
+	public float getViewHalfExtent() {
+		return Math.min(Math.abs(right - left), Math.abs(top - bottom)) / 2;
+	}
 	
 	public void initFog(GL2 gl) {
 		gl.glEnable(GL2.GL_FOG);
@@ -260,10 +389,24 @@ public abstract class GraphRenderer implements GLEventListener {
 
 		frames++;
 
+		/*
+		 * The font is loaded in background by the startup, informations are
+		 * not drawn until it is there.
+		 */
+		if (textRenderer == null) {
+			Font font = Startup.getFont();
+
+			if (font == null)
+				return;
+
+			textRenderer = new TextRenderer(font);
+		}
+
 		textRenderer.beginRendering(width, height);
 		textRenderer.setColor(1, 1, 1, 0.6f);
-		textRenderer.draw(String.format("%d nodes, %d edges @ %d fps",
-				nodeCount, edgeCount, fps), 10, 10);
+		textRenderer.draw(String.format(
+				"%d nodes, %d edges @ %d fps (p99 %.1f ms)", nodeCount,
+				edgeCount, fps, metrics.getFrameTimeP99()), 10, 10);
 		textRenderer.endRendering();
 	}
 	
@@ -283,8 +426,7 @@ public abstract class GraphRenderer implements GLEventListener {
 
 		glu.gluOrtho2D( left, right, bottom, top );//-1, 1, -1, 1 );
 		gl.glTranslatef(right-size, top-size, 0 );
-		gl.glRotatef(ctx.getCamera().getColatitude(),0,1,0);
-		gl.glRotatef(ctx.getCamera().getLongitude(),1,0,0);
+		gl.glMultMatrixf(ctx.getCamera().getRotationMatrix(), 0);
 		gl.glColor4f(0.1f,0.1f,0.1f,0.5f);
 		glut.glutSolidCube(size);
 		gl.glColor4f(0,0,0,0.75f);
@@ -320,5 +462,7 @@ public abstract class GraphRenderer implements GLEventListener {
 			left = -(width/(float)height);
 			right = (width/(float)height);
 		}
+
+		ctx.getCamera().setFrustum(left, right, bottom, top);
 	}
 }
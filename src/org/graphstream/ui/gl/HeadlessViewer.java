@@ -0,0 +1,119 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl;
+
+import java.io.IOException;
+
+import javax.media.opengl.GLAutoDrawable;
+import javax.media.opengl.GLCapabilities;
+
+import org.graphstream.stream.Source;
+import org.graphstream.ui.gl.engine.OffscreenEngine;
+import org.graphstream.ui.gl.export.FrameExporter;
+import org.graphstream.ui.gl.export.FrameSink;
+
+/**
+ * Viewer without window, rendering frames of a fixed size on demand with an
+ * {@link OffscreenEngine}. Frames are exported to a {@link FrameSink}:
+ *
+ * <pre>
+ * HeadlessViewer viewer = new HeadlessViewer(source, 1920, 1080,
+ * 		new PNGSequenceSink(new File(&quot;frames&quot;)));
+ *
+ * while (...) {
+ * 	// send events to source
+ * 	viewer.renderFrame();
+ * }
+ *
+ * viewer.close();
+ * </pre>
+ */
+public class HeadlessViewer {
+	static {
+		Startup.preload();
+	}
+
+	protected Context ctx;
+
+	protected FrameExporter exporter;
+
+	public HeadlessViewer(Source source, int width, int height, FrameSink sink) {
+		this(source, width, height, sink, Context.RendererType.VERTEX_ARRAY);
+	}
+
+	public HeadlessViewer(Source source, int width, int height,
+			FrameSink sink, Context.RendererType rendererType) {
+		ctx = new Context(source, Context.EngineType.OFFSCREEN, rendererType);
+
+		Startup.awaitProfile();
+		GLCapabilities glc = new GLCapabilities(rendererType.getProfile());
+
+		ctx.getEngine().setWindowSize(width, height);
+		ctx.init(glc, false, null, width, height, false);
+
+		if (sink != null) {
+			exporter = new FrameExporter(sink);
+			ctx.getEngine().addGLEventListener(exporter);
+		}
+	}
+
+	public Context getContext() {
+		return ctx;
+	}
+
+	/**
+	 * Render one frame. Its pixels are exported asynchronously.
+	 */
+	public void renderFrame() {
+		ctx.getEngine().getGLAutoDrawable().display();
+	}
+
+	public int getFrameCount() {
+		return exporter == null ? 0 : exporter.getFrameCount();
+	}
+
+	/**
+	 * Flush the last frame, wait for all frames to be written and release
+	 * the offscreen drawable.
+	 */
+	public void close() throws IOException {
+		GLAutoDrawable drawable = ctx.getEngine().getGLAutoDrawable();
+
+		if (exporter != null) {
+			drawable.getContext().makeCurrent();
+
+			try {
+				exporter.flush(drawable.getGL().getGL2GL3());
+			} finally {
+				drawable.getContext().release();
+			}
+
+			exporter.close();
+		}
+
+		((OffscreenEngine) ctx.getEngine()).destroy();
+	}
+}
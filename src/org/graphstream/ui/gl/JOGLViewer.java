@@ -27,6 +27,8 @@ import javax.media.opengl.GLProfile;
 import javax.swing.JPanel;
 
 import org.graphstream.stream.Source;
+import org.graphstream.ui.gl.renderer.ComputeLayout;
+import org.graphstream.ui.gl.renderer.VertexArrayRenderer;
 import org.graphstream.ui.layout.Layout;
 import org.graphstream.ui.layout.LayoutRunner;
 import org.graphstream.ui.layout.springbox.SpringBox;
@@ -38,16 +40,18 @@ public class JOGLViewer extends JPanel {
 	private static final long serialVersionUID = -7148882898922182755L;
 
 	/*
-	 * Improves OpenGL performances.
+	 * Initialize the profiles, load the font and read the shaders in
+	 * background while the first viewer is created.
 	 */
 	static {
-		GLProfile.initSingleton(true);
+		Startup.preload();
 	}
 
 	GLProfile glp;
 	GLCapabilities glc;
 
 	Context ctx;
+	Context.RendererType rendererType;
 
 	Source source;
 
@@ -66,17 +70,53 @@ public class JOGLViewer extends JPanel {
 	public JOGLViewer(Source source, boolean autoLayout,
 			Context.EngineType engineType, Context.RendererType rendererType) {
 		this.source = source;
+		this.rendererType = rendererType;
 
-		glp = GLProfile.getDefault();
+		ctx = new Context(source, engineType, rendererType);
+
+		Startup.awaitProfile();
+		glp = rendererType.getProfile();
 		glc = new GLCapabilities(glp);
 
-		ctx = new Context(source, engineType, rendererType);
 		ctx.init(glc, true, "The GraphStream GL Viewer", 600, 600);
 
-		if (autoLayout)
+		/*
+		 * Setting "gs.gl.layout" to "gpu" asks for the layout of the GPU,
+		 * SpringBox being used when it is not available.
+		 */
+		if (autoLayout
+				&& (!"gpu".equals(System.getProperty("gs.gl.layout"))
+						|| !enableGPULayout()))
 			enableAutoLayout();
 	}
 
+	/**
+	 * Open another window on the graph of a viewer. The graph buffers, and
+	 * the GPU buffers with the core profile renderer, are shared, so the new
+	 * window only adds its draw calls. The positions come from the layout of
+	 * the shared viewer, the new one has no layout of its own.
+	 *
+	 * @param rendererType
+	 *            must be the renderer type of the shared viewer
+	 */
+	public JOGLViewer(JOGLViewer shared, Context.EngineType engineType,
+			Context.RendererType rendererType) {
+		this.source = shared.source;
+		this.rendererType = rendererType;
+
+		ctx = new Context(source, engineType, rendererType, shared.ctx);
+
+		Startup.awaitProfile();
+		glp = rendererType.getProfile();
+		glc = new GLCapabilities(glp);
+
+		ctx.init(glc, true, "The GraphStream GL Viewer", 600, 600);
+	}
+
+	public Context getContext() {
+		return ctx;
+	}
+
 	public void enableAutoLayout() {
 		enableAutoLayout(new SpringBox(true));
 	}
@@ -95,4 +135,42 @@ public class JOGLViewer extends JPanel {
 			layout = null;
 		}
 	}
+
+	/**
+	 * Compute the layout on the GPU, see {@link ComputeLayout}, in place of
+	 * the layout running on the source. This needs the
+	 * {@link Context.RendererType#CORE_PROFILE} renderer and OpenGL 4.3,
+	 * the current layout is kept otherwise.
+	 *
+	 * @return true if the GPU layout is enabled
+	 */
+	public boolean enableGPULayout() {
+		if (rendererType != Context.RendererType.CORE_PROFILE) {
+			System.err.printf("[layout] the GPU layout needs the %s "
+					+ "renderer%n", Context.RendererType.CORE_PROFILE);
+			return false;
+		}
+
+		if (!ComputeLayout.isSupported(ctx.getEngine().getGLAutoDrawable()
+				.getContext())) {
+			System.err.printf("[layout] compute shaders need OpenGL 4.3%n");
+			return false;
+		}
+
+		disableAutoLayout();
+		((VertexArrayRenderer) ctx.getRenderer()).getSharedBuffers()
+				.setGPULayout(true);
+
+		return true;
+	}
+
+	/**
+	 * Stop the GPU layout, positions being read back in the buffers. The
+	 * auto layout can then be enabled again.
+	 */
+	public void disableGPULayout() {
+		if (ctx.getRenderer() instanceof VertexArrayRenderer)
+			((VertexArrayRenderer) ctx.getRenderer()).getSharedBuffers()
+					.setGPULayout(false);
+	}
 }
@@ -0,0 +1,96 @@
+/*
+ * This file is part of GraphStream.
+ * 
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright 2006 - 2009
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ */
+package org.graphstream.ui.gl;
+
+/**
+ * Operations on 4x4 matrices stored in float arrays, in the column-major
+ * order used by OpenGL, so that they can be given as is to glLoadMatrixf or
+ * glUniformMatrix4fv.
+ */
+public final class Matrix4 {
+	private Matrix4() {
+	}
+
+	public static float[] identity(float[] m) {
+		for (int i = 0; i < 16; i++)
+			m[i] = (i % 5 == 0) ? 1 : 0;
+
+		return m;
+	}
+
+	/**
+	 * Multiply two matrices, out = a * b. Out must not be a or b.
+	 */
+	public static float[] multiply(float[] a, float[] b, float[] out) {
+		for (int c = 0; c < 4; c++) {
+			for (int r = 0; r < 4; r++) {
+				out[4 * c + r] = a[r] * b[4 * c] + a[4 + r] * b[4 * c + 1]
+						+ a[8 + r] * b[4 * c + 2] + a[12 + r] * b[4 * c + 3];
+			}
+		}
+
+		return out;
+	}
+
+	public static float[] translation(float[] m, float x, float y, float z) {
+		identity(m);
+		m[12] = x;
+		m[13] = y;
+		m[14] = z;
+
+		return m;
+	}
+
+	/**
+	 * Perspective projection, as glFrustum.
+	 */
+	public static float[] frustum(float[] m, float left, float right,
+			float bottom, float top, float near, float far) {
+		for (int i = 0; i < 16; i++)
+			m[i] = 0;
+
+		m[0] = 2 * near / (right - left);
+		m[5] = 2 * near / (top - bottom);
+		m[8] = (right + left) / (right - left);
+		m[9] = (top + bottom) / (top - bottom);
+		m[10] = -(far + near) / (far - near);
+		m[11] = -1;
+		m[14] = -2 * far * near / (far - near);
+
+		return m;
+	}
+
+	/**
+	 * Transform a point, giving its homogeneous coordinates.
+	 *
+	 * @param out
+	 *            x, y, z and w of the point transformed
+	 */
+	public static float[] transform(float[] m, float x, float y, float z,
+			float[] out) {
+		for (int r = 0; r < 4; r++)
+			out[r] = m[r] * x + m[4 + r] * y + m[8 + r] * z + m[12 + r];
+
+		return out;
+	}
+}
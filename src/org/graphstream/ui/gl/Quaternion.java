@@ -0,0 +1,102 @@
+/*
+ * This file is part of GraphStream.
+ * 
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Copyright 2006 - 2009
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ */
+package org.graphstream.ui.gl;
+
+/**
+ * Unit quaternion used as a rotation. Quaternions are immutable.
+ */
+public final class Quaternion {
+	public static final Quaternion IDENTITY = new Quaternion(1, 0, 0, 0);
+
+	public final float w, x, y, z;
+
+	public Quaternion(float w, float x, float y, float z) {
+		this.w = w;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+	}
+
+	/**
+	 * Rotation of some degrees around an axis, which does not need to be
+	 * normalized.
+	 */
+	public static Quaternion fromAxisAngle(float degrees, float x, float y,
+			float z) {
+		double length = Math.sqrt(x * x + y * y + z * z);
+
+		if (length == 0)
+			return IDENTITY;
+
+		double half = Math.toRadians(degrees) / 2;
+		double s = Math.sin(half) / length;
+
+		return new Quaternion((float) Math.cos(half), (float) (x * s),
+				(float) (y * s), (float) (z * s));
+	}
+
+	/**
+	 * Rotation applying q then this one.
+	 */
+	public Quaternion multiply(Quaternion q) {
+		return new Quaternion(w * q.w - x * q.x - y * q.y - z * q.z, w * q.x
+				+ x * q.w + y * q.z - z * q.y, w * q.y - x * q.z + y * q.w + z
+				* q.x, w * q.z + x * q.y - y * q.x + z * q.w);
+	}
+
+	/**
+	 * This quaternion scaled to unit length, to stop drifting after many
+	 * multiplications.
+	 */
+	public Quaternion normalize() {
+		double length = Math.sqrt(w * w + x * x + y * y + z * z);
+
+		if (length == 0)
+			return IDENTITY;
+
+		return new Quaternion((float) (w / length), (float) (x / length),
+				(float) (y / length), (float) (z / length));
+	}
+
+	/**
+	 * Rotation matrix of this quaternion, see {@link Matrix4}.
+	 */
+	public float[] toMatrix(float[] m) {
+		m[0] = 1 - 2 * (y * y + z * z);
+		m[1] = 2 * (x * y + w * z);
+		m[2] = 2 * (x * z - w * y);
+		m[3] = 0;
+		m[4] = 2 * (x * y - w * z);
+		m[5] = 1 - 2 * (x * x + z * z);
+		m[6] = 2 * (y * z + w * x);
+		m[7] = 0;
+		m[8] = 2 * (x * z + w * y);
+		m[9] = 2 * (y * z - w * x);
+		m[10] = 1 - 2 * (x * x + y * y);
+		m[11] = 0;
+		m[12] = m[13] = m[14] = 0;
+		m[15] = 1;
+
+		return m;
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl;
+
+import java.awt.Font;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.media.opengl.GLProfile;
+
+import org.graphstream.ui.gl.metrics.StartupMetrics;
+import org.graphstream.ui.gl.metrics.StartupMetrics.Phase;
+import org.graphstream.ui.gl.renderer.ShaderManager;
+
+/**
+ * Work done once for all the viewers, started in background threads as soon
+ * as a viewer class is loaded: initialization of the GL profiles, loading of
+ * the font of the informations and reading of the shader sources. These run
+ * in parallel, and in parallel with the creation of the first context, so
+ * that the window shows up sooner.
+ *
+ * Viewers wait for the profiles before creating their drawable. The font is
+ * not waited for, informations are drawn once it is loaded, and shaders are
+ * compiled asynchronously by the {@link ShaderManager}.
+ */
+public class Startup {
+	protected static final String FONT = "org/graphstream/ui/gl/resource/verdanab.ttf";
+
+	/**
+	 * Shaders of the renderers, whose sources are read in advance.
+	 */
+	protected static final String[] SHADERS = {
+			"org/graphstream/ui/gl/shader/node-vertex-shader.glsl",
+			"org/graphstream/ui/gl/shader/node-fragment-shader.glsl",
+			"org/graphstream/ui/gl/shader/edge-vertex-shader.glsl",
+			"org/graphstream/ui/gl/shader/edge-fragment-shader.glsl",
+			"org/graphstream/ui/gl/shader/density-vertex-shader.glsl",
+			"org/graphstream/ui/gl/shader/density-fragment-shader.glsl",
+			"org/graphstream/ui/gl/shader/density-resolve-vertex-shader.glsl",
+			"org/graphstream/ui/gl/shader/density-resolve-fragment-shader.glsl",
+			"org/graphstream/ui/gl/shader/core-vertex-shader.glsl",
+			"org/graphstream/ui/gl/shader/core-fragment-shader.glsl",
+			"org/graphstream/ui/gl/shader/layout-compute-shader.glsl",
+			"org/graphstream/ui/gl/shader/oit-composite-vertex-shader.glsl",
+			"org/graphstream/ui/gl/shader/oit-composite-fragment-shader.glsl" };
+
+	private static Future<?> profile;
+	private static Future<Font> font;
+
+	/**
+	 * Begin and end of the preloaded phases, 0 until they are done.
+	 */
+	private static final long[] begins = new long[Phase.values().length];
+	private static final long[] ends = new long[Phase.values().length];
+
+	/**
+	 * Start the preloading, if not already done.
+	 */
+	public static synchronized void preload() {
+		if (profile != null)
+			return;
+
+		ExecutorService executor = Executors.newFixedThreadPool(3,
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "gl-startup");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+
+		profile = executor.submit(new Runnable() {
+			public void run() {
+				long begin = System.nanoTime();
+				GLProfile.initSingleton();
+				done(Phase.PROFILE, begin);
+			}
+		});
+
+		font = executor.submit(new Callable<Font>() {
+			public Font call() {
+				long begin = System.nanoTime();
+
+				try {
+					InputStream in = Startup.class.getClassLoader()
+							.getResourceAsStream(FONT);
+
+					try {
+						return Font.createFont(Font.TRUETYPE_FONT, in)
+								.deriveFont(18.0f);
+					} finally {
+						in.close();
+					}
+				} catch (Exception e) {
+					System.err.printf("[startup] unable to load the font: "
+							+ "%s%n", e);
+					return null;
+				} finally {
+					done(Phase.FONT, begin);
+				}
+			}
+		});
+
+		executor.submit(new Runnable() {
+			public void run() {
+				long begin = System.nanoTime();
+
+				for (String shader : SHADERS)
+					ShaderManager.getResource(shader);
+
+				done(Phase.SHADER_SOURCES, begin);
+			}
+		});
+
+		executor.shutdown();
+	}
+
+	private static synchronized void done(Phase phase, long begin) {
+		begins[phase.ordinal()] = begin;
+		ends[phase.ordinal()] = System.nanoTime();
+	}
+
+	/**
+	 * Wait for the GL profiles to be initialized, preloading if needed.
+	 */
+	public static void awaitProfile() {
+		preload();
+
+		try {
+			profile.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * The font of the informations, or null while it is loading or if it
+	 * could not be loaded.
+	 */
+	public static Font getFont() {
+		preload();
+
+		if (!font.isDone())
+			return null;
+
+		try {
+			return font.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// reported by the loading task
+		}
+
+		return null;
+	}
+
+	/**
+	 * Give the times of the preloaded phases done to the metrics of a
+	 * viewer.
+	 */
+	public static synchronized void report(StartupMetrics metrics) {
+		for (Phase phase : new Phase[] { Phase.PROFILE, Phase.FONT,
+				Phase.SHADER_SOURCES })
+			if (ends[phase.ordinal()] != 0)
+				metrics.record(phase, begins[phase.ordinal()],
+						ends[phase.ordinal()]);
+	}
+}
@@ -13,6 +13,7 @@ import com.jogamp.newt.opengl.GLWindow;
 
 public class NEWTEngine implements Engine {
 	protected GLWindow window;
+	protected GLAutoDrawable sharedDrawable;
 
 	public void init(GLCapabilities caps) {
 		if (window != null) {
@@ -21,6 +22,9 @@ public class NEWTEngine implements Engine {
 
 		window = GLWindow.create(caps);
 
+		if (sharedDrawable != null)
+			window.setSharedAutoDrawable(sharedDrawable);
+
 		window.addWindowListener(new WindowAdapter() {
 			public void windowDestroyNotify(WindowEvent arg0) {
 				window.destroy(true);
@@ -31,6 +35,10 @@ public class NEWTEngine implements Engine {
 		System.out.printf("using NEWT engine [display=(%s,%s)]%n",window.getScreen().getDisplay().getType(),window.getScreen().getDisplay().getName());
 	}
 
+	public void setSharedAutoDrawable(GLAutoDrawable drawable) {
+		sharedDrawable = drawable;
+	}
+
 	public void setWindowSize(int width, int height) {
 		window.setSize(width, height);
 	}
@@ -0,0 +1,162 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.engine;
+
+import javax.media.opengl.GLAutoDrawable;
+import javax.media.opengl.GLCapabilities;
+import javax.media.opengl.GLContext;
+import javax.media.opengl.GLDrawableFactory;
+import javax.media.opengl.GLEventListener;
+import javax.media.opengl.GLOffscreenAutoDrawable;
+
+import org.graphstream.ui.gl.Engine;
+
+import com.jogamp.newt.event.KeyListener;
+
+/**
+ * Engine rendering into an offscreen drawable (FBO or pbuffer) instead of a
+ * window. There is no display needed, so this engine can be used on render
+ * nodes, including with a software GL implementation like Mesa.
+ *
+ * The drawable has a fixed size, given either by
+ * {@link #setWindowSize(int, int)} before {@link #init(GLCapabilities)} or
+ * by the "gs.gl.offscreen.width" and "gs.gl.offscreen.height" properties.
+ * Setting the property "gs.gl.offscreen.pbuffer" to true forces a pbuffer
+ * instead of a FBO.
+ */
+public class OffscreenEngine implements Engine {
+	protected GLOffscreenAutoDrawable drawable;
+	protected GLAutoDrawable sharedDrawable;
+
+	protected int width;
+	protected int height;
+
+	public OffscreenEngine() {
+		width = Integer.parseInt(System.getProperty("gs.gl.offscreen.width",
+				"800"));
+		height = Integer.parseInt(System.getProperty(
+				"gs.gl.offscreen.height", "600"));
+	}
+
+	/**
+	 * Create the drawable. The engine is initialized once: listeners are
+	 * added to the drawable, so it is not replaced by a later call.
+	 */
+	public void init(GLCapabilities caps) {
+		if (drawable != null) {
+			System.err.printf("[offscreen] engine already initialized%n");
+			return;
+		}
+
+		boolean pbuffer = Boolean.getBoolean("gs.gl.offscreen.pbuffer");
+
+		caps.setOnscreen(false);
+		caps.setPBuffer(pbuffer);
+		caps.setFBO(!pbuffer);
+		caps.setDoubleBuffered(false);
+
+		GLDrawableFactory factory = GLDrawableFactory.getFactory(caps
+				.getGLProfile());
+
+		GLContext sharedContext = null;
+
+		/*
+		 * The context is shared at creation, so the shared drawable has to
+		 * be realized first.
+		 */
+		if (sharedDrawable != null) {
+			if (!sharedDrawable.getContext().isCreated())
+				sharedDrawable.display();
+
+			sharedContext = sharedDrawable.getContext();
+		}
+
+		drawable = factory.createOffscreenAutoDrawable(null, caps, null,
+				width, height, sharedContext);
+
+		System.out.printf("using offscreen engine [%s, %dx%d]%n",
+				pbuffer ? "pbuffer" : "fbo", width, height);
+	}
+
+	public void setSharedAutoDrawable(GLAutoDrawable drawable) {
+		sharedDrawable = drawable;
+	}
+
+	/**
+	 * Set the size of the frames. Can be called before the engine is
+	 * initialized.
+	 */
+	public void setWindowSize(int width, int height) {
+		this.width = width;
+		this.height = height;
+
+		if (drawable != null)
+			drawable.setSize(width, height);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public void addGLEventListener(GLEventListener l) {
+		drawable.addGLEventListener(l);
+	}
+
+	public void addKeyListener(KeyListener l) {
+		// No input without a window.
+	}
+
+	public void removeKeyListener(KeyListener l) {
+	}
+
+	public void setWindowTitle(String title) {
+	}
+
+	public void setWindowVisible(boolean on) {
+	}
+
+	public GLAutoDrawable getGLAutoDrawable() {
+		return drawable;
+	}
+
+	public void setFullscreen(boolean on) {
+	}
+
+	public boolean isFullscreen() {
+		return false;
+	}
+
+	public void destroy() {
+		if (drawable != null) {
+			drawable.destroy();
+			drawable = null;
+		}
+	}
+}
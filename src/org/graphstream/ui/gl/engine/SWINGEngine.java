@@ -43,6 +43,8 @@ public class SWINGEngine implements Engine {
 	GLJPanel panel;
 	JFrame frame;
 
+	GLAutoDrawable sharedDrawable;
+
 	KeyListener_SWING_to_NEWT keyListeners;
 
 	public void init(GLCapabilities caps) {
@@ -57,6 +59,10 @@ public class SWINGEngine implements Engine {
 		keyListeners = new KeyListener_SWING_to_NEWT();
 
 		panel = new GLJPanel(caps);
+
+		if (sharedDrawable != null)
+			panel.setSharedAutoDrawable(sharedDrawable);
+
 		panel.addKeyListener(keyListeners);
 		if (frame != null) {
 			// TODO
@@ -70,6 +76,10 @@ public class SWINGEngine implements Engine {
 		System.out.printf("using SWING engine%n");
 	}
 
+	public void setSharedAutoDrawable(GLAutoDrawable drawable) {
+		sharedDrawable = drawable;
+	}
+
 	public void setWindowSize(int width, int height) {
 		frame.setSize(width, height);
 	}
@@ -0,0 +1,268 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.export;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2GL3;
+import javax.media.opengl.GLAutoDrawable;
+import javax.media.opengl.GLEventListener;
+
+/**
+ * Read back rendered frames and hand them to a {@link FrameSink}.
+ *
+ * The exporter must be added to the drawable after the graph renderer, so
+ * that its {@link #display(GLAutoDrawable)} runs once the frame is drawn.
+ * Pixels are read asynchronously in one of two pixel buffer objects: the
+ * read of frame n is started while frame n-1, which is complete, is mapped
+ * and copied. The copy goes to one of a fixed set of direct buffers which
+ * are handed to a writer thread, so encoding and disk I/O overlap with the
+ * rendering of the next frames. When the writer is late, the render thread
+ * waits for a free buffer.
+ */
+public class FrameExporter implements GLEventListener {
+	protected static class Frame {
+		ByteBuffer pixels;
+		int index;
+		int width;
+		int height;
+	}
+
+	/**
+	 * Frame used to stop the writer thread.
+	 */
+	protected static final Frame END = new Frame();
+
+	protected FrameSink sink;
+
+	protected int width;
+	protected int height;
+
+	protected final int[] pbo = { -1, -1 };
+	protected int current;
+	/**
+	 * Index of the frame pending in the other pbo, -1 if none.
+	 */
+	protected int pending;
+	protected int frameIndex;
+
+	protected ArrayBlockingQueue<Frame> free;
+	protected ArrayBlockingQueue<Frame> ready;
+
+	protected Thread writer;
+	protected volatile IOException writerError;
+
+	public FrameExporter(FrameSink sink) {
+		this(sink, Integer.parseInt(System.getProperty(
+				"gs.gl.export.buffers", "4")));
+	}
+
+	public FrameExporter(FrameSink sink, int bufferCount) {
+		this.sink = sink;
+		this.pending = -1;
+		this.frameIndex = 0;
+		this.free = new ArrayBlockingQueue<Frame>(bufferCount);
+		this.ready = new ArrayBlockingQueue<Frame>(bufferCount + 1);
+
+		for (int i = 0; i < bufferCount; i++)
+			free.add(new Frame());
+
+		writer = new Thread(new Runnable() {
+			public void run() {
+				write();
+			}
+		}, "frame-exporter");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	public void init(GLAutoDrawable drawable) {
+		GL2GL3 gl = drawable.getGL().getGL2GL3();
+		createPixelBuffers(gl, drawable.getWidth(), drawable.getHeight());
+	}
+
+	public void dispose(GLAutoDrawable drawable) {
+		GL2GL3 gl = drawable.getGL().getGL2GL3();
+
+		flush(gl);
+		deletePixelBuffers(gl);
+	}
+
+	public void display(GLAutoDrawable drawable) {
+		GL2GL3 gl = drawable.getGL().getGL2GL3();
+
+		gl.glBindBuffer(GL2GL3.GL_PIXEL_PACK_BUFFER, pbo[current]);
+		gl.glReadPixels(0, 0, width, height, GL.GL_RGBA, GL.GL_UNSIGNED_BYTE,
+				0);
+
+		current = 1 - current;
+
+		if (pending >= 0)
+			copyPixelBuffer(gl, pbo[current], pending);
+
+		gl.glBindBuffer(GL2GL3.GL_PIXEL_PACK_BUFFER, 0);
+
+		pending = frameIndex++;
+	}
+
+	public void reshape(GLAutoDrawable drawable, int x, int y, int width,
+			int height) {
+		if (width != this.width || height != this.height) {
+			GL2GL3 gl = drawable.getGL().getGL2GL3();
+
+			flush(gl);
+			deletePixelBuffers(gl);
+			createPixelBuffers(gl, width, height);
+		}
+	}
+
+	/**
+	 * Copy the last frame, still pending in its pixel buffer, to the writer.
+	 * Must be called from the GL thread.
+	 */
+	public void flush(GL2GL3 gl) {
+		if (pending >= 0) {
+			copyPixelBuffer(gl, pbo[1 - current], pending);
+			gl.glBindBuffer(GL2GL3.GL_PIXEL_PACK_BUFFER, 0);
+			pending = -1;
+		}
+	}
+
+	/**
+	 * Wait for all frames to be written and close the sink. The last frame
+	 * must have been flushed before.
+	 */
+	public void close() throws IOException {
+		try {
+			ready.put(END);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		sink.close();
+
+		if (writerError != null)
+			throw writerError;
+	}
+
+	public int getFrameCount() {
+		return frameIndex;
+	}
+
+	protected void createPixelBuffers(GL2GL3 gl, int width, int height) {
+		this.width = width;
+		this.height = height;
+
+		gl.glGenBuffers(2, pbo, 0);
+
+		for (int i = 0; i < 2; i++) {
+			gl.glBindBuffer(GL2GL3.GL_PIXEL_PACK_BUFFER, pbo[i]);
+			gl.glBufferData(GL2GL3.GL_PIXEL_PACK_BUFFER, width * height * 4,
+					null, GL2GL3.GL_STREAM_READ);
+		}
+
+		gl.glBindBuffer(GL2GL3.GL_PIXEL_PACK_BUFFER, 0);
+		gl.glPixelStorei(GL.GL_PACK_ALIGNMENT, 1);
+
+		current = 0;
+	}
+
+	protected void deletePixelBuffers(GL2GL3 gl) {
+		if (pbo[0] >= 0) {
+			gl.glDeleteBuffers(2, pbo, 0);
+			pbo[0] = pbo[1] = -1;
+		}
+	}
+
+	protected void copyPixelBuffer(GL2GL3 gl, int buffer, int index) {
+		Frame frame;
+
+		try {
+			frame = free.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+
+		int size = width * height * 4;
+
+		if (frame.pixels == null || frame.pixels.capacity() != size)
+			frame.pixels = ByteBuffer.allocateDirect(size).order(
+					ByteOrder.nativeOrder());
+
+		gl.glBindBuffer(GL2GL3.GL_PIXEL_PACK_BUFFER, buffer);
+		ByteBuffer mapped = gl.glMapBuffer(GL2GL3.GL_PIXEL_PACK_BUFFER,
+				GL2GL3.GL_READ_ONLY);
+
+		frame.pixels.clear();
+
+		if (mapped != null) {
+			mapped.limit(size);
+			frame.pixels.put(mapped);
+			gl.glUnmapBuffer(GL2GL3.GL_PIXEL_PACK_BUFFER);
+		} else
+			System.err.printf("[export] unable to map frame %d%n", index);
+
+		frame.pixels.flip();
+		frame.index = index;
+		frame.width = width;
+		frame.height = height;
+
+		ready.add(frame);
+	}
+
+	protected void write() {
+		while (true) {
+			Frame frame;
+
+			try {
+				frame = ready.take();
+			} catch (InterruptedException e) {
+				break;
+			}
+
+			if (frame == END)
+				break;
+
+			try {
+				if (writerError == null)
+					sink.frame(frame.index, frame.width, frame.height,
+							frame.pixels);
+			} catch (IOException e) {
+				writerError = e;
+				System.err.printf("[export] frame %d: %s%n", frame.index,
+						e.getMessage());
+			}
+
+			free.add(frame);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.export;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receiver of frames read back by a {@link FrameExporter}. Frames are given
+ * as RGBA bytes, rows ordered bottom to top as returned by glReadPixels.
+ *
+ * Sinks are called from the exporter writer thread only. The pixel buffer is
+ * recycled once {@link #frame(int, int, int, ByteBuffer)} returns, so it must
+ * not be kept.
+ */
+public interface FrameSink {
+	void frame(int index, int width, int height, ByteBuffer rgba)
+			throws IOException;
+
+	void close() throws IOException;
+}
@@ -0,0 +1,93 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.export;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Write each frame to a PNG file. Files are named after a format pattern
+ * receiving the frame index, "frame-%06d.png" by default.
+ */
+public class PNGSequenceSink implements FrameSink {
+	protected File directory;
+	protected String pattern;
+
+	protected BufferedImage image;
+	protected int[] pixels;
+
+	public PNGSequenceSink(File directory) {
+		this(directory, "frame-%06d.png");
+	}
+
+	public PNGSequenceSink(File directory, String pattern) {
+		this.directory = directory;
+		this.pattern = pattern;
+
+		if (!directory.exists())
+			directory.mkdirs();
+	}
+
+	public void frame(int index, int width, int height, ByteBuffer rgba)
+			throws IOException {
+		if (image == null || image.getWidth() != width
+				|| image.getHeight() != height) {
+			image = new BufferedImage(width, height,
+					BufferedImage.TYPE_INT_ARGB);
+			pixels = new int[width * height];
+		}
+
+		/*
+		 * GL rows go from bottom to top.
+		 */
+		for (int y = 0; y < height; y++) {
+			int src = (height - y - 1) * width * 4;
+			int dst = y * width;
+
+			for (int x = 0; x < width; x++, src += 4) {
+				int r = rgba.get(src) & 0xFF;
+				int g = rgba.get(src + 1) & 0xFF;
+				int b = rgba.get(src + 2) & 0xFF;
+				int a = rgba.get(src + 3) & 0xFF;
+
+				pixels[dst + x] = (a << 24) | (r << 16) | (g << 8) | b;
+			}
+		}
+
+		image.setRGB(0, 0, width, height, pixels, 0, width);
+		ImageIO.write(image, "png",
+				new File(directory, String.format(pattern, index)));
+	}
+
+	public void close() {
+		image = null;
+		pixels = null;
+	}
+}
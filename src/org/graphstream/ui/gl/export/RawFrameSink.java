@@ -0,0 +1,67 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Write frames as raw RGBA bytes, top row first, one frame after the other.
+ * This is the format expected by video encoders reading raw video, for
+ * example <code>ffmpeg -f rawvideo -pix_fmt rgba -s WxH -i -</code>.
+ */
+public class RawFrameSink implements FrameSink {
+	protected WritableByteChannel channel;
+
+	public RawFrameSink(OutputStream out) {
+		this(Channels.newChannel(out));
+	}
+
+	public RawFrameSink(WritableByteChannel channel) {
+		this.channel = channel;
+	}
+
+	public void frame(int index, int width, int height, ByteBuffer rgba)
+			throws IOException {
+		ByteBuffer row = rgba.duplicate();
+		int stride = width * 4;
+
+		for (int y = height - 1; y >= 0; y--) {
+			row.limit(y * stride + stride);
+			row.position(y * stride);
+
+			while (row.hasRemaining())
+				channel.write(row);
+		}
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+}
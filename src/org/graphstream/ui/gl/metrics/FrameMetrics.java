@@ -0,0 +1,212 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.metrics;
+
+import java.util.EnumMap;
+
+/**
+ * Per-frame instrumentation of a renderer.
+ *
+ * The renderer calls {@link #beginFrame()}, then {@link #phase(Phase)} each
+ * time it starts a new phase, and {@link #endFrame()}. CPU time spent in each
+ * phase, the whole frame time, the GPU time, the bytes uploaded and the draw
+ * calls issued are recorded in histograms which can be read from any thread.
+ *
+ * Frame recording is meant to be done by the GL thread only.
+ *
+ * @see Metrics
+ */
+public class FrameMetrics implements FrameMetricsMBean {
+	public static final String TYPE = "FrameMetrics";
+
+	public static enum Phase {
+		BACKGROUND, UPLOAD, NODES, EDGES, OVERLAYS
+	}
+
+	protected final EnumMap<Phase, Histogram> phases;
+	protected final Histogram frameTime;
+	protected final Histogram gpuTime;
+	protected final Histogram uploadedBytes;
+	protected final Histogram drawCalls;
+
+	protected long frameStart;
+	protected long phaseStart;
+	protected Phase currentPhase;
+
+	protected long frameUploadedBytes;
+	protected int frameDrawCalls;
+
+	protected volatile long totalUploadedBytes;
+	protected volatile long totalDrawCalls;
+
+	public FrameMetrics() {
+		phases = new EnumMap<Phase, Histogram>(Phase.class);
+
+		for (Phase phase : Phase.values())
+			phases.put(phase, new Histogram());
+
+		frameTime = new Histogram();
+		gpuTime = new Histogram();
+		uploadedBytes = new Histogram(48);
+		drawCalls = new Histogram(24);
+	}
+
+	public void beginFrame() {
+		frameStart = phaseStart = System.nanoTime();
+		currentPhase = null;
+		frameUploadedBytes = 0;
+		frameDrawCalls = 0;
+	}
+
+	/**
+	 * End the current phase, if any, and start a new one.
+	 */
+	public void phase(Phase phase) {
+		long now = System.nanoTime();
+
+		if (currentPhase != null)
+			phases.get(currentPhase).record(now - phaseStart);
+
+		currentPhase = phase;
+		phaseStart = now;
+	}
+
+	public void endFrame() {
+		long now = System.nanoTime();
+
+		if (currentPhase != null)
+			phases.get(currentPhase).record(now - phaseStart);
+
+		currentPhase = null;
+		frameTime.record(now - frameStart);
+		uploadedBytes.record(frameUploadedBytes);
+		drawCalls.record(frameDrawCalls);
+
+		totalUploadedBytes += frameUploadedBytes;
+		totalDrawCalls += frameDrawCalls;
+	}
+
+	public void addUploadedBytes(long bytes) {
+		frameUploadedBytes += bytes;
+	}
+
+	public void addDrawCalls(int calls) {
+		frameDrawCalls += calls;
+	}
+
+	/**
+	 * Record the GPU time of a frame. GPU times are known a few frames later
+	 * than CPU times, see {@link GPUTimer}.
+	 */
+	public void recordGPUTime(long nanos) {
+		gpuTime.record(nanos);
+	}
+
+	public Histogram getPhaseHistogram(Phase phase) {
+		return phases.get(phase);
+	}
+
+	public Histogram getFrameTimeHistogram() {
+		return frameTime;
+	}
+
+	public Histogram getGPUTimeHistogram() {
+		return gpuTime;
+	}
+
+	public Histogram getUploadedBytesHistogram() {
+		return uploadedBytes;
+	}
+
+	public Histogram getDrawCallsHistogram() {
+		return drawCalls;
+	}
+
+	public void reset() {
+		for (Histogram h : phases.values())
+			h.reset();
+
+		frameTime.reset();
+		gpuTime.reset();
+		uploadedBytes.reset();
+		drawCalls.reset();
+	}
+
+	// MBean
+
+	public long getFrameCount() {
+		return frameTime.getCount();
+	}
+
+	public double getFrameTimeMean() {
+		return toMillis(frameTime.getMean());
+	}
+
+	public double getFrameTimeP50() {
+		return toMillis(frameTime.getValueAtPercentile(50));
+	}
+
+	public double getFrameTimeP99() {
+		return toMillis(frameTime.getValueAtPercentile(99));
+	}
+
+	public double getFrameTimeMax() {
+		return toMillis(frameTime.getMax());
+	}
+
+	public double getGPUTimeP50() {
+		return toMillis(gpuTime.getValueAtPercentile(50));
+	}
+
+	public double getGPUTimeP99() {
+		return toMillis(gpuTime.getValueAtPercentile(99));
+	}
+
+	public long getUploadedBytesTotal() {
+		return totalUploadedBytes;
+	}
+
+	public long getUploadedBytesP99() {
+		return uploadedBytes.getValueAtPercentile(99);
+	}
+
+	public long getDrawCallsTotal() {
+		return totalDrawCalls;
+	}
+
+	public long getDrawCallsP99() {
+		return drawCalls.getValueAtPercentile(99);
+	}
+
+	public double getPhaseTime(String phase, double percentile) {
+		return toMillis(phases.get(Phase.valueOf(phase))
+				.getValueAtPercentile(percentile));
+	}
+
+	protected static double toMillis(double nanos) {
+		return nanos / 1000000.0;
+	}
+}
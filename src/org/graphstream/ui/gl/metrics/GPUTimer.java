@@ -0,0 +1,122 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.metrics;
+
+import javax.media.opengl.GL2;
+import javax.media.opengl.GL2GL3;
+
+/**
+ * GPU frame timer based on GL_TIME_ELAPSED queries.
+ *
+ * Queries are used in a ring so that results are read a few frames after
+ * being issued, when they are available, without stalling the pipeline. If
+ * timer queries are not supported, the timer does nothing. Both
+ * compatibility and core profile contexts are supported.
+ */
+public class GPUTimer {
+	protected static final int RING_SIZE = 4;
+
+	protected final FrameMetrics metrics;
+
+	protected int[] queries;
+	protected boolean[] pending;
+	protected int current;
+	protected boolean supported;
+
+	private final int[] available = new int[1];
+	private final long[] elapsed = new long[1];
+
+	public GPUTimer(FrameMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public void init(GL2GL3 gl) {
+		supported = gl.isExtensionAvailable("GL_ARB_timer_query")
+				|| gl.isExtensionAvailable("GL_EXT_timer_query");
+
+		if (!supported) {
+			System.err.printf("[metrics] timer queries not supported%n");
+			return;
+		}
+
+		queries = new int[RING_SIZE];
+		pending = new boolean[RING_SIZE];
+		gl.glGenQueries(RING_SIZE, queries, 0);
+	}
+
+	public void begin(GL2GL3 gl) {
+		if (!supported)
+			return;
+
+		collect(gl, current, true);
+		gl.glBeginQuery(GL2.GL_TIME_ELAPSED_EXT, queries[current]);
+	}
+
+	public void end(GL2GL3 gl) {
+		if (!supported)
+			return;
+
+		gl.glEndQuery(GL2.GL_TIME_ELAPSED_EXT);
+		pending[current] = true;
+		current = (current + 1) % RING_SIZE;
+
+		collect(gl, current, false);
+	}
+
+	public void dispose(GL2GL3 gl) {
+		if (!supported)
+			return;
+
+		gl.glDeleteQueries(RING_SIZE, queries, 0);
+		supported = false;
+	}
+
+	/**
+	 * Read the result of a query. If wait is false, the result is read only
+	 * if it is already available.
+	 */
+	protected void collect(GL2GL3 gl, int slot, boolean wait) {
+		if (!pending[slot])
+			return;
+
+		if (!wait) {
+			gl.glGetQueryObjectuiv(queries[slot],
+					GL2.GL_QUERY_RESULT_AVAILABLE, available, 0);
+
+			if (available[0] == 0)
+				return;
+		}
+
+		if (gl.isGL3())
+			gl.getGL3().glGetQueryObjectui64v(queries[slot],
+					GL2.GL_QUERY_RESULT, elapsed, 0);
+		else
+			gl.getGL2().glGetQueryObjectui64vEXT(queries[slot],
+					GL2.GL_QUERY_RESULT, elapsed, 0);
+		pending[slot] = false;
+		metrics.recordGPUTime(elapsed[0]);
+	}
+}
@@ -0,0 +1,241 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of positive long values, with log-linear buckets in the
+ * manner of HdrHistogram.
+ *
+ * Values below 2^{@link #SUB_BUCKET_BITS} have their own bucket. Above, each
+ * power of two is split in 2^({@link #SUB_BUCKET_BITS}-1) linear buckets, so
+ * the relative error of a recorded value is always below 1/32. Values above
+ * {@link #getHighestTrackableValue()} are recorded in the last bucket, but
+ * the exact maximum is kept.
+ *
+ * Recording is wait-free, except for the maximum which is updated by a CAS
+ * loop, and can be done from any thread. A histogram recorded from several
+ * threads can be striped like {@link StripedCounter}: each thread then
+ * records in its own copy of the buckets, sum and maximum, and reads merge
+ * the stripes. Reads are not atomic: a percentile computed while values are
+ * recorded may miss the most recent ones.
+ */
+public class Histogram {
+	public static final int SUB_BUCKET_BITS = 6;
+
+	/**
+	 * Stripes of a histogram recorded from several threads: one per
+	 * processor, up to 8 since each stripe holds a full set of buckets.
+	 */
+	public static final int STRIPES = Math.min(8, StripedCounter.CELLS);
+
+	protected static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	protected static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+
+	/**
+	 * Offsets of the sum and maximum at the start of each stripe, the
+	 * buckets following on the next cache line.
+	 */
+	protected static final int SUM = 0;
+	protected static final int MAX = 1;
+
+	/**
+	 * Stripes one after the other, each one being the sum, the maximum and
+	 * the buckets.
+	 */
+	protected final AtomicLongArray cells;
+
+	protected final int buckets;
+	protected final int stripes;
+	protected final int stride;
+
+	protected final int maxShift;
+
+	/**
+	 * Create a histogram tracking values up to 2^40, ie. 18 minutes when
+	 * recording nanoseconds.
+	 */
+	public Histogram() {
+		this(40);
+	}
+
+	/**
+	 * Create a histogram tracking values up to 2^bits.
+	 */
+	public Histogram(int bits) {
+		this(bits, 1);
+	}
+
+	/**
+	 * Create a histogram tracking values up to 2^bits, split in stripes to
+	 * be recorded from several threads.
+	 *
+	 * @param stripes
+	 *            rounded up to a power of two, {@link #STRIPES} for a
+	 *            histogram recorded by any thread
+	 */
+	public Histogram(int bits, int stripes) {
+		if (bits < SUB_BUCKET_BITS || bits > 62)
+			throw new IllegalArgumentException("bits should be in ["
+					+ SUB_BUCKET_BITS + ";62]");
+
+		int n = 1;
+
+		while (n < stripes)
+			n <<= 1;
+
+		this.maxShift = bits - SUB_BUCKET_BITS + 1;
+		this.buckets = (maxShift + 2) * SUB_BUCKET_HALF;
+		this.stripes = n;
+		this.stride = StripedCounter.PADDING
+				* (2 + (buckets - 1) / StripedCounter.PADDING);
+		this.cells = new AtomicLongArray(n * stride);
+	}
+
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+
+		int base = stripes == 1 ? 0 : (StripedCounter.probe() & (stripes - 1))
+				* stride;
+
+		cells.getAndIncrement(base + StripedCounter.PADDING + indexOf(value));
+		cells.getAndAdd(base + SUM, value);
+
+		long m = cells.get(base + MAX);
+
+		while (value > m && !cells.compareAndSet(base + MAX, m, value))
+			m = cells.get(base + MAX);
+	}
+
+	public long getCount() {
+		long c = 0;
+
+		for (int s = 0; s < stripes; s++)
+			for (int i = 0; i < buckets; i++)
+				c += bucket(s, i);
+
+		return c;
+	}
+
+	public long getMax() {
+		long m = 0;
+
+		for (int s = 0; s < stripes; s++)
+			m = Math.max(m, cells.get(s * stride + MAX));
+
+		return m;
+	}
+
+	public double getMean() {
+		long c = getCount();
+		long sum = 0;
+
+		for (int s = 0; s < stripes; s++)
+			sum += cells.get(s * stride + SUM);
+
+		return c == 0 ? 0 : sum / (double) c;
+	}
+
+	public long getHighestTrackableValue() {
+		return upperBoundOf(buckets - 1);
+	}
+
+	/**
+	 * Get the value below which a percentage of the recorded values are. The
+	 * value returned is the upper bound of the bucket containing this
+	 * percentile, or the maximum if it is lower.
+	 *
+	 * @param percentile
+	 *            in [0;100]
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0;
+		long[] snapshot = new long[buckets];
+
+		for (int i = 0; i < snapshot.length; i++) {
+			for (int s = 0; s < stripes; s++)
+				snapshot[i] += bucket(s, i);
+
+			total += snapshot[i];
+		}
+
+		if (total == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(Math.min(100, Math.max(0, percentile))
+				/ 100.0 * total);
+		rank = Math.max(1, rank);
+
+		long seen = 0;
+		long max = getMax();
+
+		for (int i = 0; i < snapshot.length; i++) {
+			seen += snapshot[i];
+
+			if (seen >= rank)
+				return Math.min(upperBoundOf(i), max);
+		}
+
+		return max;
+	}
+
+	/**
+	 * Clear the histogram. Values recorded concurrently may be partially
+	 * lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < cells.length(); i++)
+			cells.set(i, 0);
+	}
+
+	protected long bucket(int stripe, int index) {
+		return cells.get(stripe * stride + StripedCounter.PADDING + index);
+	}
+
+	protected int indexOf(long value) {
+		if (value < SUB_BUCKET_COUNT)
+			return (int) value;
+
+		int shift = 63 - Long.numberOfLeadingZeros(value)
+				- (SUB_BUCKET_BITS - 1);
+
+		if (shift > maxShift)
+			return buckets - 1;
+
+		return shift * SUB_BUCKET_HALF + (int) (value >>> shift);
+	}
+	protected long upperBoundOf(int index) {
+		if (index < SUB_BUCKET_COUNT)
+			return index;
+
+		int shift = index / SUB_BUCKET_HALF - 1;
+		long m = index - shift * SUB_BUCKET_HALF;
+
+		return ((m + 1) << shift) - 1;
+	}
+}
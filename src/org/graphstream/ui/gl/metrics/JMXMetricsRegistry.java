@@ -0,0 +1,84 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registry exposing metrics objects as MBeans of the platform MBean server,
+ * under "org.graphstream.ui.gl:type=<type>,name=<name>". Objects should
+ * implement a standard MBean interface. A name already registered is kept and
+ * the new object is not exposed, names should be unique, see
+ * {@link Metrics#getDefaultName(Object)}.
+ */
+public class JMXMetricsRegistry implements MetricsRegistry {
+	public static final String DOMAIN = "org.graphstream.ui.gl";
+
+	public void register(String type, String name, Object metrics) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		try {
+			ObjectName objectName = getObjectName(type, name);
+
+			if (server.isRegistered(objectName)) {
+				System.err.printf(
+						"[metrics] %s \"%s\" already registered, not replaced%n",
+						type, name);
+				return;
+			}
+
+			server.registerMBean(metrics, objectName);
+		} catch (JMException e) {
+			System.err.printf("[metrics] unable to register %s \"%s\": %s%n",
+					type, name, e.getMessage());
+		}
+	}
+
+	public void unregister(String type, String name) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		try {
+			ObjectName objectName = getObjectName(type, name);
+
+			if (server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+		} catch (JMException e) {
+			System.err.printf(
+					"[metrics] unable to unregister %s \"%s\": %s%n", type,
+					name, e.getMessage());
+		}
+	}
+
+	protected ObjectName getObjectName(String type, String name)
+			throws JMException {
+		return new ObjectName(String.format("%s:type=%s,name=%s", DOMAIN,
+				type, ObjectName.quote(name)));
+	}
+}
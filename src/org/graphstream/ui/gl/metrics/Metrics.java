@@ -0,0 +1,91 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.metrics;
+
+import java.util.HashSet;
+
+/**
+ * Access to the metrics registry used by the viewer.
+ *
+ * The default registry is a {@link JMXMetricsRegistry}, unless the
+ * "gs.gl.metrics.jmx" property is set to false, in which case metrics are
+ * still recorded but not exposed.
+ */
+public class Metrics {
+	private static volatile MetricsRegistry registry;
+
+	private static final HashSet<String> names = new HashSet<String>();
+
+	static {
+		if ("false".equals(System.getProperty("gs.gl.metrics.jmx")))
+			registry = new NullRegistry();
+		else
+			registry = new JMXMetricsRegistry();
+	}
+
+	public static MetricsRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * Install a registry. Metrics already registered stay in the previous
+	 * registry.
+	 */
+	public static void setRegistry(MetricsRegistry registry) {
+		Metrics.registry = registry == null ? new NullRegistry() : registry;
+	}
+
+	/**
+	 * Default name of the metrics of a component, given by the
+	 * "gs.gl.metrics.name" property or built from the component identity. A
+	 * name already given is suffixed by a counter, so that each component
+	 * gets its own name, "viewer", "viewer-2"...
+	 */
+	public static String getDefaultName(Object component) {
+		String name = System.getProperty("gs.gl.metrics.name");
+
+		if (name == null)
+			name = String.format("%s-%x", component.getClass()
+					.getSimpleName(), System.identityHashCode(component));
+
+		synchronized (names) {
+			String unique = name;
+
+			for (int i = 2; !names.add(unique); i++)
+				unique = name + "-" + i;
+
+			return unique;
+		}
+	}
+
+	protected static class NullRegistry implements MetricsRegistry {
+		public void register(String type, String name, Object metrics) {
+		}
+
+		public void unregister(String type, String name) {
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.metrics;
+
+/**
+ * Destination of the metrics of the viewer. The default registry exposes
+ * metrics through JMX, see {@link Metrics#getRegistry()}. Another registry
+ * can be installed to forward metrics to a monitoring system; metrics objects
+ * give access to their values through their getters.
+ */
+public interface MetricsRegistry {
+	/**
+	 * Register a metrics object.
+	 *
+	 * @param type
+	 *            kind of metrics, for example "FrameMetrics"
+	 * @param name
+	 *            name of the component measured
+	 */
+	void register(String type, String name, Object metrics);
+
+	void unregister(String type, String name);
+}
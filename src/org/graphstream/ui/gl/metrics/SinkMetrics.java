@@ -0,0 +1,206 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.metrics;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Metrics of the events received by a sink: count and latency of each kind of
+ * callback, events dropped and depth of the queue in front of the sink, if
+ * any.
+ *
+ * Counters and histograms are striped, so callbacks can be recorded
+ * from any producer thread at a small cost. Latency can be disabled by
+ * setting "gs.gl.metrics.latency" to false; only counts are kept then.
+ *
+ * @see Metrics
+ */
+public class SinkMetrics implements SinkMetricsMBean {
+	public static final String TYPE = "SinkMetrics";
+
+	public static enum Callback {
+		NODE_ADDED, NODE_REMOVED, EDGE_ADDED, EDGE_REMOVED, GRAPH_ATTRIBUTE, NODE_ATTRIBUTE, EDGE_ATTRIBUTE, GRAPH_CLEARED, STEP_BEGINS, NODE_MOVED
+	}
+
+	public static enum Drop {
+		/**
+		 * Event about a node or an edge which does not exist.
+		 */
+		UNKNOWN_ID,
+		/**
+		 * Attribute value whose type can not be decoded.
+		 */
+		UNKNOWN_TYPE,
+		/**
+		 * Event dropped by a queue policy.
+		 */
+		OVERFLOW
+	}
+
+	protected static final boolean LATENCY = !"false".equals(System
+			.getProperty("gs.gl.metrics.latency"));
+
+	protected final StripedCounter[] counts;
+	protected final Histogram[] latencies;
+	protected final StripedCounter[] drops;
+	/**
+	 * Whether a drop of each kind was already reported since the last reset.
+	 */
+	protected final AtomicBoolean[] dropsReported;
+
+	protected volatile Gauge queueDepth;
+
+	public SinkMetrics() {
+		counts = new StripedCounter[Callback.values().length];
+		latencies = new Histogram[Callback.values().length];
+		drops = new StripedCounter[Drop.values().length];
+		dropsReported = new AtomicBoolean[drops.length];
+
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = new StripedCounter();
+			latencies[i] = new Histogram(40, Histogram.STRIPES);
+		}
+
+		for (int i = 0; i < drops.length; i++) {
+			drops[i] = new StripedCounter();
+			dropsReported[i] = new AtomicBoolean();
+		}
+	}
+
+	/**
+	 * Start timing a callback.
+	 *
+	 * @return the value to give to {@link #end(Callback, long)}
+	 */
+	public long begin() {
+		return LATENCY ? System.nanoTime() : 0;
+	}
+
+	public void end(Callback callback, long start) {
+		counts[callback.ordinal()].increment();
+
+		if (LATENCY)
+			latencies[callback.ordinal()].record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Count a callback without timing it, for callbacks which are ignored.
+	 */
+	public void count(Callback callback) {
+		counts[callback.ordinal()].increment();
+	}
+
+	/**
+	 * Count several callbacks of the same kind handled at once, for example
+	 * the nodes of a bulk move.
+	 */
+	public void end(Callback callback, long start, int events) {
+		counts[callback.ordinal()].add(events);
+
+		if (LATENCY)
+			latencies[callback.ordinal()].record((System.nanoTime() - start)
+					/ Math.max(1, events));
+	}
+
+	/**
+	 * Count a dropped event.
+	 *
+	 * @return true for exactly one caller after the first drop of this kind
+	 *         since the last reset, so that it is reported once
+	 */
+	public boolean drop(Drop drop) {
+		drops[drop.ordinal()].increment();
+
+		AtomicBoolean reported = dropsReported[drop.ordinal()];
+
+		return !reported.get() && reported.compareAndSet(false, true);
+	}
+
+	public void setQueueDepth(Gauge queueDepth) {
+		this.queueDepth = queueDepth;
+	}
+
+	public long getCount(Callback callback) {
+		return counts[callback.ordinal()].get();
+	}
+
+	public Histogram getLatencyHistogram(Callback callback) {
+		return latencies[callback.ordinal()];
+	}
+
+	public long getDropCount(Drop drop) {
+		return drops[drop.ordinal()].get();
+	}
+
+	// MBean
+
+	public long getEventCount() {
+		long sum = 0;
+
+		for (StripedCounter counter : counts)
+			sum += counter.get();
+
+		return sum;
+	}
+
+	public long getUnknownIdDrops() {
+		return getDropCount(Drop.UNKNOWN_ID);
+	}
+
+	public long getUnknownTypeDrops() {
+		return getDropCount(Drop.UNKNOWN_TYPE);
+	}
+
+	public long getOverflowDrops() {
+		return getDropCount(Drop.OVERFLOW);
+	}
+
+	public long getQueueDepth() {
+		Gauge gauge = queueDepth;
+		return gauge == null ? 0 : gauge.getValue();
+	}
+
+	public long getCallbackCount(String callback) {
+		return getCount(Callback.valueOf(callback));
+	}
+
+	public double getCallbackLatency(String callback, double percentile) {
+		return latencies[Callback.valueOf(callback).ordinal()]
+				.getValueAtPercentile(percentile) / 1000.0;
+	}
+
+	public void reset() {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i].reset();
+			latencies[i].reset();
+		}
+
+		for (int i = 0; i < drops.length; i++) {
+			drops[i].reset();
+			dropsReported[i].set(false);
+		}
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.metrics;
+
+/**
+ * JMX view of {@link SinkMetrics}. Latencies are in microseconds.
+ */
+public interface SinkMetricsMBean {
+	long getEventCount();
+
+	long getUnknownIdDrops();
+
+	long getUnknownTypeDrops();
+
+	long getOverflowDrops();
+
+	long getQueueDepth();
+
+	/**
+	 * @param callback
+	 *            name of a {@link SinkMetrics.Callback}
+	 */
+	long getCallbackCount(String callback);
+
+	/**
+	 * Latency of a callback at a given percentile.
+	 *
+	 * @param callback
+	 *            name of a {@link SinkMetrics.Callback}
+	 */
+	double getCallbackLatency(String callback, double percentile);
+
+	void reset();
+}
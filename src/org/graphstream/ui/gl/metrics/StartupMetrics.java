@@ -0,0 +1,149 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.metrics;
+
+/**
+ * Timing of the startup of a viewer: when each phase began and how long it
+ * took, relative to the creation of the viewer. Phases run in parallel, so
+ * durations do not add up to the time to the first frame.
+ *
+ * The profile, font and shader sources are loaded once for all the viewers
+ * by {@link org.graphstream.ui.gl.Startup}; their times are those of the
+ * preload, which may begin before the viewer is created.
+ *
+ * @see Metrics
+ */
+public class StartupMetrics implements StartupMetricsMBean {
+	public static final String TYPE = "StartupMetrics";
+
+	public static enum Phase {
+		/**
+		 * Initialization of the GL profiles.
+		 */
+		PROFILE,
+		/**
+		 * Loading of the font of the informations.
+		 */
+		FONT,
+		/**
+		 * Reading of the shader sources.
+		 */
+		SHADER_SOURCES,
+		/**
+		 * Creation of the context, its buffers and its renderer.
+		 */
+		CONTEXT,
+		/**
+		 * Creation of the drawable and of its window.
+		 */
+		WINDOW,
+		/**
+		 * Initialization of the renderer in the GL context.
+		 */
+		GL_INIT,
+		/**
+		 * First frame drawn.
+		 */
+		FIRST_FRAME
+	}
+
+	protected final long origin;
+
+	protected final long[] begins;
+	protected final long[] ends;
+
+	public StartupMetrics() {
+		origin = System.nanoTime();
+		begins = new long[Phase.values().length];
+		ends = new long[Phase.values().length];
+	}
+
+	public void begin(Phase phase) {
+		record(phase, System.nanoTime(), 0);
+	}
+
+	public synchronized void end(Phase phase) {
+		ends[phase.ordinal()] = System.nanoTime();
+	}
+
+	/**
+	 * Record a phase timed elsewhere, with times given by
+	 * {@link System#nanoTime()}.
+	 */
+	public synchronized void record(Phase phase, long begin, long end) {
+		begins[phase.ordinal()] = begin;
+		ends[phase.ordinal()] = end;
+	}
+
+	/**
+	 * @return NaN if the phase has not been done
+	 */
+	public synchronized double getPhaseStart(Phase phase) {
+		if (ends[phase.ordinal()] == 0)
+			return Double.NaN;
+
+		return (begins[phase.ordinal()] - origin) / 1e6;
+	}
+
+	/**
+	 * @return NaN if the phase has not been done
+	 */
+	public synchronized double getPhaseDuration(Phase phase) {
+		if (ends[phase.ordinal()] == 0)
+			return Double.NaN;
+
+		return (ends[phase.ordinal()] - begins[phase.ordinal()]) / 1e6;
+	}
+
+	public synchronized double getTimeToFirstFrame() {
+		if (ends[Phase.FIRST_FRAME.ordinal()] == 0)
+			return Double.NaN;
+
+		return (ends[Phase.FIRST_FRAME.ordinal()] - origin) / 1e6;
+	}
+
+	public double getPhaseStart(String phase) {
+		return getPhaseStart(Phase.valueOf(phase));
+	}
+
+	public double getPhaseDuration(String phase) {
+		return getPhaseDuration(Phase.valueOf(phase));
+	}
+
+	public String getBreakdown() {
+		StringBuilder b = new StringBuilder();
+
+		for (Phase phase : Phase.values())
+			b.append(String.format("%s %.1f+%.1f ms, ", phase
+					.name().toLowerCase(), getPhaseStart(phase),
+					getPhaseDuration(phase)));
+
+		b.append(String.format("first frame at %.1f ms",
+				getTimeToFirstFrame()));
+
+		return b.toString();
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter striped over several cells, in the manner of LongAdder, so that
+ * threads incrementing it concurrently do not contend on the same cache line.
+ * Each thread always uses the same cell, chosen from its id. Reading the
+ * value sums the cells, it is not atomic with respect to concurrent updates.
+ */
+public class StripedCounter {
+	/**
+	 * Distance between two cells, in longs, so that each cell is on its own
+	 * cache line.
+	 */
+	protected static final int PADDING = 8;
+
+	protected static final int CELLS;
+
+	static {
+		int n = 1;
+
+		while (n < Runtime.getRuntime().availableProcessors())
+			n <<= 1;
+
+		CELLS = n;
+	}
+
+	protected final AtomicLongArray cells;
+
+	public StripedCounter() {
+		cells = new AtomicLongArray(CELLS * PADDING);
+	}
+
+	public void increment() {
+		cells.getAndIncrement(cell());
+	}
+
+	public void add(long x) {
+		cells.getAndAdd(cell(), x);
+	}
+
+	public long get() {
+		long sum = 0;
+
+		for (int i = 0; i < CELLS; i++)
+			sum += cells.get(i * PADDING);
+
+		return sum;
+	}
+
+	public void reset() {
+		for (int i = 0; i < CELLS; i++)
+			cells.set(i * PADDING, 0);
+	}
+
+	protected static int cell() {
+		return (probe() & (CELLS - 1)) * PADDING;
+	}
+
+	/**
+	 * Hash of the current thread, the same on each call from a thread.
+	 */
+	protected static int probe() {
+		long id = Thread.currentThread().getId();
+		int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+
+		return h >>> 16;
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+/**
+ * Conversion of the attribute values used by the viewer to primitive values.
+ * This is shared by {@link GraphBuffers} and the components storing or
+ * queuing events before they reach it, so that values are decoded once, on
+ * the producer side.
+ */
+public class AttributeValues {
+	public static final int X = 1;
+	public static final int Y = 2;
+	public static final int Z = 4;
+	public static final int XY = X | Y;
+	public static final int XYZ = X | Y | Z;
+
+	/**
+	 * Get the coordinate components set by an attribute.
+	 *
+	 * @return a mask of {@link #X}, {@link #Y} and {@link #Z}, or 0 if the
+	 *         attribute is not a coordinate attribute
+	 */
+	public static int getCoordsMask(String attribute) {
+		if (attribute == null)
+			return 0;
+		else if (attribute.equals("xyz"))
+			return XYZ;
+		else if (attribute.equals("xy"))
+			return XY;
+		else if (attribute.equals("x"))
+			return X;
+		else if (attribute.equals("y"))
+			return Y;
+		else if (attribute.equals("z"))
+			return Z;
+
+		return 0;
+	}
+
+	/**
+	 * Get the name of the coordinate attribute matching a mask.
+	 */
+	public static String getCoordsAttribute(int mask) {
+		switch (mask) {
+		case X:
+			return "x";
+		case Y:
+			return "y";
+		case Z:
+			return "z";
+		case XY:
+			return "xy";
+		default:
+			return "xyz";
+		}
+	}
+
+	public static boolean isColorAttribute(String attribute) {
+		return attribute != null && attribute.equals("ui.color");
+	}
+
+	public static boolean isWidthAttribute(String attribute) {
+		return attribute != null
+				&& (attribute.equals("ui.width") || attribute.equals("ui.size"));
+	}
+
+	/**
+	 * Decode a width, in pixels.
+	 *
+	 * @return the width, or NaN if the type of the value is not supported
+	 */
+	public static float toWidth(Object value) {
+		if (value instanceof Number)
+			return ((Number) value).floatValue();
+
+		return Float.NaN;
+	}
+
+	/**
+	 * Decode coordinates. A single value sets the three coordinates, arrays
+	 * set as many coordinates as they have values, others are set to 0.
+	 *
+	 * @return false if the type of the value is not supported
+	 */
+	public static boolean toCoords(Object value, float[] xyz) {
+		xyz[0] = xyz[1] = xyz[2] = 0;
+
+		if (value instanceof Float) {
+			xyz[0] = xyz[1] = xyz[2] = (Float) value;
+		} else if (value instanceof float[]) {
+			float[] varray = (float[]) value;
+
+			for (int i = 0; i < 3 && i < varray.length; i++)
+				xyz[i] = varray[i];
+		} else if (value instanceof Object[]) {
+			Object[] varray = (Object[]) value;
+
+			for (int i = 0; i < 3 && i < varray.length; i++) {
+				if (varray[i] instanceof Float)
+					xyz[i] = (Float) varray[i];
+				else if (varray[i] instanceof Double)
+					xyz[i] = ((Double) varray[i]).floatValue();
+				else
+					return false;
+			}
+		} else
+			return false;
+
+		return true;
+	}
+
+	/**
+	 * Decode a rgba color. Missing components are set to 0.
+	 *
+	 * @return false if the type of the value is not supported
+	 */
+	public static boolean toColor(Object value, float[] rgba) {
+		rgba[0] = rgba[1] = rgba[2] = 0;
+		rgba[3] = 1;
+
+		if (value instanceof float[]) {
+			float[] varray = (float[]) value;
+
+			for (int i = 0; i < 4; i++)
+				rgba[i] = varray.length > i ? varray[i] : 0;
+		} else if (value instanceof Float[]) {
+			Float[] varray = (Float[]) value;
+
+			for (int i = 0; i < 4; i++)
+				rgba[i] = varray.length > i ? varray[i] : 0;
+		} else
+			return false;
+
+		return true;
+	}
+}
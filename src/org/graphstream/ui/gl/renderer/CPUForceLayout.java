@@ -0,0 +1,219 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import org.graphstream.ui.gl.renderer.GraphBuffers.GraphBuffer;
+
+/**
+ * Reference implementation of the {@link ForceLayout}, on arrays of the
+ * JVM. It is not meant to lay out large graphs, each iteration being
+ * quadratic in the number of nodes, but to check the results of the
+ * {@link ComputeLayout} and to compare it with the layouts of the CPU.
+ *
+ * Positions are kept in an array indexed like the vertex column of the
+ * buffers, 3 floats per pool index.
+ */
+public class CPUForceLayout extends ForceLayout {
+	protected float[] positions = new float[0];
+	protected float[] next = new float[0];
+
+	/**
+	 * Read the graph and the positions of the nodes of the buffers.
+	 * Positions are those of the vertex column of the first buffers, which
+	 * the shards share.
+	 */
+	public void load(GraphBuffers[] drawn) {
+		updateGraph(drawn);
+
+		int size = 3 * graph.getPools();
+		FloatBuffer vertices = drawn[0].getBuffer(GraphBuffer.NODE_VERTICES)
+				.duplicate().order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+		size = Math.min(size, vertices.capacity());
+
+		if (positions.length < size) {
+			positions = new float[size];
+			next = new float[size];
+		}
+
+		vertices.get(positions, 0, size);
+	}
+
+	/**
+	 * Positions, 3 floats per pool index.
+	 */
+	public float[] getPositions() {
+		return positions;
+	}
+
+	/**
+	 * Do the iterations of a round, unless the layout is stable.
+	 */
+	public void step() {
+		for (int i = 0; i < iterations && !isStable(); i++)
+			iterate(nextTemperature());
+	}
+
+	/**
+	 * One iteration at a given temperature.
+	 */
+	public void iterate(float temperature) {
+		iterate(graph, positions, next, length, gravity, temperature, flat);
+	}
+
+	/**
+	 * One iteration: the new positions of the nodes are computed in next
+	 * from the positions, then copied to the positions.
+	 */
+	static void iterate(ForceGraph graph, float[] positions, float[] next,
+			float k, float gravity, float temperature, boolean flat) {
+		int count = graph.getNodeCount();
+		int[] nodes = graph.getNodes();
+		int[] offsets = graph.getOffsets();
+		int[] neighbors = graph.getNeighbors();
+		float[] d = new float[3];
+		float min2 = MIN_DISTANCE * k * MIN_DISTANCE * k;
+
+		for (int n = 0; n < count; n++) {
+			int p = nodes[n];
+			float x = positions[3 * p];
+			float y = positions[3 * p + 1];
+			float z = positions[3 * p + 2];
+			float fx = 0, fy = 0, fz = 0;
+
+			for (int m = 0; m < count; m++) {
+				int q = nodes[m];
+
+				if (q == p)
+					continue;
+
+				d[0] = x - positions[3 * q];
+				d[1] = y - positions[3 * q + 1];
+				d[2] = flat ? 0 : z - positions[3 * q + 2];
+
+				float r2 = d[0] * d[0] + d[1] * d[1] + d[2] * d[2];
+
+				if (r2 < min2) {
+					jitter(p, q, d);
+
+					d[0] *= MIN_DISTANCE * k;
+					d[1] *= MIN_DISTANCE * k;
+					d[2] = flat ? 0 : d[2] * MIN_DISTANCE * k;
+					r2 = d[0] * d[0] + d[1] * d[1] + d[2] * d[2];
+				}
+
+				float f = k * k / r2;
+
+				fx += d[0] * f;
+				fy += d[1] * f;
+				fz += d[2] * f;
+			}
+
+			if (p < graph.getPools()) {
+				for (int e = offsets[p]; e < offsets[p + 1]; e++) {
+					int q = neighbors[e];
+					float dx = positions[3 * q] - x;
+					float dy = positions[3 * q + 1] - y;
+					float dz = flat ? 0 : positions[3 * q + 2] - z;
+					float f = (float) Math.sqrt(dx * dx + dy * dy + dz * dz)
+							/ k;
+
+					fx += dx * f;
+					fy += dy * f;
+					fz += dz * f;
+				}
+			}
+
+			fx -= gravity * x;
+			fy -= gravity * y;
+			fz = flat ? 0 : fz - gravity * z;
+
+			float f = (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+
+			if (f > 0) {
+				float s = Math.min(f, temperature) / f;
+
+				x += fx * s;
+				y += fy * s;
+				z += fz * s;
+			}
+
+			next[3 * p] = x;
+			next[3 * p + 1] = y;
+			next[3 * p + 2] = flat ? 0 : z;
+		}
+
+		for (int n = 0; n < count; n++) {
+			int p = 3 * nodes[n];
+			positions[p] = next[p];
+			positions[p + 1] = next[p + 1];
+			positions[p + 2] = next[p + 2];
+		}
+	}
+
+	/**
+	 * Largest distance between the positions of the nodes here and in other
+	 * positions, indexed the same way.
+	 */
+	public float maxDistance(float[] other) {
+		float max = 0;
+		int[] nodes = graph.getNodes();
+
+		for (int n = 0; n < graph.getNodeCount(); n++) {
+			int p = 3 * nodes[n];
+
+			if (p + 2 >= other.length || p + 2 >= positions.length)
+				continue;
+
+			float dx = positions[p] - other[p];
+			float dy = positions[p + 1] - other[p + 1];
+			float dz = positions[p + 2] - other[p + 2];
+
+			max = Math.max(max, (float) Math.sqrt(dx * dx + dy * dy + dz
+					* dz));
+		}
+
+		return max;
+	}
+
+	/**
+	 * Copy the positions of another layout, to start from the same state.
+	 */
+	public void setPositions(float[] positions) {
+		if (this.positions.length < positions.length) {
+			this.positions = new float[positions.length];
+			next = new float[positions.length];
+		}
+
+		System.arraycopy(positions, 0, this.positions, 0, positions.length);
+		Arrays.fill(this.positions, positions.length, this.positions.length,
+				0);
+	}
+}
@@ -0,0 +1,573 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2ES3;
+import javax.media.opengl.GL3ES3;
+import javax.media.opengl.GL4;
+import javax.media.opengl.GLContext;
+
+/**
+ * {@link ForceLayout} computed by a compute shader, on the positions the
+ * nodes are drawn from.
+ *
+ * While the layout runs, {@link GPUBuffers} do not upload the position
+ * column: the layout owns the position vertex buffer, which is also the
+ * shader storage buffer the iterations read and write, so positions never
+ * leave the GPU to be drawn and are not sent through
+ * {@link org.graphstream.ui.layout.LayoutListener#nodeMoved(String, String, double, double, double)}.
+ * Only the positions of nodes new to the layout are uploaded, from the
+ * column, when they first appear in the node list.
+ *
+ * The node list and the adjacency of the {@link ForceGraph} are uploaded in
+ * storage buffers when they change. Each iteration is two dispatches, the
+ * first computing the next positions in a scratch buffer, the second
+ * copying them to the positions, so that all the nodes move from the same
+ * state as with the {@link CPUForceLayout}.
+ *
+ * Every "gs.gl.layout.readback" rounds (default 10, 0 to disable) the
+ * positions are copied to a staging buffer and read back, once a fence
+ * tells the copy is done, in the position column of the buffers, whose
+ * bounds are then computed again. The camera, picking and the node tracking
+ * see the positions with this delay.
+ *
+ * Setting "gs.gl.layout.validate" to true checks, at each readback, one
+ * iteration against the CPU reference and reports the largest difference.
+ *
+ * Compute shaders need OpenGL 4.3, see {@link #isSupported(GLContext)};
+ * Mesa's software rasterizer provides them.
+ */
+public class ComputeLayout extends ForceLayout {
+	protected static final String COMPUTE_SHADER = "org/graphstream/ui/gl/shader/layout-compute-shader.glsl";
+
+	/**
+	 * Local size of the shader.
+	 */
+	protected static final int WORK_GROUP = 64;
+
+	/**
+	 * Storage buffers, by binding.
+	 */
+	protected static final int POSITIONS = 0;
+	protected static final int NEXT = 1;
+	protected static final int NODES = 2;
+	protected static final int OFFSETS = 3;
+	protected static final int NEIGHBORS = 4;
+	protected static final int STAGING = 5;
+
+	protected final int[] buffers = new int[6];
+
+	/**
+	 * Pools the positions and the scratch buffer can hold.
+	 */
+	protected int capacity;
+
+	/**
+	 * Pools which were in the node list of the last round.
+	 */
+	protected boolean[] known = new boolean[0];
+
+	protected final ShaderManager shaders;
+	protected ShaderManager.Program layoutProgram;
+	protected int program;
+	protected int countLocation, kLocation, gravityLocation,
+			temperatureLocation, flatLocation, passLocation;
+
+	protected final int readbackPeriod = Integer.getInteger(
+			"gs.gl.layout.readback", 10);
+	protected final boolean validate = Boolean
+			.getBoolean("gs.gl.layout.validate");
+	protected int rounds;
+	protected long readbackFence;
+	protected int readbackPools;
+	protected int stagingCapacity;
+
+	/**
+	 * Direct buffers the node list and the adjacency are uploaded from.
+	 */
+	protected IntBuffer nodeData = fill(null, null, 0);
+	protected IntBuffer offsetData = fill(null, null, 0);
+	protected IntBuffer neighborData = fill(null, null, 0);
+
+	/**
+	 * Bytes uploaded by the last round.
+	 */
+	protected long uploadedBytes;
+
+	/**
+	 * True if the GL of a context runs compute shaders: OpenGL 4.3, or 4.x
+	 * with the compute shader and storage buffer extensions.
+	 */
+	public static boolean isSupported(GLContext context) {
+		if (context == null || !context.isGL4()
+				|| context.getGLVersionNumber() == null)
+			return false;
+
+		return context.getGLVersionNumber().compareTo(GLContext.Version430) >= 0
+				|| (context.isExtensionAvailable("GL_ARB_compute_shader") && context
+						.isExtensionAvailable("GL_ARB_shader_storage_buffer_object"));
+	}
+
+	/**
+	 * Create the layout, its buffers and request its program. Must be called
+	 * with the context current.
+	 */
+	public ComputeLayout(GL4 gl, ShaderManager shaders) {
+		this.shaders = shaders;
+
+		gl.glGenBuffers(buffers.length, buffers, 0);
+		layoutProgram = shaders.requestCompute(gl, "layout", COMPUTE_SHADER);
+	}
+
+	/**
+	 * Delete the buffers, reading the positions back in the column first so
+	 * that another layout, or the position uploads of the GPU buffers, go
+	 * on from them.
+	 */
+	public void dispose(GL4 gl, ByteBuffer column) {
+		if (readbackFence != 0) {
+			gl.glDeleteSync(readbackFence);
+			readbackFence = 0;
+		}
+
+		if (capacity > 0 && column != null)
+			read(gl, buffers[POSITIONS], column, Math.min(Math.min(capacity,
+					graph.getPools()), column.capacity()
+					/ (3 * GraphBuffers.FLOAT_BYTES)));
+
+		gl.glDeleteBuffers(buffers.length, buffers, 0);
+	}
+
+	/**
+	 * Vertex buffer of the positions, with 3 floats per pool index.
+	 */
+	public int getPositionBuffer() {
+		return buffers[POSITIONS];
+	}
+
+	public long getUploadedBytes() {
+		return uploadedBytes;
+	}
+
+	/**
+	 * Run a round of the layout: read the graph, upload what changed,
+	 * iterate and read the positions back when it is time to. Called by the
+	 * GPU buffers in place of the upload of the position column.
+	 *
+	 * @param column
+	 *            view on the position column of the buffers
+	 */
+	public void round(GL4 gl, GraphBuffers[] drawn, ByteBuffer column) {
+		uploadedBytes = 0;
+
+		int changes = updateGraph(drawn);
+		int pools = Math.min(graph.getPools(), column.capacity()
+				/ (3 * GraphBuffers.FLOAT_BYTES));
+
+		ensureCapacity(gl, pools, column);
+
+		if ((changes & ForceGraph.NODES_CHANGED) != 0)
+			uploadNodes(gl, column);
+
+		if ((changes & ForceGraph.EDGES_CHANGED) != 0)
+			uploadEdges(gl);
+
+		if (isProgramReady(gl)) {
+			if (validate && readbackPeriod > 0
+					&& rounds % readbackPeriod == 0 && !isStable())
+				validate(gl, drawn, pools);
+
+			for (int i = 0; i < iterations && !isStable(); i++)
+				iterate(gl, nextTemperature());
+
+			/*
+			 * The positions are drawn as vertices, and copied to the
+			 * staging buffer.
+			 */
+			gl.glMemoryBarrier(GL4.GL_VERTEX_ATTRIB_ARRAY_BARRIER_BIT
+					| GL4.GL_BUFFER_UPDATE_BARRIER_BIT);
+		}
+
+		readBack(gl, drawn, column, pools);
+		rounds++;
+	}
+
+	protected boolean isProgramReady(GL4 gl) {
+		if (program != 0)
+			return true;
+
+		if (layoutProgram == null)
+			return false;
+
+		if (layoutProgram.isFailed()) {
+			System.err.printf("[layout] program not available, "
+					+ "nodes will not move%n");
+			layoutProgram = null;
+			return false;
+		}
+
+		if (!layoutProgram.isReady())
+			return false;
+
+		program = layoutProgram.getId();
+
+		countLocation = gl.glGetUniformLocation(program, "count");
+		kLocation = gl.glGetUniformLocation(program, "k");
+		gravityLocation = gl.glGetUniformLocation(program, "gravity");
+		temperatureLocation = gl.glGetUniformLocation(program, "temperature");
+		flatLocation = gl.glGetUniformLocation(program, "flatLayout");
+		passLocation = gl.glGetUniformLocation(program, "pass");
+
+		return true;
+	}
+
+	/**
+	 * Grow the positions and the scratch buffer to hold the pools. Positions
+	 * already on the GPU are copied, the others are uploaded from the
+	 * column.
+	 */
+	protected void ensureCapacity(GL4 gl, int pools, ByteBuffer column) {
+		if (pools <= capacity)
+			return;
+
+		int grown = Math.max(pools, capacity + (capacity >> 1));
+		long bytes = 3L * grown * GraphBuffers.FLOAT_BYTES;
+		int[] created = new int[2];
+
+		gl.glGenBuffers(2, created, 0);
+
+		gl.glBindBuffer(GL2ES3.GL_COPY_WRITE_BUFFER, created[0]);
+		gl.glBufferData(GL2ES3.GL_COPY_WRITE_BUFFER, bytes, null,
+				GL2ES3.GL_DYNAMIC_COPY);
+
+		if (capacity > 0) {
+			gl.glBindBuffer(GL2ES3.GL_COPY_READ_BUFFER, buffers[POSITIONS]);
+			gl.glCopyBufferSubData(GL2ES3.GL_COPY_READ_BUFFER,
+					GL2ES3.GL_COPY_WRITE_BUFFER, 0, 0, 3L * capacity
+							* GraphBuffers.FLOAT_BYTES);
+			gl.glBindBuffer(GL2ES3.GL_COPY_READ_BUFFER, 0);
+		}
+
+		upload(gl, column, capacity, pools);
+
+		gl.glBindBuffer(GL2ES3.GL_COPY_WRITE_BUFFER, created[1]);
+		gl.glBufferData(GL2ES3.GL_COPY_WRITE_BUFFER, bytes, null,
+				GL2ES3.GL_DYNAMIC_COPY);
+		gl.glBindBuffer(GL2ES3.GL_COPY_WRITE_BUFFER, 0);
+
+		gl.glDeleteBuffers(2, buffers, POSITIONS);
+		buffers[POSITIONS] = created[0];
+		buffers[NEXT] = created[1];
+
+		/*
+		 * Positions of the new pools have just been uploaded, nodes there
+		 * are not new to the layout.
+		 */
+		boolean[] k = new boolean[grown];
+		System.arraycopy(known, 0, k, 0, known.length);
+
+		for (int p = capacity; p < pools; p++)
+			k[p] = true;
+
+		known = k;
+		capacity = grown;
+	}
+
+	/**
+	 * Upload the positions of the column from one pool to another in the
+	 * buffer bound to the copy write target.
+	 */
+	protected void upload(GL4 gl, ByteBuffer column, int from, int to) {
+		if (to <= from)
+			return;
+
+		int bytes = 3 * GraphBuffers.FLOAT_BYTES;
+
+		column.limit(to * bytes);
+		column.position(from * bytes);
+
+		gl.glBufferSubData(GL2ES3.GL_COPY_WRITE_BUFFER, (long) from * bytes,
+				(long) (to - from) * bytes, column);
+		uploadedBytes += (long) (to - from) * bytes;
+
+		column.clear();
+	}
+
+	/**
+	 * Upload the node list, and the positions of the nodes which were not
+	 * in the list of the previous round. New nodes mostly take consecutive
+	 * pool indexes, their positions are uploaded by runs.
+	 */
+	protected void uploadNodes(GL4 gl, ByteBuffer column) {
+		int count = graph.getNodeCount();
+		int[] nodes = graph.getNodes();
+		boolean[] current = new boolean[known.length];
+
+		gl.glBindBuffer(GL2ES3.GL_COPY_WRITE_BUFFER, buffers[POSITIONS]);
+
+		for (int n = 0, from = -1, to = -1; n <= count; n++) {
+			int p = n < count ? nodes[n] : -1;
+
+			if (p >= capacity)
+				continue;
+
+			if (p >= 0)
+				current[p] = true;
+
+			if (p >= 0 && !known[p] && p == to) {
+				to++;
+				continue;
+			}
+
+			upload(gl, column, from, to);
+
+			if (p >= 0 && !known[p]) {
+				from = p;
+				to = p + 1;
+			} else
+				from = to = -1;
+		}
+
+		known = current;
+
+		nodeData = fill(nodeData, nodes, count);
+
+		gl.glBindBuffer(GL2ES3.GL_COPY_WRITE_BUFFER, buffers[NODES]);
+		gl.glBufferData(GL2ES3.GL_COPY_WRITE_BUFFER, Math.max(1, count)
+				* (long) GraphBuffers.INT_BYTES, nodeData, GL.GL_DYNAMIC_DRAW);
+		gl.glBindBuffer(GL2ES3.GL_COPY_WRITE_BUFFER, 0);
+
+		uploadedBytes += (long) count * GraphBuffers.INT_BYTES;
+	}
+
+	/**
+	 * Upload the adjacency.
+	 */
+	protected void uploadEdges(GL4 gl) {
+		int pools = graph.getPools();
+		int neighbors = graph.getNeighborCount();
+
+		offsetData = fill(offsetData, graph.getOffsets(), pools + 1);
+		neighborData = fill(neighborData, graph.getNeighbors(), neighbors);
+
+		gl.glBindBuffer(GL2ES3.GL_COPY_WRITE_BUFFER, buffers[OFFSETS]);
+		gl.glBufferData(GL2ES3.GL_COPY_WRITE_BUFFER, (pools + 1L)
+				* GraphBuffers.INT_BYTES, offsetData, GL.GL_DYNAMIC_DRAW);
+
+		gl.glBindBuffer(GL2ES3.GL_COPY_WRITE_BUFFER, buffers[NEIGHBORS]);
+		gl.glBufferData(GL2ES3.GL_COPY_WRITE_BUFFER, Math.max(1, neighbors)
+				* (long) GraphBuffers.INT_BYTES, neighborData,
+				GL.GL_DYNAMIC_DRAW);
+		gl.glBindBuffer(GL2ES3.GL_COPY_WRITE_BUFFER, 0);
+
+		uploadedBytes += (pools + 1L + neighbors) * GraphBuffers.INT_BYTES;
+	}
+
+	/**
+	 * Copy ints to a direct buffer, allocating a larger one if needed.
+	 */
+	protected static IntBuffer fill(IntBuffer buffer, int[] data, int count) {
+		if (buffer == null || buffer.capacity() < count)
+			buffer = ByteBuffer.allocateDirect(
+					Math.max(count, buffer == null ? 0
+							: buffer.capacity() * 3 / 2)
+							* GraphBuffers.INT_BYTES).order(
+					ByteOrder.nativeOrder()).asIntBuffer();
+
+		buffer.clear();
+
+		if (count > 0)
+			buffer.put(data, 0, count);
+
+		buffer.flip();
+
+		return buffer;
+	}
+
+	/**
+	 * One iteration, for all the nodes of the list.
+	 */
+	protected void iterate(GL4 gl, float temperature) {
+		int count = graph.getNodeCount();
+
+		if (count == 0)
+			return;
+
+		gl.glUseProgram(program);
+		gl.glUniform1ui(countLocation, count);
+		gl.glUniform1f(kLocation, length);
+		gl.glUniform1f(gravityLocation, gravity);
+		gl.glUniform1f(temperatureLocation, temperature);
+		gl.glUniform1i(flatLocation, flat ? 1 : 0);
+
+		for (int i = POSITIONS; i <= NEIGHBORS; i++)
+			gl.glBindBufferBase(GL4.GL_SHADER_STORAGE_BUFFER, i, buffers[i]);
+
+		int groups = (count + WORK_GROUP - 1) / WORK_GROUP;
+
+		gl.glUniform1i(passLocation, 0);
+		gl.glDispatchCompute(groups, 1, 1);
+		gl.glMemoryBarrier(GL4.GL_SHADER_STORAGE_BARRIER_BIT);
+
+		gl.glUniform1i(passLocation, 1);
+		gl.glDispatchCompute(groups, 1, 1);
+		gl.glMemoryBarrier(GL4.GL_SHADER_STORAGE_BARRIER_BIT);
+
+		for (int i = POSITIONS; i <= NEIGHBORS; i++)
+			gl.glBindBufferBase(GL4.GL_SHADER_STORAGE_BUFFER, i, 0);
+
+		gl.glUseProgram(0);
+	}
+
+	/**
+	 * Start a copy of the positions to the staging buffer every readback
+	 * period, and read it in the column once it is done.
+	 */
+	protected void readBack(GL4 gl, GraphBuffers[] drawn, ByteBuffer column,
+			int pools) {
+		if (readbackFence != 0) {
+			int status = gl.glClientWaitSync(readbackFence, 0, 0);
+
+			if (status != GL3ES3.GL_ALREADY_SIGNALED
+					&& status != GL3ES3.GL_CONDITION_SATISFIED)
+				return;
+
+			gl.glDeleteSync(readbackFence);
+			readbackFence = 0;
+
+			read(gl, buffers[STAGING], column, Math.min(readbackPools,
+					column.capacity() / (3 * GraphBuffers.FLOAT_BYTES)));
+
+			for (int i = 0; i < drawn.length; i++)
+				drawn[i].getBounds().recompute(drawn[i]);
+		}
+
+		if (readbackPeriod <= 0 || rounds % readbackPeriod != 0
+				|| pools == 0 || program == 0)
+			return;
+
+		long bytes = 3L * pools * GraphBuffers.FLOAT_BYTES;
+
+		gl.glBindBuffer(GL2ES3.GL_COPY_WRITE_BUFFER, buffers[STAGING]);
+
+		if (pools > stagingCapacity) {
+			stagingCapacity = capacity;
+			gl.glBufferData(GL2ES3.GL_COPY_WRITE_BUFFER, 3L * stagingCapacity
+					* GraphBuffers.FLOAT_BYTES, null, GL2ES3.GL_STREAM_READ);
+		}
+
+		gl.glBindBuffer(GL2ES3.GL_COPY_READ_BUFFER, buffers[POSITIONS]);
+		gl.glCopyBufferSubData(GL2ES3.GL_COPY_READ_BUFFER,
+				GL2ES3.GL_COPY_WRITE_BUFFER, 0, 0, bytes);
+		gl.glBindBuffer(GL2ES3.GL_COPY_READ_BUFFER, 0);
+		gl.glBindBuffer(GL2ES3.GL_COPY_WRITE_BUFFER, 0);
+
+		readbackFence = gl.glFenceSync(GL3ES3.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+		readbackPools = pools;
+	}
+
+	/**
+	 * Read the positions of some pools from a buffer to the column.
+	 */
+	protected void read(GL4 gl, int buffer, ByteBuffer column, int pools) {
+		if (pools <= 0)
+			return;
+
+		int bytes = 3 * pools * GraphBuffers.FLOAT_BYTES;
+
+		gl.glMemoryBarrier(GL4.GL_BUFFER_UPDATE_BARRIER_BIT);
+
+		column.position(0);
+		column.limit(bytes);
+
+		gl.glBindBuffer(GL2ES3.GL_COPY_READ_BUFFER, buffer);
+		gl.glGetBufferSubData(GL2ES3.GL_COPY_READ_BUFFER, 0,
+				bytes, column);
+		gl.glBindBuffer(GL2ES3.GL_COPY_READ_BUFFER, 0);
+
+		column.clear();
+	}
+
+	/**
+	 * Compare one iteration with the CPU reference, both starting from the
+	 * positions of the GPU. The positions of the GPU are restored after, so
+	 * the layout is not advanced by the check.
+	 */
+	protected void validate(GL4 gl, GraphBuffers[] drawn, int pools) {
+		int count = graph.getNodeCount();
+
+		if (count == 0 || pools == 0)
+			return;
+
+		ByteBuffer data = ByteBuffer.allocateDirect(
+				3 * pools * GraphBuffers.FLOAT_BYTES).order(
+				ByteOrder.nativeOrder());
+		float[] before = new float[3 * pools];
+		float[] gpu = new float[3 * pools];
+		float t = temperature;
+
+		read(gl, buffers[POSITIONS], data, pools);
+		data.asFloatBuffer().get(before);
+
+		iterate(gl, t);
+
+		read(gl, buffers[POSITIONS], data, pools);
+		data.asFloatBuffer().get(gpu);
+
+		data.asFloatBuffer().put(before);
+		gl.glBindBuffer(GL2ES3.GL_COPY_WRITE_BUFFER, buffers[POSITIONS]);
+		gl.glBufferSubData(GL2ES3.GL_COPY_WRITE_BUFFER, 0, data.capacity(),
+				data);
+		gl.glBindBuffer(GL2ES3.GL_COPY_WRITE_BUFFER, 0);
+
+		float[] cpu = before.clone();
+
+		CPUForceLayout.iterate(graph, cpu, new float[cpu.length], length,
+				gravity, t, flat);
+
+		float max = 0;
+		int[] nodes = graph.getNodes();
+
+		for (int n = 0; n < count; n++) {
+			int p = 3 * nodes[n];
+
+			if (p + 2 >= before.length)
+				continue;
+
+			for (int i = 0; i < 3; i++)
+				max = Math.max(max, Math.abs(cpu[p + i] - gpu[p + i]));
+		}
+
+		System.err.printf("[layout] %d nodes, GPU and CPU iterations differ "
+				+ "by at most %g%s%n", count, max,
+				max > 1e-3f * length ? ", which is more than expected" : "");
+	}
+}
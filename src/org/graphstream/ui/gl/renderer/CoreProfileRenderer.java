@@ -0,0 +1,372 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL3;
+import javax.media.opengl.GLAutoDrawable;
+
+import org.graphstream.ui.gl.Camera;
+import org.graphstream.ui.gl.Context;
+import org.graphstream.ui.gl.metrics.FrameMetrics;
+import org.graphstream.ui.gl.metrics.Metrics;
+import org.graphstream.ui.gl.metrics.SinkMetrics;
+import org.graphstream.ui.gl.metrics.FrameMetrics.Phase;
+
+/**
+ * Renderer for OpenGL 3.3 core profile contexts.
+ *
+ * The graph comes from the same {@link SharedBuffers} as with the
+ * {@link VertexArrayRenderer}, but the fixed function pipeline is not used:
+ * the graph is held on the GPU by {@link GPUBuffers}, described by a vertex
+ * array object, and nodes and edges are drawn by a GLSL 3.30 program with
+ * the matrices of the camera. Views whose contexts share their GL objects
+ * share the GPU buffers, so the graph is uploaded once for all of them and
+ * each view only issues its draw calls.
+ *
+ * Edges are one pixel lines, wide lines not being part of the core profile.
+ * The background, the container, the compass, the informations and the fog
+ * rely on the fixed function and are not drawn, as are density, instanced
+ * and bundled edges. Frame metrics are still collected.
+ *
+ * Translucent nodes and edges are blended in the order they are drawn,
+ * unless the "gs.gl.transparency" property is set to "oit": they are then
+ * drawn with weighted blended order-independent transparency, see
+ * {@link TransparencyRenderer}.
+ *
+ * The layout can be computed on the GPU by a {@link ComputeLayout}, see
+ * {@link SharedBuffers#setGPULayout(boolean)}, when the context runs
+ * OpenGL 4.3.
+ *
+ * The renderer needs a drawable created with the profile of
+ * {@link Context.RendererType#CORE_PROFILE}. Mesa's software rasterizer
+ * provides such a context, so it can run with the
+ * {@link org.graphstream.ui.gl.HeadlessViewer} on hosts without GPU.
+ */
+public class CoreProfileRenderer extends VertexArrayRenderer {
+	protected static final String VERTEX_SHADER = "org/graphstream/ui/gl/shader/core-vertex-shader.glsl";
+	protected static final String FRAGMENT_SHADER = "org/graphstream/ui/gl/shader/core-fragment-shader.glsl";
+
+	/**
+	 * Size of nodes when sizes are not given by the buffers.
+	 */
+	protected static final float DEFAULT_SIZE = 10;
+
+	protected ShaderManager.Program coreProgram;
+	protected int program;
+
+	/**
+	 * Transparency, null if translucent primitives are blended in order, and
+	 * the OIT variant of the program with its uniforms.
+	 */
+	protected TransparencyRenderer transparency;
+	protected ShaderManager.Program oitProgram;
+	protected int oitProgramId;
+	protected int oitViewProjectionLocation = -1;
+	protected int oitTimeLocation = -1;
+	protected int oitDurationLocation = -1;
+
+	/**
+	 * Vertex arrays are not shared between contexts, each view has its own.
+	 */
+	protected final int[] vertexArray = new int[1];
+
+	protected GPUBuffers gpuBuffers;
+
+	public CoreProfileRenderer(Context ctx) {
+		this(ctx, null);
+	}
+
+	public CoreProfileRenderer(Context ctx, SharedBuffers shared) {
+		super(ctx, shared);
+	}
+
+	public void init(GLAutoDrawable drawable) {
+		GL3 gl = drawable.getGL().getGL3();
+
+		gl.glClearColor(0.2f, 0.2f, 0.2f, 0.0f);
+		gl.glEnable(GL.GL_BLEND);
+		gl.glBlendFunc(GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA);
+		gl.glEnable(GL.GL_DEPTH_TEST);
+		gl.glEnable(GL3.GL_PROGRAM_POINT_SIZE);
+
+		gpuTimer.init(gl);
+
+		Metrics.getRegistry().register(FrameMetrics.TYPE, metricsName, metrics);
+		Metrics.getRegistry().register(SinkMetrics.TYPE, metricsName,
+				graphBuffers.getSinkMetrics());
+
+		/*
+		 * The program is built in background, frames are only cleared
+		 * until it is ready, so that the first one is shown at once.
+		 */
+		shaders = new ShaderManager(drawable);
+		coreProgram = shaders.request(gl, "core", VERTEX_SHADER,
+				FRAGMENT_SHADER);
+
+		if ("oit".equals(System.getProperty("gs.gl.transparency"))) {
+			transparency = new TransparencyRenderer();
+
+			if (transparency.init(gl, shaders))
+				oitProgram = shaders.request(gl, "core", VERTEX_SHADER,
+						FRAGMENT_SHADER, "OIT");
+			else
+				transparency = null;
+		}
+
+		gl.glGenVertexArrays(1, vertexArray, 0);
+
+		gpuBuffers = sharedBuffers.getGPUBuffers();
+		gpuBuffers.acquire(gl);
+	}
+
+	public void dispose(GLAutoDrawable drawable) {
+		GL3 gl = drawable.getGL().getGL3();
+
+		gpuTimer.dispose(gl);
+		Metrics.getRegistry().unregister(FrameMetrics.TYPE, metricsName);
+		Metrics.getRegistry().unregister(SinkMetrics.TYPE, metricsName);
+
+		gpuBuffers.releaseLayout(gl, shaders);
+		gpuBuffers.release(gl);
+		gpuBuffers = null;
+
+		gl.glDeleteVertexArrays(1, vertexArray, 0);
+		coreProgram = null;
+		program = 0;
+
+		if (transparency != null) {
+			transparency.dispose(gl);
+			transparency = null;
+		}
+
+		oitProgram = null;
+		oitProgramId = 0;
+
+		shaders.dispose(gl);
+
+		sharedBuffers.release();
+	}
+
+	public void display(GLAutoDrawable drawable) {
+		GL3 gl = drawable.getGL().getGL3();
+
+		metrics.beginFrame();
+		gpuTimer.begin(gl);
+		metrics.phase(Phase.BACKGROUND);
+
+		gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
+
+		Camera camera = ctx.getCamera();
+		camera.animate();
+
+		metrics.phase(Phase.UPLOAD);
+		updateBuffers();
+
+		/*
+		 * Visible elements are uploaded by the GPU buffers, not drawn from
+		 * the views.
+		 */
+		releaseVisibleIndexes();
+
+		if (isProgramReady(gl)) {
+			updateLayout(gl);
+			gpuBuffers.begin(gl, round);
+
+			try {
+				metrics.addUploadedBytes(gpuBuffers.getUploadedBytes());
+
+				if (isTransparencyReady(gl)) {
+					transparency.begin(gl, width, height);
+					drawGraph(gl, camera.getViewProjectionMatrix(), true);
+					transparency.end(gl);
+				} else
+					drawGraph(gl, camera.getViewProjectionMatrix(), false);
+			} finally {
+				gpuBuffers.end();
+			}
+		}
+
+		metrics.phase(Phase.OVERLAYS);
+		gl.glFlush();
+
+		gpuTimer.end(gl);
+		metrics.endFrame();
+	}
+
+	/**
+	 * Check if the program has been built, getting its uniforms the first
+	 * time.
+	 */
+	protected boolean isProgramReady(GL3 gl) {
+		if (program != 0)
+			return true;
+
+		if (coreProgram == null)
+			return false;
+
+		if (coreProgram.isFailed()) {
+			System.err.printf("[core] program not available, "
+					+ "the graph will not be drawn%n");
+			coreProgram = null;
+			return false;
+		}
+
+		if (!coreProgram.isReady())
+			return false;
+
+		program = coreProgram.getId();
+
+		viewProjectionLocation = gl.glGetUniformLocation(program,
+				"viewProjection");
+		timeLocation = gl.glGetUniformLocation(program, "time");
+		durationLocation = gl.glGetUniformLocation(program, "duration");
+
+		return true;
+	}
+
+	/**
+	 * Check if order-independent transparency is enabled and its programs
+	 * built, getting the uniforms of the OIT variant the first time. If a
+	 * program can not be built, primitives are blended in order.
+	 */
+	protected boolean isTransparencyReady(GL3 gl) {
+		if (transparency == null)
+			return false;
+
+		if (transparency.isFailed() || oitProgram.isFailed()) {
+			System.err.printf("[oit] blending primitives in order%n");
+			transparency.dispose(gl);
+			transparency = null;
+			return false;
+		}
+
+		if (!transparency.isReady(gl) || !oitProgram.isReady())
+			return false;
+
+		if (oitProgramId == 0) {
+			oitProgramId = oitProgram.getId();
+
+			oitViewProjectionLocation = gl.glGetUniformLocation(oitProgramId,
+					"viewProjection");
+			oitTimeLocation = gl.glGetUniformLocation(oitProgramId, "time");
+			oitDurationLocation = gl.glGetUniformLocation(oitProgramId,
+					"duration");
+		}
+
+		return true;
+	}
+
+	/**
+	 * Start or stop the layout of the GPU buffers as the shared buffers ask.
+	 */
+	protected void updateLayout(GL3 gl) {
+		boolean enabled = sharedBuffers.isGPULayout();
+
+		if (enabled == gpuBuffers.isLayoutEnabled())
+			return;
+
+		if (!enabled)
+			gpuBuffers.disableLayout(gl);
+		else if (!gpuBuffers.enableLayout(gl, shaders))
+			sharedBuffers.setGPULayout(false);
+	}
+
+	/**
+	 * Draw the nodes and edges of the drawn buffers from the GPU buffers.
+	 *
+	 * @param oit
+	 *            true to draw with the OIT variant of the program, between
+	 *            the begin and end of the transparency
+	 */
+	protected void drawGraph(GL3 gl, float[] viewProjection, boolean oit) {
+		boolean animated = gpuBuffers.isUploaded(GPUBuffers.PREVIOUS);
+
+		gl.glUseProgram(oit ? oitProgramId : program);
+		gl.glUniformMatrix4fv(oit ? oitViewProjectionLocation
+				: viewProjectionLocation, 1, false, viewProjection, 0);
+		gl.glUniform1f(oit ? oitTimeLocation : timeLocation, GraphBuffers
+				.getAnimationTime());
+		gl.glUniform1f(oit ? oitDurationLocation : durationLocation,
+				animated ? graphBuffers.getAnimationDuration() : 0);
+		gl.glBindVertexArray(vertexArray[0]);
+
+		/*
+		 * Pointers are set each frame: buffers may have been uploaded by
+		 * another context, and binding them again makes the new storage
+		 * visible to this one.
+		 */
+		for (int i = 0; i <= GPUBuffers.PREVIOUS; i++) {
+			if (gpuBuffers.isUploaded(i)) {
+				gl.glBindBuffer(GL.GL_ARRAY_BUFFER, gpuBuffers
+						.getVertexBuffer(i));
+				gl.glVertexAttribPointer(i, gpuBuffers.getComponents(i),
+						GL.GL_FLOAT, false, 0, 0);
+				gl.glEnableVertexAttribArray(i);
+			} else
+				gl.glDisableVertexAttribArray(i);
+		}
+
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+
+		if (!gpuBuffers.isUploaded(GPUBuffers.COLOR))
+			gl.glVertexAttrib4f(GPUBuffers.COLOR, 1, 1, 1, 0.4f);
+
+		if (!gpuBuffers.isUploaded(GPUBuffers.SIZE))
+			gl.glVertexAttrib1f(GPUBuffers.SIZE, DEFAULT_SIZE);
+
+		metrics.phase(Phase.NODES);
+
+		for (int i = 0; i < drawnBuffers.length; i++) {
+			int count = gpuBuffers.getNodeCount(i);
+
+			if (count == 0)
+				continue;
+
+			gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, gpuBuffers
+					.getIndexBuffer(i));
+			gl.glDrawElements(GL.GL_POINTS, count, GL.GL_UNSIGNED_INT, 0);
+			metrics.addDrawCalls(1);
+		}
+
+		metrics.phase(Phase.EDGES);
+
+		for (int i = 0; i < drawnBuffers.length; i++) {
+			int count = gpuBuffers.getEdgeCount(i);
+
+			if (count == 0)
+				continue;
+
+			gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, gpuBuffers
+					.getEdgeBuffer(i));
+			gl.glDrawElements(GL.GL_LINES, 2 * count, GL.GL_UNSIGNED_INT, 0);
+			metrics.addDrawCalls(1);
+		}
+
+		gl.glBindVertexArray(0);
+		gl.glUseProgram(0);
+	}
+}
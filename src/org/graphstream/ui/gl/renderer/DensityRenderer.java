@@ -0,0 +1,336 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import javax.media.opengl.GL2ES2;
+import javax.media.opengl.GL2GL3;
+
+/**
+ * Density rendering, an alternative to points for very large graphs.
+ *
+ * Between {@link #begin(GL2, int, int)} and {@link #end(GL2)}, the renderer
+ * draws nodes as points, and possibly edges as lines. They are not drawn on
+ * screen but accumulated with additive blending in a float framebuffer, each
+ * node adding a gaussian splat of "gs.gl.density.splat" pixels (default 8).
+ * The end resolves the density on screen: it is scaled logarithmically,
+ * reaching 1 at "gs.gl.density.saturation" (default 64), and mapped to a
+ * colour ramp given by "gs.gl.density.ramp" as comma separated RRGGBB or
+ * RRGGBBAA colours (default magma like). Edges add
+ * "gs.gl.density.edges" to the density (default 0, edges not drawn).
+ *
+ * So the cost of a frame is one pass over the vertices and one over the
+ * pixels, whatever the overdraw.
+ *
+ * This needs float framebuffers. If they are not available,
+ * {@link #init(GL2, ShaderManager)} returns false and nodes should be drawn
+ * as points, as they should until the programs are built.
+ */
+public class DensityRenderer {
+	protected static final String VERTEX_SHADER = "org/graphstream/ui/gl/shader/density-vertex-shader.glsl";
+	protected static final String FRAGMENT_SHADER = "org/graphstream/ui/gl/shader/density-fragment-shader.glsl";
+	protected static final String RESOLVE_VERTEX_SHADER = "org/graphstream/ui/gl/shader/density-resolve-vertex-shader.glsl";
+	protected static final String RESOLVE_FRAGMENT_SHADER = "org/graphstream/ui/gl/shader/density-resolve-fragment-shader.glsl";
+
+	protected static final String DEFAULT_RAMP = "00000400,3b0f70,8c2981,de4968,fe9f6d,fcfdbf";
+
+	protected ShaderManager.Program splatShader;
+	protected ShaderManager.Program resolveShader;
+
+	/**
+	 * The programs once they are ready, 0 before.
+	 */
+	protected int splatProgram;
+	protected int resolveProgram;
+
+	protected int viewProjectionLocation;
+	protected int splatSizeLocation;
+	protected int weightLocation;
+	protected int pointsLocation;
+	protected int saturationLocation;
+
+	protected final int[] framebuffer = new int[1];
+	protected final int[] densityTexture = new int[1];
+	protected final int[] rampTexture = new int[1];
+
+	/**
+	 * Size of the density texture, 0 before the first frame.
+	 */
+	protected int width, height;
+
+	protected final int[] previousFramebuffer = new int[1];
+
+	protected float splatSize = Float.parseFloat(System.getProperty(
+			"gs.gl.density.splat", "8"));
+	protected float saturation = Float.parseFloat(System.getProperty(
+			"gs.gl.density.saturation", "64"));
+	protected float edgeWeight = Float.parseFloat(System.getProperty(
+			"gs.gl.density.edges", "0"));
+
+	/**
+	 * Request the programs and build the colour ramp. Programs are built in
+	 * the background, density can be rendered once {@link #isReady(GL2)}.
+	 *
+	 * @return false if density rendering is not supported
+	 */
+	public boolean init(GL2 gl, ShaderManager shaders) {
+		if (!gl.isFunctionAvailable("glGenFramebuffers")
+				|| !(gl.isGL3() || gl
+						.isExtensionAvailable("GL_ARB_texture_float"))) {
+			System.err.printf("[density] float framebuffers not available%n");
+			return false;
+		}
+
+		splatShader = shaders.request(gl, "density", VERTEX_SHADER,
+				FRAGMENT_SHADER);
+		resolveShader = shaders.request(gl, "density", RESOLVE_VERTEX_SHADER,
+				RESOLVE_FRAGMENT_SHADER);
+
+		gl.glGenFramebuffers(1, framebuffer, 0);
+		gl.glGenTextures(1, densityTexture, 0);
+		gl.glGenTextures(1, rampTexture, 0);
+
+		createRamp(gl, System.getProperty("gs.gl.density.ramp", DEFAULT_RAMP));
+
+		return true;
+	}
+
+	/**
+	 * True once both programs are built. The first time, their uniforms are
+	 * located and set.
+	 */
+	public boolean isReady(GL2 gl) {
+		if (splatProgram != 0)
+			return true;
+
+		if (!splatShader.isReady() || !resolveShader.isReady())
+			return false;
+
+		splatProgram = splatShader.getId();
+		resolveProgram = resolveShader.getId();
+
+		viewProjectionLocation = gl.glGetUniformLocation(splatProgram,
+				"viewProjection");
+		splatSizeLocation = gl.glGetUniformLocation(splatProgram, "splatSize");
+		weightLocation = gl.glGetUniformLocation(splatProgram, "weight");
+		pointsLocation = gl.glGetUniformLocation(splatProgram, "points");
+		saturationLocation = gl.glGetUniformLocation(resolveProgram,
+				"saturation");
+
+		gl.glUseProgram(resolveProgram);
+		gl.glUniform1i(gl.glGetUniformLocation(resolveProgram, "density"), 0);
+		gl.glUniform1i(gl.glGetUniformLocation(resolveProgram, "ramp"), 1);
+		gl.glUseProgram(0);
+
+		return true;
+	}
+
+	/**
+	 * True if a program can not be built, nodes should then be drawn as
+	 * points.
+	 */
+	public boolean isFailed() {
+		return splatShader.isFailed() || resolveShader.isFailed();
+	}
+
+	/**
+	 * Delete the framebuffer and textures. Programs belong to the shader
+	 * manager.
+	 */
+	public void dispose(GL2 gl) {
+		if (framebuffer[0] != 0) {
+			gl.glDeleteFramebuffers(1, framebuffer, 0);
+			gl.glDeleteTextures(1, densityTexture, 0);
+			gl.glDeleteTextures(1, rampTexture, 0);
+		}
+
+		splatProgram = resolveProgram = 0;
+		framebuffer[0] = 0;
+		width = height = 0;
+	}
+
+	/**
+	 * True if edges have to be drawn between begin and end.
+	 */
+	public boolean isEdgeDensityEnabled() {
+		return edgeWeight > 0;
+	}
+
+	/**
+	 * Bind the density framebuffer, clear it, and set up the splat program.
+	 * Points drawn then add to the density.
+	 *
+	 * @param viewProjection
+	 *            view projection matrix of the camera
+	 */
+	public void begin(GL2 gl, int width, int height, float[] viewProjection) {
+		gl.glGetIntegerv(GL.GL_FRAMEBUFFER_BINDING, previousFramebuffer, 0);
+		gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, framebuffer[0]);
+
+		if (width != this.width || height != this.height)
+			resize(gl, width, height);
+
+		gl.glPushAttrib(GL2.GL_ENABLE_BIT | GL.GL_COLOR_BUFFER_BIT);
+		gl.glClearColor(0, 0, 0, 0);
+		gl.glClear(GL.GL_COLOR_BUFFER_BIT);
+
+		gl.glDisable(GL.GL_DEPTH_TEST);
+		gl.glDisable(GL2.GL_FOG);
+		gl.glEnable(GL.GL_BLEND);
+		gl.glBlendFunc(GL.GL_ONE, GL.GL_ONE);
+		gl.glEnable(GL2GL3.GL_VERTEX_PROGRAM_POINT_SIZE);
+		gl.glEnable(GL2.GL_POINT_SPRITE);
+
+		gl.glUseProgram(splatProgram);
+		gl.glUniformMatrix4fv(viewProjectionLocation, 1, false,
+				viewProjection, 0);
+		gl.glUniform1f(splatSizeLocation, splatSize);
+		gl.glUniform1f(weightLocation, 1);
+		gl.glUniform1i(pointsLocation, 1);
+	}
+
+	/**
+	 * Switch the splat program to lines, called before drawing edges.
+	 */
+	public void beginEdges(GL2 gl) {
+		gl.glUniform1f(weightLocation, edgeWeight);
+		gl.glUniform1i(pointsLocation, 0);
+	}
+
+	/**
+	 * Restore the previous framebuffer and draw the resolved density over
+	 * it.
+	 */
+	public void end(GL2 gl) {
+		gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, previousFramebuffer[0]);
+		gl.glPopAttrib();
+
+		gl.glPushAttrib(GL2.GL_ENABLE_BIT);
+		gl.glDisable(GL.GL_DEPTH_TEST);
+		gl.glDisable(GL2.GL_FOG);
+
+		gl.glUseProgram(resolveProgram);
+		gl.glUniform1f(saturationLocation, saturation);
+
+		gl.glActiveTexture(GL.GL_TEXTURE1);
+		gl.glBindTexture(GL2GL3.GL_TEXTURE_1D, rampTexture[0]);
+		gl.glActiveTexture(GL.GL_TEXTURE0);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, densityTexture[0]);
+
+		gl.glBegin(GL2.GL_QUADS);
+		gl.glTexCoord2f(0, 0);
+		gl.glVertex2f(-1, -1);
+		gl.glTexCoord2f(1, 0);
+		gl.glVertex2f(1, -1);
+		gl.glTexCoord2f(1, 1);
+		gl.glVertex2f(1, 1);
+		gl.glTexCoord2f(0, 1);
+		gl.glVertex2f(-1, 1);
+		gl.glEnd();
+
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+		gl.glActiveTexture(GL.GL_TEXTURE1);
+		gl.glBindTexture(GL2GL3.GL_TEXTURE_1D, 0);
+		gl.glActiveTexture(GL.GL_TEXTURE0);
+
+		gl.glUseProgram(0);
+		gl.glPopAttrib();
+	}
+
+	/**
+	 * Create the density texture for a new size of the viewport, and attach
+	 * it to the framebuffer, which has to be bound.
+	 */
+	protected void resize(GL2 gl, int width, int height) {
+		this.width = width;
+		this.height = height;
+
+		gl.glBindTexture(GL.GL_TEXTURE_2D, densityTexture[0]);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER,
+				GL.GL_NEAREST);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER,
+				GL.GL_NEAREST);
+		gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL2ES2.GL_R32F, width, height, 0,
+				GL2ES2.GL_RED, GL.GL_FLOAT, null);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+
+		gl.glFramebufferTexture2D(GL.GL_FRAMEBUFFER, GL.GL_COLOR_ATTACHMENT0,
+				GL.GL_TEXTURE_2D, densityTexture[0], 0);
+
+		int status = gl.glCheckFramebufferStatus(GL.GL_FRAMEBUFFER);
+
+		if (status != GL.GL_FRAMEBUFFER_COMPLETE)
+			System.err.printf("[density] framebuffer incomplete: 0x%x%n",
+					status);
+	}
+
+	/**
+	 * Upload the colour ramp, a list of RRGGBB or RRGGBBAA colours.
+	 */
+	protected void createRamp(GL2 gl, String ramp) {
+		String[] colors = ramp.split(",");
+		FloatBuffer texels = ByteBuffer
+				.allocateDirect(colors.length * 4 * GraphBuffers.FLOAT_BYTES)
+				.order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+		for (int i = 0; i < colors.length; i++) {
+			String c = colors[i].trim();
+			long rgba;
+
+			try {
+				rgba = Long.parseLong(c, 16);
+			} catch (NumberFormatException e) {
+				System.err.printf("[density] invalid colour \"%s\"%n", c);
+				rgba = 0xFFFFFFFFL;
+				c = "FFFFFFFF";
+			}
+
+			if (c.length() <= 6)
+				rgba = (rgba << 8) | 0xFF;
+
+			for (int shift = 24; shift >= 0; shift -= 8)
+				texels.put(((rgba >> shift) & 0xFF) / 255f);
+		}
+
+		texels.rewind();
+
+		gl.glBindTexture(GL2GL3.GL_TEXTURE_1D, rampTexture[0]);
+		gl.glTexParameteri(GL2GL3.GL_TEXTURE_1D, GL.GL_TEXTURE_MIN_FILTER,
+				GL.GL_LINEAR);
+		gl.glTexParameteri(GL2GL3.GL_TEXTURE_1D, GL.GL_TEXTURE_MAG_FILTER,
+				GL.GL_LINEAR);
+		gl.glTexParameteri(GL2GL3.GL_TEXTURE_1D, GL.GL_TEXTURE_WRAP_S,
+				GL.GL_CLAMP_TO_EDGE);
+		gl.glTexImage1D(GL2GL3.GL_TEXTURE_1D, 0, GL.GL_RGBA, colors.length,
+				0, GL.GL_RGBA, GL.GL_FLOAT, texels);
+		gl.glBindTexture(GL2GL3.GL_TEXTURE_1D, 0);
+	}
+}
@@ -0,0 +1,725 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.graphstream.ui.gl.renderer.GraphBuffers.GraphBuffer;
+
+/**
+ * Edge bundling of the edges of some {@link GraphBuffers}.
+ *
+ * Each edge is turned into a polyline of {@link #getPointsPerEdge()} control
+ * points. The interior points of the straight edges are accumulated in a
+ * density grid covering the graph, then moved along the gradient of the
+ * blurred density and smoothed, so that close edges of similar direction
+ * are pulled together. This is kernel density estimation bundling, without
+ * the iterations over the density of the bundled edges.
+ *
+ * Bundling is done by passes, in a thread of the bundler which splits the
+ * edges in chunks run by a worker pool. A pass only recomputes the edges
+ * which moved, and the edges crossing the tiles of the grid where the
+ * density changed. A full pass is done when edges are removed or changed,
+ * when the buffers are replaced, or when a node leaves the bounds of the
+ * grid. Passes are requested by {@link #update()}, usually once per frame,
+ * and are at least "gs.gl.bundling.period" ms apart (default 100).
+ *
+ * The control points are kept in a direct buffer, with the first and count
+ * arrays needed to draw them with glMultiDrawArrays and GL_LINE_STRIP. There
+ * are two storages: a pass writes in the back one, which is then published
+ * and drawn while the next pass writes in the other. Views get the published
+ * storage with {@link #acquireStorage()}, so that a pass does not write in a
+ * storage still being drawn.
+ *
+ * The grid has "gs.gl.bundling.grid" cells per side (default 256), edges are
+ * cut in "gs.gl.bundling.segments" segments (default 8) and points are moved
+ * "gs.gl.bundling.iterations" times (default 6).
+ */
+public class EdgeBundler {
+	public static final int COMPONENTS = 3;
+
+	/**
+	 * Cells per side of a tile of the density grid.
+	 */
+	protected static final int TILE = 16;
+
+	/**
+	 * Edges per task of a pass.
+	 */
+	protected static final int CHUNK = 16384;
+
+	/**
+	 * Control points of the edges, with the arrays used to draw them.
+	 */
+	public static class Storage {
+		protected final int capacity;
+		protected final FloatBuffer points;
+		protected final IntBuffer firsts;
+		protected final IntBuffer counts;
+
+		/**
+		 * Edges bundled in the storage.
+		 */
+		protected int count;
+
+		/**
+		 * Views drawing the storage.
+		 */
+		protected final AtomicInteger readers = new AtomicInteger();
+
+		protected Storage(int capacity, int pointsPerEdge) {
+			this.capacity = capacity;
+
+			points = ByteBuffer
+					.allocateDirect(
+							capacity * pointsPerEdge * COMPONENTS
+									* GraphBuffers.FLOAT_BYTES)
+					.order(ByteOrder.nativeOrder()).asFloatBuffer();
+			firsts = ByteBuffer
+					.allocateDirect(capacity * GraphBuffers.INT_BYTES)
+					.order(ByteOrder.nativeOrder()).asIntBuffer();
+			counts = ByteBuffer
+					.allocateDirect(capacity * GraphBuffers.INT_BYTES)
+					.order(ByteOrder.nativeOrder()).asIntBuffer();
+
+			for (int i = 0; i < capacity; i++) {
+				firsts.put(i, i * pointsPerEdge);
+				counts.put(i, pointsPerEdge);
+			}
+		}
+
+		public int getCapacity() {
+			return capacity;
+		}
+
+		/**
+		 * Number of edges which can be drawn.
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * Control points, {@link EdgeBundler#COMPONENTS} floats each.
+		 */
+		public FloatBuffer getPoints() {
+			return points;
+		}
+
+		/**
+		 * First control point of each edge.
+		 */
+		public IntBuffer getFirsts() {
+			return firsts;
+		}
+
+		/**
+		 * Count of control points of each edge.
+		 */
+		public IntBuffer getCounts() {
+			return counts;
+		}
+	}
+
+	protected final GraphBuffers buffers;
+	protected final ExecutorService workers;
+
+	protected final int segments;
+	protected final int pointsPerEdge;
+	protected final int iterations;
+	protected final int grid;
+	protected final int tiles;
+	protected final long period;
+
+	protected final AtomicIntegerArray density;
+	protected final float[] field;
+	protected final boolean[] dirtyTiles;
+	protected final boolean[] dirty;
+
+	/**
+	 * Bounds of the grid and size of a cell.
+	 */
+	protected float minX, minY, cell;
+
+	/**
+	 * Extremities of the edges used by the last pass, 6 floats per edge,
+	 * and edges recomputed by the current pass.
+	 */
+	protected float[] ends = new float[0];
+	protected boolean[] changed = new boolean[0];
+
+	/**
+	 * Edges written by the last pass in the published storage, which are
+	 * copied in the back storage before the next pass.
+	 */
+	protected boolean[] written = new boolean[0];
+
+	/**
+	 * Edges bundled, and state of the buffers at the last pass.
+	 */
+	protected int built;
+	protected int generation = -1;
+	protected int rewrites = -1;
+
+	protected FloatBuffer vertices;
+	protected IntBuffer edges;
+
+	/**
+	 * Set when an extremity was out of the grid, so that the next pass
+	 * recomputes the bounds.
+	 */
+	protected volatile boolean outside;
+
+	protected volatile Storage storage;
+	protected Storage back;
+
+	protected final Thread bundler;
+	protected volatile boolean requested;
+	protected volatile boolean closed;
+
+	/**
+	 * Passes done, for statistics.
+	 */
+	protected volatile long passes;
+
+	private final ThreadLocal<float[]> polyline = new ThreadLocal<float[]>() {
+		protected float[] initialValue() {
+			return new float[pointsPerEdge * COMPONENTS];
+		}
+	};
+
+	/**
+	 * Create a bundler of the edges of some buffers, and start its thread.
+	 *
+	 * @param workers
+	 *            pool running the chunks of the passes, which can be shared
+	 *            by several bundlers
+	 */
+	public EdgeBundler(GraphBuffers buffers, ExecutorService workers) {
+		this.buffers = buffers;
+		this.workers = workers;
+
+		segments = Math.max(2,
+				Integer.parseInt(System.getProperty(
+						"gs.gl.bundling.segments", "8")));
+		pointsPerEdge = segments + 1;
+		iterations = Integer.parseInt(System.getProperty(
+				"gs.gl.bundling.iterations", "6"));
+		grid = Math.max(TILE, Integer.parseInt(System.getProperty(
+				"gs.gl.bundling.grid", "256")));
+		tiles = (grid + TILE - 1) / TILE;
+		period = Long.parseLong(System.getProperty("gs.gl.bundling.period",
+				"100"));
+
+		density = new AtomicIntegerArray(grid * grid);
+		field = new float[grid * grid];
+		dirtyTiles = new boolean[tiles * tiles];
+		dirty = new boolean[tiles * tiles];
+		storage = new Storage(0, pointsPerEdge);
+
+		bundler = new Thread(new Runnable() {
+			public void run() {
+				bundle();
+			}
+		}, "edge-bundler");
+		bundler.setDaemon(true);
+		bundler.start();
+	}
+
+	public int getPointsPerEdge() {
+		return pointsPerEdge;
+	}
+
+	/**
+	 * Control points of the last pass. The storage is not written until it
+	 * is released by {@link #releaseStorage(Storage)}.
+	 */
+	public Storage acquireStorage() {
+		while (true) {
+			Storage s = storage;
+			s.readers.incrementAndGet();
+
+			if (s == storage)
+				return s;
+
+			s.readers.decrementAndGet();
+		}
+	}
+
+	public void releaseStorage(Storage s) {
+		s.readers.decrementAndGet();
+	}
+
+	public long getPassCount() {
+		return passes;
+	}
+
+	/**
+	 * Request a pass. Nothing is done if a pass is already running.
+	 */
+	public void update() {
+		if (!requested) {
+			requested = true;
+			LockSupport.unpark(bundler);
+		}
+	}
+
+	/**
+	 * Stop the thread of the bundler. The worker pool is not shut down.
+	 */
+	public void close() {
+		closed = true;
+		LockSupport.unpark(bundler);
+
+		try {
+			bundler.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	protected void bundle() {
+		while (!closed) {
+			if (!requested) {
+				LockSupport.park(this);
+				continue;
+			}
+
+			long start = System.currentTimeMillis();
+
+			try {
+				pass();
+			} catch (InterruptedException e) {
+				return;
+			} catch (ExecutionException e) {
+				System.err.printf("[bundling] pass failed: %s%n", e.getCause());
+			}
+
+			passes++;
+			requested = false;
+
+			long wait = period - (System.currentTimeMillis() - start);
+
+			if (wait > 0)
+				LockSupport.parkNanos(this, wait * 1000000L);
+		}
+	}
+
+	/**
+	 * Run a pass, updating the edges which changed since the last one.
+	 */
+	protected void pass() throws InterruptedException, ExecutionException {
+		int generation = buffers.getGeneration();
+		int rewrites = buffers.getEdgeRewrites();
+		int count = buffers.getActiveEdgeCount();
+
+		if (generation != this.generation) {
+			vertices = buffers.getBuffer(GraphBuffer.NODE_VERTICES)
+					.duplicate().order(ByteOrder.nativeOrder())
+					.asFloatBuffer();
+			edges = buffers.getBuffer(GraphBuffer.EDGES).duplicate()
+					.order(ByteOrder.nativeOrder()).asIntBuffer();
+		}
+
+		/*
+		 * Buffers which grew after the generation was read are seen on the
+		 * next pass.
+		 */
+		count = Math.min(count, edges.capacity() / 2);
+
+		final boolean full = generation != this.generation
+				|| rewrites != this.rewrites || count < built || outside;
+
+		this.generation = generation;
+		this.rewrites = rewrites;
+
+		if (full) {
+			built = 0;
+			outside = false;
+
+			for (int i = 0; i < density.length(); i++)
+				density.set(i, 0);
+
+			computeBounds(count);
+		}
+
+		final Storage front = storage;
+		Storage s = back;
+
+		if (s == null || count > s.capacity) {
+			Storage grown = new Storage(Math.max(count, front.capacity
+					+ (front.capacity >> 1)), pointsPerEdge);
+			FloatBuffer from = front.points.duplicate();
+
+			from.limit(built * pointsPerEdge * COMPONENTS);
+			grown.points.duplicate().put(from);
+
+			if (grown.capacity > changed.length) {
+				ends = Arrays.copyOf(ends, grown.capacity * 6);
+				changed = new boolean[grown.capacity];
+			}
+
+			s = grown;
+		} else {
+			/*
+			 * The back storage is one pass late: wait for the views still
+			 * drawing it, then copy the edges written by the last pass.
+			 */
+			while (s.readers.get() > 0)
+				LockSupport.parkNanos(this, 100000L);
+
+			final FloatBuffer from = front.points;
+			final FloatBuffer to = s.points;
+			final boolean[] w = written;
+
+			run(Math.min(built, w.length), new Chunk() {
+				public boolean run(int first, int last) {
+					int n = pointsPerEdge * COMPONENTS;
+
+					for (int e = first; e < last; e++)
+						if (w[e])
+							for (int i = e * n; i < (e + 1) * n; i++)
+								to.put(i, from.get(i));
+
+					return true;
+				}
+			});
+		}
+
+		if (written.length < changed.length)
+			written = new boolean[changed.length];
+
+		final boolean[] w = written;
+
+		Arrays.fill(dirtyTiles, false);
+
+		/*
+		 * Update the density of the straight edges which moved.
+		 */
+		final int previous = built;
+		boolean any = run(count, new Chunk() {
+			public boolean run(int from, int to) {
+				boolean any = false;
+
+				for (int e = from; e < to; e++)
+					any |= changed[e] = move(e, e >= previous);
+
+				return any;
+			}
+		});
+
+		if (any || full) {
+			blur();
+			dilate();
+
+			/*
+			 * Bundle the edges which moved or cross a changed region.
+			 */
+			final FloatBuffer points = s.points;
+
+			run(count, new Chunk() {
+				public boolean run(int from, int to) {
+					for (int e = from; e < to; e++)
+						if (w[e] = changed[e] || crossesDirtyTiles(e))
+							bundle(e, points);
+
+					return true;
+				}
+			});
+		} else
+			Arrays.fill(w, false);
+
+		built = count;
+		s.count = count;
+		back = front;
+		storage = s;
+	}
+
+	protected interface Chunk {
+		boolean run(int from, int to);
+	}
+
+	/**
+	 * Run a job on the edges 0..count, in chunks, with the worker pool.
+	 *
+	 * @return true if a chunk returned true
+	 */
+	protected boolean run(int count, final Chunk chunk)
+			throws InterruptedException, ExecutionException {
+		ArrayList<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+
+		for (int from = 0; from < count; from += CHUNK) {
+			final int f = from;
+			final int t = Math.min(count, from + CHUNK);
+
+			tasks.add(new Callable<Boolean>() {
+				public Boolean call() {
+					return chunk.run(f, t);
+				}
+			});
+		}
+
+		boolean any = false;
+
+		for (Future<Boolean> f : workers.invokeAll(tasks))
+			any |= f.get();
+
+		return any;
+	}
+
+	/**
+	 * Compute the bounds of the grid from the extremities of the edges, with
+	 * a margin.
+	 */
+	protected void computeBounds(int count) {
+		float x0 = Float.MAX_VALUE, y0 = Float.MAX_VALUE;
+		float x1 = -Float.MAX_VALUE, y1 = -Float.MAX_VALUE;
+
+		for (int i = 0; i < 2 * count; i++) {
+			int p = 3 * edges.get(i);
+			float x = vertices.get(p), y = vertices.get(p + 1);
+
+			x0 = Math.min(x0, x);
+			y0 = Math.min(y0, y);
+			x1 = Math.max(x1, x);
+			y1 = Math.max(y1, y);
+		}
+
+		float size = Math.max(x1 - x0, y1 - y0);
+
+		if (!(size > 0))
+			size = 1;
+
+		if (count == 0)
+			x0 = y0 = 0;
+
+		cell = size * 1.1f / grid;
+		minX = x0 - size * 0.05f;
+		minY = y0 - size * 0.05f;
+	}
+
+	/**
+	 * Check if an edge moved by more than half a cell since the last pass
+	 * and update the density if so.
+	 *
+	 * @param added
+	 *            true if the edge was not in the last pass
+	 * @return true if the edge has to be bundled again
+	 */
+	protected boolean move(int e, boolean added) {
+		int a = 3 * edges.get(2 * e);
+		int b = 3 * edges.get(2 * e + 1);
+		int o = 6 * e;
+		float epsilon = cell * 0.5f;
+
+		if (!added
+				&& Math.abs(vertices.get(a) - ends[o]) < epsilon
+				&& Math.abs(vertices.get(a + 1) - ends[o + 1]) < epsilon
+				&& Math.abs(vertices.get(b) - ends[o + 3]) < epsilon
+				&& Math.abs(vertices.get(b + 1) - ends[o + 4]) < epsilon)
+			return false;
+
+		if (!added)
+			splat(e, -1);
+
+		for (int c = 0; c < 3; c++) {
+			ends[o + c] = vertices.get(a + c);
+			ends[o + 3 + c] = vertices.get(b + c);
+		}
+
+		splat(e, 1);
+
+		return true;
+	}
+
+	/**
+	 * Add the interior points of a straight edge to the density, marking
+	 * the tiles changed.
+	 */
+	protected void splat(int e, int weight) {
+		int o = 6 * e;
+
+		for (int k = 1; k < segments; k++) {
+			float t = k / (float) segments;
+			int c = getCell(ends[o] + t * (ends[o + 3] - ends[o]), ends[o + 1]
+					+ t * (ends[o + 4] - ends[o + 1]));
+
+			density.addAndGet(c, weight);
+			dirtyTiles[getTile(c)] = true;
+		}
+	}
+
+	protected boolean crossesDirtyTiles(int e) {
+		int o = 6 * e;
+
+		for (int k = 1; k < segments; k++) {
+			float t = k / (float) segments;
+			int c = getCell(ends[o] + t * (ends[o + 3] - ends[o]), ends[o + 1]
+					+ t * (ends[o + 4] - ends[o + 1]));
+
+			if (dirtyTiles[getTile(c)])
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Cell of a point, clamped to the grid.
+	 */
+	protected int getCell(float x, float y) {
+		int i = (int) Math.floor((x - minX) / cell);
+		int j = (int) Math.floor((y - minY) / cell);
+
+		if (i < 0 || j < 0 || i >= grid || j >= grid) {
+			outside = true;
+			i = Math.max(0, Math.min(grid - 1, i));
+			j = Math.max(0, Math.min(grid - 1, j));
+		}
+
+		return j * grid + i;
+	}
+
+	protected int getTile(int cell) {
+		return (cell / grid / TILE) * tiles + (cell % grid) / TILE;
+	}
+
+	/**
+	 * Blur the density in the field, with two passes of a box filter of
+	 * radius 2.
+	 */
+	protected void blur() {
+		float[] line = new float[grid];
+
+		for (int i = 0; i < field.length; i++)
+			field[i] = density.get(i);
+
+		for (int j = 0; j < grid; j++) {
+			for (int i = 0; i < grid; i++) {
+				float sum = 0;
+
+				for (int k = Math.max(0, i - 2); k <= Math.min(grid - 1, i + 2); k++)
+					sum += field[j * grid + k];
+
+				line[i] = sum / 5;
+			}
+
+			System.arraycopy(line, 0, field, j * grid, grid);
+		}
+
+		for (int i = 0; i < grid; i++) {
+			for (int j = 0; j < grid; j++) {
+				float sum = 0;
+
+				for (int k = Math.max(0, j - 2); k <= Math.min(grid - 1, j + 2); k++)
+					sum += field[k * grid + i];
+
+				line[j] = sum / 5;
+			}
+
+			for (int j = 0; j < grid; j++)
+				field[j * grid + i] = line[j];
+		}
+	}
+
+	/**
+	 * Extend the dirty tiles to their neighbors, since the blur and the
+	 * moves of the points cross the borders of the tiles.
+	 */
+	protected void dilate() {
+		System.arraycopy(dirtyTiles, 0, dirty, 0, dirty.length);
+
+		for (int j = 0; j < tiles; j++)
+			for (int i = 0; i < tiles; i++)
+				if (dirty[j * tiles + i])
+					for (int v = Math.max(0, j - 1); v <= Math.min(tiles - 1,
+							j + 1); v++)
+						for (int u = Math.max(0, i - 1); u <= Math.min(
+								tiles - 1, i + 1); u++)
+							dirtyTiles[v * tiles + u] = true;
+	}
+
+	/**
+	 * Compute the control points of an edge: interior points are moved up
+	 * the gradient of the field by half a cell per iteration, then smoothed.
+	 */
+	protected void bundle(int e, FloatBuffer points) {
+		float[] p = polyline.get();
+		int o = 6 * e;
+
+		for (int k = 0; k <= segments; k++) {
+			float t = k / (float) segments;
+
+			for (int c = 0; c < COMPONENTS; c++)
+				p[k * COMPONENTS + c] = ends[o + c] + t
+						* (ends[o + 3 + c] - ends[o + c]);
+		}
+
+		for (int n = 0; n < iterations; n++) {
+			for (int k = 1; k < segments; k++) {
+				int x = k * COMPONENTS, y = x + 1;
+				int i = (int) ((p[x] - minX) / cell);
+				int j = (int) ((p[y] - minY) / cell);
+
+				if (i < 1 || j < 1 || i >= grid - 1 || j >= grid - 1)
+					continue;
+
+				float gx = field[j * grid + i + 1] - field[j * grid + i - 1];
+				float gy = field[(j + 1) * grid + i] - field[(j - 1) * grid + i];
+				float g = (float) Math.sqrt(gx * gx + gy * gy);
+
+				if (g > 0) {
+					p[x] += 0.5f * cell * gx / g;
+					p[y] += 0.5f * cell * gy / g;
+				}
+			}
+
+			for (int k = 1; k < segments; k++)
+				for (int c = 0; c < 2; c++) {
+					int x = k * COMPONENTS + c;
+					p[x] = 0.5f * p[x] + 0.25f
+							* (p[x - COMPONENTS] + p[x + COMPONENTS]);
+				}
+		}
+
+		int base = e * pointsPerEdge * COMPONENTS;
+
+		for (int i = 0; i < p.length; i++)
+			points.put(base + i, p[i]);
+	}
+}
@@ -0,0 +1,467 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Expiry of the nodes and edges of {@link GraphBuffers} which have not been
+ * refreshed for some time, used by the time-windowed mode.
+ *
+ * The time of the last event received by each node and edge is kept in
+ * columns, indexed by pool index for nodes and by edge index for edges.
+ * Events only write this time, elements are checked later by
+ * {@link #sweep(GraphBuffers)}, usually called once per frame, which does a
+ * bounded amount of work:
+ * <ul>
+ * <li>nodes are scheduled in a timing wheel, in the bucket of the time they
+ * should start fading. When the bucket is reached, nodes which have been
+ * refreshed meanwhile are scheduled again, others start fading or are
+ * removed;</li>
+ * <li>fading nodes have their alpha decreasing until they are removed, or
+ * restored if they are refreshed;</li>
+ * <li>edges are checked by a cursor going round the edge indexes. Edges
+ * which have expired, or one of whose nodes has been removed, are removed.</li>
+ * </ul>
+ * Removing elements compacts the buffers as explicit removals do.
+ *
+ * Each scheduling of a node gets a new stamp, so that entries left in the
+ * wheel by a previous scheduling, or by a removed node, are ignored.
+ */
+class Expiry {
+	static final int WHEEL_SIZE = 256;
+
+	/**
+	 * Flag of a node which is fading.
+	 */
+	static final byte FADING = 1;
+
+	protected final long ttl;
+	protected final long fade;
+	protected final long tick;
+	protected final int budget;
+
+	protected final int offset;
+
+	protected final long[] touched;
+	protected final int[] stamps;
+	protected final int[] generations;
+	protected final byte[] flags;
+	protected final float[] alphas;
+
+	protected final long[] edgeTouched;
+	/**
+	 * Generation of the nodes of each edge when it was added, -1 for nodes
+	 * of another shard, which are not checked.
+	 */
+	protected final int[] edgeGenerations;
+
+	protected final String[][] wheel;
+	protected final int[][] wheelStamps;
+	protected final int[] wheelSizes;
+	protected long lastTick;
+	protected int bucketCursor;
+
+	protected String[] fading;
+	protected int[] fadingStamps;
+	protected int fadingCount;
+
+	protected int edgeCursor;
+
+	/**
+	 * Node colors, null if nodes have no color.
+	 */
+	protected final FloatBuffer colors;
+	protected final IntBuffer edges;
+
+	/**
+	 * Time written when an element is refreshed, updated at each sweep so
+	 * that events do not have to read the clock.
+	 */
+	protected volatile long now;
+
+	/**
+	 * @param ttl
+	 *            time to live of elements which are not refreshed, in
+	 *            milliseconds
+	 * @param fade
+	 *            duration of the fading at the end of the life of nodes, in
+	 *            milliseconds, 0 to disable it
+	 * @param budget
+	 *            maximum count of elements checked per sweep
+	 */
+	Expiry(long ttl, long fade, int budget, int offset, int maxNodes,
+			int maxEdges, FloatBuffer colors, IntBuffer edges) {
+		this.ttl = ttl;
+		this.fade = Math.max(0, Math.min(fade, ttl));
+		this.tick = Math.max(1, ttl / (WHEEL_SIZE / 4));
+		this.budget = budget;
+		this.offset = offset;
+		this.colors = colors;
+		this.edges = edges;
+
+		touched = new long[maxNodes];
+		stamps = new int[maxNodes];
+		generations = new int[maxNodes];
+		flags = new byte[maxNodes];
+		alphas = new float[maxNodes];
+
+		edgeTouched = new long[maxEdges];
+		edgeGenerations = new int[2 * maxEdges];
+
+		wheel = new String[WHEEL_SIZE][];
+		wheelStamps = new int[WHEEL_SIZE][];
+		wheelSizes = new int[WHEEL_SIZE];
+
+		for (int b = 0; b < WHEEL_SIZE; b++) {
+			wheel[b] = new String[16];
+			wheelStamps[b] = new int[16];
+		}
+
+		fading = new String[16];
+		fadingStamps = new int[16];
+
+		now = clock();
+		lastTick = now / tick;
+	}
+
+	/**
+	 * Take over the state of an expiry for buffers which have grown. The
+	 * previous expiry must not be used anymore.
+	 */
+	Expiry(Expiry e, int maxNodes, int maxEdges, FloatBuffer colors,
+			IntBuffer edges) {
+		this.ttl = e.ttl;
+		this.fade = e.fade;
+		this.tick = e.tick;
+		this.budget = e.budget;
+		this.offset = e.offset;
+		this.colors = colors;
+		this.edges = edges;
+
+		touched = Arrays.copyOf(e.touched, maxNodes);
+		stamps = Arrays.copyOf(e.stamps, maxNodes);
+		generations = Arrays.copyOf(e.generations, maxNodes);
+		flags = Arrays.copyOf(e.flags, maxNodes);
+		alphas = Arrays.copyOf(e.alphas, maxNodes);
+
+		edgeTouched = Arrays.copyOf(e.edgeTouched, maxEdges);
+		edgeGenerations = Arrays.copyOf(e.edgeGenerations, 2 * maxEdges);
+
+		wheel = e.wheel;
+		wheelStamps = e.wheelStamps;
+		wheelSizes = e.wheelSizes;
+		lastTick = e.lastTick;
+		bucketCursor = e.bucketCursor;
+
+		fading = e.fading;
+		fadingStamps = e.fadingStamps;
+		fadingCount = e.fadingCount;
+
+		edgeCursor = e.edgeCursor;
+		now = e.now;
+	}
+
+	void touchNode(int poolIndex) {
+		touched[poolIndex - offset] = now;
+	}
+
+	void nodeAdded(String nodeId, int poolIndex) {
+		int i = poolIndex - offset;
+
+		touched[i] = now;
+		flags[i] = 0;
+		schedule(nodeId, i, now + ttl - fade);
+	}
+
+	/**
+	 * Called before a node is removed, explicitly or not. The alpha of a
+	 * fading node is restored, so that the pool index can be reused.
+	 */
+	void nodeRemoved(int poolIndex) {
+		int i = poolIndex - offset;
+
+		if ((flags[i] & FADING) != 0 && colors != null)
+			colors.put(4 * poolIndex + 3, alphas[i]);
+
+		flags[i] = 0;
+		stamps[i]++;
+		generations[i]++;
+	}
+
+	void touchEdge(int index) {
+		edgeTouched[index] = now;
+	}
+
+	void edgeAdded(int index, int poolA, int poolB) {
+		edgeTouched[index] = now;
+		edgeGenerations[2 * index] = generation(poolA);
+		edgeGenerations[2 * index + 1] = generation(poolB);
+	}
+
+	/**
+	 * Called when the edge at index from is moved to index to.
+	 */
+	void edgeMoved(int from, int to) {
+		edgeTouched[to] = edgeTouched[from];
+		edgeGenerations[2 * to] = edgeGenerations[2 * from];
+		edgeGenerations[2 * to + 1] = edgeGenerations[2 * from + 1];
+	}
+
+	void clear() {
+		for (int i = 0; i < flags.length; i++) {
+			if ((flags[i] & FADING) != 0 && colors != null)
+				colors.put(4 * (offset + i) + 3, alphas[i]);
+
+			flags[i] = 0;
+			stamps[i]++;
+			generations[i]++;
+		}
+
+		for (int b = 0; b < WHEEL_SIZE; b++) {
+			Arrays.fill(wheel[b], 0, wheelSizes[b], null);
+			wheelSizes[b] = 0;
+		}
+
+		Arrays.fill(fading, 0, fadingCount, null);
+		fadingCount = 0;
+		bucketCursor = 0;
+		edgeCursor = 0;
+	}
+
+	/**
+	 * Check a bounded number of elements, removing the expired ones from the
+	 * buffers. Must be called while the structure of the buffers can not be
+	 * changed by another thread.
+	 *
+	 * @return the number of elements removed
+	 */
+	int sweep(GraphBuffers gb) {
+		long t = clock();
+		long current = t / tick;
+		int work = budget;
+		int removed = 0;
+
+		now = t;
+
+		/*
+		 * Fading nodes first, so that they fade smoothly.
+		 */
+		int kept = 0;
+
+		for (int k = 0; k < fadingCount; k++) {
+			String id = fading[k];
+			int stamp = fadingStamps[k];
+			int state = work-- > 0 ? fade(gb, id, stamp) : 0;
+
+			fading[k] = null;
+
+			if (state == 0) {
+				fading[kept] = id;
+				fadingStamps[kept++] = stamp;
+			} else if (state > 0)
+				removed++;
+		}
+
+		fadingCount = kept;
+
+		/*
+		 * Then the buckets of the wheel which have been reached. If sweeps
+		 * have not been done for a while, buckets are visited once only.
+		 */
+		if (current - lastTick > WHEEL_SIZE / 2)
+			lastTick = current - WHEEL_SIZE / 2;
+
+		while (work > 0 && lastTick < current) {
+			int b = (int) ((lastTick + 1) % WHEEL_SIZE);
+
+			while (work > 0 && bucketCursor < wheelSizes[b]) {
+				String id = wheel[b][bucketCursor];
+				int stamp = wheelStamps[b][bucketCursor];
+
+				wheel[b][bucketCursor++] = null;
+				work--;
+
+				removed += check(gb, id, stamp);
+			}
+
+			if (bucketCursor < wheelSizes[b])
+				break;
+
+			wheelSizes[b] = 0;
+			bucketCursor = 0;
+			lastTick++;
+		}
+
+		/*
+		 * Then edges, each one at most once per sweep.
+		 */
+		int last = gb.getLastEdgeIndex();
+		int checks = Math.min(work, last + 1);
+
+		while (checks-- > 0 && last >= 0) {
+			if (edgeCursor > last)
+				edgeCursor = 0;
+
+			if (now >= edgeTouched[edgeCursor] + ttl || isDangling(edgeCursor)) {
+				gb.expireEdge(edgeCursor);
+				removed++;
+				last--;
+			} else
+				edgeCursor++;
+		}
+
+		return removed;
+	}
+
+	/**
+	 * Check a node whose bucket has been reached.
+	 *
+	 * @return 1 if the node has been removed, else 0
+	 */
+	protected int check(GraphBuffers gb, String nodeId, int stamp) {
+		int index = gb.getNodeID2Index().getIndex(nodeId);
+
+		if (index < 0)
+			return 0;
+
+		int poolIndex = gb.getNodePoolIndex(index);
+		int i = poolIndex - offset;
+
+		if (stamps[i] != stamp)
+			return 0;
+
+		long deadline = touched[i] + ttl;
+
+		if (now >= deadline) {
+			gb.expireNode(index);
+			return 1;
+		}
+
+		if (fade > 0 && now >= deadline - fade) {
+			flags[i] |= FADING;
+			alphas[i] = colors != null ? colors.get(4 * poolIndex + 3) : 1;
+			stamps[i]++;
+
+			if (fadingCount == fading.length) {
+				fading = Arrays.copyOf(fading, 2 * fading.length);
+				fadingStamps = Arrays.copyOf(fadingStamps,
+						2 * fadingStamps.length);
+			}
+
+			fading[fadingCount] = nodeId;
+			fadingStamps[fadingCount++] = stamps[i];
+
+			return 0;
+		}
+
+		schedule(nodeId, i, deadline - fade);
+		return 0;
+	}
+
+	/**
+	 * Update a fading node.
+	 *
+	 * @return 0 if the node is still fading, 1 if it has been removed and -1
+	 *         if it is not fading anymore
+	 */
+	protected int fade(GraphBuffers gb, String nodeId, int stamp) {
+		int index = gb.getNodeID2Index().getIndex(nodeId);
+
+		if (index < 0)
+			return -1;
+
+		int poolIndex = gb.getNodePoolIndex(index);
+		int i = poolIndex - offset;
+
+		if (stamps[i] != stamp || (flags[i] & FADING) == 0)
+			return -1;
+
+		long deadline = touched[i] + ttl;
+
+		if (now >= deadline) {
+			gb.expireNode(index);
+			return 1;
+		}
+
+		if (now < deadline - fade) {
+			if (colors != null)
+				colors.put(4 * poolIndex + 3, alphas[i]);
+
+			flags[i] &= ~FADING;
+			schedule(nodeId, i, deadline - fade);
+
+			return -1;
+		}
+
+		if (colors != null)
+			colors.put(4 * poolIndex + 3, alphas[i] * (deadline - now) / fade);
+
+		return 0;
+	}
+
+	/**
+	 * Schedule a node in the bucket of a time. Nodes are never scheduled in
+	 * the bucket being visited, so that a sweep does not see them twice.
+	 */
+	protected void schedule(String nodeId, int i, long time) {
+		long target = Math.max(time / tick, Math.max(now / tick, lastTick) + 1);
+		int b = (int) (target % WHEEL_SIZE);
+		int size = wheelSizes[b];
+
+		if (size == wheel[b].length) {
+			wheel[b] = Arrays.copyOf(wheel[b], 2 * size);
+			wheelStamps[b] = Arrays.copyOf(wheelStamps[b], 2 * size);
+		}
+
+		wheel[b][size] = nodeId;
+		wheelStamps[b][size] = ++stamps[i];
+		wheelSizes[b] = size + 1;
+	}
+
+	protected boolean isDangling(int index) {
+		for (int k = 0; k < 2; k++) {
+			int generation = edgeGenerations[2 * index + k];
+
+			if (generation >= 0
+					&& generations[edges.get(2 * index + k) - offset] != generation)
+				return true;
+		}
+
+		return false;
+	}
+
+	protected int generation(int poolIndex) {
+		int i = poolIndex - offset;
+		return i >= 0 && i < generations.length ? generations[i] : -1;
+	}
+
+	protected static long clock() {
+		return System.nanoTime() / 1000000L;
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Nodes and adjacency of drawn {@link GraphBuffers}, the input of the force
+ * layouts.
+ *
+ * Nodes are the pool indexes of the active nodes of all the drawn buffers,
+ * in index order. Adjacency is kept in compressed sparse rows indexed by
+ * pool index: the neighbors of the node at pool p are
+ * neighbors[offsets[p]] to neighbors[offsets[p + 1] - 1], each edge being
+ * seen from both of its nodes. Nodes are read again by each
+ * {@link #update(GraphBuffers[])}, adjacency is built again only when edges
+ * changed, which is told by the generation, the edge rewrites and the active
+ * edge count of the buffers.
+ */
+class ForceGraph {
+	/**
+	 * Changes reported by {@link #update(GraphBuffers[])}.
+	 */
+	static final int NODES_CHANGED = 1;
+	static final int EDGES_CHANGED = 2;
+
+	protected int[] nodes = new int[0];
+	protected int nodeCount;
+
+	/**
+	 * Pools covered by the offsets: the highest pool high water of the
+	 * drawn buffers.
+	 */
+	protected int pools;
+	protected int[] offsets = new int[1];
+	protected int[] neighbors = new int[0];
+	protected int[] degrees = new int[0];
+
+	/**
+	 * Views on the buffers, with the generation they were created for, and
+	 * the state of the edges read.
+	 */
+	protected IntBuffer[] indexes;
+	protected IntBuffer[] edges;
+	protected int[] viewGenerations;
+	protected int[] generations;
+	protected int[] rewrites;
+	protected int[] edgeCounts;
+
+	/**
+	 * Read the nodes of the buffers, and their edges if they changed.
+	 *
+	 * @return a combination of {@link #NODES_CHANGED} and
+	 *         {@link #EDGES_CHANGED}, 0 if nothing changed
+	 */
+	int update(GraphBuffers[] drawn) {
+		if (indexes == null || indexes.length != drawn.length) {
+			indexes = new IntBuffer[drawn.length];
+			edges = new IntBuffer[drawn.length];
+			viewGenerations = new int[drawn.length];
+			generations = new int[drawn.length];
+			rewrites = new int[drawn.length];
+			edgeCounts = new int[drawn.length];
+
+			Arrays.fill(viewGenerations, -1);
+			Arrays.fill(generations, -1);
+		}
+
+		int pools = 0;
+		boolean edgesChanged = false;
+
+		for (int i = 0; i < drawn.length; i++) {
+			pools = Math.max(pools, drawn[i].getPoolHighWater());
+
+			/*
+			 * As for the GPU buffers, rewrites are read before the count so
+			 * that a change seen half done is read again.
+			 */
+			int generation = drawn[i].getGeneration();
+			int rewrites = drawn[i].getEdgeRewrites();
+
+			if (generation != viewGenerations[i]) {
+				indexes[i] = ((ByteBuffer) drawn[i].createNewIndexBufferView())
+						.asIntBuffer();
+				edges[i] = ((ByteBuffer) drawn[i].createNewEdgeBufferView())
+						.asIntBuffer();
+				viewGenerations[i] = generation;
+			}
+
+			int count = Math.min(edges[i].capacity() / 2, drawn[i]
+					.getActiveEdgeCount());
+
+			if (generation != generations[i] || rewrites != this.rewrites[i]
+					|| count != edgeCounts[i]) {
+				generations[i] = generation;
+				this.rewrites[i] = rewrites;
+				edgeCounts[i] = count;
+				edgesChanged = true;
+			}
+		}
+
+		int changes = readNodes(drawn) ? NODES_CHANGED : 0;
+
+		if (edgesChanged || pools != this.pools) {
+			this.pools = pools;
+			readEdges();
+			changes |= EDGES_CHANGED;
+		}
+
+		return changes;
+	}
+
+	/**
+	 * Read the active nodes.
+	 *
+	 * @return true if they changed
+	 */
+	protected boolean readNodes(GraphBuffers[] drawn) {
+		int count = 0;
+
+		for (int i = 0; i < drawn.length; i++)
+			count += Math.min(indexes[i].capacity(), drawn[i]
+					.getActiveIndexCount());
+
+		int[] read = nodes.length >= count ? nodes : new int[Math.max(count,
+				nodes.length + (nodes.length >> 1))];
+		boolean changed = read != nodes || count != nodeCount;
+
+		for (int i = 0, n = 0; i < drawn.length; i++) {
+			int active = Math.min(indexes[i].capacity(), drawn[i]
+					.getActiveIndexCount());
+
+			for (int j = 0; j < active && n < count; j++, n++) {
+				int p = indexes[i].get(j);
+				changed |= read[n] != p;
+				read[n] = p;
+			}
+		}
+
+		nodes = read;
+		nodeCount = count;
+
+		return changed;
+	}
+
+	/**
+	 * Build the adjacency from the edges read by the last update. Edges
+	 * whose nodes are out of the pools are ignored, as are loops.
+	 */
+	protected void readEdges() {
+		if (degrees.length < pools)
+			degrees = new int[pools];
+
+		if (offsets.length < pools + 1)
+			offsets = new int[pools + 1];
+
+		Arrays.fill(degrees, 0, pools, 0);
+
+		int total = 0;
+
+		for (int i = 0; i < edges.length; i++) {
+			for (int e = 0; e < edgeCounts[i]; e++) {
+				int a = edges[i].get(2 * e);
+				int b = edges[i].get(2 * e + 1);
+
+				if (a == b || a < 0 || b < 0 || a >= pools || b >= pools)
+					continue;
+
+				degrees[a]++;
+				degrees[b]++;
+				total += 2;
+			}
+		}
+
+		if (neighbors.length < total)
+			neighbors = new int[Math.max(total, neighbors.length
+					+ (neighbors.length >> 1))];
+
+		offsets[0] = 0;
+
+		for (int p = 0; p < pools; p++) {
+			offsets[p + 1] = offsets[p] + degrees[p];
+			degrees[p] = offsets[p];
+		}
+
+		for (int i = 0; i < edges.length; i++) {
+			for (int e = 0; e < edgeCounts[i]; e++) {
+				int a = edges[i].get(2 * e);
+				int b = edges[i].get(2 * e + 1);
+
+				if (a == b || a < 0 || b < 0 || a >= pools || b >= pools)
+					continue;
+
+				/*
+				 * Edges may change while they are read, a node getting more
+				 * neighbors than counted keeps the first ones.
+				 */
+				if (degrees[a] < offsets[a + 1])
+					neighbors[degrees[a]++] = b;
+
+				if (degrees[b] < offsets[b + 1])
+					neighbors[degrees[b]++] = a;
+			}
+		}
+
+		for (int p = 0; p < pools; p++)
+			while (degrees[p] < offsets[p + 1])
+				neighbors[degrees[p]++] = p;
+	}
+
+	int getNodeCount() {
+		return nodeCount;
+	}
+
+	int[] getNodes() {
+		return nodes;
+	}
+
+	int getPools() {
+		return pools;
+	}
+
+	int[] getOffsets() {
+		return offsets;
+	}
+
+	int[] getNeighbors() {
+		return neighbors;
+	}
+
+	int getNeighborCount() {
+		return offsets[pools];
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+/**
+ * Force directed layout of the drawn {@link GraphBuffers}, computed by
+ * {@link CPUForceLayout} or, on the GPU, by {@link ComputeLayout}.
+ *
+ * Both do the same Jacobi iterations: each node is moved from the positions
+ * of the previous iteration by the forces of Fruchterman and Reingold, every
+ * node repulsing it by k² / d, its neighbors attracting it by d² / k, and a
+ * gravity pulling it to the origin by g * d. Nodes sharing their position
+ * are pushed apart in a direction given by a hash of their pool indexes,
+ * so that iterations are deterministic. The move of a node is limited by a
+ * temperature, which cools down at each iteration and is reset when the
+ * graph changes. Once it reached its minimum the layout is stable and
+ * iterations are skipped.
+ *
+ * Parameters are given by properties:
+ * <ul>
+ * <li>"gs.gl.layout.length": k, the ideal edge length (default 1);</li>
+ * <li>"gs.gl.layout.gravity": g (default 0.01);</li>
+ * <li>"gs.gl.layout.iterations": iterations per round (default 1);</li>
+ * <li>"gs.gl.layout.cooling": factor applied to the temperature at each
+ * iteration (default 0.99);</li>
+ * <li>"gs.gl.layout.dimensions": 2 to keep the nodes in the z = 0 plane
+ * (default 3).</li>
+ * </ul>
+ */
+public abstract class ForceLayout {
+	/**
+	 * Distance under which two nodes are pushed apart in a fixed direction,
+	 * relative to k.
+	 */
+	public static final float MIN_DISTANCE = 0.01f;
+
+	/**
+	 * Temperature, relative to k, under which the layout is stable.
+	 */
+	public static final float MIN_TEMPERATURE = 0.001f;
+
+	protected final float length = Float.parseFloat(System.getProperty(
+			"gs.gl.layout.length", "1"));
+	protected final float gravity = Float.parseFloat(System.getProperty(
+			"gs.gl.layout.gravity", "0.01"));
+	protected final int iterations = Math.max(1, Integer.getInteger(
+			"gs.gl.layout.iterations", 1));
+	protected final float cooling = Float.parseFloat(System.getProperty(
+			"gs.gl.layout.cooling", "0.99"));
+	protected final boolean flat = Integer.getInteger(
+			"gs.gl.layout.dimensions", 3) == 2;
+
+	protected float temperature = length;
+
+	protected final ForceGraph graph = new ForceGraph();
+
+	/**
+	 * Read the graph of the buffers, heating the layout if it changed.
+	 *
+	 * @return the changes, see {@link ForceGraph#update(GraphBuffers[])}
+	 */
+	protected int updateGraph(GraphBuffers[] drawn) {
+		int changes = graph.update(drawn);
+
+		if (changes != 0)
+			temperature = length;
+
+		return changes;
+	}
+
+	/**
+	 * Temperature of the next iteration, cooling the layout.
+	 */
+	protected float nextTemperature() {
+		float t = temperature;
+		temperature = Math.max(t * cooling, MIN_TEMPERATURE * length);
+
+		return t;
+	}
+
+	/**
+	 * True if the temperature reached its minimum.
+	 */
+	public boolean isStable() {
+		return temperature <= MIN_TEMPERATURE * length;
+	}
+
+	public float getTemperature() {
+		return temperature;
+	}
+
+	/**
+	 * Direction of the repulsion between two nodes sharing their position,
+	 * each component in ]-1;1[ and not 0. The compute shader computes the
+	 * same with unsigned integers.
+	 */
+	static void jitter(int i, int j, float[] d) {
+		int h = i * 0x9E3779B1 ^ j * 40503;
+
+		d[0] = (h & 1023) / 511.5f - 1;
+		d[1] = ((h >>> 10) & 1023) / 511.5f - 1;
+		d[2] = ((h >>> 20) & 1023) / 511.5f - 1;
+	}
+}
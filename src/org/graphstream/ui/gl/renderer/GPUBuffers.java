@@ -0,0 +1,490 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2ES2;
+import javax.media.opengl.GL3;
+import javax.media.opengl.GL3ES3;
+
+/**
+ * Buffer objects holding the graph on the GPU, shared by the views of some
+ * {@link SharedBuffers} whose contexts share their GL objects.
+ *
+ * Node columns are vertex buffers, indexed by the attribute locations
+ * {@link #POSITION}, {@link #COLOR}, {@link #SIZE} and {@link #PREVIOUS}.
+ * Node indexes and edges of each drawn buffers are element buffers. Node
+ * data is uploaded again each round of {@link SharedBuffers#update(Object)},
+ * up to the highest pool index used, orphaning the previous storage. Edges
+ * stay on the GPU: edges appended since the last round are uploaded alone,
+ * other changes reported by {@link GraphBuffers#getEdgeRewrites()} upload
+ * all the edges again.
+ *
+ * Views draw between {@link #begin(GL3, int)} and {@link #end()}, which lock
+ * the buffers. The first view drawing a round uploads it. When several views
+ * use the buffers, the upload is followed by a fence the other views wait
+ * for, so that they see complete data.
+ *
+ * When the layout is computed on the GPU, see
+ * {@link SharedBuffers#setGPULayout(boolean)}, the position column is not
+ * uploaded: the {@link ComputeLayout} owns the position buffer and runs
+ * its round instead, once per round too.
+ */
+public class GPUBuffers {
+	public static final int POSITION = 0;
+	public static final int COLOR = 1;
+	public static final int SIZE = 2;
+	public static final int PREVIOUS = 3;
+
+	protected final SharedBuffers shared;
+
+	protected final ReentrantLock lock = new ReentrantLock();
+
+	protected final int[] vertexBuffers = new int[4];
+	protected final boolean[] uploaded = new boolean[4];
+	protected int[] components;
+
+	protected int[] indexBuffers;
+	protected int[] nodeCounts;
+	protected EdgeStorage[] edgeStorages;
+
+	/**
+	 * Views on the columns of the buffers, and the generation they were
+	 * created for.
+	 */
+	protected Buffer[] columns;
+	protected Buffer[] indexes;
+	protected Buffer[] edges;
+	protected int generation = -1;
+
+	protected volatile int users;
+	protected int round = -1;
+	protected long fence;
+
+	/**
+	 * Layout computing the positions, null when they are uploaded.
+	 */
+	protected ComputeLayout layout;
+
+	/**
+	 * Bytes uploaded by the last begin.
+	 */
+	protected long uploadedBytes;
+
+	protected GPUBuffers(SharedBuffers shared) {
+		this.shared = shared;
+	}
+
+	/**
+	 * Use the buffers, creating them for the first view. Must be called with
+	 * a context of the share group current.
+	 */
+	public synchronized void acquire(GL3 gl) {
+		if (users++ > 0)
+			return;
+
+		GraphBuffers[] drawn = shared.getDrawnBuffers();
+
+		gl.glGenBuffers(vertexBuffers.length, vertexBuffers, 0);
+
+		indexBuffers = new int[drawn.length];
+		nodeCounts = new int[drawn.length];
+		edgeStorages = new EdgeStorage[drawn.length];
+
+		gl.glGenBuffers(indexBuffers.length, indexBuffers, 0);
+
+		for (int i = 0; i < edgeStorages.length; i++)
+			edgeStorages[i] = new EdgeStorage(gl);
+
+		round = -1;
+	}
+
+	/**
+	 * Stop using the buffers, deleting them after the last view. Must be
+	 * called with a context of the share group current.
+	 */
+	public synchronized void release(GL3 gl) {
+		if (--users > 0)
+			return;
+
+		if (layout != null) {
+			layout.dispose(gl.getGL4(), (ByteBuffer) columns[POSITION]);
+			layout = null;
+		}
+
+		for (int i = 0; i < edgeStorages.length; i++)
+			edgeStorages[i].dispose(gl);
+
+		gl.glDeleteBuffers(indexBuffers.length, indexBuffers, 0);
+		gl.glDeleteBuffers(vertexBuffers.length, vertexBuffers, 0);
+
+		if (fence != 0) {
+			gl.glDeleteSync(fence);
+			fence = 0;
+		}
+	}
+
+	/**
+	 * Lock the buffers to draw a round, uploading it if no other view did.
+	 */
+	public void begin(GL3 gl, int round) {
+		lock.lock();
+
+		uploadedBytes = 0;
+
+		if (round != this.round) {
+			upload(gl);
+			this.round = round;
+
+			if (fence != 0)
+				gl.glDeleteSync(fence);
+
+			if (users > 1) {
+				fence = gl.glFenceSync(GL3ES3.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+
+				/*
+				 * The other contexts may wait for the fence as soon as the
+				 * lock is released, it has to be submitted before.
+				 */
+				gl.glFlush();
+			} else
+				fence = 0;
+		} else if (fence != 0) {
+			gl.glWaitSync(fence, 0, GL3ES3.GL_TIMEOUT_IGNORED);
+		}
+	}
+
+	public void end() {
+		lock.unlock();
+	}
+
+	/**
+	 * Compute the positions with a {@link ComputeLayout}, created with the
+	 * programs of a view. Called by the views before
+	 * {@link #begin(GL3, int)}, the first one creates the layout.
+	 *
+	 * @return false if the GL can not run compute shaders
+	 */
+	public boolean enableLayout(GL3 gl, ShaderManager shaders) {
+		lock.lock();
+
+		try {
+			if (layout != null)
+				return true;
+
+			if (!ComputeLayout.isSupported(gl.getContext())) {
+				System.err.printf("[layout] compute shaders need OpenGL 4.3, "
+						+ "\"%s\" given%n", gl.getContext().getGLVersion());
+				return false;
+			}
+
+			layout = new ComputeLayout(gl.getGL4(), shaders);
+
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stop computing the positions, which are read back in the buffers and
+	 * uploaded again from the next round.
+	 */
+	public void disableLayout(GL3 gl) {
+		lock.lock();
+
+		try {
+			if (layout != null) {
+				layout.dispose(gl.getGL4(), (ByteBuffer) columns[POSITION]);
+				layout = null;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stop the layout if it was created with the programs of a view which
+	 * disposes them. Another view creates it again with its own programs.
+	 */
+	public void releaseLayout(GL3 gl, ShaderManager shaders) {
+		lock.lock();
+
+		try {
+			if (layout != null && layout.shaders == shaders)
+				disableLayout(gl);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean isLayoutEnabled() {
+		lock.lock();
+
+		try {
+			return layout != null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Bytes uploaded by the last {@link #begin(GL3, int)}.
+	 */
+	public long getUploadedBytes() {
+		return uploadedBytes;
+	}
+
+	/**
+	 * Vertex buffer of a node column.
+	 */
+	public int getVertexBuffer(int column) {
+		if (column == POSITION && layout != null)
+			return layout.getPositionBuffer();
+
+		return vertexBuffers[column];
+	}
+
+	/**
+	 * True if the column was uploaded. Colors, sizes and previous positions
+	 * are not always used.
+	 */
+	public boolean isUploaded(int column) {
+		return uploaded[column];
+	}
+
+	public int getComponents(int column) {
+		return components[column];
+	}
+
+	public int getIndexBuffer(int drawn) {
+		return indexBuffers[drawn];
+	}
+
+	public int getNodeCount(int drawn) {
+		return nodeCounts[drawn];
+	}
+
+	public int getEdgeBuffer(int drawn) {
+		return edgeStorages[drawn].buffer[0];
+	}
+
+	public int getEdgeCount(int drawn) {
+		return edgeStorages[drawn].count;
+	}
+
+	protected void upload(GL3 gl) {
+		GraphBuffers gb = shared.getGraphBuffers();
+		GraphBuffers[] drawn = shared.getDrawnBuffers();
+
+		if (generation != gb.getGeneration())
+			createViews(gb, drawn);
+
+		int pools = 0;
+
+		for (int i = 0; i < drawn.length; i++)
+			pools = Math.max(pools, drawn[i].getPoolHighWater());
+
+		uploaded[POSITION] = true;
+		uploaded[COLOR] = gb.isColorPointerEnabled();
+		uploaded[SIZE] = gb.isSizePointerEnabled();
+		uploaded[PREVIOUS] = gb.isAnimated();
+
+		for (int i = 0; i < vertexBuffers.length; i++) {
+			if (!uploaded[i])
+				continue;
+
+			if (i == POSITION && layout != null) {
+				layout.round(gl.getGL4(), drawn, (ByteBuffer) columns[i]);
+				uploadedBytes += layout.getUploadedBytes();
+				continue;
+			}
+
+			long size = Math.min(columns[i].capacity(), (long) components[i]
+					* pools * GraphBuffers.FLOAT_BYTES);
+
+			columns[i].rewind();
+
+			gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vertexBuffers[i]);
+			gl.glBufferData(GL.GL_ARRAY_BUFFER, size, columns[i],
+					GL2ES2.GL_STREAM_DRAW);
+
+			uploadedBytes += size;
+		}
+
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+
+		for (int i = 0; i < drawn.length; i++) {
+			VisibleIndexes.Lists visible = drawn[i].acquireVisibleIndexes();
+
+			try {
+				Buffer nodes = visible != null ? visible.createNodeView()
+						: indexes[i];
+				int count = Math.min(nodes.capacity()
+						/ GraphBuffers.INT_BYTES,
+						visible != null ? visible.getNodeCount() : drawn[i]
+								.getActiveIndexCount());
+
+				nodes.position(0);
+				nodes.limit(count * GraphBuffers.INT_BYTES);
+
+				gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, indexBuffers[i]);
+				gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, 4L * count,
+						nodes, GL2ES2.GL_STREAM_DRAW);
+
+				nodeCounts[i] = count;
+				uploadedBytes += 4L * count;
+
+				edgeStorages[i].update(gl, drawn[i], visible, edges[i]);
+			} finally {
+				if (visible != null)
+					visible.release();
+			}
+		}
+
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+	}
+
+	protected void createViews(GraphBuffers gb, GraphBuffers[] drawn) {
+		generation = gb.getGeneration();
+
+		components = new int[] { gb.getVertexComposantCount(),
+				gb.getColorComposantCount(), 1, Transition.COMPONENTS };
+		columns = new Buffer[] { gb.createNewVertexBufferView(),
+				gb.createNewNodeColorView(), gb.createNewNodeSizeView(),
+				gb.createNewNodePreviousView() };
+
+		indexes = new Buffer[drawn.length];
+		edges = new Buffer[drawn.length];
+
+		for (int i = 0; i < drawn.length; i++) {
+			indexes[i] = drawn[i].createNewIndexBufferView();
+			edges[i] = drawn[i].createNewEdgeBufferView();
+		}
+	}
+
+	/**
+	 * Edges of one buffers kept on the GPU between rounds, in an element
+	 * buffer.
+	 */
+	protected class EdgeStorage {
+		protected final int[] buffer = new int[1];
+
+		/**
+		 * Edges the buffer can hold, and edges uploaded.
+		 */
+		protected int capacity = 0;
+		protected int count = 0;
+
+		/**
+		 * Buffers, or visible edges of the buffers, uploaded, with their
+		 * generation and edge rewrites at that time.
+		 */
+		protected Object source;
+		protected int generation = -1;
+		protected int rewrites = -1;
+
+		protected EdgeStorage(GL3 gl) {
+			gl.glGenBuffers(1, buffer, 0);
+		}
+
+		/**
+		 * Upload the edges which changed since the last round. The view of
+		 * the edges is a byte view, its limit and position are in bytes.
+		 *
+		 * @param visible
+		 *            visible elements of the buffers, drawn instead of the
+		 *            edges if not null
+		 */
+		protected void update(GL3 gl, GraphBuffers gb,
+				VisibleIndexes.Lists visible, Buffer edges) {
+			/*
+			 * As for instanced edges, rewrites are read before the count so
+			 * that a change seen half done is uploaded again.
+			 */
+			Object source = gb;
+			int generation = gb.getGeneration();
+			int rewrites = gb.getEdgeRewrites();
+			int active = gb.getActiveEdgeCount();
+
+			if (visible != null) {
+				source = visible.getOwner();
+				rewrites = visible.getEdgeRewrites();
+				active = visible.getEdgeCount();
+				edges = visible.createEdgeView();
+			}
+
+			active = Math.min(edges.capacity()
+					/ (2 * GraphBuffers.INT_BYTES), active);
+
+			if (active == 0) {
+				count = 0;
+				return;
+			}
+
+			gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, buffer[0]);
+
+			if (source != this.source || generation != this.generation
+					|| rewrites != this.rewrites || active < count
+					|| active > capacity) {
+				if (active > capacity)
+					capacity = Math.max(active, capacity + (capacity >> 1));
+
+				edges.limit(2 * active * GraphBuffers.INT_BYTES);
+				edges.rewind();
+
+				gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, 2L * capacity
+						* GraphBuffers.INT_BYTES, null, GL.GL_STATIC_DRAW);
+				gl.glBufferSubData(GL.GL_ELEMENT_ARRAY_BUFFER, 0, 2L * active
+						* GraphBuffers.INT_BYTES, edges);
+				uploadedBytes += 2L * active * GraphBuffers.INT_BYTES;
+
+				this.source = source;
+				this.generation = generation;
+				this.rewrites = rewrites;
+			} else if (active > count) {
+				edges.limit(2 * active * GraphBuffers.INT_BYTES);
+				edges.position(2 * count * GraphBuffers.INT_BYTES);
+
+				gl.glBufferSubData(GL.GL_ELEMENT_ARRAY_BUFFER, 2L * count
+						* GraphBuffers.INT_BYTES, 2L * (active - count)
+						* GraphBuffers.INT_BYTES, edges);
+				uploadedBytes += 2L * (active - count)
+						* GraphBuffers.INT_BYTES;
+			}
+
+			count = active;
+		}
+
+		protected void dispose(GL3 gl) {
+			gl.glDeleteBuffers(1, buffer, 0);
+		}
+	}
+}
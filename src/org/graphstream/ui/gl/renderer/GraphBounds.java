@@ -0,0 +1,279 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.graphstream.ui.gl.renderer.GraphBuffers.GraphBuffer;
+
+/**
+ * Bounding box and centroid of the nodes of some {@link GraphBuffers}.
+ *
+ * Bounds are updated in constant time by each change of the coordinates of a
+ * node: the sums of the coordinates are exact, but the box only grows, since
+ * a node moving away from the border can not tell if it was the last one on
+ * it. The box is shrunk by a full recompute, done in parallel every
+ * "gs.gl.bounds.period" ms (default 1000) when requested by
+ * {@link #refresh(GraphBuffers)}, usually once per frame.
+ *
+ * Updates are not synchronized, they are done by the thread writing the
+ * coordinates. Updates lost when several threads write, or while a
+ * recompute is running, are fixed by the next recompute.
+ */
+public class GraphBounds {
+	/**
+	 * Nodes per task of a recompute.
+	 */
+	protected static final int CHUNK = 65536;
+
+	private static ExecutorService workers;
+
+	protected final double[] sum = new double[3];
+	protected final float[] min = new float[3];
+	protected final float[] max = new float[3];
+	protected int count;
+
+	protected final long period = Long.getLong("gs.gl.bounds.period", 1000);
+	protected long lastRecompute;
+	protected final AtomicBoolean recomputing = new AtomicBoolean();
+
+	public GraphBounds() {
+		clear();
+	}
+
+	/**
+	 * Pool running the recomputes of all the bounds.
+	 */
+	protected static synchronized ExecutorService getWorkers() {
+		if (workers == null)
+			workers = Executors.newFixedThreadPool(Runtime.getRuntime()
+					.availableProcessors(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "graph-bounds");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+		return workers;
+	}
+
+	void clear() {
+		for (int i = 0; i < 3; i++) {
+			sum[i] = 0;
+			min[i] = Float.MAX_VALUE;
+			max[i] = -Float.MAX_VALUE;
+		}
+
+		count = 0;
+	}
+
+	void add(float x, float y, float z) {
+		count++;
+		set(0, 0, x);
+		set(1, 0, y);
+		set(2, 0, z);
+	}
+
+	void remove(float x, float y, float z) {
+		count--;
+		sum[0] -= x;
+		sum[1] -= y;
+		sum[2] -= z;
+	}
+
+	/**
+	 * A coordinate of a node changes.
+	 *
+	 * @param axis
+	 *            0, 1 or 2 for x, y or z
+	 */
+	void set(int axis, float from, float to) {
+		sum[axis] += to - from;
+
+		if (to < min[axis])
+			min[axis] = to;
+
+		if (to > max[axis])
+			max[axis] = to;
+	}
+
+	public int getNodeCount() {
+		return count;
+	}
+
+	/**
+	 * Get the centroid of the nodes.
+	 *
+	 * @return false if there is no node
+	 */
+	public boolean getCentroid(float[] xyz) {
+		int n = count;
+
+		if (n <= 0)
+			return false;
+
+		for (int i = 0; i < 3; i++)
+			xyz[i] = (float) (sum[i] / n);
+
+		return true;
+	}
+
+	/**
+	 * Get the bounding box of the nodes, which may be larger than the nodes
+	 * since the last recompute.
+	 *
+	 * @return false if there is no node
+	 */
+	public boolean getBox(float[] min, float[] max) {
+		if (count <= 0)
+			return false;
+
+		System.arraycopy(this.min, 0, min, 0, 3);
+		System.arraycopy(this.max, 0, max, 0, 3);
+
+		return true;
+	}
+
+	/**
+	 * Add these bounds to the bounds of other buffers.
+	 *
+	 * @param sum
+	 *            sums of the coordinates
+	 * @param min
+	 *            lower corner of the box, grown if needed
+	 * @param max
+	 *            upper corner of the box, grown if needed
+	 * @return the number of nodes added
+	 */
+	public int merge(double[] sum, float[] min, float[] max) {
+		int n = count;
+
+		if (n <= 0)
+			return 0;
+
+		for (int i = 0; i < 3; i++) {
+			sum[i] += this.sum[i];
+			min[i] = Math.min(min[i], this.min[i]);
+			max[i] = Math.max(max[i], this.max[i]);
+		}
+
+		return n;
+	}
+
+	/**
+	 * Start a recompute in background if the period elapsed since the last
+	 * one.
+	 */
+	public void refresh(GraphBuffers buffers) {
+		long now = System.currentTimeMillis();
+
+		if (now - lastRecompute < period
+				|| !recomputing.compareAndSet(false, true))
+			return;
+
+		lastRecompute = now;
+		recompute(buffers, getWorkers());
+	}
+
+	/**
+	 * Recompute the bounds of the nodes of the buffers with chunks run by
+	 * some workers. The last chunk to end publishes the bounds.
+	 */
+	protected void recompute(GraphBuffers buffers, ExecutorService workers) {
+		final FloatBuffer vertices = buffers
+				.getBuffer(GraphBuffer.NODE_VERTICES).duplicate()
+				.order(ByteOrder.nativeOrder()).asFloatBuffer();
+		final IntBuffer indexes = buffers.getBuffer(GraphBuffer.NODE_INDEXES)
+				.duplicate().order(ByteOrder.nativeOrder()).asIntBuffer();
+		final int n = buffers.getActiveIndexCount();
+		final int chunks = Math.max(1, (n + CHUNK - 1) / CHUNK);
+		final AtomicInteger remaining = new AtomicInteger(chunks);
+		final GraphBounds result = new GraphBounds();
+
+		for (int c = 0; c < chunks; c++) {
+			final int from = c * CHUNK;
+			final int to = Math.min(n, from + CHUNK);
+
+			workers.execute(new Runnable() {
+				public void run() {
+					GraphBounds part = new GraphBounds();
+
+					for (int i = from; i < to; i++) {
+						int p = 3 * indexes.get(i);
+						part.add(vertices.get(p), vertices.get(p + 1),
+								vertices.get(p + 2));
+					}
+
+					synchronized (result) {
+						part.merge(result.sum, result.min, result.max);
+						result.count += part.count;
+					}
+
+					if (remaining.decrementAndGet() == 0) {
+						publish(result);
+						recomputing.set(false);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Recompute the bounds in the calling thread.
+	 */
+	void recompute(GraphBuffers buffers) {
+		FloatBuffer vertices = buffers.getBuffer(GraphBuffer.NODE_VERTICES)
+				.duplicate().order(ByteOrder.nativeOrder()).asFloatBuffer();
+		IntBuffer indexes = buffers.getBuffer(GraphBuffer.NODE_INDEXES)
+				.duplicate().order(ByteOrder.nativeOrder()).asIntBuffer();
+		GraphBounds result = new GraphBounds();
+
+		for (int i = 0; i < buffers.getActiveIndexCount(); i++) {
+			int p = 3 * indexes.get(i);
+			result.add(vertices.get(p), vertices.get(p + 1),
+					vertices.get(p + 2));
+		}
+
+		publish(result);
+	}
+
+	protected void publish(GraphBounds result) {
+		synchronized (result) {
+			System.arraycopy(result.sum, 0, sum, 0, 3);
+			System.arraycopy(result.min, 0, min, 0, 3);
+			System.arraycopy(result.max, 0, max, 0, 3);
+			count = result.count;
+		}
+	}
+}
@@ -26,21 +26,31 @@
 package org.graphstream.ui.gl.renderer;
 
 import java.awt.Color;
+import java.io.File;
 import java.io.IOException;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.graphstream.stream.Sink;
 import org.graphstream.ui.gl.Context;
 import org.graphstream.ui.gl.Context.NodeColorMode;
 import org.graphstream.ui.gl.Context.NodeSizeMode;
+import org.graphstream.ui.gl.metrics.SinkMetrics;
+import org.graphstream.ui.gl.metrics.SinkMetrics.Callback;
+import org.graphstream.ui.gl.metrics.SinkMetrics.Drop;
 import org.graphstream.ui.graphicGraph.stylesheet.Rule;
 import org.graphstream.ui.graphicGraph.stylesheet.Style;
 import org.graphstream.ui.graphicGraph.stylesheet.StyleSheet;
@@ -51,6 +61,11 @@ public class GraphBuffers implements Sink, LayoutListener, StyleSheetListener {
 	public static interface ID2Index {
 		void init(int maxNodes);
 
+		/**
+		 * Extend the indexes which can be used, keeping the ids set.
+		 */
+		void grow(int maxNodes);
+
 		int getIndex(String id);
 
 		void setIndex(String id, int index);
@@ -59,6 +74,8 @@ public class GraphBuffers implements Sink, LayoutListener, StyleSheetListener {
 
 		void removeIndex(int index);
 
+		String getID(int index);
+
 		Iterable<String> eachID();
 	}
 
@@ -72,6 +89,20 @@ public class GraphBuffers implements Sink, LayoutListener, StyleSheetListener {
 			data = new ConcurrentHashMap<String, Integer>();
 		}
 
+		public void grow(int maxNodes) {
+			reverse = Arrays.copyOf(reverse, maxNodes);
+		}
+
+		public void init(String[] ids, int count) {
+			reverse = ids;
+			data = new ConcurrentHashMap<String, Integer>(Math.max(16,
+					count * 4 / 3 + 1));
+
+			for (int i = 0; i < count; i++)
+				if (ids[i] != null)
+					data.put(ids[i], i);
+		}
+
 		public int getIndex(String id) {
 			Integer i = data.get(id);
 			return i == null ? -1 : i;
@@ -98,6 +129,10 @@ public class GraphBuffers implements Sink, LayoutListener, StyleSheetListener {
 			}
 		}
 
+		public String getID(int index) {
+			return reverse[index];
+		}
+
 		public Iterable<String> eachID() {
 			return data.keySet();
 		}
@@ -122,6 +157,16 @@ public class GraphBuffers implements Sink, LayoutListener, StyleSheetListener {
 			max = 0;
 		}
 
+		public void grow(int maxNodes) {
+			IntBuffer grown = IntBuffer.allocate(maxNodes * 2);
+
+			data.clear();
+			grown.put(data);
+			grown.clear();
+
+			data = grown;
+		}
+
 		protected int getPosition(String id) {
 			int hash = id.hashCode();
 
@@ -193,6 +238,10 @@ public class GraphBuffers implements Sink, LayoutListener, StyleSheetListener {
 			}
 		}
 
+		public String getID(int index) {
+			throw new Error("not implemented");
+		}
+
 		public Iterable<String> eachID() {
 			throw new Error("not implemented");
 		}
@@ -202,10 +251,43 @@ public class GraphBuffers implements Sink, LayoutListener, StyleSheetListener {
 		RED, GREEN, BLUE, ALPHA
 	}
 
+	/**
+	 * Predicate choosing the visible nodes, see
+	 * {@link GraphBuffers#filterNodes(NodeFilter)}. It is called from
+	 * several threads at once, with the structure of the buffers locked.
+	 */
+	public static interface NodeFilter {
+		boolean isVisible(GraphBuffers buffers, String nodeId, int poolIndex);
+	}
+
+	/**
+	 * Predicate choosing the visible edges, see
+	 * {@link GraphBuffers#filterEdges(EdgeFilter)}. It is called from
+	 * several threads at once, with the structure of the buffers locked.
+	 *
+	 * @param from
+	 *            pool index of the source node
+	 * @param to
+	 *            pool index of the target node
+	 */
+	public static interface EdgeFilter {
+		boolean isVisible(GraphBuffers buffers, String edgeId,
+				int edgeIndex, int from, int to);
+	}
+
 	public static enum GraphBuffer {
-		NODE_INDEXES, NODE_VERTICES, NODE_COLORS, NODE_SIZES, EDGES
+		NODE_INDEXES, NODE_VERTICES, NODE_COLORS, NODE_SIZES, EDGES, NODE_PREVIOUS, EDGE_ATTRIBUTES
 	}
 
+	static final int INT_BYTES = Integer.SIZE / Byte.SIZE;
+	static final int FLOAT_BYTES = Float.SIZE / Byte.SIZE;
+
+	/**
+	 * Components of the attributes of an edge: width in pixels, and 1 if the
+	 * edge is directed, else 0.
+	 */
+	public static final int EDGE_ATTRIBUTE_COMPONENTS = 2;
+
 	/**
 	 * Converter of node id to index.
 	 */
@@ -248,6 +330,38 @@ public class GraphBuffers implements Sink, LayoutListener, StyleSheetListener {
 	 * Edge data. Contains id of edges extremities.
 	 */
 	private IntBuffer edges;
+	/**
+	 * Node positions at the beginning of their transition. Used only if
+	 * {@link #animated} is set to true.
+	 */
+	private FloatBuffer nodePrevious;
+	/**
+	 * Edge attributes, see {@link #EDGE_ATTRIBUTE_COMPONENTS}.
+	 */
+	private FloatBuffer edgeAttributes;
+
+	/**
+	 * Counts of nodes and edges the buffers can grow to. Buffers are first
+	 * allocated for the "gs.gl.initialnodes" and "gs.gl.initialedges"
+	 * properties (default 1024), and doubled when full, see
+	 * {@link #grow(int, int)}. Shards do not grow, they are allocated to
+	 * the maximum at once.
+	 */
+	private int maxNodes;
+	private int maxEdges;
+	private boolean growable;
+
+	/**
+	 * Width of new edges, set by the "gs.gl.edges.width" property.
+	 */
+	private final float defaultEdgeWidth = Float.parseFloat(System
+			.getProperty("gs.gl.edges.width", "1"));
+
+	/**
+	 * One more than the highest pool index used since the buffers were
+	 * cleared. Node data is only read up to this index.
+	 */
+	private volatile int poolHighWater;
 
 	/**
 	 * Flag indicating if each node should have a color.
@@ -258,10 +372,91 @@ public class GraphBuffers implements Sink, LayoutListener, StyleSheetListener {
 	 */
 	private boolean enableSizePointer = false;
 
+	/**
+	 * Duration of the transitions of node positions in seconds, 0 if nodes
+	 * are not animated.
+	 */
+	private float animationDuration = 0;
+	/**
+	 * Flag indicating if node positions are animated.
+	 */
+	private volatile boolean animated = false;
+
+	/**
+	 * Generation of the buffers.
+	 */
+	private volatile int generation = 0;
+
+	/**
+	 * Count of the changes of edges which are not appends.
+	 */
+	private volatile int edgeRewrites = 0;
+
+	/**
+	 * First pool index of these buffers. Not 0 only for the shards of
+	 * {@link ShardedGraphBuffers}, which share their node vertices, colors
+	 * and sizes.
+	 */
+	private int poolOffset = 0;
+
+	/**
+	 * Coordinates and colors waiting for the next frame, null if coalescing
+	 * is disabled.
+	 */
+	private volatile PendingUpdates pending;
+
+	/**
+	 * Bounding box and centroid of the nodes.
+	 */
+	private final GraphBounds bounds = new GraphBounds();
+
+	/**
+	 * Expiry of the elements which are not refreshed, null if the
+	 * time-windowed mode is disabled.
+	 */
+	private volatile Expiry expiry;
+
+	/**
+	 * Lock held while nodes and edges are added or removed, so that
+	 * {@link #expire()} can be called from the rendering thread. Updates by
+	 * id hold it from the lookup of the index to the write, since a removal
+	 * moves another element in the slot of the removed one.
+	 */
+	private final ReentrantLock structureLock = new ReentrantLock();
+
+	/**
+	 * Hidden nodes, by pool index, shared by the shards, and hidden edges,
+	 * by edge index. Hidden elements stay in the buffers but are not drawn.
+	 */
+	private volatile VisibilityMask nodeMask;
+	private volatile VisibilityMask edgeMask;
+
+	/**
+	 * Visible nodes and edges drawn while some elements are hidden.
+	 */
+	private final VisibleIndexes visible = new VisibleIndexes();
+
+	/**
+	 * Search index of the node ids, kept up to date as nodes are added and
+	 * removed.
+	 */
+	private IdSearchIndex searchIndex = new IdSearchIndex();
+
 	protected Context ctx;
 
 	protected StyleSheet stylesheet;
 
+	/**
+	 * Metrics of the events received.
+	 */
+	protected final SinkMetrics sinkMetrics = new SinkMetrics();
+
+	/**
+	 * Temporary arrays used to decode values.
+	 */
+	private final float[] coords = new float[3];
+	private final float[] color = new float[4];
+
 	public GraphBuffers(Context ctx) {
 		this.ctx = ctx;
 		this.buffers = new EnumMap<GraphBuffer, ByteBuffer>(GraphBuffer.class);
@@ -309,6 +504,16 @@ public class GraphBuffers implements Sink, LayoutListener, StyleSheetListener {
 				.order(ByteOrder.nativeOrder());
 	}
 
+	public Buffer createNewNodePreviousView() {
+		return buffers.get(GraphBuffer.NODE_PREVIOUS).duplicate()
+				.order(ByteOrder.nativeOrder());
+	}
+
+	public Buffer createNewEdgeAttributeView() {
+		return buffers.get(GraphBuffer.EDGE_ATTRIBUTES).duplicate()
+				.order(ByteOrder.nativeOrder());
+	}
+
 	public Buffer createNewNodeSizeView() {
 		return buffers.get(GraphBuffer.NODE_SIZES).duplicate()
 				.order(ByteOrder.nativeOrder());
@@ -330,262 +535,1226 @@ public class GraphBuffers implements Sink, LayoutListener, StyleSheetListener {
 		return lastEdgeIndex + 1;
 	}
 
-	public int getVertexComposantCount() {
-		return 3;
+	/**
+	 * One more than the highest pool index which may be used by a node.
+	 * Node vertices, colors and sizes need only be read up to this index.
+	 */
+	public int getPoolHighWater() {
+		return poolHighWater;
 	}
 
-	public int getVertexSize() {
-		return nodeVertices.capacity();
+	/**
+	 * Enable or disable the coalescing mode. In this mode, coordinates and
+	 * colors received are not written in the buffers but kept until
+	 * {@link #flushPending()} is called, usually once before rendering a
+	 * frame. Only the last value of each node is kept, so the work done per
+	 * frame depends on the number of nodes updated, not on the number of
+	 * events. Coalescing can also be enabled with the "gs.gl.coalesce"
+	 * property.
+	 */
+	public void setCoalescing(boolean on) {
+		if (on && pending == null)
+			pending = new PendingUpdates(nodeIndexes.capacity(), poolOffset);
+		else if (!on && pending != null) {
+			flushPending();
+			pending = null;
+		}
 	}
 
-	public int getColorComposantCount() {
-		return 4;
+	public boolean isCoalescing() {
+		return pending != null;
 	}
 
-	private void allocateBuffers(int maxNodes, int maxEdges) {
-		int colorBufferSize = enableColorPointer ? 4 * maxNodes : 1;
-		int sizeBufferSize = enableSizePointer ? maxNodes : 1;
-
-		if (buffers.size() != 0) {
-			for (ByteBuffer buffer : buffers.values())
-				buffer.clear();
-			buffers.clear();
+	/**
+	 * Set the duration of the transitions of node positions. When it is not
+	 * 0, moved nodes are drawn going smoothly from the position where they
+	 * were to the new one. The interpolation is done by the node vertex
+	 * shader, see {@link #createNewNodePreviousView()}.
+	 *
+	 * Animation needs a column which is allocated at initialization if the
+	 * "gs.gl.animation" property gives a duration in milliseconds. Without
+	 * it, the duration can not be changed.
+	 *
+	 * @param duration
+	 *            duration in milliseconds, 0 to disable animation
+	 */
+	public void setAnimationDuration(long duration) {
+		if (duration > 0 && !hasPreviousColumn()) {
+			System.err.printf("[animation] set \"gs.gl.animation\" to "
+					+ "enable animation%n");
+			return;
 		}
 
-		/*
-		 * Allocation
-		 */
-		buffers.put(GraphBuffer.NODE_INDEXES,
-				ByteBuffer.allocateDirect(maxNodes * Integer.SIZE));
-		buffers.put(GraphBuffer.NODE_VERTICES,
-				ByteBuffer.allocateDirect(3 * maxNodes * Float.SIZE));
-		buffers.put(GraphBuffer.NODE_COLORS,
-				ByteBuffer.allocateDirect(colorBufferSize * Float.SIZE));
-		buffers.put(GraphBuffer.NODE_SIZES,
-				ByteBuffer.allocateDirect(sizeBufferSize * Float.SIZE));
-		buffers.put(GraphBuffer.EDGES, ByteBuffer.allocateDirect(2 * maxEdges));
+		animationDuration = duration / 1000f;
+		animated = duration > 0;
+	}
 
-		/*
-		 * Ordering
-		 */
-		for (ByteBuffer buffer : buffers.values())
-			buffer.order(ByteOrder.nativeOrder());
+	/**
+	 * Duration of transitions in seconds, 0 if nodes are not animated.
+	 */
+	public float getAnimationDuration() {
+		return animated ? animationDuration : 0;
+	}
 
-		/*
-		 * Update last indexes
-		 */
-		lastNodeIndex = -1;
-		lastEdgeIndex = -1;
+	public boolean isAnimated() {
+		return animated;
+	}
 
-		/*
-		 * Create views
-		 */
-		nodeIndexes = buffers.get(GraphBuffer.NODE_INDEXES).asIntBuffer();
-		nodeVertices = buffers.get(GraphBuffer.NODE_VERTICES).asFloatBuffer();
-		nodeColors = buffers.get(GraphBuffer.NODE_COLORS).asFloatBuffer();
-		nodeSizes = buffers.get(GraphBuffer.NODE_SIZES).asFloatBuffer();
-		edges = buffers.get(GraphBuffer.EDGES).asIntBuffer();
+	/**
+	 * Time to give to the shader to draw nodes at their current position.
+	 */
+	public static float getAnimationTime() {
+		return Transition.now();
 	}
 
-	protected void init(Context ctx, int maxNodes, int maxEdges) {
-		/*
-		 * nodeIndexes = ByteBuffer.allocateDirect(maxNodes *
-		 * Integer.SIZE).order( ByteOrder.nativeOrder()); nodeIndexesI =
-		 * nodeIndexes.asIntBuffer(); nodeVertices = ByteBuffer.allocateDirect(3
-		 * * maxNodes * Float.SIZE) .order(ByteOrder.nativeOrder());
-		 * nodeVerticesF = nodeVertices.asFloatBuffer();
-		 * 
-		 * 
-		 * if (enableColorPointer) { nodeColors = ByteBuffer.allocateDirect(4 *
-		 * maxNodes * Float.SIZE) .order(ByteOrder.nativeOrder()); nodeColorsF =
-		 * nodeColors.asFloatBuffer(); } else { nodeColors =
-		 * ByteBuffer.allocateDirect(4 * 4 * Float.SIZE).order(
-		 * ByteOrder.nativeOrder()); nodeColorsF = nodeColors.asFloatBuffer(); }
-		 * 
-		 * if (enableSizePointer) { nodeSizes =
-		 * ByteBuffer.allocateDirect(maxNodes * Float.SIZE).order(
-		 * ByteOrder.nativeOrder()); nodeSizesF = nodeColors.asFloatBuffer(); }
-		 * else { nodeSizes = ByteBuffer.allocateDirect(4 * 4 *
-		 * Float.SIZE).order( ByteOrder.nativeOrder()); nodeColorsF =
-		 * nodeColors.asFloatBuffer(); }
-		 * 
-		 * edges = ByteBuffer.allocateDirect(2 * maxEdges).order(
-		 * ByteOrder.nativeOrder()); edgesI = edges.asIntBuffer();
-		 */
+	private boolean hasPreviousColumn() {
+		return nodePrevious != null
+				&& nodePrevious.capacity() >= Transition.COMPONENTS
+						* (poolOffset + nodeIndexes.capacity());
+	}
 
-		enableColorPointer = ctx.getNodeColorMode() == NodeColorMode.EachNodeOneColor;
-		enableSizePointer = ctx.getNodeSizeMode() == NodeSizeMode.EachNodeOneSize;
+	/**
+	 * Write pending coordinates and colors in the buffers, if coalescing is
+	 * enabled.
+	 *
+	 * @return the number of nodes updated
+	 */
+	public int flushPending() {
+		PendingUpdates p = pending;
 
-		allocateBuffers(maxNodes, maxEdges);
+		if (p == null)
+			return 0;
 
-		for (int i = 0; i < maxNodes; i++)
-			setNodePoolIndex(i, i);
+		return p.flush(nodeVertices, enableColorPointer ? nodeColors : null,
+				animated ? nodePrevious : null, Transition.now(),
+				animationDuration, bounds);
+	}
 
-		nodeID2Index = new HashMapID2Index();
-		nodeID2Index.init(maxNodes);
+	/**
+	 * Bounding box and centroid of the nodes, updated with their
+	 * coordinates.
+	 */
+	public GraphBounds getBounds() {
+		return bounds;
+	}
 
-		edgeID2Index = new HashMapID2Index();
-		edgeID2Index.init(maxEdges);
+	/**
+	 * Get the coordinates of a node.
+	 *
+	 * @return false if the node is unknown
+	 */
+	public boolean getNodePosition(String nodeId, float[] xyz) {
+		structureLock.lock();
 
-		long size = 0;
-		for (ByteBuffer buffer : buffers.values())
-			size += buffer.capacity();
+		try {
+			int index = nodeID2Index.getIndex(nodeId);
 
-		String symbol = "o";
+			if (index < 0)
+				return false;
 
-		if (size > 1024) {
-			size /= 1024;
-			symbol = "ko";
-		}
+			int poolIndex = getNodePoolIndex(index);
 
-		if (size > 1024) {
-			size /= 1024;
-			symbol = "mo";
-		}
+			for (int i = 0; i < 3; i++)
+				xyz[i] = nodeVertices.get(3 * poolIndex + i);
 
-		if (size > 1024) {
-			size /= 1024;
-			symbol = "go";
+			return true;
+		} finally {
+			structureLock.unlock();
 		}
-
-		System.out.printf("buffers use %d%s%n", size, symbol);
-		
-		java.util.Random random = new java.util.Random();
-		for(int i=0; i<maxNodes; i++)
-			setNodeSize(i,random.nextInt(10)+1);
 	}
 
-	private void setNodePoolIndex(int index, int value) {
-		nodeIndexes.put(index, value);
-	}
+	/**
+	 * Enable the time-windowed mode: nodes and edges which do not receive
+	 * any event during a time to live are removed. Layout events do not
+	 * refresh nodes. Before being removed, nodes can fade by decreasing
+	 * their alpha. Elements are checked by {@link #expire()}, which should be
+	 * called regularly, usually once per frame. This mode can also be enabled
+	 * with the "gs.gl.ttl" and "gs.gl.ttl.fade" properties, and the number of
+	 * elements checked per call set with "gs.gl.ttl.budget".
+	 *
+	 * @param ttl
+	 *            time to live in milliseconds, 0 to disable the mode
+	 * @param fade
+	 *            fading duration in milliseconds, 0 to disable fading
+	 */
+	public void setExpiry(long ttl, long fade) {
+		structureLock.lock();
 
-	private int getNodePoolIndex(int index) {
-		return nodeIndexes.get(index);
-	}
+		try {
+			if (expiry != null)
+				expiry.clear();
 
-	private void setNodeX(int poolIndex, float x) {
-		nodeVertices.put(poolIndex * 3 + 0, x);
+			expiry = ttl > 0 ? createExpiry(ttl, fade) : null;
+		} finally {
+			structureLock.unlock();
+		}
 	}
 
-	private void setNodeY(int poolIndex, float y) {
-		nodeVertices.put(poolIndex * 3 + 1, y);
+	public boolean isExpiring() {
+		return expiry != null;
 	}
 
-	private void setNodeZ(int poolIndex, float z) {
-		nodeVertices.put(poolIndex * 3 + 2, z);
-	}
+	/**
+	 * Check a bounded number of elements in the time-windowed mode and
+	 * remove the expired ones.
+	 *
+	 * @return the number of nodes and edges removed
+	 */
+	public int expire() {
+		Expiry e = expiry;
 
-	private void setNodeColor(int poolIndex, NodeColor color, float value) {
-		if (enableColorPointer)
-			nodeColors.put(poolIndex * 4 + color.ordinal(), value);
-	}
+		if (e == null)
+			return 0;
 
-	private void setNodeSize(int poolIndex, float size) {
-		if (enableSizePointer)
-			nodeSizes.put(poolIndex, size);
-	}
+		structureLock.lock();
 
-	protected void checkNodeCoords(String nodeId, String attr, Object value) {
-		int index = nodeID2Index.getIndex(nodeId);
+		try {
+			return e.sweep(this);
+		} finally {
+			structureLock.unlock();
+		}
+	}
 
-		if (index != -1) {
-			float x, y, z;
+	/**
+	 * Create the expiry and register the elements already in the buffers.
+	 */
+	private Expiry createExpiry(long ttl, long fade) {
+		Expiry e = new Expiry(ttl, fade, Integer.getInteger(
+				"gs.gl.ttl.budget", 4096), poolOffset,
+				nodeIndexes.capacity(), edges.capacity() / 2,
+				enableColorPointer ? nodeColors : null, edges);
 
-			x = y = z = 0;
+		for (int i = 0; i <= lastNodeIndex; i++)
+			e.nodeAdded(nodeID2Index.getID(i), getNodePoolIndex(i));
 
-			if (value instanceof Object[]) {
-				Object[] varray = (Object[]) value;
+		for (int i = 0; i <= lastEdgeIndex; i++)
+			e.edgeAdded(i, edges.get(2 * i), edges.get(2 * i + 1));
 
-				if (varray[0] instanceof Float) {
-					Float[] ar = new Float[varray.length];
-					for (int i = 0; i < varray.length; i++)
-						ar[i] = (Float) varray[i];
-					value = ar;
-				} else if (varray[0] instanceof Double) {
-					Double[] ar = new Double[varray.length];
-					for (int i = 0; i < varray.length; i++)
-						ar[i] = (Double) varray[i];
-					value = ar;
-				}
-			}
+		return e;
+	}
 
-			if (value instanceof Float) {
-				x = y = z = (Float) value;
-			} else if (value instanceof float[]) {
-				float[] varray = (float[]) value;
-
-				x = varray.length > 0 ? varray[0] : 0;
-				y = varray.length > 1 ? varray[1] : 0;
-				z = varray.length > 2 ? varray[2] : 0;
-			} else if (value instanceof Float[]) {
-				Float[] varray = (Float[]) value;
-
-				x = varray.length > 0 ? varray[0] : 0;
-				y = varray.length > 1 ? varray[1] : 0;
-				z = varray.length > 2 ? varray[2] : 0;
-			} else if (value instanceof Double[]) {
-				Double[] varray = (Double[]) value;
-
-				x = varray.length > 0 ? varray[0].floatValue() : 0;
-				y = varray.length > 1 ? varray[1].floatValue() : 0;
-				z = varray.length > 2 ? varray[2].floatValue() : 0;
-			} else
-				System.err.printf("unknown coords type : %s%n",
-						value.getClass());
+	/**
+	 * Hide or show a node. Hidden nodes, and the edges linking them, stay in
+	 * the buffers but are not drawn. Nodes are visible when added.
+	 *
+	 * @return true if the visibility of the node changed
+	 */
+	public boolean setNodeVisible(String nodeId, boolean show) {
+		structureLock.lock();
 
-			int poolIndex = getNodePoolIndex(index);
+		try {
+			int index = nodeID2Index.getIndex(nodeId);
 
-			if (attr.equals("x")) {
-				setNodeX(poolIndex, x);
-			} else if (attr.equals("y")) {
-				setNodeY(poolIndex, y);
-			} else if (attr.equals("z")) {
-				setNodeZ(poolIndex, z);
-			} else if (attr.equals("xy")) {
-				setNodeX(poolIndex, x);
-				setNodeY(poolIndex, y);
-			} else if (attr.equals("xyz")) {
-				setNodeX(poolIndex, x);
-				setNodeY(poolIndex, y);
-				setNodeZ(poolIndex, z);
+			if (index == -1) {
+				unknownId(nodeId);
+				return false;
 			}
-		} else
-			System.err.printf("id not found%n");
+
+			if (!nodeMask.setHidden(getNodePoolIndex(index), !show))
+				return false;
+
+			visible.nodeChanged(index);
+			return true;
+		} finally {
+			structureLock.unlock();
+		}
 	}
 
-	protected void checkNodeColor(String nodeId, String attr, Object value) {
-		int index = nodeID2Index.getIndex(nodeId);
+	/**
+	 * Hide or show an edge. Edges are visible when added, but are drawn only
+	 * if both their nodes are visible too.
+	 *
+	 * @return true if the visibility of the edge changed
+	 */
+	public boolean setEdgeVisible(String edgeId, boolean show) {
+		structureLock.lock();
 
-		if (enableColorPointer && index != -1) {
-			float[] rgba = { 0, 0, 0, 1 };
-
-			if (value instanceof Float) {
-				// XXX
-			} else if (value instanceof float[]) {
-				float[] varray = (float[]) value;
-
-				rgba[0] = varray.length > 0 ? varray[0] : 0;
-				rgba[1] = varray.length > 1 ? varray[1] : 0;
-				rgba[2] = varray.length > 2 ? varray[2] : 0;
-				rgba[3] = varray.length > 3 ? varray[3] : 0;
-			} else if (value instanceof Float[]) {
-				Float[] varray = (Float[]) value;
-
-				rgba[0] = varray.length > 0 ? varray[0] : 0;
-				rgba[1] = varray.length > 1 ? varray[1] : 0;
-				rgba[2] = varray.length > 2 ? varray[2] : 0;
-				rgba[3] = varray.length > 3 ? varray[3] : 0;
-			} else
-				System.err.printf("unknown coords type%n");
+		try {
+			int index = edgeID2Index.getIndex(edgeId);
 
-			int poolIndex = getNodePoolIndex(index);
+			if (index == -1) {
+				unknownId(edgeId);
+				return false;
+			}
 
-			for (int i = 0; i < 4; i++)
-				nodeColors.put(poolIndex * 4 + i, rgba[i]);
+			if (!edgeMask.setHidden(index, !show))
+				return false;
+
+			visible.edgeChanged(index);
+			return true;
+		} finally {
+			structureLock.unlock();
 		}
 	}
 
-	protected void removeNodeInMemory(int index) {
+	/**
+	 * True if the node is known and not hidden.
+	 */
+	public boolean isNodeVisible(String nodeId) {
+		int index = nodeID2Index.getIndex(nodeId);
+		return index >= 0 && !nodeMask.isHidden(getNodePoolIndex(index));
+	}
+
+	/**
+	 * True if the edge is known and not hidden. The edge may still not be
+	 * drawn if one of its nodes is hidden.
+	 */
+	public boolean isEdgeVisible(String edgeId) {
+		int index = edgeID2Index.getIndex(edgeId);
+		return index >= 0 && !edgeMask.isHidden(index);
+	}
+
+	/**
+	 * Show all the nodes and edges of these buffers.
+	 */
+	public void showAll() {
+		structureLock.lock();
+
+		try {
+			nodeMask.clear(poolOffset, poolOffset + nodeIndexes.capacity());
+			edgeMask.clear(0, edgeMask.getCapacity());
+
+			for (int i = 0; i <= lastNodeIndex; i += VisibleIndexes.CHUNK)
+				visible.nodeChanged(i);
+			for (int i = 0; i <= lastEdgeIndex; i += VisibleIndexes.CHUNK)
+				visible.edgeChanged(i);
+		} finally {
+			structureLock.unlock();
+		}
+	}
+
+	/**
+	 * Set the visibility of all the nodes of these buffers with a
+	 * predicate. Nodes are cut in chunks evaluated in parallel, the
+	 * structure being locked until all are done.
+	 *
+	 * @return the number of nodes whose visibility changed
+	 */
+	public int filterNodes(final NodeFilter filter) {
+		structureLock.lock();
+
+		try {
+			final VisibilityMask mask = nodeMask;
+			final ID2Index ids = nodeID2Index;
+
+			return filter(lastNodeIndex + 1, new FilterRange() {
+				int filter(int from, int to) {
+					int changed = 0;
+
+					for (int i = from; i < to; i++) {
+						int poolIndex = getNodePoolIndex(i);
+						boolean show = filter.isVisible(GraphBuffers.this,
+								ids.getID(i), poolIndex);
+
+						if (mask.setHidden(poolIndex, !show)) {
+							visible.nodeChanged(i);
+							changed++;
+						}
+					}
+
+					return changed;
+				}
+			});
+		} finally {
+			structureLock.unlock();
+		}
+	}
+
+	/**
+	 * Set the visibility of all the edges of these buffers with a
+	 * predicate, see {@link #filterNodes(NodeFilter)}.
+	 *
+	 * @return the number of edges whose visibility changed
+	 */
+	public int filterEdges(final EdgeFilter filter) {
+		structureLock.lock();
+
+		try {
+			final VisibilityMask mask = edgeMask;
+			final ID2Index ids = edgeID2Index;
+
+			return filter(lastEdgeIndex + 1, new FilterRange() {
+				int filter(int from, int to) {
+					int changed = 0;
+
+					for (int i = from; i < to; i++) {
+						boolean show = filter.isVisible(GraphBuffers.this,
+								ids.getID(i), i, edges.get(2 * i),
+								edges.get(2 * i + 1));
+
+						if (mask.setHidden(i, !show)) {
+							visible.edgeChanged(i);
+							changed++;
+						}
+					}
+
+					return changed;
+				}
+			});
+		} finally {
+			structureLock.unlock();
+		}
+	}
+
+	/**
+	 * Range of node positions or edge indexes evaluated by a filter.
+	 */
+	private static abstract class FilterRange {
+		/**
+		 * @return the number of elements whose visibility changed
+		 */
+		abstract int filter(int from, int to);
+	}
+
+	/**
+	 * Run a filter over count elements, by chunks given to the workers of
+	 * the bounds recomputes, and wait for all the chunks.
+	 */
+	private static int filter(int count, final FilterRange range) {
+		int chunks = (count + VisibleIndexes.CHUNK - 1) / VisibleIndexes.CHUNK;
+
+		if (chunks <= 1)
+			return range.filter(0, count);
+
+		final AtomicInteger changed = new AtomicInteger();
+		final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+		final CountDownLatch done = new CountDownLatch(chunks);
+		ExecutorService workers = GraphBounds.getWorkers();
+
+		for (int c = 0; c < chunks; c++) {
+			final int from = c * VisibleIndexes.CHUNK;
+			final int to = Math.min(count, from + VisibleIndexes.CHUNK);
+
+			workers.execute(new Runnable() {
+				public void run() {
+					try {
+						changed.addAndGet(range.filter(from, to));
+					} catch (RuntimeException e) {
+						failure.compareAndSet(null, e);
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+		}
+
+		boolean interrupted = false;
+
+		for (;;) {
+			try {
+				done.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+
+		if (failure.get() != null)
+			throw failure.get();
+
+		return changed.get();
+	}
+
+	/**
+	 * Count of the nodes and of the edges hidden. The node mask is shared by
+	 * the shards, so the count of nodes is the one of all the shards.
+	 */
+	public int getHiddenNodeCount() {
+		return nodeMask.getHiddenCount();
+	}
+
+	public int getHiddenEdgeCount() {
+		return edgeMask.getHiddenCount();
+	}
+
+	/**
+	 * Compact the visible nodes and edges if some elements are hidden.
+	 * Called once per round by {@link SharedBuffers#update(Object)}.
+	 */
+	void compactVisible() {
+		if (nodeMask.getHiddenCount() == 0 && edgeMask.getHiddenCount() == 0) {
+			visible.deactivate();
+			return;
+		}
+
+		structureLock.lock();
+
+		try {
+			visible.compact(nodeIndexes, lastNodeIndex + 1, edges,
+					edgeAttributes, lastEdgeIndex + 1, nodeMask, edgeMask,
+					generation);
+		} finally {
+			structureLock.unlock();
+		}
+	}
+
+	/**
+	 * The visible nodes and edges to draw instead of the node indexes and
+	 * edges, or null if no element is hidden. The lists should be released
+	 * once drawn, see {@link VisibleIndexes#acquire()}.
+	 */
+	VisibleIndexes.Lists acquireVisibleIndexes() {
+		return visible.acquire();
+	}
+
+	/**
+	 * Find the nodes whose id begins with, or contains, some text. The ids
+	 * are indexed as nodes are added and removed, see {@link IdSearchIndex}:
+	 * prefix searches are done with a few binary searches, substring
+	 * searches scan the ids.
+	 *
+	 * @param substring
+	 *            true to find the ids containing the text, false to find the
+	 *            ids beginning with it
+	 * @param ids
+	 *            array receiving the ids, in order, its length being the
+	 *            maximum number of nodes found
+	 * @param poolIndexes
+	 *            array receiving the pool indexes of the nodes found, for
+	 *            {@link #getNodeCoord(int, int)} for example, or null
+	 * @return the number of nodes found
+	 */
+	public int findNodes(String text, boolean substring, String[] ids,
+			int[] poolIndexes) {
+		structureLock.lock();
+
+		try {
+			int count = substring ? searchIndex.findSubstring(text, ids)
+					: searchIndex.findPrefix(text, ids);
+
+			for (int i = 0; poolIndexes != null && i < count; i++)
+				poolIndexes[i] = getNodePoolIndex(nodeID2Index
+						.getIndex(ids[i]));
+
+			return count;
+		} finally {
+			structureLock.unlock();
+		}
+	}
+
+	/**
+	 * Coordinate of a node, for filters.
+	 *
+	 * @param axis
+	 *            0, 1 or 2 for x, y or z
+	 */
+	public float getNodeCoord(int poolIndex, int axis) {
+		return nodeVertices.get(3 * poolIndex + axis);
+	}
+
+	/**
+	 * Color component of a node, 1 if nodes have no color.
+	 */
+	public float getNodeColor(int poolIndex, NodeColor color) {
+		return enableColorPointer ? nodeColors.get(4 * poolIndex
+				+ color.ordinal()) : 1;
+	}
+
+	/**
+	 * Size of a node, 1 if nodes have no size.
+	 */
+	public float getNodeSize(int poolIndex) {
+		return enableSizePointer ? nodeSizes.get(poolIndex) : 1;
+	}
+
+	/**
+	 * Width of an edge, in pixels.
+	 */
+	public float getEdgeWidth(int edgeIndex) {
+		return edgeAttributes.get(EDGE_ATTRIBUTE_COMPONENTS * edgeIndex);
+	}
+
+	/**
+	 * Add the degree of the nodes in the edges of these buffers, hidden or
+	 * not, to an array indexed by pool index, so that nodes can be filtered
+	 * by degree.
+	 */
+	public void countDegrees(int[] degrees) {
+		structureLock.lock();
+
+		try {
+			for (int i = 0; i <= lastEdgeIndex; i++) {
+				degrees[edges.get(2 * i)]++;
+				degrees[edges.get(2 * i + 1)]++;
+			}
+		} finally {
+			structureLock.unlock();
+		}
+	}
+
+	public SinkMetrics getSinkMetrics() {
+		return sinkMetrics;
+	}
+
+	public int getVertexComposantCount() {
+		return 3;
+	}
+
+	public int getVertexSize() {
+		return nodeVertices.capacity();
+	}
+
+	public int getColorComposantCount() {
+		return 4;
+	}
+
+	/**
+	 * Allocate the buffers. Node vertices, colors and sizes are taken from
+	 * the shared buffers if not null.
+	 */
+	private void allocateBuffers(EnumMap<GraphBuffer, ByteBuffer> shared,
+			int maxNodes, int maxEdges) {
+		int colorBufferSize = enableColorPointer ? 4 * maxNodes : 1;
+		int sizeBufferSize = enableSizePointer ? maxNodes : 1;
+		int previousBufferSize = animationDuration > 0 ? Transition.COMPONENTS
+				* maxNodes : 1;
+
+		if (buffers.size() != 0) {
+			for (ByteBuffer buffer : buffers.values())
+				buffer.clear();
+			buffers.clear();
+		}
+
+		/*
+		 * Allocation
+		 */
+		buffers.put(GraphBuffer.NODE_INDEXES,
+				ByteBuffer.allocateDirect(maxNodes * INT_BYTES));
+		if (shared != null) {
+			buffers.put(GraphBuffer.NODE_VERTICES,
+					shared.get(GraphBuffer.NODE_VERTICES));
+			buffers.put(GraphBuffer.NODE_COLORS,
+					shared.get(GraphBuffer.NODE_COLORS));
+			buffers.put(GraphBuffer.NODE_SIZES,
+					shared.get(GraphBuffer.NODE_SIZES));
+			buffers.put(GraphBuffer.NODE_PREVIOUS,
+					shared.get(GraphBuffer.NODE_PREVIOUS));
+		} else {
+			buffers.put(GraphBuffer.NODE_VERTICES,
+					ByteBuffer.allocateDirect(3 * maxNodes * FLOAT_BYTES));
+			buffers.put(GraphBuffer.NODE_COLORS,
+					ByteBuffer.allocateDirect(colorBufferSize * FLOAT_BYTES));
+			buffers.put(GraphBuffer.NODE_SIZES,
+					ByteBuffer.allocateDirect(sizeBufferSize * FLOAT_BYTES));
+			buffers.put(GraphBuffer.NODE_PREVIOUS,
+					ByteBuffer.allocateDirect(previousBufferSize * FLOAT_BYTES));
+		}
+		buffers.put(GraphBuffer.EDGES,
+				ByteBuffer.allocateDirect(2 * maxEdges * INT_BYTES));
+		buffers.put(GraphBuffer.EDGE_ATTRIBUTES, ByteBuffer
+				.allocateDirect(EDGE_ATTRIBUTE_COMPONENTS * maxEdges
+						* FLOAT_BYTES));
+
+		/*
+		 * Ordering
+		 */
+		for (ByteBuffer buffer : buffers.values())
+			buffer.order(ByteOrder.nativeOrder());
+
+		/*
+		 * Update last indexes
+		 */
+		lastNodeIndex = -1;
+		lastEdgeIndex = -1;
+
+		createViews();
+	}
+
+	/**
+	 * Create the typed views of the buffers. Each time buffers are replaced,
+	 * the generation is incremented so that renderers know they have to
+	 * create new views too.
+	 */
+	private void createViews() {
+		nodeIndexes = buffers.get(GraphBuffer.NODE_INDEXES).asIntBuffer();
+		nodeVertices = buffers.get(GraphBuffer.NODE_VERTICES).asFloatBuffer();
+		nodeColors = buffers.get(GraphBuffer.NODE_COLORS).asFloatBuffer();
+		nodeSizes = buffers.get(GraphBuffer.NODE_SIZES).asFloatBuffer();
+		edges = buffers.get(GraphBuffer.EDGES).asIntBuffer();
+		nodePrevious = buffers.get(GraphBuffer.NODE_PREVIOUS).asFloatBuffer();
+		edgeAttributes = buffers.get(GraphBuffer.EDGE_ATTRIBUTES)
+				.asFloatBuffer();
+
+		generation++;
+		edgeRewrites++;
+	}
+
+	/**
+	 * Replace the buffers by the given ones, which should contain a graph
+	 * previously dumped. Used to load snapshots.
+	 */
+	void adoptBuffers(EnumMap<GraphBuffer, ByteBuffer> regions,
+			boolean colors, boolean sizes, int lastNodeIndex,
+			int lastEdgeIndex, String[] nodeIds, String[] edgeIds) {
+		buffers.clear();
+		buffers.putAll(regions);
+
+		enableColorPointer = colors;
+		enableSizePointer = sizes;
+
+		this.lastNodeIndex = lastNodeIndex;
+		this.lastEdgeIndex = lastEdgeIndex;
+
+		poolOffset = 0;
+
+		if (pending != null)
+			pending = new PendingUpdates(nodeIds.length, 0);
+
+		HashMapID2Index nodes = new HashMapID2Index();
+		nodes.init(nodeIds, lastNodeIndex + 1);
+		nodeID2Index = nodes;
+
+		HashMapID2Index edges = new HashMapID2Index();
+		edges.init(edgeIds, lastEdgeIndex + 1);
+		edgeID2Index = edges;
+
+		createViews();
+
+		growable = true;
+		maxNodes = Math.max(maxNodes, nodeIndexes.capacity());
+		maxEdges = Math.max(maxEdges, this.edges.capacity() / 2);
+
+		nodeMask = new VisibilityMask(nodeIndexes.capacity());
+		edgeMask = new VisibilityMask(this.edges.capacity() / 2);
+		visible.resize(nodeIndexes.capacity(), this.edges.capacity() / 2);
+
+		ArrayList<String> ids = new ArrayList<String>(lastNodeIndex + 1);
+
+		for (int i = 0; i <= lastNodeIndex; i++)
+			if (nodeIds[i] != null)
+				ids.add(nodeIds[i]);
+
+		searchIndex = new IdSearchIndex();
+		searchIndex.addAll(ids);
+
+		poolHighWater = poolOffset;
+
+		for (int i = 0; i <= lastNodeIndex; i++)
+			poolHighWater = Math.max(poolHighWater, getNodePoolIndex(i) + 1);
+
+		animated = animationDuration > 0 && hasPreviousColumn();
+
+		if (animated) {
+			for (int i = 0; i <= lastNodeIndex; i++)
+				Transition.reset(nodeVertices, nodePrevious,
+						getNodePoolIndex(i));
+		}
+
+		Expiry e = expiry;
+
+		if (e != null)
+			expiry = createExpiry(e.ttl, e.fade);
+
+		bounds.recompute(this);
+	}
+
+	ByteBuffer getBuffer(GraphBuffer buffer) {
+		return buffers.get(buffer);
+	}
+
+	ID2Index getNodeID2Index() {
+		return nodeID2Index;
+	}
+
+	ID2Index getEdgeID2Index() {
+		return edgeID2Index;
+	}
+
+	int getLastNodeIndex() {
+		return lastNodeIndex;
+	}
+
+	int getLastEdgeIndex() {
+		return lastEdgeIndex;
+	}
+
+	/**
+	 * Generation of the buffers, incremented each time they are replaced.
+	 * Views created before a change of generation are not valid anymore.
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Count of the changes of the edges and edge attributes other than the
+	 * addition of edges at the end of the buffers: removals, attribute
+	 * changes, clears and replacements of the buffers. While it does not
+	 * change, edges already uploaded to the GPU are still valid and only the
+	 * edges over the previous count need to be uploaded.
+	 */
+	public int getEdgeRewrites() {
+		return edgeRewrites;
+	}
+
+	/**
+	 * Save the buffers in a binary snapshot. This should be called from the
+	 * thread sending events, or while the source is paused, so that the
+	 * snapshot is consistent.
+	 *
+	 * @see #loadSnapshot(File)
+	 */
+	public void saveSnapshot(File file) throws IOException {
+		GraphBuffersSnapshot.save(this, file);
+	}
+
+	/**
+	 * Replace the content of the buffers by a snapshot previously saved. The
+	 * data regions of the file are memory-mapped privately and used directly
+	 * as the buffers, only ids are decoded. The file is never modified, but
+	 * it is copied instead of mapped if it cannot be written.
+	 *
+	 * @see #saveSnapshot(File)
+	 */
+	public void loadSnapshot(File file) throws IOException {
+		GraphBuffersSnapshot.load(this, file);
+	}
+
+	protected void init(Context ctx, int maxNodes, int maxEdges) {
+		init(ctx.getNodeColorMode(), ctx.getNodeSizeMode(), maxNodes, maxEdges);
+	}
+
+	/**
+	 * Allocate the buffers without needing a context, so that the buffers can
+	 * be used without any GL resource, in benchmarks for example.
+	 */
+	protected void init(NodeColorMode colorMode, NodeSizeMode sizeMode,
+			int maxNodes, int maxEdges) {
+		/*
+		 * nodeIndexes = ByteBuffer.allocateDirect(maxNodes *
+		 * Integer.SIZE).order( ByteOrder.nativeOrder()); nodeIndexesI =
+		 * nodeIndexes.asIntBuffer(); nodeVertices = ByteBuffer.allocateDirect(3
+		 * * maxNodes * Float.SIZE) .order(ByteOrder.nativeOrder());
+		 * nodeVerticesF = nodeVertices.asFloatBuffer();
+		 * 
+		 * 
+		 * if (enableColorPointer) { nodeColors = ByteBuffer.allocateDirect(4 *
+		 * maxNodes * Float.SIZE) .order(ByteOrder.nativeOrder()); nodeColorsF =
+		 * nodeColors.asFloatBuffer(); } else { nodeColors =
+		 * ByteBuffer.allocateDirect(4 * 4 * Float.SIZE).order(
+		 * ByteOrder.nativeOrder()); nodeColorsF = nodeColors.asFloatBuffer(); }
+		 * 
+		 * if (enableSizePointer) { nodeSizes =
+		 * ByteBuffer.allocateDirect(maxNodes * Float.SIZE).order(
+		 * ByteOrder.nativeOrder()); nodeSizesF = nodeColors.asFloatBuffer(); }
+		 * else { nodeSizes = ByteBuffer.allocateDirect(4 * 4 *
+		 * Float.SIZE).order( ByteOrder.nativeOrder()); nodeColorsF =
+		 * nodeColors.asFloatBuffer(); }
+		 * 
+		 * edges = ByteBuffer.allocateDirect(2 * maxEdges).order(
+		 * ByteOrder.nativeOrder()); edgesI = edges.asIntBuffer();
+		 */
+
+		enableColorPointer = colorMode == NodeColorMode.EachNodeOneColor;
+		enableSizePointer = sizeMode == NodeSizeMode.EachNodeOneSize;
+
+		setup(null, null, 0, maxNodes, maxEdges);
+	}
+
+	/**
+	 * Initialize the buffers as a shard using the pool indexes from
+	 * poolOffset to poolOffset + maxNodes - 1 of shared node vertices, colors
+	 * and sizes.
+	 *
+	 * @see ShardedGraphBuffers
+	 */
+	void initShard(EnumMap<GraphBuffer, ByteBuffer> shared,
+			VisibilityMask nodeMask, boolean colors, boolean sizes,
+			int poolOffset, int maxNodes, int maxEdges) {
+		enableColorPointer = colors;
+		enableSizePointer = sizes;
+
+		setup(shared, nodeMask, poolOffset, maxNodes, maxEdges);
+	}
+
+	private void setup(EnumMap<GraphBuffer, ByteBuffer> shared,
+			VisibilityMask nodeMask, int poolOffset, int maxNodes,
+			int maxEdges) {
+		if (animationDuration == 0)
+			animationDuration = Long.getLong("gs.gl.animation", 0) / 1000f;
+
+		this.maxNodes = maxNodes;
+		this.maxEdges = maxEdges;
+		this.growable = shared == null;
+
+		if (growable) {
+			maxNodes = Math.min(maxNodes,
+					Integer.getInteger("gs.gl.initialnodes", 1024));
+			maxEdges = Math.min(maxEdges,
+					Integer.getInteger("gs.gl.initialedges", 1024));
+		}
+
+		allocateBuffers(shared, maxNodes, maxEdges);
+
+		this.poolOffset = poolOffset;
+		poolHighWater = poolOffset;
+		bounds.clear();
+		animated = animationDuration > 0 && hasPreviousColumn();
+
+		if (pending != null || Boolean.getBoolean("gs.gl.coalesce"))
+			pending = new PendingUpdates(maxNodes, poolOffset);
+
+		for (int i = 0; i < maxNodes; i++)
+			setNodePoolIndex(i, poolOffset + i);
+
+		nodeID2Index = new HashMapID2Index();
+		nodeID2Index.init(maxNodes);
+
+		edgeID2Index = new HashMapID2Index();
+		edgeID2Index.init(maxEdges);
+
+		this.nodeMask = nodeMask != null ? nodeMask : new VisibilityMask(
+				maxNodes);
+		edgeMask = new VisibilityMask(maxEdges);
+		visible.resize(maxNodes, maxEdges);
+		searchIndex = new IdSearchIndex();
+
+		long ttl = Long.getLong("gs.gl.ttl", 0);
+
+		if (expiry != null)
+			expiry = createExpiry(expiry.ttl, expiry.fade);
+		else if (ttl > 0)
+			expiry = createExpiry(ttl, Long.getLong("gs.gl.ttl.fade", 0));
+
+		printSize();
+		initNodeSizes(0, maxNodes);
+	}
+
+	/**
+	 * Print the memory used by the buffers.
+	 */
+	private void printSize() {
+		long size = 0;
+		for (ByteBuffer buffer : buffers.values())
+			size += buffer.capacity();
+
+		String symbol = "o";
+
+		if (size > 1024) {
+			size /= 1024;
+			symbol = "ko";
+		}
+
+		if (size > 1024) {
+			size /= 1024;
+			symbol = "mo";
+		}
+
+		if (size > 1024) {
+			size /= 1024;
+			symbol = "go";
+		}
+
+		System.out.printf("buffers use %d%s%n", size, symbol);
+	}
+
+	/**
+	 * Bytes used by one node or one edge in a buffer.
+	 */
+	private static int getEntryBytes(GraphBuffer buffer) {
+		switch (buffer) {
+		case NODE_INDEXES:
+			return INT_BYTES;
+		case NODE_VERTICES:
+			return 3 * FLOAT_BYTES;
+		case NODE_COLORS:
+			return 4 * FLOAT_BYTES;
+		case NODE_SIZES:
+			return FLOAT_BYTES;
+		case NODE_PREVIOUS:
+			return Transition.COMPONENTS * FLOAT_BYTES;
+		case EDGES:
+			return 2 * INT_BYTES;
+		default:
+			return EDGE_ATTRIBUTE_COMPONENTS * FLOAT_BYTES;
+		}
+	}
+
+	private void initNodeSizes(int from, int to) {
+		java.util.Random random = new java.util.Random();
+		for(int i=from; i<to; i++)
+			setNodeSize(poolOffset + i,random.nextInt(10)+1);
+	}
+
+	/**
+	 * Replace the buffers by larger ones holding the same graph. Views of the
+	 * previous buffers stay valid but are not updated anymore: renderers see
+	 * the change of generation and create new views, and clamp the counts
+	 * they read to the capacity of their views until they do.
+	 *
+	 * Called with the structure lock held. Pending updates are moved to the
+	 * new buffers, but coordinates written without coalescing by the layout
+	 * while the buffers are copied may be lost until the layout moves the
+	 * node again.
+	 */
+	private void grow(int nodes, int edgeCount) {
+		int oldNodes = nodeIndexes.capacity();
+
+		PendingUpdates p = pending;
+
+		if (p != null)
+			p.lock.lock();
+
+		try {
+			EnumMap<GraphBuffer, ByteBuffer> grown = new EnumMap<GraphBuffer, ByteBuffer>(
+					GraphBuffer.class);
+
+			for (Map.Entry<GraphBuffer, ByteBuffer> entry : buffers
+					.entrySet()) {
+				ByteBuffer old = entry.getValue();
+				int capacity = old.capacity();
+				int bytes = getEntryBytes(entry.getKey());
+
+				/*
+				 * Columns disabled have a placeholder smaller than one entry
+				 * per node, which is kept.
+				 */
+				if (entry.getKey() == GraphBuffer.EDGES
+						|| entry.getKey() == GraphBuffer.EDGE_ATTRIBUTES)
+					capacity = bytes * edgeCount;
+				else if (capacity >= bytes * oldNodes)
+					capacity = bytes * nodes;
+
+				ByteBuffer copy = ByteBuffer.allocateDirect(capacity).order(
+						ByteOrder.nativeOrder());
+				ByteBuffer from = old.duplicate();
+
+				from.clear();
+				copy.put(from);
+				copy.clear();
+
+				grown.put(entry.getKey(), copy);
+			}
+
+			buffers = grown;
+			createViews();
+
+			if (p != null)
+				pending = new PendingUpdates(p, nodes);
+		} finally {
+			if (p != null)
+				p.lock.unlock();
+		}
+
+		for (int i = oldNodes; i < nodes; i++)
+			setNodePoolIndex(i, poolOffset + i);
+
+		initNodeSizes(oldNodes, nodes);
+
+		nodeID2Index.grow(nodes);
+		edgeID2Index.grow(edgeCount);
+
+		if (nodes > nodeMask.getCapacity())
+			nodeMask = new VisibilityMask(nodeMask, nodes);
+		if (edgeCount > edgeMask.getCapacity())
+			edgeMask = new VisibilityMask(edgeMask, edgeCount);
+
+		visible.resize(nodes, edgeCount);
+
+		Expiry e = expiry;
+
+		if (e != null)
+			expiry = new Expiry(e, nodes, edgeCount,
+					enableColorPointer ? nodeColors : null, edges);
+	}
+
+	private void setNodePoolIndex(int index, int value) {
+		nodeIndexes.put(index, value);
+	}
+
+	int getNodePoolIndex(int index) {
+		return nodeIndexes.get(index);
+	}
+
+	/**
+	 * Pool index of a node, used to resolve the extremities of edges.
+	 *
+	 * @return the pool index or -1 if the node is unknown
+	 */
+	protected int getPoolIndex(String nodeId) {
+		int index = nodeID2Index.getIndex(nodeId);
+		return index < 0 ? -1 : getNodePoolIndex(index);
+	}
+
+	private void setNodeX(int poolIndex, float x) {
+		bounds.set(0, nodeVertices.get(poolIndex * 3 + 0), x);
+		nodeVertices.put(poolIndex * 3 + 0, x);
+	}
+
+	private void setNodeY(int poolIndex, float y) {
+		bounds.set(1, nodeVertices.get(poolIndex * 3 + 1), y);
+		nodeVertices.put(poolIndex * 3 + 1, y);
+	}
+
+	private void setNodeZ(int poolIndex, float z) {
+		bounds.set(2, nodeVertices.get(poolIndex * 3 + 2), z);
+		nodeVertices.put(poolIndex * 3 + 2, z);
+	}
+
+	private void setNodeColor(int poolIndex, NodeColor color, float value) {
+		if (enableColorPointer)
+			nodeColors.put(poolIndex * 4 + color.ordinal(), value);
+	}
+
+	private void setNodeSize(int poolIndex, float size) {
+		if (enableSizePointer)
+			nodeSizes.put(poolIndex, size);
+	}
+
+	protected void checkNodeCoords(String nodeId, String attr, Object value) {
+		if (!AttributeValues.toCoords(value, coords)) {
+			unknownType(attr, value);
+			return;
+		}
+
+		setNodeCoords(nodeId, AttributeValues.getCoordsMask(attr), coords[0],
+				coords[1], coords[2]);
+	}
+
+	protected void checkNodeColor(String nodeId, String attr, Object value) {
+		if (!AttributeValues.toColor(value, color)) {
+			unknownType(attr, value);
+			return;
+		}
+
+		setNodeColor(nodeId, color[0], color[1], color[2], color[3]);
+	}
+
+	/**
+	 * Set some coordinates of a node.
+	 *
+	 * @param mask
+	 *            the coordinates to set, see {@link AttributeValues#X},
+	 *            {@link AttributeValues#Y} and {@link AttributeValues#Z}
+	 */
+	public void setNodeCoords(String nodeId, int mask, float x, float y,
+			float z) {
+		structureLock.lock();
+
+		try {
+			int index = nodeID2Index.getIndex(nodeId);
+			PendingUpdates p = pending;
+
+			if (index != -1 && p != null) {
+				p.coords(getNodePoolIndex(index), mask, x, y, z);
+			} else if (index != -1) {
+				int poolIndex = getNodePoolIndex(index);
+
+				if (animated)
+					Transition.begin(nodeVertices, nodePrevious, poolIndex,
+							Transition.now(), animationDuration);
+
+				if ((mask & AttributeValues.X) != 0)
+					setNodeX(poolIndex, x);
+				if ((mask & AttributeValues.Y) != 0)
+					setNodeY(poolIndex, y);
+				if ((mask & AttributeValues.Z) != 0)
+					setNodeZ(poolIndex, z);
+			} else
+				unknownId(nodeId);
+		} finally {
+			structureLock.unlock();
+		}
+	}
+
+	public void setNodeColor(String nodeId, float r, float g, float b, float a) {
+		structureLock.lock();
+
+		try {
+			int index = nodeID2Index.getIndex(nodeId);
+
+			PendingUpdates p = pending;
+
+			if (index == -1)
+				unknownId(nodeId);
+			else if (enableColorPointer && p != null)
+				p.color(getNodePoolIndex(index), r, g, b, a);
+			else if (enableColorPointer) {
+				int poolIndex = getNodePoolIndex(index);
+
+				nodeColors.put(poolIndex * 4 + 0, r);
+				nodeColors.put(poolIndex * 4 + 1, g);
+				nodeColors.put(poolIndex * 4 + 2, b);
+				nodeColors.put(poolIndex * 4 + 3, a);
+			}
+		} finally {
+			structureLock.unlock();
+		}
+	}
+
+	protected void checkEdgeWidth(String edgeId, String attr, Object value) {
+		float width = AttributeValues.toWidth(value);
+
+		if (Float.isNaN(width)) {
+			unknownType(attr, value);
+			return;
+		}
+
+		setEdgeWidth(edgeId, width);
+	}
+
+	/**
+	 * Set the width of an edge, in pixels.
+	 */
+	public void setEdgeWidth(String edgeId, float width) {
+		structureLock.lock();
+
+		try {
+			int index = edgeID2Index.getIndex(edgeId);
+
+			if (index == -1)
+				unknownId(edgeId);
+			else {
+				edgeAttributes.put(EDGE_ATTRIBUTE_COMPONENTS * index, width);
+				edgeRewrites++;
+				visible.edgeChanged(index);
+			}
+		} finally {
+			structureLock.unlock();
+		}
+	}
+
+	/**
+	 * Count an event about an unknown element. Only the first one is
+	 * reported, others are available through {@link #getSinkMetrics()}.
+	 */
+	protected void unknownId(String id) {
+		if (sinkMetrics.drop(Drop.UNKNOWN_ID))
+			System.err.printf("id not found: \"%s\"%n", id);
+	}
+
+	protected void unknownType(String attribute, Object value) {
+		if (sinkMetrics.drop(Drop.UNKNOWN_TYPE))
+			System.err.printf("unknown type for \"%s\": %s%n", attribute,
+					value == null ? null : value.getClass());
+	}
+
+	protected void removeNodeInMemory(int index) {
+		PendingUpdates p = pending;
+		Expiry e = expiry;
+
+		if (p != null)
+			p.clear(getNodePoolIndex(index));
+
+		if (e != null)
+			e.nodeRemoved(getNodePoolIndex(index));
+
+		int removed = 3 * getNodePoolIndex(index);
+
+		bounds.remove(nodeVertices.get(removed), nodeVertices.get(removed + 1),
+				nodeVertices.get(removed + 2));
+
+		nodeMask.setHidden(getNodePoolIndex(index), false);
+		visible.nodeChanged(index);
+		visible.nodeChanged(lastNodeIndex);
+
+		searchIndex.remove(nodeID2Index.getID(index));
+
+		nodeID2Index.removeIndex(index);
+
 		if (lastNodeIndex > 0) {
 			int i1 = getNodePoolIndex(lastNodeIndex);
 			int i2 = getNodePoolIndex(index);
@@ -593,7 +1762,6 @@ public class GraphBuffers implements Sink, LayoutListener, StyleSheetListener {
 			setNodePoolIndex(lastNodeIndex, i2);
 			setNodePoolIndex(index, i1);
 
-			nodeID2Index.removeIndex(index);
 			nodeID2Index.updateIndex(lastNodeIndex, index);
 
 			// System.out.printf("%d <--> %d%n", lastNodeIndex, index);
@@ -605,68 +1773,238 @@ public class GraphBuffers implements Sink, LayoutListener, StyleSheetListener {
 		// System.out.printf("after del, last index is : %d%n", lastNodeIndex);
 	}
 
+	protected void removeEdgeInMemory(int index) {
+		Expiry e = expiry;
+
+		edgeID2Index.removeIndex(index);
+
+		if (index < lastEdgeIndex)
+			edgeMask.move(lastEdgeIndex, index);
+		else
+			edgeMask.setHidden(index, false);
+
+		visible.edgeChanged(index);
+		visible.edgeChanged(lastEdgeIndex);
+
+		if (index < lastEdgeIndex) {
+			edges.put(2 * index, edges.get(2 * lastEdgeIndex));
+			edges.put(2 * index + 1, edges.get(2 * lastEdgeIndex + 1));
+
+			for (int c = 0; c < EDGE_ATTRIBUTE_COMPONENTS; c++)
+				edgeAttributes.put(EDGE_ATTRIBUTE_COMPONENTS * index + c,
+						edgeAttributes.get(EDGE_ATTRIBUTE_COMPONENTS
+								* lastEdgeIndex + c));
+
+			edgeID2Index.updateIndex(lastEdgeIndex, index);
+
+			if (e != null)
+				e.edgeMoved(lastEdgeIndex, index);
+		}
+
+		if (lastEdgeIndex >= 0)
+			lastEdgeIndex--;
+
+		edgeRewrites++;
+	}
+
+	/**
+	 * Remove a node which has expired.
+	 */
+	void expireNode(int index) {
+		removeNodeInMemory(index);
+	}
+
+	/**
+	 * Remove an edge which has expired.
+	 */
+	void expireEdge(int index) {
+		removeEdgeInMemory(index);
+	}
+
+	/**
+	 * Refresh a node in the time-windowed mode.
+	 */
+	protected void touchNode(String nodeId) {
+		structureLock.lock();
+
+		try {
+			Expiry e = expiry;
+
+			if (e != null) {
+				int index = nodeID2Index.getIndex(nodeId);
+
+				if (index >= 0)
+					e.touchNode(getNodePoolIndex(index));
+			}
+		} finally {
+			structureLock.unlock();
+		}
+	}
+
+	/**
+	 * Refresh an edge in the time-windowed mode.
+	 */
+	protected void touchEdge(String edgeId) {
+		structureLock.lock();
+
+		try {
+			Expiry e = expiry;
+
+			if (e != null) {
+				int index = edgeID2Index.getIndex(edgeId);
+
+				if (index >= 0)
+					e.touchEdge(index);
+			}
+		} finally {
+			structureLock.unlock();
+		}
+	}
+
 	public void nodeAdded(String sourceId, long timeId, String nodeId) {
-		if (lastNodeIndex >= nodeIndexes.capacity() - 1)
-			throw new OutOfMemoryError(String.format(
-					"out of memory for nodes%n"
-							+ "set \"gs.gl.maxnodes\" to an higher value%n"
-							+ "current value: %d nodes%n",
-					nodeIndexes.capacity()));
+		long start = sinkMetrics.begin();
+
+		structureLock.lock();
+
+		try {
+			int capacity = nodeIndexes.capacity();
+
+			if (lastNodeIndex >= capacity - 1 && growable
+					&& capacity < maxNodes)
+				grow(Math.min(maxNodes, 2 * capacity), edges.capacity() / 2);
+
+			if (lastNodeIndex >= nodeIndexes.capacity() - 1)
+				throw new OutOfMemoryError(String.format(
+						"out of memory for nodes%n"
+								+ "set \"gs.gl.maxnodes\" to an higher value%n"
+								+ "current value: %d nodes%n",
+						nodeIndexes.capacity()));
 
-		int index = ++lastNodeIndex;
-		int poolIndex = getNodePoolIndex(index);
+			int index = ++lastNodeIndex;
+			int poolIndex = getNodePoolIndex(index);
+
+			nodeID2Index.setIndex(nodeId, index);
+			visible.nodeChanged(index);
+
+			searchIndex.add(nodeId);
+
+			if (poolIndex >= poolHighWater)
+				poolHighWater = poolIndex + 1;
 
-		nodeID2Index.setIndex(nodeId, index);
+			nodeVertices.put(poolIndex * 3 + 0, 0);
+			nodeVertices.put(poolIndex * 3 + 1, 0);
+			nodeVertices.put(poolIndex * 3 + 2, 0);
+			bounds.add(0, 0, 0);
 
-		setNodeX(poolIndex, 0);
-		setNodeY(poolIndex, 0);
-		setNodeZ(poolIndex, 0);
+			if (animated)
+				Transition.reset(nodeVertices, nodePrevious, poolIndex);
+
+			setupNodeStyle(nodeId, null);
+
+			Expiry e = expiry;
+
+			if (e != null)
+				e.nodeAdded(nodeId, poolIndex);
+		} finally {
+			structureLock.unlock();
+		}
 
-		setupNodeStyle(nodeId, null);
+		sinkMetrics.end(Callback.NODE_ADDED, start);
 	}
 
 	public void nodeRemoved(String sourceId, long timeId, String nodeId) {
-		int index = nodeID2Index.getIndex(nodeId);
+		long start = sinkMetrics.begin();
+
+		structureLock.lock();
+
+		try {
+			int index = nodeID2Index.getIndex(nodeId);
+
+			if (index != -1)
+				removeNodeInMemory(index);
+			else
+				unknownId(nodeId);
+		} finally {
+			structureLock.unlock();
+		}
 
-		if (index != -1)
-			removeNodeInMemory(index);
+		sinkMetrics.end(Callback.NODE_REMOVED, start);
 	}
 
 	public void edgeAdded(String sourceId, long timeId, String edgeId,
 			String fromNodeId, String toNodeId, boolean directed) {
-		if (2 * lastEdgeIndex >= edges.capacity() - 1)
-			throw new OutOfMemoryError(String.format(
-					"out of memory for edges%n"
-							+ "set \"gs.gl.maxedges\" to an higher value%n"
-							+ "current value: %d nodes%n", edges.capacity()));
+		long start = sinkMetrics.begin();
 
-		int index = ++lastEdgeIndex;
+		structureLock.lock();
 
-		int indexA = nodeID2Index.getIndex(fromNodeId);
-		int indexB = nodeID2Index.getIndex(toNodeId);
+		try {
+			int capacity = edges.capacity() / 2;
 
-		if (indexA < 0 || indexB < 0)
-			return;
+			if (lastEdgeIndex >= capacity - 1 && growable
+					&& capacity < maxEdges)
+				grow(nodeIndexes.capacity(), Math.min(maxEdges, 2 * capacity));
 
-		indexA = getNodePoolIndex(indexA);
-		indexB = getNodePoolIndex(indexB);
+			if (2 * (lastEdgeIndex + 1) >= edges.capacity())
+				throw new OutOfMemoryError(String.format(
+						"out of memory for edges%n"
+								+ "set \"gs.gl.maxedges\" to an higher value%n"
+								+ "current value: %d nodes%n", edges.capacity()));
 
-		if (indexA < 0 || indexB < 0)
-			return;
+			int indexA = getPoolIndex(fromNodeId);
+			int indexB = getPoolIndex(toNodeId);
+
+			if (indexA < 0 || indexB < 0) {
+				unknownId(indexA < 0 ? fromNodeId : toNodeId);
+				return;
+			}
+
+			int index = ++lastEdgeIndex;
+
+			edgeID2Index.setIndex(edgeId, index);
+
+			edges.put(2 * index + 0, indexA);
+			edges.put(2 * index + 1, indexB);
 
-		edgeID2Index.setIndex(edgeId, index);
+			edgeAttributes.put(EDGE_ATTRIBUTE_COMPONENTS * index,
+					defaultEdgeWidth);
+			edgeAttributes.put(EDGE_ATTRIBUTE_COMPONENTS * index + 1,
+					directed ? 1 : 0);
 
-		edges.put(2 * index + 0, indexA);
-		edges.put(2 * index + 1, indexB);
+			visible.edgeChanged(index);
+
+			Expiry e = expiry;
+
+			if (e != null)
+				e.edgeAdded(index, indexA, indexB);
+		} finally {
+			structureLock.unlock();
+			sinkMetrics.end(Callback.EDGE_ADDED, start);
+		}
 	}
 
 	public void edgeRemoved(String sourceId, long timeId, String edgeId) {
-		// TODO Auto-generated method stub
+		long start = sinkMetrics.begin();
 
+		structureLock.lock();
+
+		try {
+			int index = edgeID2Index.getIndex(edgeId);
+
+			if (index != -1)
+				removeEdgeInMemory(index);
+			else
+				unknownId(edgeId);
+		} finally {
+			structureLock.unlock();
+		}
+
+		sinkMetrics.end(Callback.EDGE_REMOVED, start);
 	}
 
 	public void graphAttributeAdded(String sourceId, long timeId,
 			String attribute, Object value) {
+		long start = sinkMetrics.begin();
+
 		if (attribute.equals("ui.stylesheet")) {
 			if (value instanceof String) {
 				try {
@@ -676,10 +2014,14 @@ public class GraphBuffers implements Sink, LayoutListener, StyleSheetListener {
 				}
 			}
 		}
+
+		sinkMetrics.end(Callback.GRAPH_ATTRIBUTE, start);
 	}
 
 	public void graphAttributeChanged(String sourceId, long timeId,
 			String attribute, Object oldValue, Object newValue) {
+		long start = sinkMetrics.begin();
+
 		if (attribute.equals("ui.stylesheet")) {
 			if (newValue instanceof String) {
 				try {
@@ -689,75 +2031,160 @@ public class GraphBuffers implements Sink, LayoutListener, StyleSheetListener {
 				}
 			}
 		}
+
+		sinkMetrics.end(Callback.GRAPH_ATTRIBUTE, start);
 	}
 
 	public void graphAttributeRemoved(String sourceId, long timeId,
 			String attribute) {
+		long start = sinkMetrics.begin();
+
 		if (attribute.equals("ui.stylesheet")) {
 			stylesheet.clear();
 		}
+
+		sinkMetrics.end(Callback.GRAPH_ATTRIBUTE, start);
 	}
 
 	public void nodeAttributeAdded(String sourceId, long timeId, String nodeId,
 			String attribute, Object value) {
-		if (attribute != null) {
-			if (attribute.matches("^(x|y|z|xy|xyz)$"))
-				checkNodeCoords(nodeId, attribute, value);
-			else if (attribute.matches("^ui[.]color$"))
-				checkNodeColor(nodeId, attribute, value);
-		}
+		long start = sinkMetrics.begin();
+
+		if (AttributeValues.getCoordsMask(attribute) != 0)
+			checkNodeCoords(nodeId, attribute, value);
+		else if (AttributeValues.isColorAttribute(attribute))
+			checkNodeColor(nodeId, attribute, value);
+
+		touchNode(nodeId);
+
+		sinkMetrics.end(Callback.NODE_ATTRIBUTE, start);
 	}
 
 	public void nodeAttributeChanged(String sourceId, long timeId,
 			String nodeId, String attribute, Object oldValue, Object newValue) {
-		if (attribute != null && attribute.matches("^(x|y|z|xy|xyz)$"))
+		long start = sinkMetrics.begin();
+
+		if (AttributeValues.getCoordsMask(attribute) != 0)
 			checkNodeCoords(nodeId, attribute, newValue);
+
+		touchNode(nodeId);
+
+		sinkMetrics.end(Callback.NODE_ATTRIBUTE, start);
 	}
 
 	public void nodeAttributeRemoved(String sourceId, long timeId,
 			String nodeId, String attribute) {
-		// TODO Auto-generated method stub
-
+		touchNode(nodeId);
+		sinkMetrics.count(Callback.NODE_ATTRIBUTE);
 	}
 
 	public void edgeAttributeAdded(String sourceId, long timeId, String edgeId,
 			String attribute, Object value) {
-		// TODO Auto-generated method stub
+		long start = sinkMetrics.begin();
 
+		if (AttributeValues.isWidthAttribute(attribute))
+			checkEdgeWidth(edgeId, attribute, value);
+
+		touchEdge(edgeId);
+		sinkMetrics.end(Callback.EDGE_ATTRIBUTE, start);
 	}
 
 	public void edgeAttributeChanged(String sourceId, long timeId,
 			String edgeId, String attribute, Object oldValue, Object newValue) {
-		// TODO Auto-generated method stub
+		long start = sinkMetrics.begin();
 
+		if (AttributeValues.isWidthAttribute(attribute))
+			checkEdgeWidth(edgeId, attribute, newValue);
+
+		touchEdge(edgeId);
+		sinkMetrics.end(Callback.EDGE_ATTRIBUTE, start);
 	}
 
 	public void edgeAttributeRemoved(String sourceId, long timeId,
 			String edgeId, String attribute) {
-		// TODO Auto-generated method stub
-
+		touchEdge(edgeId);
+		sinkMetrics.count(Callback.EDGE_ATTRIBUTE);
 	}
 
 	public void graphCleared(String sourceId, long timeId) {
-		// TODO Auto-generated method stub
+		long start = sinkMetrics.begin();
+		int maxNodes = nodeIndexes.capacity();
+
+		structureLock.lock();
+
+		try {
+			for (int i = 0; i < maxNodes; i++)
+				setNodePoolIndex(i, poolOffset + i);
+
+			nodeID2Index = new HashMapID2Index();
+			nodeID2Index.init(maxNodes);
+
+			edgeID2Index = new HashMapID2Index();
+			edgeID2Index.init(edges.capacity() / 2);
+
+			lastNodeIndex = -1;
+			lastEdgeIndex = -1;
+			poolHighWater = poolOffset;
+			edgeRewrites++;
+			bounds.clear();
+
+			nodeMask.clear(poolOffset, poolOffset + maxNodes);
+			edgeMask.clear(0, edgeMask.getCapacity());
+			searchIndex = new IdSearchIndex();
 
+			Expiry e = expiry;
+
+			if (e != null)
+				e.clear();
+		} finally {
+			structureLock.unlock();
+		}
+
+		PendingUpdates p = pending;
+
+		if (p != null)
+			p.clearAll();
+
+		sinkMetrics.end(Callback.GRAPH_CLEARED, start);
 	}
 
 	public void stepBegins(String sourceId, long timeId, double step) {
 		// TODO Auto-generated method stub
-
+		sinkMetrics.count(Callback.STEP_BEGINS);
 	}
 
 	// Layout Listener
 
 	public void nodeMoved(String id, float x, float y, float z) {
+		long start = sinkMetrics.begin();
 
-		int index = nodeID2Index.getIndex(id);
+		moveNode(id, x, y, z);
+		sinkMetrics.end(Callback.NODE_MOVED, start);
+	}
 
-		if (index >= 0) {
-			setNodeX(index, x);
-			setNodeY(index, y);
-			setNodeZ(index, z);
+	protected void moveNode(String id, float x, float y, float z) {
+		structureLock.lock();
+
+		try {
+			int index = nodeID2Index.getIndex(id);
+			PendingUpdates p = pending;
+
+			if (index >= 0 && p != null) {
+				p.coords(getNodePoolIndex(index), AttributeValues.XYZ, x, y, z);
+			} else if (index >= 0) {
+				int poolIndex = getNodePoolIndex(index);
+
+				if (animated)
+					Transition.begin(nodeVertices, nodePrevious, poolIndex,
+							Transition.now(), animationDuration);
+
+				setNodeX(poolIndex, x);
+				setNodeY(poolIndex, y);
+				setNodeZ(poolIndex, z);
+			} else
+				unknownId(id);
+		} finally {
+			structureLock.unlock();
 		}
 	}
 
@@ -772,10 +2199,24 @@ public class GraphBuffers implements Sink, LayoutListener, StyleSheetListener {
 	}
 
 	public void nodesMoved(Map<String, float[]> nodes) {
-		for (String id : nodes.keySet()) {
-			float[] xyz = nodes.get(id);
-			nodeMoved(id, xyz[0], xyz[1], xyz[2]);
+		long start = sinkMetrics.begin();
+
+		/*
+		 * The lock is taken once for the whole batch, moveNode takes it
+		 * again at no cost.
+		 */
+		structureLock.lock();
+
+		try {
+			for (Map.Entry<String, float[]> e : nodes.entrySet()) {
+				float[] xyz = e.getValue();
+				moveNode(e.getKey(), xyz[0], xyz[1], xyz[2]);
+			}
+		} finally {
+			structureLock.unlock();
 		}
+
+		sinkMetrics.end(Callback.NODE_MOVED, start, nodes.size());
 	}
 
 	public void edgesChanged(Map<String, float[]> edges) {
@@ -836,6 +2277,9 @@ public class GraphBuffers implements Sink, LayoutListener, StyleSheetListener {
 				case 1:
 					Color c = style.getFillColor(0);
 
+					if (pending != null)
+						pending.clearColor(getNodePoolIndex(index));
+
 					setNodeColor(getNodePoolIndex(index), NodeColor.RED,
 							c.getRed() / 255.0f);
 					setNodeColor(getNodePoolIndex(index), NodeColor.GREEN,
@@ -0,0 +1,734 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.graphstream.stream.Sink;
+import org.graphstream.ui.layout.LayoutListener;
+
+/**
+ * Append-only journal of the events reaching a {@link GraphBuffers}.
+ *
+ * The journal is put in front of the buffers: it is registered as sink of
+ * the source and as layout listener, records each event and forwards it to
+ * the buffers. Events are encoded on the calling thread in a memory chunk,
+ * ids being interned as ints and values stored as primitives. Full chunks
+ * are written by a dedicated thread, so the event thread never waits for
+ * I/O. At most "gs.gl.journal.queue" chunks (default 16) wait to be
+ * written; when the writer falls behind, the event thread waits for it
+ * rather than keeping every chunk in memory. Every
+ * {@link #getSnapshotInterval()} milliseconds, the writer takes a copy of
+ * the buffers between two events and writes it as a snapshot record, which
+ * allows {@link JournalReplay} to seek quickly.
+ *
+ * Journal format, big endian:
+ *
+ * <pre>
+ * int  magic "UGLJ"
+ * int  version
+ * long start date, in milliseconds
+ * then records: byte type, long time in nanoseconds since start, data
+ * </pre>
+ *
+ * Record data depends on the type, see the constants of this class. A
+ * snapshot record contains its length and a {@link GraphBuffersSnapshot}.
+ * Events which do not change the buffers are forwarded without being
+ * recorded.
+ */
+public class GraphBuffersJournal implements Sink, LayoutListener {
+	static final int MAGIC = 0x55474C4A;
+	static final int VERSION = 2;
+	static final int HEADER_SIZE = 16;
+
+	/**
+	 * int id, int length, UTF-8 bytes.
+	 */
+	static final byte ID = 1;
+	/**
+	 * int node.
+	 */
+	static final byte NODE_ADDED = 2;
+	/**
+	 * int node.
+	 */
+	static final byte NODE_REMOVED = 3;
+	/**
+	 * int edge, int from, int to, byte directed.
+	 */
+	static final byte EDGE_ADDED = 4;
+	/**
+	 * int edge.
+	 */
+	static final byte EDGE_REMOVED = 5;
+	/**
+	 * int node, byte mask, float x, float y, float z.
+	 */
+	static final byte NODE_COORDS = 6;
+	/**
+	 * int node, float r, float g, float b, float a.
+	 */
+	static final byte NODE_COLOR = 7;
+	/**
+	 * int length (-1 when removed), UTF-8 bytes.
+	 */
+	static final byte STYLESHEET = 8;
+	/**
+	 * No data.
+	 */
+	static final byte GRAPH_CLEARED = 9;
+	/**
+	 * double step.
+	 */
+	static final byte STEP_BEGINS = 10;
+	/**
+	 * int node, float x, float y, float z.
+	 */
+	static final byte NODE_MOVED = 11;
+	/**
+	 * long length, snapshot.
+	 */
+	static final byte SNAPSHOT = 12;
+	/**
+	 * int edge, float width. Since version 2.
+	 */
+	static final byte EDGE_WIDTH = 13;
+
+	/**
+	 * Something to write: either a chunk of records or a snapshot.
+	 */
+	protected static class Chunk {
+		ByteBuffer data;
+		ByteBuffer[] snapshot;
+		long time;
+
+		Chunk(int size) {
+			data = ByteBuffer.allocate(size);
+		}
+	}
+
+	protected final GraphBuffers target;
+
+	protected FileChannel channel;
+	protected long position;
+
+	protected final ReentrantLock lock = new ReentrantLock();
+
+	protected final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+
+	protected Chunk current;
+	protected final int chunkSize;
+	protected final ConcurrentLinkedQueue<Chunk> free = new ConcurrentLinkedQueue<Chunk>();
+	protected final LinkedBlockingQueue<Chunk> ready = new LinkedBlockingQueue<Chunk>(
+			Integer.getInteger("gs.gl.journal.queue", 16));
+
+	protected final long start;
+	protected volatile long snapshotInterval;
+
+	/**
+	 * Time of the last snapshot, used by the writer only.
+	 */
+	protected long lastSnapshot;
+
+	protected Thread writer;
+	protected volatile boolean closed;
+
+	/**
+	 * Decoded values, used with the lock held.
+	 */
+	protected final float[] values = new float[4];
+
+	public GraphBuffersJournal(GraphBuffers target, File file)
+			throws IOException {
+		this.target = target;
+		this.chunkSize = Integer.parseInt(System.getProperty(
+				"gs.gl.journal.chunk", "1048576"));
+		this.snapshotInterval = Long.parseLong(System.getProperty(
+				"gs.gl.journal.snapshot", "60000"));
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+
+		channel = raf.getChannel();
+		start = System.nanoTime();
+		lastSnapshot = start;
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putLong(System.currentTimeMillis());
+		header.flip();
+
+		while (header.hasRemaining())
+			position += channel.write(header, position);
+
+		current = new Chunk(chunkSize);
+
+		writer = new Thread(new Runnable() {
+			public void run() {
+				write();
+			}
+		}, "journal-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Interval between two snapshots, in milliseconds. A value of 0 or less
+	 * disables snapshots.
+	 */
+	public long getSnapshotInterval() {
+		return snapshotInterval;
+	}
+
+	public void setSnapshotInterval(long snapshotInterval) {
+		this.snapshotInterval = snapshotInterval;
+	}
+
+	/**
+	 * Write pending records and close the journal.
+	 */
+	public void close() throws IOException {
+		lock.lock();
+
+		try {
+			closed = true;
+			handOff();
+		} finally {
+			lock.unlock();
+		}
+
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		channel.close();
+	}
+
+	/**
+	 * Begin a record. Must be called with the lock held.
+	 */
+	protected ByteBuffer begin(byte type, int size) {
+		long now = System.nanoTime();
+
+		if (current.data.remaining() < size + 9) {
+			handOff();
+
+			if (current.data.capacity() < size + 9)
+				current = new Chunk(size + 9);
+		}
+
+		ByteBuffer data = current.data;
+		data.put(type);
+		data.putLong(now - start);
+
+		return data;
+	}
+
+	/**
+	 * Give the current chunk to the writer and take a free one. Must be
+	 * called with the lock held, and waits if the writer is behind.
+	 */
+	protected void handOff() {
+		if (current.data.position() > 0) {
+			current.data.flip();
+			enqueue(current);
+
+			current = free.poll();
+
+			if (current == null)
+				current = new Chunk(chunkSize);
+		}
+	}
+
+	/**
+	 * Put a chunk in the queue of the writer, waiting for room.
+	 */
+	private void enqueue(Chunk chunk) {
+		boolean interrupted = false;
+
+		for (;;) {
+			try {
+				ready.put(chunk);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Take a snapshot from the writer thread. Events are stopped while the
+	 * chunks recorded before the snapshot are taken from the queue and the
+	 * buffers are copied, then the chunks and the snapshot are written in
+	 * order. The queue is emptied by the writer itself, so it never waits
+	 * for room, and the writer keeps writing chunks while it waits for the
+	 * lock.
+	 */
+	protected void snapshot() {
+		ArrayList<Chunk> before = new ArrayList<Chunk>();
+		Chunk chunk = new Chunk(0);
+
+		/*
+		 * The event thread may hold the lock while it waits for room in
+		 * the queue, so chunks are written until the lock is free.
+		 */
+		while (!lock.tryLock()) {
+			Chunk c;
+
+			try {
+				c = ready.poll(1, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+
+			if (c != null)
+				write(c);
+		}
+
+		try {
+			ready.drainTo(before);
+
+			if (current.data.position() > 0) {
+				current.data.flip();
+				before.add(current);
+
+				current = free.poll();
+
+				if (current == null)
+					current = new Chunk(chunkSize);
+			}
+
+			chunk.snapshot = GraphBuffersSnapshot.capture(target);
+			chunk.time = System.nanoTime() - start;
+		} finally {
+			lock.unlock();
+		}
+
+		for (Chunk c : before)
+			write(c);
+
+		write(chunk);
+	}
+
+	protected int intern(String id) {
+		Integer i = ids.get(id);
+
+		if (i == null) {
+			byte[] bytes = id.getBytes(GraphBuffersSnapshot.UTF8);
+
+			i = ids.size();
+			ids.put(id, i);
+
+			ByteBuffer data = begin(ID, 8 + bytes.length);
+			data.putInt(i);
+			data.putInt(bytes.length);
+			data.put(bytes);
+		}
+
+		return i;
+	}
+
+	protected void write() {
+		while (true) {
+			long now = System.nanoTime();
+			long interval = snapshotInterval;
+
+			if (!closed && interval > 0
+					&& now - lastSnapshot > interval * 1000000L) {
+				lastSnapshot = now;
+				snapshot();
+			}
+
+			Chunk chunk;
+
+			try {
+				chunk = ready.poll(100, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				break;
+			}
+
+			if (chunk == null) {
+				if (closed)
+					break;
+
+				/*
+				 * Nothing written for a while, flush the current chunk if the
+				 * event thread does not hold it. Chunks are only queued with
+				 * the lock held, so the room checked is still there.
+				 */
+				if (lock.tryLock()) {
+					try {
+						if (ready.remainingCapacity() > 0)
+							handOff();
+					} finally {
+						lock.unlock();
+					}
+				}
+
+				continue;
+			}
+
+			write(chunk);
+		}
+	}
+
+	/**
+	 * Write a chunk or a snapshot at the end of the file.
+	 */
+	private void write(Chunk chunk) {
+		try {
+			if (chunk.snapshot != null) {
+				ByteBuffer header = ByteBuffer.allocate(17);
+				long snapshotStart = position + 17;
+				long length = GraphBuffersSnapshot.write(chunk.snapshot,
+						channel, snapshotStart);
+
+				header.put(SNAPSHOT);
+				header.putLong(chunk.time);
+				header.putLong(length);
+				header.flip();
+
+				while (header.hasRemaining())
+					channel.write(header, position + header.position());
+
+				position = snapshotStart + length;
+			} else {
+				while (chunk.data.hasRemaining())
+					position += channel.write(chunk.data, position);
+
+				chunk.data.clear();
+				free.add(chunk);
+			}
+		} catch (IOException e) {
+			System.err.printf("[journal] %s%n", e.getMessage());
+		}
+	}
+
+	// Sink
+
+	public void nodeAdded(String sourceId, long timeId, String nodeId) {
+		lock.lock();
+
+		try {
+			int node = intern(nodeId);
+			begin(NODE_ADDED, 4).putInt(node);
+			target.nodeAdded(sourceId, timeId, nodeId);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void nodeRemoved(String sourceId, long timeId, String nodeId) {
+		lock.lock();
+
+		try {
+			int node = intern(nodeId);
+			begin(NODE_REMOVED, 4).putInt(node);
+			target.nodeRemoved(sourceId, timeId, nodeId);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void edgeAdded(String sourceId, long timeId, String edgeId,
+			String fromNodeId, String toNodeId, boolean directed) {
+		lock.lock();
+
+		try {
+			int edge = intern(edgeId);
+			int from = intern(fromNodeId);
+			int to = intern(toNodeId);
+
+			ByteBuffer data = begin(EDGE_ADDED, 13);
+			data.putInt(edge);
+			data.putInt(from);
+			data.putInt(to);
+			data.put((byte) (directed ? 1 : 0));
+
+			target.edgeAdded(sourceId, timeId, edgeId, fromNodeId, toNodeId,
+					directed);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void edgeRemoved(String sourceId, long timeId, String edgeId) {
+		lock.lock();
+
+		try {
+			int edge = intern(edgeId);
+			begin(EDGE_REMOVED, 4).putInt(edge);
+			target.edgeRemoved(sourceId, timeId, edgeId);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	protected void stylesheet(String sourceId, long timeId, String attribute,
+			Object value) {
+		lock.lock();
+
+		try {
+			if (value == null) {
+				begin(STYLESHEET, 4).putInt(-1);
+				target.graphAttributeRemoved(sourceId, timeId, attribute);
+			} else {
+				byte[] bytes = value.toString().getBytes(
+						GraphBuffersSnapshot.UTF8);
+				ByteBuffer data = begin(STYLESHEET, 4 + bytes.length);
+				data.putInt(bytes.length);
+				data.put(bytes);
+
+				target.graphAttributeChanged(sourceId, timeId, attribute,
+						null, value);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void graphAttributeAdded(String sourceId, long timeId,
+			String attribute, Object value) {
+		if (attribute.equals("ui.stylesheet") && value instanceof String)
+			stylesheet(sourceId, timeId, attribute, value);
+	}
+
+	public void graphAttributeChanged(String sourceId, long timeId,
+			String attribute, Object oldValue, Object newValue) {
+		if (attribute.equals("ui.stylesheet") && newValue instanceof String)
+			stylesheet(sourceId, timeId, attribute, newValue);
+	}
+
+	public void graphAttributeRemoved(String sourceId, long timeId,
+			String attribute) {
+		if (attribute.equals("ui.stylesheet"))
+			stylesheet(sourceId, timeId, attribute, null);
+	}
+
+	/**
+	 * Record the coordinates or the color of a node carried by an attribute,
+	 * if any. Must be called with the lock held.
+	 */
+	protected void recordNodeAttribute(String nodeId, String attribute,
+			Object value) {
+		int mask = AttributeValues.getCoordsMask(attribute);
+
+		if (mask != 0) {
+			if (!AttributeValues.toCoords(value, values))
+				return;
+
+			int node = intern(nodeId);
+			ByteBuffer data = begin(NODE_COORDS, 17);
+			data.putInt(node);
+			data.put((byte) mask);
+			data.putFloat(values[0]);
+			data.putFloat(values[1]);
+			data.putFloat(values[2]);
+		} else if (AttributeValues.isColorAttribute(attribute)) {
+			if (!AttributeValues.toColor(value, values))
+				return;
+
+			int node = intern(nodeId);
+			ByteBuffer data = begin(NODE_COLOR, 20);
+			data.putInt(node);
+
+			for (int i = 0; i < 4; i++)
+				data.putFloat(values[i]);
+		}
+	}
+
+	/**
+	 * Record the width of an edge carried by an attribute, if any. Must be
+	 * called with the lock held.
+	 */
+	protected void recordEdgeAttribute(String edgeId, String attribute,
+			Object value) {
+		if (!AttributeValues.isWidthAttribute(attribute))
+			return;
+
+		float width = AttributeValues.toWidth(value);
+
+		if (Float.isNaN(width))
+			return;
+
+		int edge = intern(edgeId);
+		ByteBuffer data = begin(EDGE_WIDTH, 8);
+		data.putInt(edge);
+		data.putFloat(width);
+	}
+
+	/*
+	 * Attribute events are forwarded as they are, so that the buffers also
+	 * refresh the elements in the time-windowed mode and count the events.
+	 * The buffers only take colors from added attributes.
+	 */
+
+	public void nodeAttributeAdded(String sourceId, long timeId, String nodeId,
+			String attribute, Object value) {
+		lock.lock();
+
+		try {
+			recordNodeAttribute(nodeId, attribute, value);
+			target.nodeAttributeAdded(sourceId, timeId, nodeId, attribute,
+					value);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void nodeAttributeChanged(String sourceId, long timeId,
+			String nodeId, String attribute, Object oldValue, Object newValue) {
+		lock.lock();
+
+		try {
+			if (AttributeValues.getCoordsMask(attribute) != 0)
+				recordNodeAttribute(nodeId, attribute, newValue);
+
+			target.nodeAttributeChanged(sourceId, timeId, nodeId, attribute,
+					oldValue, newValue);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void nodeAttributeRemoved(String sourceId, long timeId,
+			String nodeId, String attribute) {
+		target.nodeAttributeRemoved(sourceId, timeId, nodeId, attribute);
+	}
+
+	public void edgeAttributeAdded(String sourceId, long timeId, String edgeId,
+			String attribute, Object value) {
+		lock.lock();
+
+		try {
+			recordEdgeAttribute(edgeId, attribute, value);
+			target.edgeAttributeAdded(sourceId, timeId, edgeId, attribute,
+					value);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void edgeAttributeChanged(String sourceId, long timeId,
+			String edgeId, String attribute, Object oldValue, Object newValue) {
+		lock.lock();
+
+		try {
+			recordEdgeAttribute(edgeId, attribute, newValue);
+			target.edgeAttributeChanged(sourceId, timeId, edgeId, attribute,
+					oldValue, newValue);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void edgeAttributeRemoved(String sourceId, long timeId,
+			String edgeId, String attribute) {
+		target.edgeAttributeRemoved(sourceId, timeId, edgeId, attribute);
+	}
+
+	public void graphCleared(String sourceId, long timeId) {
+		lock.lock();
+
+		try {
+			begin(GRAPH_CLEARED, 0);
+			target.graphCleared(sourceId, timeId);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void stepBegins(String sourceId, long timeId, double step) {
+		lock.lock();
+
+		try {
+			begin(STEP_BEGINS, 8).putDouble(step);
+			target.stepBegins(sourceId, timeId, step);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Layout Listener
+
+	public void nodeMoved(String id, float x, float y, float z) {
+		lock.lock();
+
+		try {
+			int node = intern(id);
+			ByteBuffer data = begin(NODE_MOVED, 16);
+			data.putInt(node);
+			data.putFloat(x);
+			data.putFloat(y);
+			data.putFloat(z);
+
+			target.nodeMoved(id, x, y, z);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void nodesMoved(Map<String, float[]> nodes) {
+		for (String id : nodes.keySet()) {
+			float[] xyz = nodes.get(id);
+			nodeMoved(id, xyz[0], xyz[1], xyz[2]);
+		}
+	}
+
+	public void nodeInfos(String id, float dx, float dy, float dz) {
+		target.nodeInfos(id, dx, dy, dz);
+	}
+
+	public void edgeChanged(String id, float[] points) {
+		target.edgeChanged(id, points);
+	}
+
+	public void edgesChanged(Map<String, float[]> edges) {
+		target.edgesChanged(edges);
+	}
+
+	public void stepCompletion(float percent) {
+		target.stepCompletion(percent);
+	}
+}
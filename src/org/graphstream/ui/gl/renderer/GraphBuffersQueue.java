@@ -0,0 +1,832 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.graphstream.stream.Sink;
+import org.graphstream.ui.gl.metrics.Gauge;
+import org.graphstream.ui.gl.metrics.SinkMetrics;
+import org.graphstream.ui.gl.metrics.SinkMetrics.Drop;
+import org.graphstream.ui.layout.LayoutListener;
+
+/**
+ * Asynchronous queue between a source and {@link GraphBuffers}.
+ *
+ * The queue is registered as sink of the source and as layout listener in
+ * place of the buffers. Events are stored as compact records in a bounded
+ * ring shared by all producers, coordinates and colors being decoded on the
+ * producer side. A dedicated thread drains the ring by batches and applies
+ * them to the target, so producers never run viewer code.
+ *
+ * In each batch, updates of the position or the color of a node which are
+ * overridden later in the same batch are dropped, unless the node is removed
+ * or added in between.
+ *
+ * When the ring is full, the behavior depends on the {@link Policy}.
+ *
+ * The ring is made of parallel arrays, one per field of the records. A
+ * producer claims a sequence number, waits for its slot to be free, fills it
+ * and publishes the sequence number in the slot. The applier only reads
+ * published slots. It takes a slot by swapping its sequence number with a
+ * CAS, which lets producers steal the oldest slot when dropping events, then
+ * clears it and moves the head, so that the ring does not keep references to
+ * the ids and values of the events already applied.
+ */
+public class GraphBuffersQueue implements Sink, LayoutListener {
+	/**
+	 * What to do when the ring is full.
+	 */
+	public static enum Policy {
+		/**
+		 * Producers wait for a free slot.
+		 */
+		BLOCK,
+		/**
+		 * The oldest event is dropped. Dropping structural events desyncs the
+		 * buffers from the source, this is meant for sources which can afford
+		 * it, for example sources sending only moves once the graph is built.
+		 */
+		DROP_OLDEST,
+		/**
+		 * Position updates are coalesced in a side table, keeping the last
+		 * position of each node, until they can be applied. Other events wait
+		 * for a free slot.
+		 */
+		COALESCE_ONLY
+	}
+
+	protected static final byte NODE_ADDED = 1;
+	protected static final byte NODE_REMOVED = 2;
+	protected static final byte EDGE_ADDED = 3;
+	protected static final byte EDGE_REMOVED = 4;
+	protected static final byte NODE_COORDS = 5;
+	protected static final byte NODE_COLOR = 6;
+	protected static final byte NODE_MOVED = 7;
+	protected static final byte GRAPH_ATTRIBUTE_ADDED = 8;
+	protected static final byte GRAPH_ATTRIBUTE_CHANGED = 9;
+	protected static final byte GRAPH_ATTRIBUTE_REMOVED = 10;
+	protected static final byte NODE_ATTRIBUTE_ADDED = 11;
+	protected static final byte NODE_ATTRIBUTE_CHANGED = 12;
+	protected static final byte NODE_ATTRIBUTE_REMOVED = 13;
+	protected static final byte EDGE_ATTRIBUTE_ADDED = 14;
+	protected static final byte EDGE_ATTRIBUTE_CHANGED = 15;
+	protected static final byte EDGE_ATTRIBUTE_REMOVED = 16;
+	protected static final byte GRAPH_CLEARED = 17;
+	protected static final byte STEP_BEGINS = 18;
+	protected static final byte NODE_INFOS = 19;
+	protected static final byte EDGE_CHANGED = 20;
+	protected static final byte STEP_COMPLETION = 21;
+
+	/**
+	 * Records stored as parallel arrays. Depending on the type, id is the
+	 * element, name the attribute or the source of an edge, other the target
+	 * of an edge, flags the coordinates mask or the directed flag.
+	 */
+	protected static class Records {
+		final byte[] types;
+		final String[] sources;
+		final long[] times;
+		final String[] ids;
+		final String[] names;
+		final String[] others;
+		final int[] flags;
+		final float[] xs, ys, zs, ws;
+		final Object[] values;
+		final Object[] oldValues;
+
+		Records(int size) {
+			types = new byte[size];
+			sources = new String[size];
+			times = new long[size];
+			ids = new String[size];
+			names = new String[size];
+			others = new String[size];
+			flags = new int[size];
+			xs = new float[size];
+			ys = new float[size];
+			zs = new float[size];
+			ws = new float[size];
+			values = new Object[size];
+			oldValues = new Object[size];
+		}
+
+		void copy(int from, Records to, int i) {
+			to.types[i] = types[from];
+			to.sources[i] = sources[from];
+			to.times[i] = times[from];
+			to.ids[i] = ids[from];
+			to.names[i] = names[from];
+			to.others[i] = others[from];
+			to.flags[i] = flags[from];
+			to.xs[i] = xs[from];
+			to.ys[i] = ys[from];
+			to.zs[i] = zs[from];
+			to.ws[i] = ws[from];
+			to.values[i] = values[from];
+			to.oldValues[i] = oldValues[from];
+		}
+
+		void clear(int i) {
+			sources[i] = ids[i] = names[i] = others[i] = null;
+			values[i] = oldValues[i] = null;
+		}
+	}
+
+	protected final Sink sink;
+	protected final LayoutListener layout;
+	protected final Policy policy;
+	protected final SinkMetrics metrics;
+
+	protected final int capacity;
+	protected final int mask;
+	protected final Records ring;
+	protected final AtomicLongArray published;
+	protected final AtomicLong tail = new AtomicLong();
+	protected final AtomicLong head = new AtomicLong();
+
+	/**
+	 * Position waiting in the side table. It can only be applied once the
+	 * records claimed before it was stored have been applied, which may
+	 * contain older positions of the same node.
+	 */
+	protected static class Position {
+		final int mask;
+		final float x, y, z;
+		final long after;
+
+		Position(int mask, float x, float y, float z, long after) {
+			this.mask = mask;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.after = after;
+		}
+	}
+
+	/**
+	 * Last positions of the nodes whose updates did not fit in the ring, with
+	 * the {@link Policy#COALESCE_ONLY} policy.
+	 */
+	protected final ConcurrentHashMap<String, Position> pending = new ConcurrentHashMap<String, Position>();
+
+	protected final Records batch;
+	protected final boolean[] dead;
+	protected final HashMap<String, Integer> positions = new HashMap<String, Integer>();
+	protected final HashSet<String> colors = new HashSet<String>();
+	protected final float[] xyz = new float[3];
+	protected final float[] rgba = new float[4];
+
+	protected volatile long coalesced;
+
+	protected final Thread applier;
+	protected volatile boolean waiting;
+	protected volatile boolean closed;
+
+	private final ThreadLocal<float[]> decoded = new ThreadLocal<float[]>() {
+		protected float[] initialValue() {
+			return new float[4];
+		}
+	};
+
+	/**
+	 * Create a queue in front of a sink and a layout listener, usually the
+	 * same {@link GraphBuffers}, and start its applier thread.
+	 *
+	 * @param capacity
+	 *            size of the ring, rounded up to a power of two
+	 * @param batchSize
+	 *            maximum number of records applied at once
+	 * @param metrics
+	 *            metrics where drops are counted and the depth of the queue
+	 *            is exposed, can be null
+	 */
+	public GraphBuffersQueue(Sink sink, LayoutListener layout, Policy policy,
+			int capacity, int batchSize, SinkMetrics metrics) {
+		int size = 2;
+
+		while (size < capacity)
+			size <<= 1;
+
+		this.sink = sink;
+		this.layout = layout;
+		this.policy = policy;
+		this.metrics = metrics;
+		this.capacity = size;
+		this.mask = size - 1;
+		this.ring = new Records(size);
+		this.published = new AtomicLongArray(size);
+		this.batch = new Records(batchSize);
+		this.dead = new boolean[batchSize];
+
+		for (int i = 0; i < size; i++)
+			published.set(i, -1);
+
+		if (metrics != null)
+			metrics.setQueueDepth(new Gauge() {
+				public long getValue() {
+					return getDepth();
+				}
+			});
+
+		applier = new Thread(new Runnable() {
+			public void run() {
+				apply();
+			}
+		}, "graph-buffers-applier");
+		applier.setDaemon(true);
+		applier.start();
+	}
+
+	/**
+	 * Create a queue configured by the "gs.gl.queue.capacity" (default 65536)
+	 * and "gs.gl.queue.batch" (default 4096) properties.
+	 */
+	public GraphBuffersQueue(Sink sink, LayoutListener layout, Policy policy,
+			SinkMetrics metrics) {
+		this(sink, layout, policy, Integer.parseInt(System.getProperty(
+				"gs.gl.queue.capacity", "65536")), Integer.parseInt(System
+				.getProperty("gs.gl.queue.batch", "4096")), metrics);
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Number of events waiting to be applied.
+	 */
+	public long getDepth() {
+		return Math.min(capacity, Math.max(0, tail.get() - head.get()))
+				+ pending.size();
+	}
+
+	/**
+	 * Number of updates dropped because they were overridden in their batch.
+	 */
+	public long getCoalescedCount() {
+		return coalesced;
+	}
+
+	/**
+	 * Apply the remaining events and stop the applier thread.
+	 */
+	public void close() {
+		closed = true;
+		LockSupport.unpark(applier);
+
+		try {
+			applier.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Claim a slot. With the {@link Policy#DROP_OLDEST} policy, the oldest
+	 * published record is dropped when the ring is full, otherwise the
+	 * producer waits.
+	 *
+	 * @return the sequence number of the slot
+	 */
+	protected long claim() {
+		long seq = tail.getAndIncrement();
+
+		while (seq - head.get() >= capacity) {
+			if (policy == Policy.DROP_OLDEST) {
+				long h = head.get();
+
+				if (free(h)) {
+					if (metrics != null)
+						metrics.drop(Drop.OVERFLOW);
+
+					continue;
+				}
+			}
+
+			LockSupport.parkNanos(1000);
+		}
+
+		return seq;
+	}
+
+	protected void publish(long seq) {
+		published.lazySet((int) (seq & mask), seq);
+
+		if (waiting)
+			LockSupport.unpark(applier);
+	}
+
+	protected void event(byte type, String sourceId, long timeId, String id,
+			String name, String other, Object value, Object oldValue) {
+		long seq = claim();
+		int slot = (int) (seq & mask);
+
+		ring.types[slot] = type;
+		ring.sources[slot] = sourceId;
+		ring.times[slot] = timeId;
+		ring.ids[slot] = id;
+		ring.names[slot] = name;
+		ring.others[slot] = other;
+		ring.values[slot] = value;
+		ring.oldValues[slot] = oldValue;
+
+		publish(seq);
+	}
+
+	protected void floats(byte type, String sourceId, long timeId, String id,
+			int flags, float x, float y, float z, float w) {
+		long seq = claim();
+		int slot = (int) (seq & mask);
+
+		ring.types[slot] = type;
+		ring.sources[slot] = sourceId;
+		ring.times[slot] = timeId;
+		ring.ids[slot] = id;
+		ring.flags[slot] = flags;
+		ring.xs[slot] = x;
+		ring.ys[slot] = y;
+		ring.zs[slot] = z;
+		ring.ws[slot] = w;
+
+		publish(seq);
+	}
+
+	/**
+	 * Queue a position update. With the {@link Policy#COALESCE_ONLY} policy,
+	 * the update goes to the side table if the ring is full or if the node
+	 * already has a position waiting there, so that its updates stay ordered.
+	 */
+	protected void position(byte type, String sourceId, long timeId,
+			String id, int flags, float x, float y, float z) {
+		if (policy == Policy.COALESCE_ONLY
+				&& (tail.get() - head.get() >= capacity || pending
+						.containsKey(id))) {
+			Position p = pending.get(id);
+
+			if (p != null) {
+				x = (flags & AttributeValues.X) != 0 ? x : p.x;
+				y = (flags & AttributeValues.Y) != 0 ? y : p.y;
+				z = (flags & AttributeValues.Z) != 0 ? z : p.z;
+				flags |= p.mask;
+			}
+
+			pending.put(id, new Position(flags, x, y, z, tail.get()));
+			return;
+		}
+
+		floats(type, sourceId, timeId, id, flags, x, y, z, 0);
+	}
+
+	/**
+	 * A structural event makes the pending position of a node obsolete.
+	 */
+	protected void forget(String id) {
+		if (policy == Policy.COALESCE_ONLY)
+			pending.remove(id);
+	}
+
+	// Applier
+
+	protected void apply() {
+		while (true) {
+			int n = drain();
+
+			if (n > 0) {
+				coalesce(n);
+
+				for (int i = 0; i < n; i++) {
+					if (!dead[i])
+						dispatch(i);
+
+					batch.clear(i);
+				}
+			}
+
+			boolean appliedPending = applyPending();
+
+			if (n == 0 && !appliedPending) {
+				if (closed && tail.get() == head.get() && pending.isEmpty())
+					break;
+
+				waiting = true;
+
+				if (published.get((int) (head.get() & mask)) != head.get())
+					LockSupport.parkNanos(this, 1000000L);
+
+				waiting = false;
+			}
+		}
+	}
+
+	/**
+	 * Take the slot of the head, if it is published and not taken by another
+	 * thread, clear it and move the head. The record can be copied before
+	 * being cleared.
+	 *
+	 * @param h
+	 *            the head read by the caller
+	 * @param to
+	 *            batch receiving the record, or null to drop it
+	 * @return true if the slot has been freed by this call
+	 */
+	protected boolean free(long h, Records to, int i) {
+		int slot = (int) (h & mask);
+
+		if (published.get(slot) != h
+				|| !published.compareAndSet(slot, h, -1))
+			return false;
+
+		if (to != null)
+			ring.copy(slot, to, i);
+
+		ring.clear(slot);
+		head.set(h + 1);
+
+		return true;
+	}
+
+	protected boolean free(long h) {
+		return free(h, null, 0);
+	}
+
+	/**
+	 * Copy published records in the batch and free their slots.
+	 *
+	 * @return the number of records copied
+	 */
+	protected int drain() {
+		int n = 0;
+
+		while (n < dead.length) {
+			long h = head.get();
+
+			if (published.get((int) (h & mask)) != h)
+				break;
+
+			/*
+			 * If it fails, the record has been dropped by a producer.
+			 */
+			if (free(h, batch, n)) {
+				dead[n] = false;
+				n++;
+			}
+		}
+
+		return n;
+	}
+
+	/**
+	 * Mark the records of the batch which are overridden by later ones.
+	 */
+	protected void coalesce(int n) {
+		positions.clear();
+		colors.clear();
+
+		for (int i = n - 1; i >= 0; i--) {
+			String id = batch.ids[i];
+
+			switch (batch.types[i]) {
+			case NODE_COORDS:
+			case NODE_MOVED:
+				int m = batch.flags[i];
+				Integer seen = positions.get(id);
+				int s = seen == null ? 0 : seen;
+
+				if ((s & m) == m)
+					dead[i] = true;
+				else
+					positions.put(id, s | m);
+
+				break;
+			case NODE_COLOR:
+				if (!colors.add(id))
+					dead[i] = true;
+				break;
+			case NODE_ADDED:
+			case NODE_REMOVED:
+				positions.remove(id);
+				colors.remove(id);
+				break;
+			case GRAPH_CLEARED:
+				positions.clear();
+				colors.clear();
+				break;
+			}
+
+			if (dead[i])
+				coalesced++;
+		}
+	}
+
+	/**
+	 * Apply the positions of the side table which can be.
+	 *
+	 * @return true if at least one position has been applied
+	 */
+	protected boolean applyPending() {
+		if (pending.isEmpty())
+			return false;
+
+		boolean applied = false;
+		long h = head.get();
+
+		for (Map.Entry<String, Position> e : pending.entrySet()) {
+			Position p = e.getValue();
+
+			if (p.after > h)
+				continue;
+
+			if (p.mask == AttributeValues.XYZ)
+				layout.nodeMoved(e.getKey(), p.x, p.y, p.z);
+			else {
+				xyz[0] = p.x;
+				xyz[1] = p.y;
+				xyz[2] = p.z;
+
+				sink.nodeAttributeChanged(null, 0, e.getKey(), AttributeValues
+						.getCoordsAttribute(p.mask), null, xyz);
+			}
+
+			pending.remove(e.getKey(), p);
+			applied = true;
+		}
+
+		return applied;
+	}
+
+	/**
+	 * Send a record to the target. Coordinates and colors are sent as float
+	 * arrays which are reused, the target should not keep them.
+	 */
+	protected void dispatch(int i) {
+		Records b = batch;
+		String source = b.sources[i];
+		long time = b.times[i];
+
+		switch (b.types[i]) {
+		case NODE_ADDED:
+			sink.nodeAdded(source, time, b.ids[i]);
+			break;
+		case NODE_REMOVED:
+			sink.nodeRemoved(source, time, b.ids[i]);
+			break;
+		case EDGE_ADDED:
+			sink.edgeAdded(source, time, b.ids[i], b.names[i], b.others[i],
+					b.flags[i] != 0);
+			break;
+		case EDGE_REMOVED:
+			sink.edgeRemoved(source, time, b.ids[i]);
+			break;
+		case NODE_COORDS:
+			xyz[0] = b.xs[i];
+			xyz[1] = b.ys[i];
+			xyz[2] = b.zs[i];
+			sink.nodeAttributeChanged(source, time, b.ids[i], AttributeValues
+					.getCoordsAttribute(b.flags[i]), null, xyz);
+			break;
+		case NODE_COLOR:
+			rgba[0] = b.xs[i];
+			rgba[1] = b.ys[i];
+			rgba[2] = b.zs[i];
+			rgba[3] = b.ws[i];
+			sink.nodeAttributeAdded(source, time, b.ids[i], "ui.color", rgba);
+			break;
+		case NODE_MOVED:
+			layout.nodeMoved(b.ids[i], b.xs[i], b.ys[i], b.zs[i]);
+			break;
+		case GRAPH_ATTRIBUTE_ADDED:
+			sink.graphAttributeAdded(source, time, b.names[i], b.values[i]);
+			break;
+		case GRAPH_ATTRIBUTE_CHANGED:
+			sink.graphAttributeChanged(source, time, b.names[i],
+					b.oldValues[i], b.values[i]);
+			break;
+		case GRAPH_ATTRIBUTE_REMOVED:
+			sink.graphAttributeRemoved(source, time, b.names[i]);
+			break;
+		case NODE_ATTRIBUTE_ADDED:
+			sink.nodeAttributeAdded(source, time, b.ids[i], b.names[i],
+					b.values[i]);
+			break;
+		case NODE_ATTRIBUTE_CHANGED:
+			sink.nodeAttributeChanged(source, time, b.ids[i], b.names[i],
+					b.oldValues[i], b.values[i]);
+			break;
+		case NODE_ATTRIBUTE_REMOVED:
+			sink.nodeAttributeRemoved(source, time, b.ids[i], b.names[i]);
+			break;
+		case EDGE_ATTRIBUTE_ADDED:
+			sink.edgeAttributeAdded(source, time, b.ids[i], b.names[i],
+					b.values[i]);
+			break;
+		case EDGE_ATTRIBUTE_CHANGED:
+			sink.edgeAttributeChanged(source, time, b.ids[i], b.names[i],
+					b.oldValues[i], b.values[i]);
+			break;
+		case EDGE_ATTRIBUTE_REMOVED:
+			sink.edgeAttributeRemoved(source, time, b.ids[i], b.names[i]);
+			break;
+		case GRAPH_CLEARED:
+			sink.graphCleared(source, time);
+			break;
+		case STEP_BEGINS:
+			sink.stepBegins(source, time, (Double) b.values[i]);
+			break;
+		case NODE_INFOS:
+			layout.nodeInfos(b.ids[i], b.xs[i], b.ys[i], b.zs[i]);
+			break;
+		case EDGE_CHANGED:
+			layout.edgeChanged(b.ids[i], (float[]) b.values[i]);
+			break;
+		case STEP_COMPLETION:
+			layout.stepCompletion(b.xs[i]);
+			break;
+		}
+	}
+
+	// Sink
+
+	public void nodeAdded(String sourceId, long timeId, String nodeId) {
+		forget(nodeId);
+		event(NODE_ADDED, sourceId, timeId, nodeId, null, null, null, null);
+	}
+
+	public void nodeRemoved(String sourceId, long timeId, String nodeId) {
+		forget(nodeId);
+		event(NODE_REMOVED, sourceId, timeId, nodeId, null, null, null, null);
+	}
+
+	public void edgeAdded(String sourceId, long timeId, String edgeId,
+			String fromNodeId, String toNodeId, boolean directed) {
+		long seq = claim();
+		int slot = (int) (seq & mask);
+
+		ring.types[slot] = EDGE_ADDED;
+		ring.sources[slot] = sourceId;
+		ring.times[slot] = timeId;
+		ring.ids[slot] = edgeId;
+		ring.names[slot] = fromNodeId;
+		ring.others[slot] = toNodeId;
+		ring.flags[slot] = directed ? 1 : 0;
+
+		publish(seq);
+	}
+
+	public void edgeRemoved(String sourceId, long timeId, String edgeId) {
+		event(EDGE_REMOVED, sourceId, timeId, edgeId, null, null, null, null);
+	}
+
+	public void graphAttributeAdded(String sourceId, long timeId,
+			String attribute, Object value) {
+		event(GRAPH_ATTRIBUTE_ADDED, sourceId, timeId, null, attribute, null,
+				value, null);
+	}
+
+	public void graphAttributeChanged(String sourceId, long timeId,
+			String attribute, Object oldValue, Object newValue) {
+		event(GRAPH_ATTRIBUTE_CHANGED, sourceId, timeId, null, attribute,
+				null, newValue, oldValue);
+	}
+
+	public void graphAttributeRemoved(String sourceId, long timeId,
+			String attribute) {
+		event(GRAPH_ATTRIBUTE_REMOVED, sourceId, timeId, null, attribute,
+				null, null, null);
+	}
+
+	/**
+	 * Queue a node attribute. Coordinates and colors are decoded here, values
+	 * of unknown types are forwarded as they are so that the target reports
+	 * them.
+	 */
+	protected void nodeAttribute(byte type, String sourceId, long timeId,
+			String nodeId, String attribute, Object oldValue, Object value) {
+		int coords = AttributeValues.getCoordsMask(attribute);
+		float[] v = decoded.get();
+
+		if (coords != 0 && AttributeValues.toCoords(value, v)) {
+			position(NODE_COORDS, sourceId, timeId, nodeId, coords, v[0],
+					v[1], v[2]);
+			return;
+		}
+
+		if (type == NODE_ATTRIBUTE_ADDED
+				&& AttributeValues.isColorAttribute(attribute)
+				&& AttributeValues.toColor(value, v)) {
+			floats(NODE_COLOR, sourceId, timeId, nodeId, 0, v[0], v[1], v[2],
+					v[3]);
+			return;
+		}
+
+		event(type, sourceId, timeId, nodeId, attribute, null, value,
+				oldValue);
+	}
+
+	public void nodeAttributeAdded(String sourceId, long timeId, String nodeId,
+			String attribute, Object value) {
+		nodeAttribute(NODE_ATTRIBUTE_ADDED, sourceId, timeId, nodeId,
+				attribute, null, value);
+	}
+
+	public void nodeAttributeChanged(String sourceId, long timeId,
+			String nodeId, String attribute, Object oldValue, Object newValue) {
+		nodeAttribute(NODE_ATTRIBUTE_CHANGED, sourceId, timeId, nodeId,
+				attribute, oldValue, newValue);
+	}
+
+	public void nodeAttributeRemoved(String sourceId, long timeId,
+			String nodeId, String attribute) {
+		event(NODE_ATTRIBUTE_REMOVED, sourceId, timeId, nodeId, attribute,
+				null, null, null);
+	}
+
+	public void edgeAttributeAdded(String sourceId, long timeId, String edgeId,
+			String attribute, Object value) {
+		event(EDGE_ATTRIBUTE_ADDED, sourceId, timeId, edgeId, attribute, null,
+				value, null);
+	}
+
+	public void edgeAttributeChanged(String sourceId, long timeId,
+			String edgeId, String attribute, Object oldValue, Object newValue) {
+		event(EDGE_ATTRIBUTE_CHANGED, sourceId, timeId, edgeId, attribute,
+				null, newValue, oldValue);
+	}
+
+	public void edgeAttributeRemoved(String sourceId, long timeId,
+			String edgeId, String attribute) {
+		event(EDGE_ATTRIBUTE_REMOVED, sourceId, timeId, edgeId, attribute,
+				null, null, null);
+	}
+
+	public void graphCleared(String sourceId, long timeId) {
+		if (policy == Policy.COALESCE_ONLY)
+			pending.clear();
+
+		event(GRAPH_CLEARED, sourceId, timeId, null, null, null, null, null);
+	}
+
+	public void stepBegins(String sourceId, long timeId, double step) {
+		event(STEP_BEGINS, sourceId, timeId, null, null, null, step, null);
+	}
+
+	// Layout Listener
+
+	public void nodeMoved(String id, float x, float y, float z) {
+		position(NODE_MOVED, null, 0, id, AttributeValues.XYZ, x, y, z);
+	}
+
+	public void nodesMoved(Map<String, float[]> nodes) {
+		for (Map.Entry<String, float[]> e : nodes.entrySet()) {
+			float[] p = e.getValue();
+			position(NODE_MOVED, null, 0, e.getKey(), AttributeValues.XYZ,
+					p[0], p[1], p[2]);
+		}
+	}
+
+	public void nodeInfos(String id, float dx, float dy, float dz) {
+		floats(NODE_INFOS, null, 0, id, 0, dx, dy, dz, 0);
+	}
+
+	public void edgeChanged(String id, float[] points) {
+		event(EDGE_CHANGED, null, 0, id, null, null, points, null);
+	}
+
+	public void edgesChanged(Map<String, float[]> edges) {
+		for (Map.Entry<String, float[]> e : edges.entrySet())
+			edgeChanged(e.getKey(), e.getValue());
+	}
+
+	public void stepCompletion(float percent) {
+		floats(STEP_COMPLETION, null, 0, null, 0, percent, 0, 0, 0);
+	}
+}
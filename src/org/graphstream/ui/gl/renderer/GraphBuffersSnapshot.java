@@ -0,0 +1,433 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.charset.Charset;
+import java.util.EnumMap;
+
+import org.graphstream.ui.gl.renderer.GraphBuffers.GraphBuffer;
+import org.graphstream.ui.gl.renderer.GraphBuffers.ID2Index;
+
+/**
+ * Binary snapshot of {@link GraphBuffers}.
+ *
+ * A snapshot is made of a header, an id table and the raw content of each
+ * {@link GraphBuffer}. The header is always big endian, the id table too.
+ * Buffer regions are stored in the byte order of the machine which saved
+ * them and are aligned on {@link #ALIGNMENT} bytes, so that they can be
+ * memory-mapped and used as they are when loading on a machine with the same
+ * byte order.
+ *
+ * <pre>
+ * int     magic "UGLB"
+ * int     version
+ * byte    regions byte order (0 big endian, 1 little endian)
+ * byte    flags (1 colors, 2 sizes)
+ * short   reserved
+ * int     last node index
+ * int     last edge index
+ * int     region count
+ * long[2] offset and length of each region, in GraphBuffer order
+ * long[2] offset and length of the id table
+ *
+ * Version 1 snapshots have no NODE_PREVIOUS region, nodes loaded from them
+ * are not animated. Version 1 and 2 snapshots have no EDGE_ATTRIBUTES region,
+ * edges loaded from them have a width of 1 and are not directed.
+ *
+ * id table:
+ * int     node id count, then for each: int length (-1 if none) + UTF-8
+ * int     edge id count, then for each: int length (-1 if none) + UTF-8
+ * </pre>
+ */
+class GraphBuffersSnapshot {
+	static final int MAGIC = 0x55474C42;
+	static final int VERSION = 3;
+	static final int ALIGNMENT = 4096;
+
+	static final int FLAG_COLORS = 1;
+	static final int FLAG_SIZES = 2;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	static final int HEADER_SIZE = 4 + 4 + 1 + 1 + 2 + 4 + 4 + 4
+			+ (GraphBuffer.values().length + 1) * 16;
+
+	static void save(GraphBuffers gb, File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+		try {
+			raf.setLength(0);
+			save(gb, raf.getChannel(), 0);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Write a snapshot of the buffers in a channel, at a given position.
+	 * Offsets stored in the snapshot are relative to this position.
+	 *
+	 * @return the size of the snapshot
+	 */
+	static long save(GraphBuffers gb, FileChannel channel, long start)
+			throws IOException {
+		return write(encode(gb, false), channel, start);
+	}
+
+	/**
+	 * Copy the buffers in memory. The copy can be written later, from another
+	 * thread, with {@link #write(ByteBuffer[], FileChannel, long)}, while the
+	 * buffers keep changing.
+	 */
+	static ByteBuffer[] capture(GraphBuffers gb) {
+		return encode(gb, true);
+	}
+
+	/**
+	 * Encode a snapshot. The first buffer is the header, the second one the
+	 * id table and the others are the regions, in {@link GraphBuffer} order.
+	 * Regions are either views on the graph buffers or copies of them.
+	 */
+	static ByteBuffer[] encode(GraphBuffers gb, boolean copy) {
+		gb.flushPending();
+
+		GraphBuffer[] regions = GraphBuffer.values();
+		ByteBuffer[] parts = new ByteBuffer[regions.length + 2];
+		ByteBuffer ids = encodeIds(gb);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(
+				ByteOrder.BIG_ENDIAN);
+
+		long offset = align(HEADER_SIZE + ids.remaining());
+
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.put((byte) (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? 0
+				: 1));
+		header.put((byte) ((gb.isColorPointerEnabled() ? FLAG_COLORS : 0) | (gb
+				.isSizePointerEnabled() ? FLAG_SIZES : 0)));
+		header.putShort((short) 0);
+		header.putInt(gb.getLastNodeIndex());
+		header.putInt(gb.getLastEdgeIndex());
+		header.putInt(regions.length);
+
+		for (int i = 0; i < regions.length; i++) {
+			ByteBuffer data = gb.getBuffer(regions[i]).duplicate();
+			data.clear();
+
+			if (copy) {
+				ByteBuffer c = ByteBuffer.allocate(data.capacity());
+				c.put(data);
+				c.flip();
+				data = c;
+			}
+
+			header.putLong(offset);
+			header.putLong(data.capacity());
+
+			offset = align(offset + data.capacity());
+			parts[i + 2] = data;
+		}
+
+		header.putLong(HEADER_SIZE);
+		header.putLong(ids.remaining());
+		header.flip();
+
+		parts[0] = header;
+		parts[1] = ids;
+
+		return parts;
+	}
+
+	/**
+	 * Write an encoded snapshot in a channel, at a given position.
+	 *
+	 * @return the size of the snapshot
+	 */
+	static long write(ByteBuffer[] parts, FileChannel channel, long start)
+			throws IOException {
+		ByteBuffer header = parts[0].duplicate();
+		long end = 0;
+
+		write(channel, parts[0].duplicate(), start);
+		write(channel, parts[1].duplicate(), start + HEADER_SIZE);
+
+		header.position(4 + 4 + 1 + 1 + 2 + 4 + 4 + 4);
+
+		for (int i = 2; i < parts.length; i++) {
+			long offset = header.getLong();
+			long length = header.getLong();
+
+			write(channel, parts[i].duplicate(), start + offset);
+			end = align(offset + length);
+		}
+
+		return end;
+	}
+
+	static void load(GraphBuffers gb, File file) throws IOException {
+		RandomAccessFile raf = open(file);
+
+		try {
+			load(gb, raf.getChannel(), 0);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Open a file containing snapshots for reading. Private mappings need a
+	 * channel opened for writing, so the file is opened in read-write mode
+	 * when it can be written, nothing being ever written to it. Read-only
+	 * files are opened in read mode, and their regions are copied.
+	 */
+	static RandomAccessFile open(File file) throws FileNotFoundException {
+		return new RandomAccessFile(file, file.canWrite() ? "rw" : "r");
+	}
+
+	/**
+	 * Load a snapshot starting at a given position of a channel. Regions are
+	 * mapped privately: the buffers can be modified without changing the
+	 * file. Mappings remain valid once the channel is closed. Private
+	 * mappings need a channel opened for writing, regions are copied
+	 * otherwise.
+	 */
+	static void load(GraphBuffers gb, FileChannel channel, long start)
+			throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(
+				ByteOrder.BIG_ENDIAN);
+
+		read(channel, header, start);
+		header.flip();
+
+		if (header.getInt() != MAGIC)
+			throw new IOException("not a graph buffers snapshot");
+
+		int version = header.getInt();
+
+		if (version < 1 || version > VERSION)
+			throw new IOException(String.format(
+					"unsupported snapshot version %d", version));
+
+		ByteOrder order = header.get() == 0 ? ByteOrder.BIG_ENDIAN
+				: ByteOrder.LITTLE_ENDIAN;
+		int flags = header.get();
+		header.getShort();
+
+		int lastNodeIndex = header.getInt();
+		int lastEdgeIndex = header.getInt();
+		int count = header.getInt();
+
+		if (count != getRegionCount(version))
+			throw new IOException("bad region count");
+
+		EnumMap<GraphBuffer, ByteBuffer> regions = new EnumMap<GraphBuffer, ByteBuffer>(
+				GraphBuffer.class);
+
+		for (GraphBuffer region : GraphBuffer.values()) {
+			if (region.ordinal() >= count)
+				continue;
+
+			long offset = header.getLong();
+			long length = header.getLong();
+
+			ByteBuffer data = map(channel, start + offset, length);
+
+			if (order != ByteOrder.nativeOrder()) {
+				/*
+				 * All regions are made of 4-bytes values, so they can be
+				 * converted as ints.
+				 */
+				ByteBuffer converted = ByteBuffer.allocateDirect(
+						(int) length).order(ByteOrder.nativeOrder());
+				converted.asIntBuffer().put(data.order(order).asIntBuffer());
+				data = converted;
+			}
+
+			regions.put(region, data.order(ByteOrder.nativeOrder()));
+		}
+
+		if (!regions.containsKey(GraphBuffer.NODE_PREVIOUS))
+			regions.put(GraphBuffer.NODE_PREVIOUS, ByteBuffer.allocateDirect(
+					GraphBuffers.FLOAT_BYTES).order(ByteOrder.nativeOrder()));
+
+		if (!regions.containsKey(GraphBuffer.EDGE_ATTRIBUTES)) {
+			int edges = regions.get(GraphBuffer.EDGES).capacity()
+					/ GraphBuffers.INT_BYTES / 2;
+			ByteBuffer attributes = ByteBuffer.allocateDirect(
+					GraphBuffers.EDGE_ATTRIBUTE_COMPONENTS * edges
+							* GraphBuffers.FLOAT_BYTES).order(
+					ByteOrder.nativeOrder());
+
+			for (int i = 0; i < edges; i++)
+				attributes.putFloat(GraphBuffers.EDGE_ATTRIBUTE_COMPONENTS * i
+						* GraphBuffers.FLOAT_BYTES, 1);
+
+			regions.put(GraphBuffer.EDGE_ATTRIBUTES, attributes);
+		}
+
+		long idsOffset = header.getLong();
+		long idsLength = header.getLong();
+
+		ByteBuffer ids = channel.map(FileChannel.MapMode.READ_ONLY, start
+				+ idsOffset, idsLength);
+		ids.order(ByteOrder.BIG_ENDIAN);
+
+		int nodeCapacity = regions.get(GraphBuffer.NODE_INDEXES).capacity()
+				/ GraphBuffers.INT_BYTES;
+		int edgeCapacity = regions.get(GraphBuffer.EDGES).capacity()
+				/ GraphBuffers.INT_BYTES / 2;
+
+		String[] nodeIds = decodeIds(ids, nodeCapacity);
+		String[] edgeIds = decodeIds(ids, edgeCapacity);
+
+		gb.adoptBuffers(regions, (flags & FLAG_COLORS) != 0,
+				(flags & FLAG_SIZES) != 0, lastNodeIndex, lastEdgeIndex,
+				nodeIds, edgeIds);
+	}
+
+	/**
+	 * Count of regions in snapshots of a version.
+	 */
+	static int getRegionCount(int version) {
+		switch (version) {
+		case 1:
+			return GraphBuffer.NODE_PREVIOUS.ordinal();
+		case 2:
+			return GraphBuffer.EDGE_ATTRIBUTES.ordinal();
+		default:
+			return GraphBuffer.values().length;
+		}
+	}
+
+	static ByteBuffer encodeIds(GraphBuffers gb) {
+		ID2Index nodes = gb.getNodeID2Index();
+		ID2Index edges = gb.getEdgeID2Index();
+		int nodeCount = gb.getLastNodeIndex() + 1;
+		int edgeCount = gb.getLastEdgeIndex() + 1;
+
+		byte[][] encoded = new byte[nodeCount + edgeCount][];
+		int size = 8;
+
+		for (int i = 0; i < nodeCount; i++) {
+			String id = nodes.getID(i);
+			encoded[i] = id == null ? null : id.getBytes(UTF8);
+			size += 4 + (id == null ? 0 : encoded[i].length);
+		}
+
+		for (int i = 0; i < edgeCount; i++) {
+			String id = edges.getID(i);
+			encoded[nodeCount + i] = id == null ? null : id.getBytes(UTF8);
+			size += 4 + (id == null ? 0 : encoded[nodeCount + i].length);
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(
+				ByteOrder.BIG_ENDIAN);
+
+		buffer.putInt(nodeCount);
+
+		for (int i = 0; i < nodeCount; i++)
+			putId(buffer, encoded[i]);
+
+		buffer.putInt(edgeCount);
+
+		for (int i = 0; i < edgeCount; i++)
+			putId(buffer, encoded[nodeCount + i]);
+
+		buffer.flip();
+		return buffer;
+	}
+
+	static String[] decodeIds(ByteBuffer buffer, int capacity) {
+		int count = buffer.getInt();
+		String[] ids = new String[Math.max(count, capacity)];
+		byte[] bytes = new byte[256];
+
+		for (int i = 0; i < count; i++) {
+			int length = buffer.getInt();
+
+			if (length >= 0) {
+				if (length > bytes.length)
+					bytes = new byte[length];
+
+				buffer.get(bytes, 0, length);
+				ids[i] = new String(bytes, 0, length, UTF8);
+			}
+		}
+
+		return ids;
+	}
+
+	private static void putId(ByteBuffer buffer, byte[] id) {
+		if (id == null)
+			buffer.putInt(-1);
+		else {
+			buffer.putInt(id.length);
+			buffer.put(id);
+		}
+	}
+
+	private static ByteBuffer map(FileChannel channel, long position,
+			long length) throws IOException {
+		try {
+			return channel.map(FileChannel.MapMode.PRIVATE, position, length);
+		} catch (NonWritableChannelException e) {
+			ByteBuffer data = ByteBuffer.allocateDirect((int) length);
+			read(channel, data, position);
+			data.clear();
+			return data;
+		}
+	}
+
+	private static long align(long offset) {
+		return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+
+	private static void write(FileChannel channel, ByteBuffer data,
+			long position) throws IOException {
+		while (data.hasRemaining())
+			position += channel.write(data, position);
+	}
+
+	private static void read(FileChannel channel, ByteBuffer data,
+			long position) throws IOException {
+		while (data.hasRemaining()) {
+			int r = channel.read(data, position);
+
+			if (r < 0)
+				throw new IOException("unexpected end of snapshot");
+
+			position += r;
+		}
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Index of the node ids of {@link GraphBuffers}, for prefix and substring
+ * searches.
+ *
+ * Ids are kept in sorted runs, merged as in a log-structured merge tree.
+ * Ids added go first to a small unsorted buffer. When it is full, it is
+ * sorted into a run, and the last runs are merged while they are not
+ * larger than twice the new one. So each id is copied O(log n) times, and
+ * there are O(log n) runs, each searched with a binary search. Ids removed
+ * from a run stay in it, in a set of tombstones, until the run is merged.
+ *
+ * Runs hold the strings of the id maps, ids are not copied. The index is
+ * not thread-safe, {@link GraphBuffers} uses it with the structure lock
+ * held.
+ */
+class IdSearchIndex {
+	/**
+	 * Ids added before they are sorted in a run.
+	 */
+	static final int BUFFER = 1024;
+
+	protected final String[] buffer = new String[BUFFER];
+	protected int buffered;
+
+	/**
+	 * Sorted runs, from the largest to the smallest.
+	 */
+	protected final ArrayList<String[]> runs = new ArrayList<String[]>();
+
+	/**
+	 * Ids removed which are still in a run.
+	 */
+	protected final HashSet<String> removed = new HashSet<String>();
+
+	protected int size;
+
+	/**
+	 * Index some ids at once, in one run.
+	 */
+	void addAll(Iterable<String> ids) {
+		ArrayList<String> all = new ArrayList<String>();
+
+		for (String id : ids)
+			all.add(id);
+
+		if (all.isEmpty())
+			return;
+
+		String[] run = all.toArray(new String[all.size()]);
+		Arrays.sort(run);
+
+		push(run);
+		size += run.length;
+	}
+
+	void add(String id) {
+		size++;
+
+		if (removed.remove(id))
+			return;
+
+		buffer[buffered++] = id;
+
+		if (buffered == BUFFER) {
+			String[] run = Arrays.copyOf(buffer, buffered);
+			Arrays.sort(run);
+
+			Arrays.fill(buffer, null);
+			buffered = 0;
+
+			push(run);
+		}
+	}
+
+	/**
+	 * Remove an id which is in the index.
+	 */
+	void remove(String id) {
+		size--;
+
+		for (int i = 0; i < buffered; i++) {
+			if (buffer[i].equals(id)) {
+				buffer[i] = buffer[--buffered];
+				buffer[buffered] = null;
+				return;
+			}
+		}
+
+		removed.add(id);
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Add a run, merging the last runs with it while they are not larger
+	 * than twice its size.
+	 */
+	protected void push(String[] run) {
+		while (!runs.isEmpty()
+				&& runs.get(runs.size() - 1).length <= 2 * run.length)
+			run = merge(runs.remove(runs.size() - 1), run);
+
+		runs.add(run);
+	}
+
+	/**
+	 * Merge two runs, dropping the ids removed.
+	 */
+	protected String[] merge(String[] a, String[] b) {
+		String[] merged = new String[a.length + b.length];
+		int i = 0, j = 0, k = 0;
+
+		while (i < a.length || j < b.length) {
+			String id;
+
+			if (j >= b.length || (i < a.length && a[i].compareTo(b[j]) <= 0))
+				id = a[i++];
+			else
+				id = b[j++];
+
+			if (removed.isEmpty() || !removed.remove(id))
+				merged[k++] = id;
+		}
+
+		return k == merged.length ? merged : Arrays.copyOf(merged, k);
+	}
+
+	/**
+	 * Find the ids beginning with a prefix.
+	 *
+	 * @param ids
+	 *            array receiving the ids, in order, its length being the
+	 *            maximum number of ids found
+	 * @return the number of ids found
+	 */
+	int findPrefix(String prefix, String[] ids) {
+		ArrayList<String> found = new ArrayList<String>();
+
+		for (String[] run : runs) {
+			int from = Arrays.binarySearch(run, prefix);
+			int count = 0;
+
+			if (from < 0)
+				from = -from - 1;
+
+			for (int i = from; i < run.length && count < ids.length
+					&& run[i].startsWith(prefix); i++) {
+				if (!removed.contains(run[i])) {
+					found.add(run[i]);
+					count++;
+				}
+			}
+		}
+
+		for (int i = 0; i < buffered; i++)
+			if (buffer[i].startsWith(prefix))
+				found.add(buffer[i]);
+
+		return copy(found, ids);
+	}
+
+	/**
+	 * Find the ids containing some text. This scans all the ids, stopping
+	 * once the array is full.
+	 *
+	 * @return the number of ids found
+	 */
+	int findSubstring(String text, String[] ids) {
+		ArrayList<String> found = new ArrayList<String>();
+
+		for (int r = 0; r < runs.size() && found.size() < ids.length; r++) {
+			String[] run = runs.get(r);
+
+			for (int i = 0; i < run.length && found.size() < ids.length; i++)
+				if (run[i].contains(text) && !removed.contains(run[i]))
+					found.add(run[i]);
+		}
+
+		for (int i = 0; i < buffered && found.size() < ids.length; i++)
+			if (buffer[i].contains(text))
+				found.add(buffer[i]);
+
+		return copy(found, ids);
+	}
+
+	/**
+	 * Copy the first ids found, in order.
+	 */
+	private static int copy(ArrayList<String> found, String[] ids) {
+		String[] sorted = found.toArray(new String[found.size()]);
+		int count = Math.min(sorted.length, ids.length);
+
+		Arrays.sort(sorted);
+		System.arraycopy(sorted, 0, ids, 0, count);
+
+		return count;
+	}
+}
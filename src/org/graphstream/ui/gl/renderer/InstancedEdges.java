@@ -0,0 +1,462 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.nio.Buffer;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import javax.media.opengl.GL2ES2;
+import javax.media.opengl.GL2ES3;
+import javax.media.opengl.GL2GL3;
+
+/**
+ * Edges drawn as instanced quads.
+ *
+ * Each edge is an instance of a quad whose vertices are computed by the edge
+ * vertex shader from gl_InstanceID and gl_VertexID. Node vertices, colors
+ * and previous positions, edges and edge attributes are given to the shader
+ * as texture buffers, so the extremities of the edges are read from the node
+ * data by pool index, as GL_LINES do with an index array. Width, arrow heads
+ * of directed edges and anti-aliasing are done by the shaders.
+ *
+ * Node data is uploaded once per frame, in one place, whatever the number of
+ * edges. Edges and their attributes stay on the GPU: each drawn buffers has
+ * its own storage, which is updated only when edges change. Edges appended
+ * since the last frame are uploaded alone, other changes reported by
+ * {@link GraphBuffers#getEdgeRewrites()} upload all the edges again.
+ *
+ * This needs GLSL 1.50 with the compatibility profile. Until the program is
+ * built, and if it can not be, edges should be drawn as lines.
+ */
+public class InstancedEdges {
+	protected static final String VERTEX_SHADER = "org/graphstream/ui/gl/shader/edge-vertex-shader.glsl";
+	protected static final String FRAGMENT_SHADER = "org/graphstream/ui/gl/shader/edge-fragment-shader.glsl";
+
+	/**
+	 * Texture buffers, also used as texture units.
+	 */
+	protected static final int VERTICES = 0;
+	protected static final int COLORS = 1;
+	protected static final int PREVIOUS = 2;
+	protected static final int EDGES = 3;
+	protected static final int ATTRIBUTES = 4;
+
+	protected static final String[] SAMPLERS = { "vertices", "colors",
+			"previous", "edges", "attributes" };
+	protected static final int[] FORMATS = { GL2ES2.GL_R32F, GL.GL_RGBA32F,
+			GL.GL_RGBA32F, GL2ES3.GL_RG32I, GL2ES2.GL_RG32F };
+
+	/**
+	 * Buffers and textures of the node data. Those of edges are in
+	 * {@link #storages}.
+	 */
+	protected final int[] buffers = new int[EDGES];
+	protected final int[] textures = new int[EDGES];
+
+	/**
+	 * Edges on the GPU, one storage per drawn buffers.
+	 */
+	protected EdgeStorage[] storages = new EdgeStorage[0];
+
+	protected ShaderManager.Program shaderProgram;
+
+	/**
+	 * The program once it is ready, 0 before.
+	 */
+	protected int program;
+
+	protected int viewProjectionLocation;
+	protected int viewportLocation;
+	protected int timeLocation;
+	protected int durationLocation;
+	protected int coloredLocation;
+	protected int edgeColorLocation;
+	protected int arrowSizeLocation;
+
+	/**
+	 * Length of arrow heads for edges of width 0, in pixels, set by the
+	 * "gs.gl.edges.arrow" property.
+	 */
+	protected float arrowSize = Float.parseFloat(System.getProperty(
+			"gs.gl.edges.arrow", "8"));
+
+	protected final int[] viewport = new int[4];
+
+	/**
+	 * Bytes uploaded by the last frame.
+	 */
+	protected long uploaded;
+
+	/**
+	 * Request the program and create the buffers. The program is built in
+	 * the background, edges can be drawn once {@link #isReady(GL2)}.
+	 *
+	 * @return false if instanced edges are not supported
+	 */
+	public boolean init(GL2 gl, ShaderManager shaders) {
+		if (!gl.isFunctionAvailable("glTexBuffer")
+				|| !gl.isFunctionAvailable("glDrawArraysInstanced")) {
+			System.err.printf("[edges] instancing not available%n");
+			return false;
+		}
+
+		shaderProgram = shaders.request(gl, "edges", VERTEX_SHADER,
+				FRAGMENT_SHADER);
+
+		gl.glGenBuffers(buffers.length, buffers, 0);
+		gl.glGenTextures(textures.length, textures, 0);
+
+		return true;
+	}
+
+	/**
+	 * True once the program is built. The first time, its uniforms are
+	 * located and its samplers set.
+	 */
+	public boolean isReady(GL2 gl) {
+		if (program != 0)
+			return true;
+
+		if (!shaderProgram.isReady())
+			return false;
+
+		program = shaderProgram.getId();
+
+		gl.glUseProgram(program);
+
+		for (int i = 0; i < SAMPLERS.length; i++)
+			gl.glUniform1i(gl.glGetUniformLocation(program, SAMPLERS[i]), i);
+
+		gl.glUseProgram(0);
+
+		viewProjectionLocation = gl.glGetUniformLocation(program,
+				"viewProjection");
+		viewportLocation = gl.glGetUniformLocation(program, "viewport");
+		timeLocation = gl.glGetUniformLocation(program, "time");
+		durationLocation = gl.glGetUniformLocation(program, "duration");
+		coloredLocation = gl.glGetUniformLocation(program, "colored");
+		edgeColorLocation = gl.glGetUniformLocation(program, "edgeColor");
+		arrowSizeLocation = gl.glGetUniformLocation(program, "arrowSize");
+
+		return true;
+	}
+
+	/**
+	 * True if the program can not be built, edges should then be drawn as
+	 * lines.
+	 */
+	public boolean isFailed() {
+		return shaderProgram.isFailed();
+	}
+
+	/**
+	 * Delete the buffers. The program belongs to the shader manager.
+	 */
+	public void dispose(GL2 gl) {
+		gl.glDeleteTextures(textures.length, textures, 0);
+		gl.glDeleteBuffers(buffers.length, buffers, 0);
+
+		for (int i = 0; i < storages.length; i++)
+			storages[i].dispose(gl);
+
+		storages = new EdgeStorage[0];
+		program = 0;
+	}
+
+	/**
+	 * Bytes uploaded by the last call to draw.
+	 */
+	public long getUploadedBytes() {
+		return uploaded;
+	}
+
+	/**
+	 * Draw the edges of some buffers. All buffers share the node data given
+	 * by the first one.
+	 *
+	 * @param viewProjection
+	 *            view projection matrix of the camera
+	 * @param vertices
+	 *            view on the node vertices
+	 * @param colors
+	 *            view on the node colors, used if nodes have colors
+	 * @param previous
+	 *            view on the previous positions, used if nodes are animated
+	 * @param edges
+	 *            view on the edges of each buffers
+	 * @param attributes
+	 *            view on the edge attributes of each buffers
+	 * @param visible
+	 *            visible elements of each buffers, drawn instead of the
+	 *            edges where not null
+	 * @return the number of draw calls
+	 */
+	public int draw(GL2 gl, GraphBuffers[] drawn, float[] viewProjection,
+			Buffer vertices, Buffer colors, Buffer previous, Buffer[] edges,
+			Buffer[] attributes, VisibleIndexes.Lists[] visible) {
+		GraphBuffers nodes = drawn[0];
+		int pools = 0;
+		int calls = 0;
+
+		for (int i = 0; i < drawn.length; i++)
+			pools = Math.max(pools, drawn[i].getPoolHighWater());
+
+		pools = Math.min(pools, vertices.capacity()
+				/ (3 * GraphBuffers.FLOAT_BYTES));
+		uploaded = 0;
+
+		if (pools == 0)
+			return 0;
+
+		gl.glGetIntegerv(GL.GL_VIEWPORT, viewport, 0);
+		gl.glUseProgram(program);
+		gl.glUniformMatrix4fv(viewProjectionLocation, 1, false,
+				viewProjection, 0);
+		gl.glUniform2f(viewportLocation, viewport[2], viewport[3]);
+		gl.glUniform1f(timeLocation, GraphBuffers.getAnimationTime());
+		gl.glUniform1f(durationLocation, nodes.getAnimationDuration());
+		gl.glUniform1i(coloredLocation, nodes.isColorPointerEnabled() ? 1 : 0);
+		gl.glUniform4f(edgeColorLocation, 1, 1, 1, 0.4f);
+		gl.glUniform1f(arrowSizeLocation, arrowSize);
+
+		upload(gl, VERTICES, vertices, 3L * pools * GraphBuffers.FLOAT_BYTES);
+
+		if (nodes.isColorPointerEnabled())
+			upload(gl, COLORS, colors, 4L * pools * GraphBuffers.FLOAT_BYTES);
+
+		if (nodes.isAnimated())
+			upload(gl, PREVIOUS, previous, (long) Transition.COMPONENTS
+					* pools * GraphBuffers.FLOAT_BYTES);
+
+		if (storages.length != drawn.length) {
+			for (int i = 0; i < storages.length; i++)
+				storages[i].dispose(gl);
+
+			storages = new EdgeStorage[drawn.length];
+
+			for (int i = 0; i < storages.length; i++)
+				storages[i] = new EdgeStorage(gl);
+		}
+
+		for (int i = 0; i < drawn.length; i++) {
+			int count = storages[i].update(gl, drawn[i], visible[i],
+					edges[i], attributes[i]);
+
+			if (count == 0)
+				continue;
+
+			gl.glDrawArraysInstanced(GL.GL_TRIANGLE_STRIP, 0, 4, count);
+			calls++;
+		}
+
+		for (int i = SAMPLERS.length - 1; i >= 0; i--) {
+			gl.glActiveTexture(GL.GL_TEXTURE0 + i);
+			gl.glBindTexture(GL2GL3.GL_TEXTURE_BUFFER, 0);
+		}
+
+		gl.glBindBuffer(GL2GL3.GL_TEXTURE_BUFFER, 0);
+		gl.glUseProgram(0);
+
+		return calls;
+	}
+
+	/**
+	 * Upload the beginning of a buffer and bind it as a texture buffer. The
+	 * previous content is orphaned, so that the driver does not have to wait
+	 * for the previous frame.
+	 */
+	protected void upload(GL2 gl, int index, Buffer data, long size) {
+		data.rewind();
+
+		gl.glBindBuffer(GL2GL3.GL_TEXTURE_BUFFER, buffers[index]);
+		gl.glBufferData(GL2GL3.GL_TEXTURE_BUFFER, size, data,
+				GL2ES2.GL_STREAM_DRAW);
+
+		bind(gl, index, textures[index], buffers[index]);
+
+		uploaded += size;
+	}
+
+	/**
+	 * Bind a buffer as the texture buffer of a unit.
+	 */
+	protected static void bind(GL2 gl, int index, int texture, int buffer) {
+		gl.glActiveTexture(GL.GL_TEXTURE0 + index);
+		gl.glBindTexture(GL2GL3.GL_TEXTURE_BUFFER, texture);
+		gl.glTexBuffer(GL2GL3.GL_TEXTURE_BUFFER, FORMATS[index], buffer);
+	}
+
+	/**
+	 * Edges and edge attributes of one buffers, kept on the GPU between
+	 * frames.
+	 */
+	protected class EdgeStorage {
+		protected final int[] buffers = new int[2];
+		protected final int[] textures = new int[2];
+
+		/**
+		 * Edges the buffers can hold.
+		 */
+		protected int capacity = 0;
+
+		/**
+		 * Edges uploaded.
+		 */
+		protected int count = 0;
+
+		/**
+		 * Buffers, or visible edges of the buffers, uploaded, with their
+		 * generation and edge rewrites at that time.
+		 */
+		protected Object source;
+		protected int generation = -1;
+		protected int rewrites = -1;
+
+		protected EdgeStorage(GL2 gl) {
+			gl.glGenBuffers(buffers.length, buffers, 0);
+			gl.glGenTextures(textures.length, textures, 0);
+		}
+
+		/**
+		 * Upload the edges which changed since the last call and bind the
+		 * storage.
+		 *
+		 * @return the number of edges to draw
+		 */
+		protected int update(GL2 gl, GraphBuffers gb,
+				VisibleIndexes.Lists visible, Buffer edges, Buffer attributes) {
+			/*
+			 * Rewrites are read before the count, and incremented by the
+			 * buffers after the change is written, so a change seen half
+			 * done is uploaded again on the next frame.
+			 */
+			Object source = gb;
+			int generation = gb.getGeneration();
+			int rewrites = gb.getEdgeRewrites();
+			int active = gb.getActiveEdgeCount();
+
+			/*
+			 * While elements are hidden, the visible edges are uploaded
+			 * instead, with their own rewrites.
+			 */
+			if (visible != null) {
+				source = visible.getOwner();
+				rewrites = visible.getEdgeRewrites();
+				active = visible.getEdgeCount();
+				edges = visible.createEdgeView();
+				attributes = visible.createEdgeAttributeView();
+			}
+
+			active = Math.min(edges.capacity()
+					/ (2 * GraphBuffers.INT_BYTES), active);
+
+			if (active == 0) {
+				count = 0;
+				return 0;
+			}
+
+			if (source != this.source || generation != this.generation
+					|| rewrites != this.rewrites
+					|| active < count || active > capacity) {
+				if (active > capacity)
+					capacity = Math.max(active, capacity + (capacity >> 1));
+
+				allocate(gl, EDGES, edges, 2L * capacity
+						* GraphBuffers.INT_BYTES, 2L * active
+						* GraphBuffers.INT_BYTES);
+				allocate(gl, ATTRIBUTES, attributes,
+						(long) GraphBuffers.EDGE_ATTRIBUTE_COMPONENTS
+								* capacity * GraphBuffers.FLOAT_BYTES,
+						(long) GraphBuffers.EDGE_ATTRIBUTE_COMPONENTS
+								* active * GraphBuffers.FLOAT_BYTES);
+
+				this.source = source;
+				this.generation = generation;
+				this.rewrites = rewrites;
+			} else if (active > count) {
+				append(gl, EDGES, edges, 2, count, active);
+				append(gl, ATTRIBUTES, attributes,
+						GraphBuffers.EDGE_ATTRIBUTE_COMPONENTS, count, active);
+			}
+
+			count = active;
+
+			bind(gl, EDGES, textures[0], buffers[0]);
+			bind(gl, ATTRIBUTES, textures[1], buffers[1]);
+
+			return count;
+		}
+
+		/**
+		 * Orphan the buffer with a new storage of the given size, then
+		 * upload the beginning of the data. Sizes are in bytes, like the
+		 * positions of the data, which is a byte view.
+		 */
+		protected void allocate(GL2 gl, int index, Buffer data, long size,
+				long used) {
+			int limit = data.limit();
+
+			data.limit((int) used);
+			data.rewind();
+
+			gl.glBindBuffer(GL2GL3.GL_TEXTURE_BUFFER, buffers[index - EDGES]);
+			gl.glBufferData(GL2GL3.GL_TEXTURE_BUFFER, size, null,
+					GL.GL_STATIC_DRAW);
+			gl.glBufferSubData(GL2GL3.GL_TEXTURE_BUFFER, 0, used, data);
+
+			data.limit(limit);
+
+			uploaded += used;
+		}
+
+		/**
+		 * Upload the elements from..to of the data. Each element has the
+		 * given count of 4 bytes components.
+		 */
+		protected void append(GL2 gl, int index, Buffer data,
+				int components, int from, int to) {
+			long element = 4L * components;
+			int limit = data.limit();
+
+			data.limit((int) (to * element));
+			data.position((int) (from * element));
+
+			gl.glBindBuffer(GL2GL3.GL_TEXTURE_BUFFER, buffers[index - EDGES]);
+			gl.glBufferSubData(GL2GL3.GL_TEXTURE_BUFFER, from * element,
+					(to - from) * element, data);
+
+			data.limit(limit);
+			data.rewind();
+			uploaded += (to - from) * element;
+		}
+
+		protected void dispose(GL2 gl) {
+			gl.glDeleteTextures(textures.length, textures, 0);
+			gl.glDeleteBuffers(buffers.length, buffers, 0);
+		}
+	}
+}
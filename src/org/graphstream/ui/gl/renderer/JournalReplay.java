@@ -0,0 +1,454 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+import org.graphstream.stream.SourceBase;
+import org.graphstream.ui.layout.LayoutListener;
+
+/**
+ * Source replaying a journal written by {@link GraphBuffersJournal}.
+ *
+ * Sink events are sent to the sinks of this source, layout events to its
+ * layout listeners. Events can be replayed at their original pace or as fast
+ * as possible. {@link #seek(long, GraphBuffers)} loads the last snapshot
+ * taken before a time in the buffers and replays the following events up to
+ * this time.
+ *
+ * When the journal is opened, it is scanned once to read the ids and find
+ * snapshots. Other records are skipped.
+ */
+public class JournalReplay extends SourceBase {
+	public static enum Speed {
+		ORIGINAL, AS_FAST_AS_POSSIBLE
+	}
+
+	protected static final String SOURCE_ID = "journal-replay";
+
+	protected FileChannel channel;
+	protected long startDate;
+
+	protected ByteBuffer buffer;
+	protected long bufferStart;
+
+	protected final ArrayList<String> ids = new ArrayList<String>();
+
+	/**
+	 * Time, position of the data and length of each snapshot.
+	 */
+	protected final ArrayList<long[]> snapshots = new ArrayList<long[]>();
+
+	protected final LinkedList<LayoutListener> layoutListeners = new LinkedList<LayoutListener>();
+
+	protected long duration;
+
+	/**
+	 * Time of the last record read.
+	 */
+	protected long time;
+
+	public JournalReplay(File file) throws IOException {
+		channel = GraphBuffersSnapshot.open(file).getChannel();
+		buffer = ByteBuffer.allocate(Integer.parseInt(System.getProperty(
+				"gs.gl.journal.chunk", "1048576")));
+
+		moveTo(0);
+
+		if (!ensure(GraphBuffersJournal.HEADER_SIZE)
+				|| buffer.getInt() != GraphBuffersJournal.MAGIC)
+			throw new IOException("not a graph buffers journal");
+
+		int version = buffer.getInt();
+
+		if (version < 1 || version > GraphBuffersJournal.VERSION)
+			throw new IOException(String.format(
+					"unsupported journal version %d", version));
+
+		startDate = buffer.getLong();
+
+		index();
+		moveTo(GraphBuffersJournal.HEADER_SIZE);
+	}
+
+	public void addLayoutListener(LayoutListener listener) {
+		layoutListeners.add(listener);
+	}
+
+	public void removeLayoutListener(LayoutListener listener) {
+		layoutListeners.remove(listener);
+	}
+
+	/**
+	 * Date of the beginning of the journal, in milliseconds.
+	 */
+	public long getStartDate() {
+		return startDate;
+	}
+
+	/**
+	 * Time of the last record, in nanoseconds since the beginning.
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Time of the last record replayed, in nanoseconds since the beginning.
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Replay all remaining records.
+	 */
+	public void replay(Speed speed) throws IOException {
+		replayUntil(Long.MAX_VALUE, speed);
+	}
+
+	/**
+	 * Replay records until a time, in nanoseconds since the beginning of the
+	 * journal.
+	 */
+	public void replayUntil(long until, Speed speed) throws IOException {
+		long wallStart = System.nanoTime();
+		long journalStart = -1;
+
+		while (ensure(9)) {
+			int mark = buffer.position();
+			byte type = buffer.get();
+			long t = buffer.getLong();
+
+			if (t > until) {
+				buffer.position(mark);
+				break;
+			}
+
+			if (speed == Speed.ORIGINAL && type != GraphBuffersJournal.ID) {
+				if (journalStart < 0)
+					journalStart = t;
+
+				long delay = (t - journalStart)
+						- (System.nanoTime() - wallStart);
+
+				if (delay > 1000000L) {
+					try {
+						Thread.sleep(delay / 1000000L);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			}
+
+			if (!dispatch(type))
+				break;
+
+			time = t;
+		}
+	}
+
+	/**
+	 * Restore the state of the buffers at a given time, in nanoseconds since
+	 * the beginning of the journal. If no snapshot was taken before this
+	 * time, the buffers are cleared and the journal replayed from the start.
+	 * The next call to {@link #replay(Speed)} continues from this time.
+	 */
+	public void seek(long until, GraphBuffers target) throws IOException {
+		long[] snapshot = null;
+
+		for (long[] s : snapshots) {
+			if (s[0] <= until)
+				snapshot = s;
+			else
+				break;
+		}
+
+		if (snapshot != null) {
+			GraphBuffersSnapshot.load(target, channel, snapshot[1]);
+			moveTo(snapshot[1] + snapshot[2]);
+			time = snapshot[0];
+		} else {
+			target.graphCleared(SOURCE_ID, 0);
+			moveTo(GraphBuffersJournal.HEADER_SIZE);
+			time = 0;
+		}
+
+		replayUntil(until, Speed.AS_FAST_AS_POSSIBLE);
+	}
+
+	/**
+	 * Read the ids and locate snapshots.
+	 */
+	protected void index() throws IOException {
+		moveTo(GraphBuffersJournal.HEADER_SIZE);
+
+		while (ensure(9)) {
+			byte type = buffer.get();
+			long t = buffer.getLong();
+			int size;
+
+			switch (type) {
+			case GraphBuffersJournal.ID:
+				if (!readId())
+					return;
+				size = 0;
+				break;
+			case GraphBuffersJournal.SNAPSHOT:
+				if (!ensure(8))
+					return;
+
+				long length = buffer.getLong();
+				long position = tell();
+
+				snapshots.add(new long[] { t, position, length });
+				moveTo(position + length);
+				size = 0;
+				break;
+			case GraphBuffersJournal.STYLESHEET:
+				if (!ensure(4))
+					return;
+				size = Math.max(0, buffer.getInt());
+				break;
+			default:
+				size = getRecordSize(type);
+			}
+
+			if (size < 0) {
+				System.err.printf("[journal] unknown record type %d%n", type);
+				return;
+			}
+
+			if (size > 0)
+				moveTo(tell() + size);
+
+			duration = t;
+		}
+	}
+
+	protected int getRecordSize(byte type) {
+		switch (type) {
+		case GraphBuffersJournal.NODE_ADDED:
+		case GraphBuffersJournal.NODE_REMOVED:
+		case GraphBuffersJournal.EDGE_REMOVED:
+			return 4;
+		case GraphBuffersJournal.EDGE_ADDED:
+			return 13;
+		case GraphBuffersJournal.NODE_COORDS:
+			return 17;
+		case GraphBuffersJournal.NODE_COLOR:
+			return 20;
+		case GraphBuffersJournal.GRAPH_CLEARED:
+			return 0;
+		case GraphBuffersJournal.STEP_BEGINS:
+			return 8;
+		case GraphBuffersJournal.NODE_MOVED:
+			return 16;
+		case GraphBuffersJournal.EDGE_WIDTH:
+			return 8;
+		default:
+			return -1;
+		}
+	}
+
+	protected boolean readId() throws IOException {
+		if (!ensure(8))
+			return false;
+
+		int id = buffer.getInt();
+		int length = buffer.getInt();
+
+		if (!ensure(length))
+			return false;
+
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+
+		while (ids.size() <= id)
+			ids.add(null);
+
+		ids.set(id, new String(bytes, GraphBuffersSnapshot.UTF8));
+
+		return true;
+	}
+
+	/**
+	 * Send the event of a record whose type and time have been read.
+	 *
+	 * @return false if the record is incomplete
+	 */
+	protected boolean dispatch(byte type) throws IOException {
+		switch (type) {
+		case GraphBuffersJournal.ID:
+			int idLength = ensure(8) ? buffer.getInt(buffer.position() + 4)
+					: 0;
+			return ensure(8 + idLength) && skip(8 + idLength);
+		case GraphBuffersJournal.SNAPSHOT:
+			if (!ensure(8))
+				return false;
+
+			long length = buffer.getLong();
+			moveTo(tell() + length);
+			return true;
+		case GraphBuffersJournal.STYLESHEET:
+			if (!ensure(4))
+				return false;
+
+			int sheetLength = buffer.getInt();
+
+			if (sheetLength < 0) {
+				sendGraphAttributeRemoved(SOURCE_ID, "ui.stylesheet");
+			} else {
+				if (!ensure(sheetLength))
+					return false;
+
+				byte[] bytes = new byte[sheetLength];
+				buffer.get(bytes);
+				sendGraphAttributeChanged(SOURCE_ID, "ui.stylesheet", null,
+						new String(bytes, GraphBuffersSnapshot.UTF8));
+			}
+
+			return true;
+		}
+
+		int size = getRecordSize(type);
+
+		if (size < 0 || !ensure(size))
+			return false;
+
+		switch (type) {
+		case GraphBuffersJournal.NODE_ADDED:
+			sendNodeAdded(SOURCE_ID, ids.get(buffer.getInt()));
+			break;
+		case GraphBuffersJournal.NODE_REMOVED:
+			sendNodeRemoved(SOURCE_ID, ids.get(buffer.getInt()));
+			break;
+		case GraphBuffersJournal.EDGE_ADDED:
+			String edge = ids.get(buffer.getInt());
+			String from = ids.get(buffer.getInt());
+			String to = ids.get(buffer.getInt());
+			boolean directed = buffer.get() != 0;
+
+			sendEdgeAdded(SOURCE_ID, edge, from, to, directed);
+			break;
+		case GraphBuffersJournal.EDGE_REMOVED:
+			sendEdgeRemoved(SOURCE_ID, ids.get(buffer.getInt()));
+			break;
+		case GraphBuffersJournal.NODE_COORDS:
+			String node = ids.get(buffer.getInt());
+			int mask = buffer.get();
+			float[] xyz = { buffer.getFloat(), buffer.getFloat(),
+					buffer.getFloat() };
+
+			sendNodeAttributeChanged(SOURCE_ID, node,
+					AttributeValues.getCoordsAttribute(mask), null, xyz);
+			break;
+		case GraphBuffersJournal.NODE_COLOR:
+			String colored = ids.get(buffer.getInt());
+			float[] rgba = { buffer.getFloat(), buffer.getFloat(),
+					buffer.getFloat(), buffer.getFloat() };
+
+			sendNodeAttributeAdded(SOURCE_ID, colored, "ui.color", rgba);
+			break;
+		case GraphBuffersJournal.GRAPH_CLEARED:
+			sendGraphCleared(SOURCE_ID);
+			break;
+		case GraphBuffersJournal.EDGE_WIDTH:
+			String widened = ids.get(buffer.getInt());
+			sendEdgeAttributeChanged(SOURCE_ID, widened, "ui.width", null,
+					buffer.getFloat());
+			break;
+		case GraphBuffersJournal.STEP_BEGINS:
+			sendStepBegins(SOURCE_ID, buffer.getDouble());
+			break;
+		case GraphBuffersJournal.NODE_MOVED:
+			String moved = ids.get(buffer.getInt());
+			float x = buffer.getFloat();
+			float y = buffer.getFloat();
+			float z = buffer.getFloat();
+
+			for (LayoutListener listener : layoutListeners)
+				listener.nodeMoved(moved, x, y, z);
+			break;
+		}
+
+		return true;
+	}
+
+	protected long tell() {
+		return bufferStart + buffer.position();
+	}
+
+	protected void moveTo(long position) {
+		bufferStart = position;
+		buffer.clear();
+		buffer.limit(0);
+	}
+
+	protected boolean skip(int n) {
+		buffer.position(buffer.position() + n);
+		return true;
+	}
+
+	/**
+	 * Ensure that at least n bytes can be read from the buffer.
+	 *
+	 * @return false if the end of the journal is reached before
+	 */
+	protected boolean ensure(int n) throws IOException {
+		if (buffer.remaining() >= n)
+			return true;
+
+		long position = tell();
+
+		if (n > buffer.capacity())
+			buffer = ByteBuffer.allocate(n);
+
+		buffer.clear();
+
+		while (buffer.hasRemaining()) {
+			int r = channel.read(buffer, position + buffer.position());
+
+			if (r <= 0)
+				break;
+		}
+
+		buffer.flip();
+		bufferStart = position;
+
+		return buffer.remaining() >= n;
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Updates of node coordinates and colors waiting to be applied to the
+ * buffers, used by the coalescing mode of {@link GraphBuffers}.
+ *
+ * Only the last value of each node is kept, in columns indexed by pool index.
+ * The pool indexes of the nodes with a pending value are kept in a dirty
+ * list, so applying the updates costs one write per distinct node, whatever
+ * the number of events received.
+ *
+ * Pool indexes start at an offset, which is not 0 for the shards of
+ * {@link ShardedGraphBuffers}.
+ */
+class PendingUpdates {
+	/**
+	 * Flag of a pending color. Coordinates use the masks of
+	 * {@link AttributeValues}.
+	 */
+	static final int COLOR = 8;
+	/**
+	 * Flag of a pool index which is in the dirty list, even if its values
+	 * have been cleared since.
+	 */
+	static final int LISTED = 16;
+
+	protected final byte[] flags;
+	protected final float[] coords;
+	protected final float[] colors;
+
+	protected final int[] dirty;
+	protected int dirtyCount;
+
+	protected final int offset;
+
+	protected final ReentrantLock lock = new ReentrantLock();
+
+	PendingUpdates(int capacity, int offset) {
+		this.offset = offset;
+
+		flags = new byte[capacity];
+		coords = new float[3 * capacity];
+		colors = new float[4 * capacity];
+		dirty = new int[capacity];
+		dirtyCount = 0;
+	}
+
+	/**
+	 * Take over the pending values of buffers which have grown, with the
+	 * lock of the previous updates held. The previous updates are left
+	 * empty.
+	 */
+	PendingUpdates(PendingUpdates p, int capacity) {
+		this.offset = p.offset;
+
+		flags = Arrays.copyOf(p.flags, capacity);
+		coords = Arrays.copyOf(p.coords, 3 * capacity);
+		colors = Arrays.copyOf(p.colors, 4 * capacity);
+		dirty = Arrays.copyOf(p.dirty, capacity);
+		dirtyCount = p.dirtyCount;
+
+		p.dirtyCount = 0;
+		Arrays.fill(p.flags, (byte) 0);
+	}
+
+	void coords(int poolIndex, int mask, float x, float y, float z) {
+		int i = poolIndex - offset;
+
+		lock.lock();
+
+		try {
+			mark(i, mask);
+
+			if ((mask & AttributeValues.X) != 0)
+				coords[3 * i] = x;
+			if ((mask & AttributeValues.Y) != 0)
+				coords[3 * i + 1] = y;
+			if ((mask & AttributeValues.Z) != 0)
+				coords[3 * i + 2] = z;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void color(int poolIndex, float r, float g, float b, float a) {
+		int i = poolIndex - offset;
+
+		lock.lock();
+
+		try {
+			mark(i, COLOR);
+
+			colors[4 * i] = r;
+			colors[4 * i + 1] = g;
+			colors[4 * i + 2] = b;
+			colors[4 * i + 3] = a;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Forget the pending values of a pool index, when its node is removed.
+	 */
+	void clear(int poolIndex) {
+		lock.lock();
+
+		try {
+			flags[poolIndex - offset] &= LISTED;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Forget the pending color of a pool index, when a style sets it.
+	 */
+	void clearColor(int poolIndex) {
+		lock.lock();
+
+		try {
+			flags[poolIndex - offset] &= ~COLOR;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void clearAll() {
+		lock.lock();
+
+		try {
+			for (int i = 0; i < dirtyCount; i++)
+				flags[dirty[i]] = 0;
+
+			dirtyCount = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Write the pending values in the buffers.
+	 *
+	 * @param colorBuffer
+	 *            null if nodes have no color
+	 * @param previousBuffer
+	 *            null if nodes are not animated, else moved nodes begin a
+	 *            {@link Transition} at the given time
+	 * @param bounds
+	 *            bounds updated with the new coordinates
+	 * @return the number of nodes updated
+	 */
+	int flush(FloatBuffer vertexBuffer, FloatBuffer colorBuffer,
+			FloatBuffer previousBuffer, float time, float duration,
+			GraphBounds bounds) {
+		int updated = 0;
+
+		lock.lock();
+
+		try {
+			for (int i = 0; i < dirtyCount; i++) {
+				int p = dirty[i];
+				int f = flags[p];
+				int g = p + offset;
+
+				flags[p] = 0;
+
+				if (f == LISTED)
+					continue;
+
+				if ((f & AttributeValues.XYZ) != 0 && previousBuffer != null)
+					Transition.begin(vertexBuffer, previousBuffer, g, time,
+							duration);
+
+				for (int c = 0; c < 3; c++) {
+					if ((f & (AttributeValues.X << c)) != 0) {
+						bounds.set(c, vertexBuffer.get(3 * g + c),
+								coords[3 * p + c]);
+						vertexBuffer.put(3 * g + c, coords[3 * p + c]);
+					}
+				}
+
+				if ((f & COLOR) != 0 && colorBuffer != null) {
+					for (int c = 0; c < 4; c++)
+						colorBuffer.put(4 * g + c, colors[4 * p + c]);
+				}
+
+				updated++;
+			}
+
+			dirtyCount = 0;
+		} finally {
+			lock.unlock();
+		}
+
+		return updated;
+	}
+
+	/**
+	 * Must be called with the lock held.
+	 *
+	 * @param i
+	 *            pool index minus the offset
+	 */
+	private void mark(int i, int flag) {
+		if ((flags[i] & LISTED) == 0)
+			dirty[dirtyCount++] = i;
+
+		flags[i] |= flag | LISTED;
+	}
+}
@@ -0,0 +1,753 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2ES2;
+import javax.media.opengl.GL4;
+import javax.media.opengl.GL4ES3;
+import javax.media.opengl.GLAutoDrawable;
+import javax.media.opengl.GLCapabilities;
+import javax.media.opengl.GLContext;
+import javax.media.opengl.GLDrawableFactory;
+import javax.media.opengl.GLException;
+import javax.media.opengl.GLOffscreenAutoDrawable;
+import javax.media.opengl.GLProfile;
+
+/**
+ * Builds the GLSL programs of a renderer.
+ *
+ * A program is a variant of a pair of shader resources, given by a list of
+ * defines inserted after the version line. Sources are read once for all
+ * the viewers of the JVM. Variants are built when they are first requested:
+ *
+ * <ul>
+ * <li>{@link #request(GL2ES2, String, String, String, String...)} returns at
+ * once. The program is built by the "shader-compiler" thread on a context
+ * shared with the drawable, and renderers use their fixed function path
+ * until {@link Program#isReady()}. This is disabled by setting the
+ * "gs.gl.shader.async" property to false, or if no shared context can be
+ * created, programs being then built by the calling thread.</li>
+ * <li>{@link #build(GL2ES2, String, String, String, String...)} returns the
+ * built program, for renderers without fallback.</li>
+ * </ul>
+ *
+ * Compute programs, made of a single compute shader, are requested the
+ * same way by {@link #requestCompute(GL2ES2, String, String, String...)}.
+ *
+ * Linked programs are saved as binaries in the directory given by the
+ * "gs.gl.shader.cache" property (default "gs-gl-shaders" in the temporary
+ * directory, "none" to disable it), in files named by a hash of the GL
+ * vendor, renderer and version and of the sources. Programs found there are
+ * loaded without compiling. Binaries the driver rejects are built and saved
+ * again.
+ */
+public class ShaderManager {
+	/**
+	 * Sources of the shader resources, shared by all the managers.
+	 */
+	protected static final Map<String, String> SOURCES = new ConcurrentHashMap<String, String>();
+
+	protected static final String BINARY_SUFFIX = ".bin";
+
+	/**
+	 * A program variant, built asynchronously.
+	 */
+	public static class Program {
+		protected final String tag;
+		protected final String vertexShader;
+		protected final String fragmentShader;
+		/**
+		 * Compute shader of a compute program, null for other programs.
+		 */
+		protected final String computeShader;
+		protected final String[] defines;
+
+		protected volatile int id;
+		protected volatile boolean failed;
+		protected boolean queued;
+
+		protected Program(String tag, String vertexShader,
+				String fragmentShader, String[] defines) {
+			this.tag = tag;
+			this.vertexShader = vertexShader;
+			this.fragmentShader = fragmentShader;
+			this.computeShader = null;
+			this.defines = defines;
+		}
+
+		protected Program(String tag, String computeShader, String[] defines) {
+			this.tag = tag;
+			this.vertexShader = null;
+			this.fragmentShader = null;
+			this.computeShader = computeShader;
+			this.defines = defines;
+		}
+
+		/**
+		 * True once the program is linked and usable by the renderer.
+		 */
+		public boolean isReady() {
+			return id != 0;
+		}
+
+		/**
+		 * True if the program can not be built. Renderers should then stop
+		 * waiting for it.
+		 */
+		public boolean isFailed() {
+			return failed;
+		}
+
+		/**
+		 * The GL name of the program, 0 while it is not ready.
+		 */
+		public int getId() {
+			return id;
+		}
+	}
+
+	/**
+	 * Programs by variant, accessed by the render thread.
+	 */
+	protected final Map<String, Program> programs = new HashMap<String, Program>();
+
+	/**
+	 * Thread building the programs and its context, null if programs are
+	 * built by the render thread.
+	 */
+	protected ExecutorService compiler;
+	protected GLOffscreenAutoDrawable sharedDrawable;
+
+	/**
+	 * Directory of the program binaries, null if they are not cached.
+	 */
+	protected File cacheDirectory;
+	protected String driver;
+
+	/**
+	 * Create the manager of the programs of a drawable. Must be called with
+	 * the context of the drawable current.
+	 */
+	public ShaderManager(GLAutoDrawable drawable) {
+		GL gl = drawable.getGL();
+
+		driver = gl.glGetString(GL.GL_VENDOR) + "\n"
+				+ gl.glGetString(GL.GL_RENDERER) + "\n"
+				+ gl.glGetString(GL.GL_VERSION);
+
+		String cache = System.getProperty("gs.gl.shader.cache", new File(
+				System.getProperty("java.io.tmpdir"), "gs-gl-shaders")
+				.getPath());
+
+		if (!"none".equals(cache) && isBinarySupported(gl)) {
+			cacheDirectory = new File(cache);
+
+			if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+				System.err.printf("[shader] unable to create \"%s\"%n", cache);
+				cacheDirectory = null;
+			}
+		}
+
+		if (Boolean.parseBoolean(System.getProperty("gs.gl.shader.async",
+				"true")))
+			createCompiler(drawable);
+	}
+
+	/**
+	 * Get a program variant, building it in the background the first time
+	 * it is requested. Until it is ready, the caller should draw without it.
+	 * Must be called by the render thread.
+	 */
+	public Program request(GL2ES2 gl, String tag, String vertexShader,
+			String fragmentShader, String... defines) {
+		return queue(gl, getProgram(tag, vertexShader, fragmentShader,
+				defines));
+	}
+
+	/**
+	 * Get a compute program variant, building it in the background the
+	 * first time it is requested, as
+	 * {@link #request(GL2ES2, String, String, String, String...)} does. The
+	 * GL must support compute shaders.
+	 */
+	public Program requestCompute(GL2ES2 gl, String tag, String computeShader,
+			String... defines) {
+		StringBuilder key = new StringBuilder();
+
+		key.append(tag).append("|compute|").append(computeShader);
+
+		for (int i = 0; i < defines.length; i++)
+			key.append('|').append(defines[i]);
+
+		Program program = programs.get(key.toString());
+
+		if (program == null) {
+			program = new Program(tag, computeShader, defines);
+			programs.put(key.toString(), program);
+		}
+
+		return queue(gl, program);
+	}
+
+	/**
+	 * Build a program in the background the first time it is requested.
+	 */
+	protected Program queue(GL2ES2 gl, final Program program) {
+		if (!program.queued) {
+			program.queued = true;
+
+			if (compiler == null)
+				link(gl, program);
+			else
+				compiler.execute(new Runnable() {
+					public void run() {
+						link(sharedDrawable.getGL().getGL2ES2(), program);
+					}
+				});
+		}
+
+		return program;
+	}
+
+	/**
+	 * Get a program variant, built before returning. Must be called by the
+	 * render thread.
+	 *
+	 * @return the program, which is failed if it can not be built
+	 */
+	public Program build(GL2ES2 gl, String tag, String vertexShader,
+			String fragmentShader, String... defines) {
+		Program program = getProgram(tag, vertexShader, fragmentShader,
+				defines);
+
+		if (!program.queued) {
+			program.queued = true;
+			link(gl, program);
+		}
+
+		/*
+		 * Requested before, the program may still be built by the compiler
+		 * thread.
+		 */
+		while (!program.isReady() && !program.isFailed()) {
+			synchronized (program) {
+				try {
+					program.wait(10);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+
+		return program;
+	}
+
+	/**
+	 * Delete the programs and stop the compiler thread. Must be called by
+	 * the render thread.
+	 */
+	public void dispose(GL2ES2 gl) {
+		if (compiler != null) {
+			compiler.execute(new Runnable() {
+				public void run() {
+					sharedDrawable.getContext().release();
+				}
+			});
+			compiler.shutdown();
+
+			try {
+				compiler.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			sharedDrawable.destroy();
+			compiler = null;
+		}
+
+		for (Program program : programs.values()) {
+			if (program.id != 0)
+				gl.glDeleteProgram(program.id);
+
+			program.id = 0;
+		}
+
+		programs.clear();
+	}
+
+	protected Program getProgram(String tag, String vertexShader,
+			String fragmentShader, String[] defines) {
+		StringBuilder key = new StringBuilder();
+
+		key.append(tag).append('|').append(vertexShader).append('|')
+				.append(fragmentShader);
+
+		for (int i = 0; i < defines.length; i++)
+			key.append('|').append(defines[i]);
+
+		Program program = programs.get(key.toString());
+
+		if (program == null) {
+			program = new Program(tag, vertexShader, fragmentShader, defines);
+			programs.put(key.toString(), program);
+		}
+
+		return program;
+	}
+
+	/**
+	 * Create a context shared with the drawable, made current on the
+	 * compiler thread. Programs built there can be used by the drawable.
+	 */
+	protected void createCompiler(GLAutoDrawable drawable) {
+		GLProfile profile = drawable.getGLProfile();
+
+		try {
+			sharedDrawable = GLDrawableFactory.getFactory(profile)
+					.createOffscreenAutoDrawable(null,
+							new GLCapabilities(profile), null, 1, 1,
+							drawable.getContext());
+		} catch (GLException e) {
+			System.err.printf("[shader] no shared context, "
+					+ "building programs on the render thread: %s%n",
+					e.getMessage());
+			return;
+		}
+
+		compiler = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "shader-compiler");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		compiler.execute(new Runnable() {
+			public void run() {
+				if (sharedDrawable.getContext().makeCurrent() == GLContext.CONTEXT_NOT_CURRENT)
+					System.err.printf("[shader] unable to use the shared "
+							+ "context%n");
+			}
+		});
+	}
+
+	/**
+	 * Load the program from the binary cache or compile it, and publish
+	 * it.
+	 */
+	protected void link(GL2ES2 gl, Program program) {
+		int id = 0;
+
+		try {
+			boolean compute = program.computeShader != null;
+			String vertex = getSource(compute ? program.computeShader
+					: program.vertexShader, program.defines);
+			String fragment = compute ? "" : getSource(
+					program.fragmentShader, program.defines);
+
+			if (vertex == null || fragment == null) {
+				System.err.printf("[%s] shader \"%s\" not found%n",
+						program.tag, compute ? program.computeShader
+								: vertex == null ? program.vertexShader
+										: program.fragmentShader);
+			} else {
+				File binary = getBinaryFile(vertex, fragment);
+
+				if (binary != null && binary.exists())
+					id = loadBinary(gl, program.tag, binary);
+
+				if (id == 0 && compute) {
+					id = createComputeProgram(gl, program.tag,
+							program.computeShader, vertex, binary != null);
+
+					if (id != 0 && binary != null)
+						saveBinary(gl, program.tag, id, binary);
+				} else if (id == 0) {
+					id = createProgram(gl, program.tag, program.vertexShader,
+							vertex, program.fragmentShader, fragment,
+							binary != null);
+
+					if (id != 0 && binary != null)
+						saveBinary(gl, program.tag, id, binary);
+				}
+			}
+
+			/*
+			 * The program is used by another context, it has to be complete
+			 * when published.
+			 */
+			if (id != 0 && sharedDrawable != null
+					&& gl == sharedDrawable.getGL())
+				gl.glFinish();
+		} catch (GLException e) {
+			System.err.printf("[%s] unable to build the program: %s%n",
+					program.tag, e.getMessage());
+		}
+
+		synchronized (program) {
+			program.id = id;
+			program.failed = id == 0;
+			program.notifyAll();
+		}
+	}
+
+	protected int createProgram(GL2ES2 gl, String tag, String vertexShader,
+			String vertexSource, String fragmentShader, String fragmentSource,
+			boolean retrievable) {
+		int vertex = compile(gl, tag, GL2ES2.GL_VERTEX_SHADER, vertexShader,
+				vertexSource);
+		int fragment = compile(gl, tag, GL2ES2.GL_FRAGMENT_SHADER,
+				fragmentShader, fragmentSource);
+
+		if (vertex == 0 || fragment == 0) {
+			if (vertex != 0)
+				gl.glDeleteShader(vertex);
+
+			if (fragment != 0)
+				gl.glDeleteShader(fragment);
+
+			return 0;
+		}
+
+		int program = gl.glCreateProgram();
+
+		if (retrievable && gl.isGL4ES3())
+			gl.getGL4ES3().glProgramParameteri(program,
+					GL4ES3.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL.GL_TRUE);
+
+		gl.glAttachShader(program, vertex);
+		gl.glAttachShader(program, fragment);
+		gl.glLinkProgram(program);
+		gl.glDeleteShader(vertex);
+		gl.glDeleteShader(fragment);
+
+		if (!isLinked(gl, program)) {
+			System.err.printf("[%s] link failed%n%s%n", tag, getProgramLog(
+					gl, program));
+			gl.glDeleteProgram(program);
+			return 0;
+		}
+
+		return program;
+	}
+
+	protected int createComputeProgram(GL2ES2 gl, String tag,
+			String computeShader, String computeSource, boolean retrievable) {
+		int compute = compile(gl, tag, GL4.GL_COMPUTE_SHADER, computeShader,
+				computeSource);
+
+		if (compute == 0)
+			return 0;
+
+		int program = gl.glCreateProgram();
+
+		if (retrievable && gl.isGL4ES3())
+			gl.getGL4ES3().glProgramParameteri(program,
+					GL4ES3.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL.GL_TRUE);
+
+		gl.glAttachShader(program, compute);
+		gl.glLinkProgram(program);
+		gl.glDeleteShader(compute);
+
+		if (!isLinked(gl, program)) {
+			System.err.printf("[%s] link failed%n%s%n", tag, getProgramLog(
+					gl, program));
+			gl.glDeleteProgram(program);
+			return 0;
+		}
+
+		return program;
+	}
+
+	protected static int compile(GL2ES2 gl, String tag, int type,
+			String resource, String source) {
+		int shader = gl.glCreateShader(type);
+		int[] status = new int[1];
+
+		gl.glShaderSource(shader, 1, new String[] { source }, (int[]) null, 0);
+		gl.glCompileShader(shader);
+		gl.glGetShaderiv(shader, GL2ES2.GL_COMPILE_STATUS, status, 0);
+
+		if (status[0] != GL.GL_TRUE) {
+			int[] length = new int[1];
+			byte[] log = new byte[8000];
+
+			gl.glGetShaderInfoLog(shader, log.length, length, 0, log, 0);
+			System.err.printf("[%s] \"%s\" invalid%n%s%n", tag, resource,
+					new String(log, 0, length[0]));
+			gl.glDeleteShader(shader);
+
+			return 0;
+		}
+
+		return shader;
+	}
+
+	protected static boolean isLinked(GL2ES2 gl, int program) {
+		int[] status = new int[1];
+		gl.glGetProgramiv(program, GL2ES2.GL_LINK_STATUS, status, 0);
+
+		return status[0] == GL.GL_TRUE;
+	}
+
+	protected static String getProgramLog(GL2ES2 gl, int program) {
+		int[] length = new int[1];
+		byte[] log = new byte[8000];
+
+		gl.glGetProgramInfoLog(program, log.length, length, 0, log, 0);
+
+		return new String(log, 0, length[0]);
+	}
+
+	/**
+	 * True if the GL can give program binaries in at least one format.
+	 */
+	protected static boolean isBinarySupported(GL gl) {
+		if (!gl.isGL2ES2() || !gl.isFunctionAvailable("glGetProgramBinary")
+				|| !gl.isFunctionAvailable("glProgramBinary"))
+			return false;
+
+		int[] formats = new int[1];
+		gl.glGetIntegerv(GL2ES2.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+
+		return formats[0] > 0;
+	}
+
+	/**
+	 * File of the binary of a program in the cache, null if binaries are
+	 * not cached.
+	 */
+	protected File getBinaryFile(String vertexSource, String fragmentSource) {
+		if (cacheDirectory == null)
+			return null;
+
+		MessageDigest digest;
+
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+
+		try {
+			digest.update(driver.getBytes("UTF-8"));
+			digest.update((byte) 0);
+			digest.update(vertexSource.getBytes("UTF-8"));
+			digest.update((byte) 0);
+			digest.update(fragmentSource.getBytes("UTF-8"));
+		} catch (IOException e) {
+			return null;
+		}
+
+		StringBuilder name = new StringBuilder();
+
+		for (byte b : digest.digest())
+			name.append(String.format("%02x", b & 0xFF));
+
+		return new File(cacheDirectory, name.append(BINARY_SUFFIX).toString());
+	}
+
+	/**
+	 * Create a program from a cached binary.
+	 *
+	 * @return the program, 0 if the binary can not be read or is rejected
+	 */
+	protected int loadBinary(GL2ES2 gl, String tag, File file) {
+		ByteBuffer binary;
+		int format;
+
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+
+			try {
+				format = in.readInt();
+				byte[] data = new byte[in.readInt()];
+				in.readFully(data);
+
+				binary = ByteBuffer.allocateDirect(data.length);
+				binary.put(data).flip();
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			System.err.printf("[%s] unable to read \"%s\": %s%n", tag, file,
+					e.getMessage());
+			return 0;
+		}
+
+		int program = gl.glCreateProgram();
+
+		gl.glProgramBinary(program, format, binary, binary.capacity());
+
+		if (!isLinked(gl, program)) {
+			gl.glDeleteProgram(program);
+			return 0;
+		}
+
+		return program;
+	}
+
+	/**
+	 * Save the binary of a linked program. The file is written aside and
+	 * renamed, so that other viewers never read it partially written.
+	 */
+	protected void saveBinary(GL2ES2 gl, String tag, int program, File file) {
+		int[] length = new int[1];
+		int[] format = new int[1];
+
+		gl.glGetProgramiv(program, GL2ES2.GL_PROGRAM_BINARY_LENGTH, length, 0);
+
+		if (length[0] <= 0)
+			return;
+
+		ByteBuffer binary = ByteBuffer.allocateDirect(length[0]);
+
+		gl.glGetProgramBinary(program, length[0], length, 0, format, 0,
+				binary);
+
+		byte[] data = new byte[length[0]];
+		binary.get(data);
+
+		/*
+		 * The cache directory may be shared by several processes, the
+		 * temporary file gets a name unique in the directory.
+		 */
+		File temporary = null;
+
+		try {
+			temporary = File.createTempFile(file.getName() + ".", ".tmp",
+					file.getParentFile());
+
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(
+					temporary));
+
+			try {
+				out.writeInt(format[0]);
+				out.writeInt(data.length);
+				out.write(data);
+			} finally {
+				out.close();
+			}
+
+			if (!temporary.renameTo(file)) {
+				file.delete();
+
+				if (!temporary.renameTo(file))
+					throw new IOException("unable to rename " + temporary);
+			}
+		} catch (IOException e) {
+			System.err.printf("[%s] unable to write \"%s\": %s%n", tag, file,
+					e.getMessage());
+
+			if (temporary != null)
+				temporary.delete();
+		}
+	}
+
+	/**
+	 * Source of a shader with defines inserted after its version line.
+	 */
+	protected static String getSource(String resource, String[] defines) {
+		String source = getResource(resource);
+
+		if (source == null || defines.length == 0)
+			return source;
+
+		StringBuilder header = new StringBuilder();
+
+		for (int i = 0; i < defines.length; i++)
+			header.append("#define ").append(defines[i]).append('\n');
+
+		int start = 0;
+
+		if (source.startsWith("#version"))
+			start = source.indexOf('\n') + 1;
+
+		return source.substring(0, start) + header + source.substring(start);
+	}
+
+	/**
+	 * Read a resource once, keeping line ends.
+	 */
+	public static String getResource(String url) {
+		String source = SOURCES.get(url);
+
+		if (source != null)
+			return source;
+
+		InputStream in = ShaderManager.class.getClassLoader()
+				.getResourceAsStream(url);
+
+		if (in == null)
+			return null;
+
+		StringBuilder content = new StringBuilder();
+
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					in, "UTF-8"));
+
+			try {
+				String line;
+
+				while ((line = reader.readLine()) != null)
+					content.append(line).append('\n');
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+
+		source = content.toString();
+		SOURCES.put(url, source);
+
+		return source;
+	}
+}
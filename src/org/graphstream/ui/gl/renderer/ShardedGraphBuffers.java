@@ -0,0 +1,270 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.EnumMap;
+
+import org.graphstream.ui.gl.Context;
+import org.graphstream.ui.gl.Context.NodeColorMode;
+import org.graphstream.ui.gl.Context.NodeSizeMode;
+import org.graphstream.ui.gl.renderer.GraphBuffers.GraphBuffer;
+
+/**
+ * Graph buffers split in several shards, so that several sources can send
+ * events at the same time without any lock.
+ *
+ * Each shard is a {@link GraphBuffers} owning its own node indexes, edges
+ * and ids, and a fixed range of pool indexes in node vertices, colors and
+ * sizes, which are shared by all shards. A shard allocates indexes with
+ * plain counters: it must receive events from only one thread, but shards
+ * are independent from each other. Nodes of a shard are never moved to
+ * another one.
+ *
+ * Edges are stored in the shard receiving them. Their extremities are looked
+ * up in this shard first, then in the others, so an edge can link nodes of
+ * different shards. Such an edge may be added only once both nodes are
+ * known, and should be removed before them.
+ *
+ * As the pool is shared, a renderer sets vertex and color pointers once and
+ * draws the node indexes and edges of each shard.
+ *
+ * Graph attributes, like stylesheets, only apply to the shard receiving
+ * them. Snapshots and journals are not supported.
+ */
+public class ShardedGraphBuffers {
+	protected final Shard[] shards;
+
+	protected final EnumMap<GraphBuffer, ByteBuffer> shared;
+
+	/**
+	 * Hidden nodes of all the shards, as edges can link nodes of different
+	 * shards.
+	 */
+	protected final VisibilityMask nodeMask;
+
+	/**
+	 * Create the shards, sharing the given node and edge capacities.
+	 */
+	public ShardedGraphBuffers(Context ctx, int shardCount, int maxNodes,
+			int maxEdges) {
+		this(ctx, ctx.getNodeColorMode(), ctx.getNodeSizeMode(), shardCount,
+				maxNodes, maxEdges);
+	}
+
+	/**
+	 * Create the shards without needing a context, for benchmarks for
+	 * example.
+	 */
+	public ShardedGraphBuffers(NodeColorMode colorMode, NodeSizeMode sizeMode,
+			int shardCount, int maxNodes, int maxEdges) {
+		this(null, colorMode, sizeMode, shardCount, maxNodes, maxEdges);
+	}
+
+	protected ShardedGraphBuffers(Context ctx, NodeColorMode colorMode,
+			NodeSizeMode sizeMode, int shardCount, int maxNodes, int maxEdges) {
+		if (shardCount < 1)
+			throw new IllegalArgumentException("at least one shard is needed");
+
+		boolean colors = colorMode == NodeColorMode.EachNodeOneColor;
+		boolean sizes = sizeMode == NodeSizeMode.EachNodeOneSize;
+
+		int nodesPerShard = (maxNodes + shardCount - 1) / shardCount;
+		int edgesPerShard = (maxEdges + shardCount - 1) / shardCount;
+		int poolSize = nodesPerShard * shardCount;
+
+		shared = new EnumMap<GraphBuffer, ByteBuffer>(GraphBuffer.class);
+		shared.put(GraphBuffer.NODE_VERTICES, allocate(3 * poolSize));
+		shared.put(GraphBuffer.NODE_COLORS, allocate(colors ? 4 * poolSize
+				: 1));
+		shared.put(GraphBuffer.NODE_SIZES, allocate(sizes ? poolSize : 1));
+		shared.put(GraphBuffer.NODE_PREVIOUS, allocate(Long.getLong(
+				"gs.gl.animation", 0) > 0 ? Transition.COMPONENTS * poolSize
+				: 1));
+
+		nodeMask = new VisibilityMask(poolSize);
+		shards = new Shard[shardCount];
+
+		for (int i = 0; i < shardCount; i++)
+			shards[i] = new Shard(ctx, i);
+
+		for (int i = 0; i < shardCount; i++)
+			shards[i].initShard(shared, nodeMask, colors, sizes, i
+					* nodesPerShard, nodesPerShard, edgesPerShard);
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * The shard which should receive the events of the i-th source.
+	 */
+	public GraphBuffers getShard(int i) {
+		return shards[i];
+	}
+
+	/**
+	 * The shard containing a node.
+	 *
+	 * @return the shard or null if the node is unknown
+	 */
+	public GraphBuffers getShardOf(String nodeId) {
+		for (int i = 0; i < shards.length; i++)
+			if (shards[i].getNodeID2Index().getIndex(nodeId) >= 0)
+				return shards[i];
+
+		return null;
+	}
+
+	public int getActiveIndexCount() {
+		int count = 0;
+
+		for (int i = 0; i < shards.length; i++)
+			count += shards[i].getActiveIndexCount();
+
+		return count;
+	}
+
+	public int getActiveEdgeCount() {
+		int count = 0;
+
+		for (int i = 0; i < shards.length; i++)
+			count += shards[i].getActiveEdgeCount();
+
+		return count;
+	}
+
+	/**
+	 * Write the pending updates of all shards.
+	 *
+	 * @return the number of nodes updated
+	 */
+	public int flushPending() {
+		int count = 0;
+
+		for (int i = 0; i < shards.length; i++)
+			count += shards[i].flushPending();
+
+		return count;
+	}
+
+	/**
+	 * Hide or show a node of any shard.
+	 *
+	 * @return true if the visibility of the node changed
+	 */
+	public boolean setNodeVisible(String nodeId, boolean show) {
+		GraphBuffers shard = getShardOf(nodeId);
+		return shard != null && shard.setNodeVisible(nodeId, show);
+	}
+
+	/**
+	 * Hide or show an edge of any shard.
+	 *
+	 * @return true if the visibility of the edge changed
+	 */
+	public boolean setEdgeVisible(String edgeId, boolean show) {
+		for (int i = 0; i < shards.length; i++)
+			if (shards[i].getEdgeID2Index().getIndex(edgeId) >= 0)
+				return shards[i].setEdgeVisible(edgeId, show);
+
+		return false;
+	}
+
+	/**
+	 * Filter the nodes of all the shards, one after the other.
+	 *
+	 * @return the number of nodes whose visibility changed
+	 */
+	public int filterNodes(GraphBuffers.NodeFilter filter) {
+		int count = 0;
+
+		for (int i = 0; i < shards.length; i++)
+			count += shards[i].filterNodes(filter);
+
+		return count;
+	}
+
+	/**
+	 * Filter the edges of all the shards, one after the other.
+	 *
+	 * @return the number of edges whose visibility changed
+	 */
+	public int filterEdges(GraphBuffers.EdgeFilter filter) {
+		int count = 0;
+
+		for (int i = 0; i < shards.length; i++)
+			count += shards[i].filterEdges(filter);
+
+		return count;
+	}
+
+	public void showAll() {
+		for (int i = 0; i < shards.length; i++)
+			shards[i].showAll();
+	}
+
+	private static ByteBuffer allocate(int floats) {
+		return ByteBuffer.allocateDirect(floats * GraphBuffers.FLOAT_BYTES)
+				.order(ByteOrder.nativeOrder());
+	}
+
+	protected class Shard extends GraphBuffers {
+		protected final int number;
+
+		public Shard(Context ctx, int number) {
+			super(ctx);
+			this.number = number;
+		}
+
+		/**
+		 * Look for the node in this shard, then in the others. Id maps are
+		 * concurrent, so reading the one of another shard is safe. The node
+		 * indexes of another shard may be changing if one of its nodes is
+		 * being removed at the same time.
+		 */
+		@Override
+		protected int getPoolIndex(String nodeId) {
+			int index = super.getPoolIndex(nodeId);
+
+			for (int i = 0; index < 0 && i < shards.length; i++)
+				if (i != number)
+					index = shards[i].getLocalPoolIndex(nodeId);
+
+			return index;
+		}
+
+		int getLocalPoolIndex(String nodeId) {
+			return super.getPoolIndex(nodeId);
+		}
+
+		public int getNumber() {
+			return number;
+		}
+	}
+}
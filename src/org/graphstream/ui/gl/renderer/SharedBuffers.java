@@ -0,0 +1,315 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.graphstream.stream.Sink;
+import org.graphstream.ui.gl.Context;
+import org.graphstream.ui.layout.LayoutListener;
+
+/**
+ * Graph buffers of a source, shared by all the views showing it.
+ *
+ * The buffers, their shards, and the journal and queue feeding them are
+ * created once, and registered once as sink of the source, so that events
+ * are processed once whatever the number of views. Each view has its own
+ * context, engine, camera and renderer, the renderer being created on the
+ * shared buffers, see {@link Context#Context(org.graphstream.stream.Source,
+ * Context.EngineType, Context.RendererType, Context)}.
+ *
+ * Views advance the buffers with {@link #update(Object)}. Pending updates
+ * are applied, nodes expired and bounds refreshed once per round, a new
+ * round beginning when a view which already drew the current one draws
+ * again, so buffers advance at the rate of the fastest view. Edge bundling
+ * and, for views sharing their GL objects, {@link GPUBuffers} are done
+ * once for all the views too.
+ *
+ * Views hold the buffers between {@link #acquire()} and {@link #release()}.
+ * The last release closes the queue, the journal and the bundlers.
+ */
+public class SharedBuffers {
+	protected final GraphBuffers graphBuffers;
+
+	/**
+	 * Sharded buffers, enabled by setting the "gs.gl.shards" property to a
+	 * number of shards greater than 1. The graph buffers are then the first
+	 * shard, receiving the events of the source.
+	 */
+	protected final ShardedGraphBuffers shardedBuffers;
+
+	/**
+	 * Buffers drawn: the graph buffers or all the shards.
+	 */
+	protected final GraphBuffers[] drawnBuffers;
+
+	/**
+	 * Journal of the events reaching the buffers, enabled by setting the
+	 * "gs.gl.journal" property to the path of the journal file.
+	 */
+	protected GraphBuffersJournal journal;
+
+	/**
+	 * Queue decoupling the source from the buffers, enabled by setting the
+	 * "gs.gl.queue" property to a {@link GraphBuffersQueue.Policy}.
+	 */
+	protected GraphBuffersQueue queue;
+
+	protected final LayoutListener layoutListener;
+
+	/**
+	 * Bundlers of the edges of each drawn buffers and their worker pool,
+	 * created by the first view drawing bundled edges.
+	 */
+	protected EdgeBundler[] bundlers;
+	protected ExecutorService bundlingWorkers;
+
+	/**
+	 * Buffer objects of the views sharing their GL objects, created by the
+	 * first of them.
+	 */
+	protected GPUBuffers gpuBuffers;
+
+	/**
+	 * True if the layout is computed on the GPU by the views sharing the GPU
+	 * buffers.
+	 */
+	protected volatile boolean gpuLayout;
+
+	protected int users;
+
+	/**
+	 * Current round, and views which drew it.
+	 */
+	protected int round;
+	protected final Set<Object> drawn = new HashSet<Object>();
+
+	/**
+	 * Create the buffers of the source of a context and register them as
+	 * its sink.
+	 */
+	public SharedBuffers(Context ctx) {
+		int maxNodes = Integer.parseInt(System.getProperty("gs.gl.maxnodes",
+				"10000"));
+		int maxEdges = Integer.parseInt(System.getProperty("gs.gl.maxedges",
+				"10000"));
+
+		int shards = Integer.getInteger("gs.gl.shards", 1);
+
+		if (shards > 1) {
+			shardedBuffers = new ShardedGraphBuffers(ctx, shards, maxNodes,
+					maxEdges);
+			graphBuffers = shardedBuffers.getShard(0);
+			drawnBuffers = new GraphBuffers[shards];
+
+			for (int i = 0; i < shards; i++)
+				drawnBuffers[i] = shardedBuffers.getShard(i);
+		} else {
+			shardedBuffers = null;
+			graphBuffers = new GraphBuffers(ctx);
+			graphBuffers.init(ctx, maxNodes, maxEdges);
+			drawnBuffers = new GraphBuffers[] { graphBuffers };
+		}
+
+		String journalPath = System.getProperty("gs.gl.journal");
+
+		if (journalPath != null) {
+			try {
+				journal = new GraphBuffersJournal(graphBuffers, new File(
+						journalPath));
+			} catch (IOException e) {
+				System.err.printf("[journal] unable to create \"%s\": %s%n",
+						journalPath, e.getMessage());
+			}
+		}
+
+		Sink sink = graphBuffers;
+		LayoutListener layoutListener = graphBuffers;
+
+		if (journal != null) {
+			sink = journal;
+			layoutListener = journal;
+		}
+
+		String queuePolicy = System.getProperty("gs.gl.queue");
+
+		if (queuePolicy != null) {
+			try {
+				queue = new GraphBuffersQueue(sink, layoutListener,
+						GraphBuffersQueue.Policy.valueOf(queuePolicy
+								.toUpperCase()), graphBuffers.getSinkMetrics());
+
+				sink = queue;
+				layoutListener = queue;
+			} catch (IllegalArgumentException e) {
+				System.err.printf("[queue] unknown policy \"%s\"%n",
+						queuePolicy);
+			}
+		}
+
+		this.layoutListener = layoutListener;
+
+		ctx.getSource().addSink(sink);
+	}
+
+	public GraphBuffers getGraphBuffers() {
+		return graphBuffers;
+	}
+
+	/**
+	 * The sharded buffers, or null if sharding is disabled.
+	 */
+	public ShardedGraphBuffers getShardedBuffers() {
+		return shardedBuffers;
+	}
+
+	public GraphBuffers[] getDrawnBuffers() {
+		return drawnBuffers;
+	}
+
+	/**
+	 * Listener of the layout, to be registered once for all the views.
+	 */
+	public LayoutListener getLayoutListener() {
+		return layoutListener;
+	}
+
+	public synchronized void acquire() {
+		users++;
+	}
+
+	/**
+	 * Release the buffers, closing what feeds them if this was the last
+	 * view.
+	 */
+	public synchronized void release() {
+		if (--users > 0)
+			return;
+
+		if (bundlers != null) {
+			for (int i = 0; i < bundlers.length; i++)
+				bundlers[i].close();
+
+			bundlingWorkers.shutdown();
+			bundlers = null;
+		}
+
+		if (queue != null)
+			queue.close();
+
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Bring the buffers to the current frame of a view: apply pending
+	 * updates, expire nodes, compact the visible elements and refresh the
+	 * bounds, if the view already drew the current round.
+	 *
+	 * @return the round the view draws
+	 */
+	public synchronized int update(Object view) {
+		if (drawn.isEmpty() || drawn.contains(view)) {
+			drawn.clear();
+			round++;
+
+			for (int i = 0; i < drawnBuffers.length; i++) {
+				drawnBuffers[i].flushPending();
+				drawnBuffers[i].expire();
+				drawnBuffers[i].compactVisible();
+				drawnBuffers[i].getBounds().refresh(drawnBuffers[i]);
+			}
+		}
+
+		drawn.add(view);
+
+		return round;
+	}
+
+	/**
+	 * Bundlers of the drawn buffers, created the first time, sharing a pool
+	 * of "gs.gl.bundling.threads" workers (default one per processor).
+	 */
+	public synchronized EdgeBundler[] getBundlers() {
+		if (bundlers == null) {
+			int threads = Integer.getInteger("gs.gl.bundling.threads",
+					Runtime.getRuntime().availableProcessors());
+
+			bundlingWorkers = Executors.newFixedThreadPool(
+					Math.max(1, threads), new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "edge-bundling-worker");
+							t.setDaemon(true);
+							return t;
+						}
+					});
+
+			bundlers = new EdgeBundler[drawnBuffers.length];
+
+			for (int i = 0; i < bundlers.length; i++)
+				bundlers[i] = new EdgeBundler(drawnBuffers[i],
+						bundlingWorkers);
+		}
+
+		return bundlers;
+	}
+
+	/**
+	 * Buffer objects of the views sharing their GL objects, created the
+	 * first time.
+	 */
+	public synchronized GPUBuffers getGPUBuffers() {
+		if (gpuBuffers == null)
+			gpuBuffers = new GPUBuffers(this);
+
+		return gpuBuffers;
+	}
+
+	/**
+	 * Compute the layout of the graph on the GPU, with a
+	 * {@link ComputeLayout} run on the {@link GPUBuffers}. Only the core
+	 * profile renderer runs it, with OpenGL 4.3, it disables it again
+	 * otherwise. Positions then no longer come from a layout listener.
+	 */
+	public void setGPULayout(boolean on) {
+		gpuLayout = on;
+	}
+
+	public boolean isGPULayout() {
+		return gpuLayout;
+	}
+}
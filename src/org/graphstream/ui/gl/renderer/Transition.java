@@ -0,0 +1,108 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Transitions of node positions, used by the animated mode of
+ * {@link GraphBuffers}.
+ *
+ * Vertices hold the target position of nodes. A second column holds, for
+ * each pool index, the position at the beginning of the transition and the
+ * time it began. Nodes are drawn by the node vertex shader at a position
+ * interpolated between both, from a time uniform, so animating costs
+ * nothing on the CPU: only moves write the column, once per move.
+ *
+ * Times are in seconds since a common epoch, so that the time given to the
+ * shader is consistent for all buffers.
+ */
+final class Transition {
+	/**
+	 * Components of the previous column per node.
+	 */
+	static final int COMPONENTS = 4;
+
+	/**
+	 * Beginning of a transition long finished, for nodes which never moved.
+	 */
+	static final float NONE = -1e30f;
+
+	private static final long EPOCH = System.nanoTime();
+
+	private Transition() {
+	}
+
+	/**
+	 * Current time in seconds, to give to the shader.
+	 */
+	static float now() {
+		return (System.nanoTime() - EPOCH) / 1e9f;
+	}
+
+	/**
+	 * Progress of a transition, eased as in the shader.
+	 */
+	static float progress(float start, float time, float duration) {
+		if (duration <= 0)
+			return 1;
+
+		float t = Math.max(0, Math.min(1, (time - start) / duration));
+		return t * t * (3 - 2 * t);
+	}
+
+	/**
+	 * Begin a new transition of a node, from the position where it is drawn
+	 * now. Must be called before its vertex is changed.
+	 */
+	static void begin(FloatBuffer vertices, FloatBuffer previous,
+			int poolIndex, float time, float duration) {
+		int v = 3 * poolIndex;
+		int p = COMPONENTS * poolIndex;
+		float t = progress(previous.get(p + 3), time, duration);
+
+		for (int c = 0; c < 3; c++) {
+			float from = previous.get(p + c);
+			previous.put(p + c, from + (vertices.get(v + c) - from) * t);
+		}
+
+		previous.put(p + 3, time);
+	}
+
+	/**
+	 * Set a node where it is, without transition.
+	 */
+	static void reset(FloatBuffer vertices, FloatBuffer previous,
+			int poolIndex) {
+		int v = 3 * poolIndex;
+		int p = COMPONENTS * poolIndex;
+
+		for (int c = 0; c < 3; c++)
+			previous.put(p + c, vertices.get(v + c));
+
+		previous.put(p + 3, NONE);
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2ES2;
+import javax.media.opengl.GL2ES3;
+import javax.media.opengl.GL3;
+
+/**
+ * Weighted blended order-independent transparency, for renderers whose
+ * programs have an "OIT" variant.
+ *
+ * Between {@link #begin(GL3, int, int)} and {@link #end(GL3)}, translucent
+ * nodes and edges are not blended on screen in the order they are drawn,
+ * which is the pool order, but accumulated in two float targets. Each
+ * fragment of colour c and alpha a gets a weight w decreasing with its
+ * depth, and the targets sum c * a * w and a * w and multiply the
+ * revealage, the product of the (1 - a). The end composites the weighted
+ * average colour over the screen with an opacity of 1 - revealage. So the
+ * result does not depend on the order of the primitives, without sorting
+ * them, at the cost of one more pass over the pixels.
+ *
+ * Both targets use the same blending, adding colours and multiplying
+ * alphas, so that it works without per target blending: the first target
+ * holds the sum of the weighted colours and the revealage, the second one
+ * the sum of the weights. Targets are 32 bits floats: with weights up to
+ * 3000, half floats overflow once about twenty layers overlap.
+ *
+ * The fragment shader of the OIT variant writes, with z its window depth:
+ *
+ * <pre>
+ * w = clamp(a * max(0.01, 3000 * (1 - z)&circ;3), 0.01, 3000)
+ * target 0 = (c * a * w, a)
+ * target 1 = (a * w, 0, 0, a)
+ * </pre>
+ *
+ * Primitives are not depth tested against each other, their depth only
+ * weights them.
+ */
+public class TransparencyRenderer {
+	protected static final String VERTEX_SHADER = "org/graphstream/ui/gl/shader/oit-composite-vertex-shader.glsl";
+	protected static final String FRAGMENT_SHADER = "org/graphstream/ui/gl/shader/oit-composite-fragment-shader.glsl";
+
+	protected static final float[] CLEAR = { 0, 0, 0, 1 };
+
+	protected ShaderManager.Program compositeShader;
+	protected int compositeProgram;
+
+	protected final int[] framebuffer = new int[1];
+	protected final int[] textures = new int[2];
+
+	/**
+	 * The composite pass draws a triangle covering the viewport from
+	 * gl_VertexID, with an empty vertex array.
+	 */
+	protected final int[] vertexArray = new int[1];
+
+	/**
+	 * Size of the targets, 0 before the first frame.
+	 */
+	protected int width, height;
+
+	protected final int[] previousFramebuffer = new int[1];
+
+	/**
+	 * Request the composite program and create the framebuffer.
+	 *
+	 * @return false if float framebuffers are not available
+	 */
+	public boolean init(GL3 gl, ShaderManager shaders) {
+		if (!gl.isGL3()) {
+			System.err.printf("[oit] float framebuffers not available%n");
+			return false;
+		}
+
+		compositeShader = shaders.request(gl, "oit", VERTEX_SHADER,
+				FRAGMENT_SHADER);
+
+		gl.glGenFramebuffers(1, framebuffer, 0);
+		gl.glGenTextures(textures.length, textures, 0);
+		gl.glGenVertexArrays(1, vertexArray, 0);
+
+		return true;
+	}
+
+	/**
+	 * True once the composite program is built. The first time, its
+	 * samplers are set.
+	 */
+	public boolean isReady(GL3 gl) {
+		if (compositeProgram != 0)
+			return true;
+
+		if (!compositeShader.isReady())
+			return false;
+
+		compositeProgram = compositeShader.getId();
+
+		gl.glUseProgram(compositeProgram);
+		gl.glUniform1i(gl.glGetUniformLocation(compositeProgram,
+				"accumulation"), 0);
+		gl.glUniform1i(gl.glGetUniformLocation(compositeProgram, "weights"),
+				1);
+		gl.glUseProgram(0);
+
+		return true;
+	}
+
+	/**
+	 * True if the composite program can not be built, primitives should
+	 * then be blended in order.
+	 */
+	public boolean isFailed() {
+		return compositeShader.isFailed();
+	}
+
+	/**
+	 * Delete the framebuffer, textures and vertex array. The program
+	 * belongs to the shader manager.
+	 */
+	public void dispose(GL3 gl) {
+		if (framebuffer[0] != 0) {
+			gl.glDeleteFramebuffers(1, framebuffer, 0);
+			gl.glDeleteTextures(textures.length, textures, 0);
+			gl.glDeleteVertexArrays(1, vertexArray, 0);
+		}
+
+		compositeProgram = 0;
+		framebuffer[0] = 0;
+		width = height = 0;
+	}
+
+	/**
+	 * Bind the targets, clear them and set the blending. Primitives drawn
+	 * then by the OIT variant of the programs are accumulated.
+	 */
+	public void begin(GL3 gl, int width, int height) {
+		gl.glGetIntegerv(GL.GL_FRAMEBUFFER_BINDING, previousFramebuffer, 0);
+		gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, framebuffer[0]);
+
+		if (width != this.width || height != this.height)
+			resize(gl, width, height);
+
+		gl.glDrawBuffers(2, new int[] { GL.GL_COLOR_ATTACHMENT0,
+				GL2ES2.GL_COLOR_ATTACHMENT1 }, 0);
+		gl.glClearBufferfv(GL2ES3.GL_COLOR, 0, CLEAR, 0);
+		gl.glClearBufferfv(GL2ES3.GL_COLOR, 1, CLEAR, 0);
+
+		gl.glDisable(GL.GL_DEPTH_TEST);
+		gl.glEnable(GL.GL_BLEND);
+		gl.glBlendFuncSeparate(GL.GL_ONE, GL.GL_ONE, GL.GL_ZERO,
+				GL.GL_ONE_MINUS_SRC_ALPHA);
+	}
+
+	/**
+	 * Restore the previous framebuffer and composite the accumulated
+	 * primitives over it. Blending and depth test are restored as set by
+	 * the renderers.
+	 */
+	public void end(GL3 gl) {
+		gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, previousFramebuffer[0]);
+		gl.glBlendFunc(GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA);
+
+		gl.glUseProgram(compositeProgram);
+
+		gl.glActiveTexture(GL.GL_TEXTURE1);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, textures[1]);
+		gl.glActiveTexture(GL.GL_TEXTURE0);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, textures[0]);
+
+		gl.glBindVertexArray(vertexArray[0]);
+		gl.glDrawArrays(GL.GL_TRIANGLES, 0, 3);
+		gl.glBindVertexArray(0);
+
+		gl.glActiveTexture(GL.GL_TEXTURE1);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+		gl.glActiveTexture(GL.GL_TEXTURE0);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+
+		gl.glUseProgram(0);
+		gl.glEnable(GL.GL_DEPTH_TEST);
+	}
+
+	/**
+	 * Create the targets for a new size of the viewport, and attach them to
+	 * the framebuffer, which has to be bound.
+	 */
+	protected void resize(GL3 gl, int width, int height) {
+		this.width = width;
+		this.height = height;
+
+		for (int i = 0; i < textures.length; i++) {
+			gl.glBindTexture(GL.GL_TEXTURE_2D, textures[i]);
+			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER,
+					GL.GL_NEAREST);
+			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER,
+					GL.GL_NEAREST);
+			gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGBA32F, width,
+					height, 0, GL.GL_RGBA, GL.GL_FLOAT, null);
+
+			gl.glFramebufferTexture2D(GL.GL_FRAMEBUFFER,
+					GL.GL_COLOR_ATTACHMENT0 + i, GL.GL_TEXTURE_2D,
+					textures[i], 0);
+		}
+
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+
+		int status = gl.glCheckFramebufferStatus(GL.GL_FRAMEBUFFER);
+
+		if (status != GL.GL_FRAMEBUFFER_COMPLETE)
+			System.err.printf("[oit] framebuffer incomplete: 0x%x%n", status);
+	}
+}
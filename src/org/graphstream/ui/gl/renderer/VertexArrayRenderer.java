@@ -22,371 +22,697 @@
  */
 package org.graphstream.ui.gl.renderer;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.Buffer;
 import java.nio.IntBuffer;
-import java.util.LinkedList;
 
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
-import javax.media.opengl.GL2GL3;
-import javax.media.opengl.GL3;
 import javax.media.opengl.GLAutoDrawable;
 
 import org.graphstream.ui.gl.Context;
+import org.graphstream.ui.gl.Context.RenderMode;
 import org.graphstream.ui.gl.GraphRenderer;
+import org.graphstream.ui.gl.metrics.Metrics;
+import org.graphstream.ui.gl.metrics.SinkMetrics;
+import org.graphstream.ui.gl.metrics.FrameMetrics.Phase;
 import org.graphstream.ui.graphicGraph.stylesheet.StyleSheetListener;
 import org.graphstream.ui.layout.LayoutListener;
 
-import com.jogamp.opengl.util.glsl.ShaderCode;
-import com.jogamp.opengl.util.glsl.ShaderProgram;
-import com.jogamp.opengl.util.glsl.ShaderState;
-import com.jogamp.opengl.util.glsl.ShaderUtil;
-
 public class VertexArrayRenderer extends GraphRenderer {
 	protected static final String NODE_VERTEX_SHADER = "org/graphstream/ui/gl/shader/node-vertex-shader.glsl";
 	protected static final String NODE_FRAGMENT_SHADER = "org/graphstream/ui/gl/shader/node-fragment-shader.glsl";
 
+	/**
+	 * Buffers of the graph, possibly shared with other views.
+	 */
+	protected final SharedBuffers sharedBuffers;
+
+	/**
+	 * The graph buffers, the sharded buffers if sharding is enabled, and
+	 * the buffers drawn, of the shared buffers.
+	 */
 	protected GraphBuffers graphBuffers;
+	protected ShardedGraphBuffers shardedBuffers;
+	protected GraphBuffers[] drawnBuffers;
 
 	protected Buffer vertexPointer;
-	protected Buffer indexPointer;
-	protected Buffer edgesPointer;
+	protected Buffer[] indexPointers;
+	protected Buffer[] edgesPointers;
+	protected Buffer[] edgeAttributePointers;
 	protected Buffer colorPointer;
 	protected Buffer sizePointer;
-
-	protected ShaderProgram shaderProgram;
-	protected ShaderState shaderState;
+	protected Buffer previousPointer;
+
+	protected int buffersGeneration;
+
+	/**
+	 * True for the drawn buffers some of whose elements are hidden: their
+	 * index, edge and edge attribute views are the ones of their visible
+	 * elements.
+	 */
+	protected boolean[] masked;
+
+	/**
+	 * Lists of the visible elements of the masked buffers drawn by the
+	 * current frame, released at its end.
+	 */
+	protected VisibleIndexes.Lists[] visibleIndexes;
+
+	/**
+	 * Round of the shared buffers drawn by the current frame.
+	 */
+	protected int round;
+
+	/**
+	 * Programs of the renderer, built in the background.
+	 */
+	protected ShaderManager shaders;
+
+	/**
+	 * Node program, and its name once it is ready.
+	 */
+	protected ShaderManager.Program nodeProgram;
+	protected int nodeProgramId;
+
+	/**
+	 * Locations of the inputs of the node vertex shader used to animate
+	 * and size nodes, -1 if the shader is not available.
+	 */
+	protected int previousLocation = -1;
+	protected int sizeLocation = -1;
+	protected int viewProjectionLocation = -1;
+	protected int timeLocation = -1;
+	protected int durationLocation = -1;
+
+	/**
+	 * Edges drawn as instanced quads, null if edges are drawn as lines,
+	 * either because the "gs.gl.edges" property is set to "lines" or because
+	 * instancing is not available.
+	 */
+	protected InstancedEdges instancedEdges;
+
+	/**
+	 * Bundlers of the edges of each drawn buffers, when the "gs.gl.edges"
+	 * property is set to "bundled". They belong to the shared buffers.
+	 */
+	protected EdgeBundler[] bundlers;
+
+	/**
+	 * Density rendering, created the first time the density mode is used,
+	 * and set to null with densityFailed set if it is not supported.
+	 */
+	protected DensityRenderer densityRenderer;
+	protected boolean densityFailed;
+	protected boolean densityReported;
 
 	public VertexArrayRenderer(Context ctx) {
+		this(ctx, null);
+	}
+
+	/**
+	 * Create a renderer drawing some shared buffers, or new buffers if
+	 * shared is null.
+	 */
+	public VertexArrayRenderer(Context ctx, SharedBuffers shared) {
 		super(ctx);
 
-		int maxNodes = Integer.parseInt(System.getProperty("gs.gl.maxnodes",
-				"10000"));
-		int maxEdges = Integer.parseInt(System.getProperty("gs.gl.maxedges",
-				"10000"));
+		sharedBuffers = shared == null ? new SharedBuffers(ctx) : shared;
+		sharedBuffers.acquire();
 
-		graphBuffers = new GraphBuffers(ctx);
-		graphBuffers.init(ctx, maxNodes, maxEdges);
+		graphBuffers = sharedBuffers.getGraphBuffers();
+		shardedBuffers = sharedBuffers.getShardedBuffers();
+		drawnBuffers = sharedBuffers.getDrawnBuffers();
 
-		ctx.getSource().addSink(graphBuffers);
+		createViews();
+	}
+
+	/**
+	 * Create the views on the graph buffers used to draw. This has to be done
+	 * again each time the generation of the buffers changes, for example
+	 * when a snapshot is loaded.
+	 */
+	protected void createViews() {
+		buffersGeneration = graphBuffers.getGeneration();
 
 		vertexPointer = graphBuffers.createNewVertexBufferView();
-		indexPointer = graphBuffers.createNewIndexBufferView();
-		edgesPointer = graphBuffers.createNewEdgeBufferView();
+		indexPointers = new Buffer[drawnBuffers.length];
+		edgesPointers = new Buffer[drawnBuffers.length];
+		edgeAttributePointers = new Buffer[drawnBuffers.length];
+		masked = new boolean[drawnBuffers.length];
+		visibleIndexes = new VisibleIndexes.Lists[drawnBuffers.length];
+
+		for (int i = 0; i < drawnBuffers.length; i++) {
+			indexPointers[i] = drawnBuffers[i].createNewIndexBufferView();
+			edgesPointers[i] = drawnBuffers[i].createNewEdgeBufferView();
+			edgeAttributePointers[i] = drawnBuffers[i]
+					.createNewEdgeAttributeView();
+		}
+
 		colorPointer = graphBuffers.createNewNodeColorView();
 		sizePointer = graphBuffers.createNewNodeSizeView();
+		previousPointer = graphBuffers.createNewNodePreviousView();
+	}
+
+	public SharedBuffers getSharedBuffers() {
+		return sharedBuffers;
+	}
+
+	public GraphBuffers getGraphBuffers() {
+		return graphBuffers;
+	}
+
+	/**
+	 * The sharded buffers, whose shards other than the first one can receive
+	 * events of other sources, or null if sharding is disabled.
+	 */
+	public ShardedGraphBuffers getShardedBuffers() {
+		return shardedBuffers;
 	}
 
 	public void init(GLAutoDrawable drawable) {
 		super.init(drawable);
-		shaderProgram = loadShader2(NODE_VERTEX_SHADER, NODE_FRAGMENT_SHADER,
-				drawable.getGL().getGL2());
-	}
+		GL2 gl = drawable.getGL().getGL2();
 
-	protected String[] getResourceContent(String url) {
-		InputStream resourceContent = ClassLoader
-				.getSystemResourceAsStream(url);
-		
-		BufferedReader reader = new BufferedReader(new InputStreamReader(
-				resourceContent));
-		
-		LinkedList<String> content = new LinkedList<String>();
+		shaders = new ShaderManager(drawable);
+		nodeProgram = shaders.request(gl, "nodes", NODE_VERTEX_SHADER,
+				NODE_FRAGMENT_SHADER);
 
-		try {
-			while (reader.ready())
-				content.add(reader.readLine());
+		String edgesMode = System.getProperty("gs.gl.edges");
 
-			reader.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+		if ("bundled".equals(edgesMode)) {
+			bundlers = sharedBuffers.getBundlers();
+		} else if (!"lines".equals(edgesMode)) {
+			instancedEdges = new InstancedEdges();
+
+			if (!instancedEdges.init(gl, shaders)) {
+				System.err.printf("[edges] drawing edges as lines%n");
+				instancedEdges = null;
+			}
 		}
-		
-		String[] array = new String[content.size()];
-		return content.toArray(array);
+
+		Metrics.getRegistry().register(SinkMetrics.TYPE, metricsName,
+				graphBuffers.getSinkMetrics());
 	}
-	
-	protected ShaderProgram loadShader2(String vertexShader,
-			String fragmentShader, GL2 gl) {
-		if(!ShaderUtil.isShaderCompilerAvailable(gl)) {
-			System.err.printf("[shader] no compiler available%n");
-			return null;
-		}
-		
-		ShaderProgram shaderProgram;
 
-		ShaderCode vertexShaderCode = new ShaderCode(GL2.GL_VERTEX_SHADER, 1,
-				new String[][] { getResourceContent(vertexShader) });
+	public void dispose(GLAutoDrawable drawable) {
+		super.dispose(drawable);
+		Metrics.getRegistry().unregister(SinkMetrics.TYPE, metricsName);
 
-		if (!vertexShaderCode.compile(gl,System.out))
-			System.err.printf("[shader] \"%s\" invalid%n", vertexShader);
+		if (instancedEdges != null) {
+			instancedEdges.dispose(drawable.getGL().getGL2());
+			instancedEdges = null;
+		}
 
-		ShaderCode fragmentShaderCode = new ShaderCode(GL2.GL_FRAGMENT_SHADER, 1,
-				new String[][] { getResourceContent(fragmentShader) });
+		if (densityRenderer != null) {
+			densityRenderer.dispose(drawable.getGL().getGL2());
+			densityRenderer = null;
+		}
 
-		if (!fragmentShaderCode.compile(gl,System.out))
-			System.err.printf("[shader] \"%s\" invalid%n", fragmentShader);
+		bundlers = null;
 
-		shaderProgram = new ShaderProgram();
-		shaderProgram.add(vertexShaderCode);
-		//shaderProgram.add(fragmentShaderCode);
+		shaders.dispose(drawable.getGL().getGL2());
+		nodeProgramId = 0;
 
-		shaderProgram.link(gl, System.out);
-		shaderState = new ShaderState();
-		shaderState.attachShaderProgram(gl, shaderProgram);
-		shaderState.glBindAttribLocation(gl, 0, "nodeSize");
+		sharedBuffers.release();
+	}
 
+	protected void renderGraph(GL2 gl) {
+		updateBuffers();
 
-		if (!shaderProgram.linked())
-			System.err.printf("[shader] error while linking program%n");
-		else if(ShaderUtil.isProgramValid(gl, shaderProgram.program()))
-			System.out.printf("[shader] program linked and valid%n");
-		else
-			System.err.printf("[shader] invalid program%n");
-		
-		return shaderProgram;
+		try {
+			drawGraph(gl);
+		} finally {
+			releaseVisibleIndexes();
+		}
 	}
 
-	protected int loadShader(String vertexShader, String fragmentShader, GL2 gl) {
-		int shaderProgram = -1;
-		InputStream vertexShaderIn = ClassLoader
-				.getSystemResourceAsStream(vertexShader);
-		InputStream fragmentShaderIn = ClassLoader
-				.getSystemResourceAsStream(fragmentShader);
+	protected void drawGraph(GL2 gl) {
+		gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+		gl.glVertexPointer(graphBuffers.getVertexComposantCount(), GL.GL_FLOAT,
+				0, vertexPointer.rewind());
 
-		if (vertexShaderIn != null && fragmentShaderIn != null) {
-			BufferedReader reader = new BufferedReader(new InputStreamReader(
-					vertexShaderIn));
-			String vertexShaderCode = "";
+		if (graphBuffers.isColorPointerEnabled()) {
+			gl.glEnableClientState(GL2.GL_COLOR_ARRAY);
+			gl.glColorPointer(graphBuffers.getColorComposantCount(),
+					GL.GL_FLOAT, 0, colorPointer.rewind());
+		} else {
+			gl.glColor4f(1, 1, 1, 0.4f);
+		}
 
-			try {
-				while (reader.ready())
-					vertexShaderCode += reader.readLine();
+		boolean density = getFrameRenderMode() == RenderMode.DENSITY
+				&& isDensityAvailable(gl);
+		float[] viewProjection = ctx.getCamera().getViewProjectionMatrix();
+
+		/*
+		 * Animated nodes and edges are drawn by the shader, interpolating
+		 * between previous and current positions. Until the shader is built,
+		 * nodes are drawn at their position by the fixed function.
+		 */
+		boolean shaded = isNodeProgramReady(gl);
+		boolean animated = !density && shaded && graphBuffers.isAnimated()
+				&& previousLocation >= 0;
+
+		if (animated) {
+			gl.glUseProgram(nodeProgramId);
+			gl.glUniformMatrix4fv(viewProjectionLocation, 1, false,
+					viewProjection, 0);
+			gl.glUniform1f(timeLocation, GraphBuffers.getAnimationTime());
+			gl.glUniform1f(durationLocation,
+					graphBuffers.getAnimationDuration());
+			gl.glEnableVertexAttribArray(previousLocation);
+			gl.glVertexAttribPointer(previousLocation,
+					Transition.COMPONENTS, GL.GL_FLOAT, false, 0,
+					previousPointer.rewind());
+		}
 
-				reader.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+		metrics.addUploadedBytes(getClientArraysSize());
 
-			reader = new BufferedReader(new InputStreamReader(fragmentShaderIn));
-			String fragmentShaderCode = "";
+		if (density) {
+			renderDensity(gl);
 
-			try {
-				while (reader.ready())
-					fragmentShaderCode += reader.readLine();
+			if (graphBuffers.isColorPointerEnabled())
+				gl.glDisableClientState(GL2.GL_COLOR_ARRAY);
 
-				reader.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+			gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+			return;
+		}
+
+		metrics.phase(Phase.NODES);
 
+		boolean sized = shaded && graphBuffers.isSizePointerEnabled()
+				&& sizeLocation >= 0;
+
+		if (sized) {
 			gl.glEnable(GL2.GL_VERTEX_PROGRAM_POINT_SIZE);
 
-			System.out.printf("[shader] load vertex shader \"%s\"%n",
-					vertexShader);
+			if (!animated) {
+				gl.glUseProgram(nodeProgramId);
+				gl.glUniformMatrix4fv(viewProjectionLocation, 1, false,
+						viewProjection, 0);
+				gl.glUniform1f(durationLocation, 0);
+			}
 
-			int v = gl.glCreateShader(GL2.GL_VERTEX_SHADER);
+			gl.glEnableVertexAttribArray(sizeLocation);
+			gl.glVertexAttribPointer(sizeLocation, 1, GL.GL_FLOAT, false, 0,
+					sizePointer.rewind());
+		} else {
+			gl.glDisable(GL2.GL_VERTEX_PROGRAM_POINT_SIZE);
+			gl.glPointSize(10);
+		}
 
-			gl.glShaderSource(v, 1, new String[] { vertexShaderCode },
-					(int[]) null, 0);
-			gl.glCompileShader(v);
+		for (int i = 0; i < drawnBuffers.length; i++) {
+			if (indexPointers[i].limit() == 0)
+				continue;
 
-			System.out.printf("[shader] load fragment shader \"%s\"%n",
-					fragmentShader);
+			gl.glDrawElements(GL.GL_POINTS, indexPointers[i].limit(),
+					GL2.GL_UNSIGNED_INT, indexPointers[i]);
+			metrics.addDrawCalls(1);
+		}
 
-			int f = gl.glCreateShader(GL2.GL_FRAGMENT_SHADER);
+		if (sized) {
+			gl.glDisableVertexAttribArray(sizeLocation);
 
-			gl.glShaderSource(f, 1, new String[] { fragmentShaderCode },
-					(int[]) null, 0);
-			gl.glCompileShader(v);
+			if (!animated)
+				gl.glUseProgram(0);
+		}
 
-			int[] status = new int[1];
+		metrics.phase(Phase.EDGES);
 
-			shaderProgram = gl.glCreateProgram();
-			gl.glAttachShader(shaderProgram, v);
-			gl.glAttachShader(shaderProgram, f);
+		if (instancedEdges != null && instancedEdges.isFailed()) {
+			System.err.printf("[edges] drawing edges as lines%n");
+			instancedEdges.dispose(gl);
+			instancedEdges = null;
+		}
 
-			gl.glBindAttribLocation(shaderProgram, 1, "nodeSize");
+		if (instancedEdges != null && instancedEdges.isReady(gl)) {
+			metrics.addDrawCalls(instancedEdges.draw(gl, drawnBuffers,
+					viewProjection, vertexPointer, colorPointer,
+					previousPointer, edgesPointers, edgeAttributePointers,
+					visibleIndexes));
+			metrics.addUploadedBytes(instancedEdges.getUploadedBytes());
+		} else if (bundlers != null) {
+			drawBundledEdges(gl, animated);
+		} else {
+			for (int i = 0; i < drawnBuffers.length; i++) {
+				if (edgesPointers[i].limit() == 0)
+					continue;
 
-			gl.glLinkProgram(shaderProgram);
-			gl.glGetProgramiv(shaderProgram, GL2.GL_LINK_STATUS, status, 0);
+				gl.glDrawElements(GL.GL_LINES, edgesPointers[i].limit(),
+						GL2.GL_UNSIGNED_INT, edgesPointers[i]);
+				metrics.addDrawCalls(1);
+			}
+		}
 
-			if (status[0] != GL2.GL_TRUE) {
-				System.err.printf("shader program link failed%n");
+		if (animated) {
+			gl.glDisableVertexAttribArray(previousLocation);
+			gl.glUseProgram(0);
+		}
 
-				byte[] infolog = new byte[8000];
-				int[] length = new int[1];
-				gl.glGetProgramInfoLog(shaderProgram, 8000, length, 0, infolog,
-						0);
+		if (graphBuffers.isColorPointerEnabled())
+			gl.glDisableClientState(GL2.GL_COLOR_ARRAY);
 
-				if (length[0] > 0) {
-					String log = new String(infolog, 0, length[0]);
-					System.err.printf("%s%n", log);
-				}
-			} else
-				System.out.printf("[shader] link success%n");
+		gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+	}
 
-			gl.glValidateProgram(shaderProgram);
-			gl.glGetProgramiv(shaderProgram, GL2.GL_VALIDATE_STATUS, status, 0);
+	/**
+	 * Locate the inputs of the node program once it is built.
+	 *
+	 * @return false while the program is not ready or if it can not be
+	 *         built
+	 */
+	protected boolean isNodeProgramReady(GL2 gl) {
+		if (nodeProgramId != 0)
+			return true;
+
+		if (nodeProgram == null)
+			return false;
+
+		if (nodeProgram.isFailed()) {
+			if (graphBuffers.isAnimated())
+				System.err.printf("[animation] shader not available, "
+						+ "nodes will not be animated%n");
+
+			nodeProgram = null;
+			return false;
+		}
 
-			if (status[0] != GL2.GL_TRUE) {
-				System.err.printf("shader program validation failed%n");
+		if (!nodeProgram.isReady())
+			return false;
 
-				byte[] infolog = new byte[8000];
-				int[] length = new int[1];
-				gl.glGetProgramInfoLog(shaderProgram, 8000, length, 0, infolog,
-						0);
+		int program = nodeProgram.getId();
 
-				if (length[0] > 0) {
-					String log = new String(infolog, 0, length[0]);
-					System.err.printf("%s%n", log);
-				}
-			} else
-				System.out.printf("[shader] validation success%n");
-
-			int[] active_attributes = new int[1], max_length = new int[1];
-
-			gl.glGetProgramiv(shaderProgram, GL2.GL_ACTIVE_ATTRIBUTES,
-					active_attributes, 0);
-			gl.glGetProgramiv(shaderProgram,
-					GL2.GL_ACTIVE_ATTRIBUTE_MAX_LENGTH, max_length, 0);
-
-			if (active_attributes[0] == 0)
-				System.out.printf("[shader] no active attributes%n");
-
-			for (int i = 0; i < active_attributes[0]; i++) {
-				int[] size = new int[1], type = new int[1], length = new int[1];
-				byte[] buffer = new byte[max_length[0] + 1];
-				gl.glGetActiveAttrib(shaderProgram, i, max_length[0] + 1,
-						length, 0, size, 0, type, 0, buffer, 0);
-				String name = new String(buffer, 0, length[0]);
-				String typeName;
-
-				switch (type[0]) {
-				case GL2.GL_FLOAT:
-					typeName = "float";
-					break;
-				case GL2.GL_FLOAT_VEC2:
-					typeName = "vec2";
-					break;
-				case GL2.GL_FLOAT_VEC3:
-					typeName = "vec3";
-					break;
-				case GL2.GL_FLOAT_VEC4:
-					typeName = "vec4";
-					break;
-				case GL2.GL_FLOAT_MAT2:
-					typeName = "mat2";
-					break;
-				case GL2.GL_FLOAT_MAT3:
-					typeName = "mat3";
-					break;
-				case GL2.GL_FLOAT_MAT4:
-					typeName = "mat4";
-					break;
-				case GL2.GL_FLOAT_MAT2x3:
-					typeName = "mat2x3";
-					break;
-				case GL2.GL_FLOAT_MAT2x4:
-					typeName = "mat2x4";
-					break;
-				case GL2.GL_FLOAT_MAT3x2:
-					typeName = "mat3x2";
-					break;
-				case GL2.GL_FLOAT_MAT3x4:
-					typeName = "mat3x4";
-					break;
-				case GL2.GL_FLOAT_MAT4x2:
-					typeName = "mat4x2";
-					break;
-				case GL2.GL_FLOAT_MAT4x3:
-					typeName = "mat4x3";
-					break;
-				default:
-					typeName = "unknown";
-					break;
-				}
+		previousLocation = gl.glGetAttribLocation(program, "previous");
+		sizeLocation = gl.glGetAttribLocation(program, "nodeSize");
+		viewProjectionLocation = gl.glGetUniformLocation(program,
+				"viewProjection");
+		timeLocation = gl.glGetUniformLocation(program, "time");
+		durationLocation = gl.glGetUniformLocation(program, "duration");
+		nodeProgramId = program;
+
+		return true;
+	}
 
-				System.out.printf(
-						"[shader] attribute \"%s %s\" is at location %d\n",
-						typeName, name,
-						gl.glGetAttribLocation(shaderProgram, name));
+	/**
+	 * Bring the shared buffers to the current frame, see
+	 * {@link SharedBuffers#update(Object)}, and set the limits of the index
+	 * and edge views to what has to be drawn. Buffers with hidden elements
+	 * are drawn from the views of their visible elements.
+	 */
+	protected void updateBuffers() {
+		if (buffersGeneration != graphBuffers.getGeneration())
+			createViews();
+
+		round = sharedBuffers.update(this);
+
+		nodeCount = 0;
+		edgeCount = 0;
+
+		/*
+		 * Counts are clamped to the views: buffers which grow after the
+		 * generation has been checked are seen on the next frame.
+		 */
+		for (int i = 0; i < drawnBuffers.length; i++) {
+			VisibleIndexes.Lists visible = drawnBuffers[i]
+					.acquireVisibleIndexes();
+			int nodes = drawnBuffers[i].getActiveIndexCount();
+			int edges = drawnBuffers[i].getActiveEdgeCount();
+
+			if (visible != null) {
+				indexPointers[i] = visible.createNodeView();
+				edgesPointers[i] = visible.createEdgeView();
+				edgeAttributePointers[i] = visible.createEdgeAttributeView();
+				nodes = visible.getNodeCount();
+				edges = visible.getEdgeCount();
+				masked[i] = true;
+				visibleIndexes[i] = visible;
+			} else if (masked[i]) {
+				indexPointers[i] = drawnBuffers[i].createNewIndexBufferView();
+				edgesPointers[i] = drawnBuffers[i].createNewEdgeBufferView();
+				edgeAttributePointers[i] = drawnBuffers[i]
+						.createNewEdgeAttributeView();
+				masked[i] = false;
 			}
+
+			indexPointers[i].position(0);
+			indexPointers[i].limit(Math.min(indexPointers[i].capacity()
+					/ GraphBuffers.INT_BYTES, nodes));
+			nodeCount += indexPointers[i].limit();
+
+			edgesPointers[i].position(0);
+			edgesPointers[i].limit(Math.min(edgesPointers[i].capacity()
+					/ GraphBuffers.INT_BYTES, 2 * edges));
+			edgeCount += edgesPointers[i].limit() / 2;
 		}
+	}
 
-		return shaderProgram;
+	/**
+	 * Release the lists of visible elements drawn by the frame, so that
+	 * they can be compacted again.
+	 */
+	protected void releaseVisibleIndexes() {
+		for (int i = 0; i < visibleIndexes.length; i++) {
+			if (visibleIndexes[i] != null) {
+				visibleIndexes[i].release();
+				visibleIndexes[i] = null;
+			}
+		}
 	}
 
-	int[] currentProgram = new int[1];
+	/**
+	 * Create the density renderer if needed.
+	 *
+	 * @return false if density rendering is not supported
+	 */
+	protected boolean isDensityAvailable(GL2 gl) {
+		if (densityRenderer == null && !densityFailed) {
+			densityRenderer = new DensityRenderer();
+
+			if (!densityRenderer.init(gl, shaders)) {
+				densityRenderer = null;
+				densityFailed = true;
+			}
+		}
 
-	protected void renderGraph(GL2 gl) {
-		gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
-		gl.glVertexPointer(graphBuffers.getVertexComposantCount(), GL.GL_FLOAT,
-				0, vertexPointer.rewind());
+		if (densityRenderer != null && densityRenderer.isFailed()) {
+			densityRenderer.dispose(gl);
+			densityRenderer = null;
+			densityFailed = true;
+		}
 
-		if (graphBuffers.isColorPointerEnabled()) {
-			gl.glEnableClientState(GL2.GL_COLOR_ARRAY);
-			gl.glColorPointer(graphBuffers.getColorComposantCount(),
-					GL.GL_FLOAT, 0, colorPointer.rewind());
-		} else {
-			gl.glColor4f(1, 1, 1, 0.4f);
+		if (densityFailed && !densityReported) {
+			System.err.printf("[density] drawing nodes as points%n");
+			densityReported = true;
 		}
 
-		indexPointer.position(0);
-		indexPointer.limit(graphBuffers.getActiveIndexCount());
-		nodeCount = indexPointer.limit();
-
-		if (graphBuffers.isSizePointerEnabled()) {
-			/*
-			 * int sizeLoc = gl.glGetAttribLocation(shaderProgram, "nodeSize");
-			 * 
-			 * if (sizeLoc < 0) System.err.printf("bad attribute location%n");
-			 * 
-			 * sizePointer.rewind();
-			 * 
-			 * gl.glGetIntegerv(GL2.GL_CURRENT_PROGRAM, currentProgram, 0);
-			 * 
-			 * gl.glEnable(GL2.GL_VERTEX_PROGRAM_POINT_SIZE);
-			 * 
-			 * gl.glUseProgram(shaderProgram);
-			 * 
-			 * gl.glVertexAttribPointer(sizeLoc, nodeCount, GL.GL_FLOAT, false,
-			 * 0, sizePointer);
-			 * 
-			 * gl.glEnableVertexAttribArray(sizeLoc);
-			 */
-			gl.glEnable(GL2.GL_VERTEX_PROGRAM_POINT_SIZE);
-			
-			shaderState.glUseProgram(gl, true);
-		} else {
-			gl.glPointSize(10);
+		return densityRenderer != null && densityRenderer.isReady(gl);
+	}
+
+	/**
+	 * Accumulate the density of the nodes, and of the edges if enabled, and
+	 * resolve it on screen.
+	 */
+	protected void renderDensity(GL2 gl) {
+		metrics.phase(Phase.NODES);
+		densityRenderer.begin(gl, width, height, ctx.getCamera()
+				.getViewProjectionMatrix());
+
+		for (int i = 0; i < drawnBuffers.length; i++) {
+			if (indexPointers[i].limit() == 0)
+				continue;
+
+			gl.glDrawElements(GL.GL_POINTS, indexPointers[i].limit(),
+					GL2.GL_UNSIGNED_INT, indexPointers[i]);
+			metrics.addDrawCalls(1);
 		}
 
-		gl.glDrawElements(GL.GL_POINTS, indexPointer.limit(),
-				GL2.GL_UNSIGNED_INT, indexPointer);
+		metrics.phase(Phase.EDGES);
+
+		if (densityRenderer.isEdgeDensityEnabled()) {
+			densityRenderer.beginEdges(gl);
+
+			for (int i = 0; i < drawnBuffers.length; i++) {
+				if (edgesPointers[i].limit() == 0)
+					continue;
 
-		if (graphBuffers.isSizePointerEnabled()) {
-			gl.glUseProgram(currentProgram[0]);
+				gl.glDrawElements(GL.GL_LINES, edgesPointers[i].limit(),
+						GL2.GL_UNSIGNED_INT, edgesPointers[i]);
+				metrics.addDrawCalls(1);
+			}
 		}
 
-		edgesPointer.position(0);
-		edgesPointer.limit(2 * graphBuffers.getActiveEdgeCount());
-		edgeCount = edgesPointer.limit() / 2;
+		densityRenderer.end(gl);
+		metrics.addDrawCalls(1);
+	}
 
-		gl.glDrawElements(GL.GL_LINES, edgesPointer.limit(),
-				GL2.GL_UNSIGNED_INT, edgesPointer);
+	/**
+	 * Draw the polylines of the last bundling passes and request new ones.
+	 * Control points are not node vertices, so node colors and previous
+	 * positions are not used: bundled edges have one color.
+	 */
+	protected void drawBundledEdges(GL2 gl, boolean animated) {
+		if (animated) {
+			gl.glDisableVertexAttribArray(previousLocation);
+			gl.glUseProgram(0);
+		}
 
 		if (graphBuffers.isColorPointerEnabled())
 			gl.glDisableClientState(GL2.GL_COLOR_ARRAY);
 
-		gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+		gl.glColor4f(1, 1, 1, 0.4f);
+
+		for (int i = 0; i < bundlers.length; i++) {
+			EdgeBundler.Storage storage = bundlers[i].acquireStorage();
+			int count = storage.getCount();
+
+			bundlers[i].update();
+
+			if (count == 0) {
+				bundlers[i].releaseStorage(storage);
+				continue;
+			}
+
+			try {
+				gl.glVertexPointer(EdgeBundler.COMPONENTS, GL.GL_FLOAT, 0,
+						storage.getPoints().rewind());
+				gl.glMultiDrawArrays(GL.GL_LINE_STRIP, (IntBuffer) storage
+						.getFirsts().rewind(), (IntBuffer) storage
+						.getCounts().rewind(), count);
+			} finally {
+				bundlers[i].releaseStorage(storage);
+			}
+
+			metrics.addDrawCalls(1);
+			metrics.addUploadedBytes((long) count
+					* (bundlers[i].getPointsPerEdge() * EdgeBundler.COMPONENTS + 2)
+					* 4);
+		}
+	}
+
+	/**
+	 * Size of the client arrays transferred to the GL for a frame. Vertex and
+	 * color arrays are read up to the highest index used, which is at most the
+	 * node capacity. Instanced and bundled edges are not read from the edge
+	 * arrays, their uploads are counted when they are drawn.
+	 */
+	protected long getClientArraysSize() {
+		long size = (long) vertexPointer.capacity() * 4;
+
+		if (graphBuffers.isColorPointerEnabled())
+			size += (long) colorPointer.capacity() * 4;
+
+		if (graphBuffers.isAnimated())
+			size += (long) previousPointer.capacity() * 4;
+
+		for (int i = 0; i < drawnBuffers.length; i++) {
+			size += 4L * indexPointers[i].limit();
+
+			if (instancedEdges == null && bundlers == null)
+				size += 4L * edgesPointers[i].limit();
+		}
+
+		return size;
 	}
 
 	public LayoutListener getLayoutListener() {
-		return graphBuffers;
+		return sharedBuffers.getLayoutListener();
+	}
+
+	/**
+	 * Merge the bounds of the drawn buffers.
+	 */
+	public boolean getGraphBounds(float[] min, float[] max, float[] centroid) {
+		double[] sum = new double[3];
+		int count = 0;
+
+		for (int i = 0; i < 3; i++) {
+			min[i] = Float.MAX_VALUE;
+			max[i] = -Float.MAX_VALUE;
+		}
+
+		for (int i = 0; i < drawnBuffers.length; i++)
+			count += drawnBuffers[i].getBounds().merge(sum, min, max);
+
+		if (count <= 0)
+			return false;
+
+		for (int i = 0; i < 3; i++)
+			centroid[i] = (float) (sum[i] / count);
+
+		return true;
+	}
+
+	public boolean getNodePosition(String nodeId, float[] xyz) {
+		if (shardedBuffers == null)
+			return graphBuffers.getNodePosition(nodeId, xyz);
+
+		GraphBuffers shard = shardedBuffers.getShardOf(nodeId);
+
+		return shard != null && shard.getNodePosition(nodeId, xyz);
+	}
+
+	/**
+	 * Position of a node given its pool index. Shards share the node
+	 * vertices, so any of the drawn buffers can read it.
+	 */
+	public boolean getNodePosition(int poolIndex, float[] xyz) {
+		int highWater = 0;
+
+		for (int i = 0; i < drawnBuffers.length; i++)
+			highWater = Math.max(highWater,
+					drawnBuffers[i].getPoolHighWater());
+
+		if (poolIndex < 0 || poolIndex >= highWater)
+			return false;
+
+		for (int i = 0; i < 3; i++)
+			xyz[i] = drawnBuffers[0].getNodeCoord(poolIndex, i);
+
+		return true;
+	}
+
+	/**
+	 * Find the nodes of the drawn buffers, merging the sorted nodes found in
+	 * each shard.
+	 */
+	public int findNodes(String text, boolean substring, String[] ids,
+			int[] poolIndexes) {
+		if (drawnBuffers.length == 1)
+			return drawnBuffers[0].findNodes(text, substring, ids,
+					poolIndexes);
+
+		String[] part = new String[ids.length];
+		int[] partPools = new int[ids.length];
+		String[] merged = new String[ids.length];
+		int[] mergedPools = new int[ids.length];
+		int count = 0;
+
+		for (int i = 0; i < drawnBuffers.length; i++) {
+			int found = drawnBuffers[i].findNodes(text, substring, part,
+					partPools);
+			int a = 0, b = 0, n = 0;
+
+			while (n < ids.length && (a < count || b < found)) {
+				if (b == found
+						|| (a < count && ids[a].compareTo(part[b]) <= 0)) {
+					merged[n] = ids[a];
+					mergedPools[n++] = poolIndexes != null ? poolIndexes[a]
+							: 0;
+					a++;
+				} else {
+					merged[n] = part[b];
+					mergedPools[n++] = partPools[b++];
+				}
+			}
+
+			System.arraycopy(merged, 0, ids, 0, n);
+
+			if (poolIndexes != null)
+				System.arraycopy(mergedPools, 0, poolIndexes, 0, n);
+
+			count = n;
+		}
+
+		return count;
 	}
 
 	public StyleSheetListener getStyleSheetListener() {
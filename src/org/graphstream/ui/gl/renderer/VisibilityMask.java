@@ -0,0 +1,153 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bitset of the hidden elements of {@link GraphBuffers}, indexed by pool
+ * index for nodes and by edge index for edges. Elements are visible by
+ * default, a bit being set only while an element is hidden, so that a clear
+ * mask costs nothing to the renderers.
+ *
+ * The node mask is shared by the shards of {@link ShardedGraphBuffers},
+ * whose edges can link nodes of different shards, so bits are changed with
+ * atomic operations: shards write their own pools at the same time without
+ * a common lock. The version is incremented each time bits change, which
+ * tells the compaction of the visible edges that their extremities have to
+ * be checked again.
+ */
+class VisibilityMask {
+	protected final AtomicLongArray bits;
+
+	protected final AtomicInteger hidden = new AtomicInteger();
+
+	protected final AtomicInteger version = new AtomicInteger();
+
+	VisibilityMask(int capacity) {
+		bits = new AtomicLongArray((capacity + 63) >>> 6);
+	}
+
+	/**
+	 * Copy a mask into a larger one, when the buffers grow.
+	 */
+	VisibilityMask(VisibilityMask mask, int capacity) {
+		this(capacity);
+
+		for (int i = 0; i < mask.bits.length(); i++)
+			bits.set(i, mask.bits.get(i));
+
+		hidden.set(mask.hidden.get());
+		version.set(mask.version.get() + 1);
+	}
+
+	int getCapacity() {
+		return bits.length() << 6;
+	}
+
+	boolean isHidden(int index) {
+		return (bits.get(index >>> 6) & (1L << index)) != 0;
+	}
+
+	/**
+	 * Hide or show an element.
+	 *
+	 * @return true if the visibility of the element changed
+	 */
+	boolean setHidden(int index, boolean hide) {
+		int word = index >>> 6;
+		long bit = 1L << index;
+
+		for (;;) {
+			long current = bits.get(word);
+			long next = hide ? current | bit : current & ~bit;
+
+			if (next == current)
+				return false;
+
+			if (bits.compareAndSet(word, current, next)) {
+				hidden.addAndGet(hide ? 1 : -1);
+				version.incrementAndGet();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Move the bit of an element to another index, clearing its previous
+	 * index. Used when the last edge fills the hole of a removed one.
+	 */
+	void move(int from, int to) {
+		boolean hide = isHidden(from);
+
+		setHidden(from, false);
+		setHidden(to, hide);
+	}
+
+	/**
+	 * Show the elements from..to-1.
+	 */
+	void clear(int from, int to) {
+		if (from >= to || hidden.get() == 0)
+			return;
+
+		to = Math.min(to, getCapacity());
+
+		for (int word = from >>> 6; word <= (to - 1) >>> 6; word++) {
+			long range = -1L;
+
+			if (word == from >>> 6)
+				range &= -1L << from;
+			if (word == (to - 1) >>> 6)
+				range &= -1L >>> (63 - ((to - 1) & 63));
+
+			for (;;) {
+				long current = bits.get(word);
+
+				if ((current & range) == 0)
+					break;
+
+				if (bits.compareAndSet(word, current, current & ~range)) {
+					hidden.addAndGet(-Long.bitCount(current & range));
+					version.incrementAndGet();
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Count of the elements hidden.
+	 */
+	int getHiddenCount() {
+		return hidden.get();
+	}
+
+	int getVersion() {
+		return version.get();
+	}
+}
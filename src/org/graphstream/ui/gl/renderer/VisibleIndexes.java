@@ -0,0 +1,502 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Compacted lists of the visible nodes and edges of {@link GraphBuffers},
+ * drawn instead of the node indexes and edges while some elements are
+ * hidden, see {@link VisibilityMask}.
+ *
+ * Node positions and edge indexes are cut in chunks of {@link #CHUNK}
+ * entries. Each chunk is compacted in its own segment, and segments are
+ * packed one after the other in the lists drawn. Changes of the buffers
+ * mark the chunks they touch, and a compaction only filters the chunks
+ * marked again: other segments are kept, and copied to the lists only if
+ * the segments before them changed length. As the buffers keep no
+ * adjacency, a change of the node mask marks all the edge chunks, edges
+ * being visible only if both their nodes are.
+ *
+ * The packed lists are double-buffered: a compaction packs the segments in
+ * the back {@link Lists}, then publishes them. Views draw the published
+ * lists between {@link #acquire()} and {@link Lists#release()}, and a
+ * compaction is put off to the next round while a view still draws the back
+ * lists. Each lists remember the version and offset of the segments they
+ * hold, so that the back lists, one compaction late, get the segments
+ * changed since they were published too.
+ *
+ * Chunks are marked from the threads changing the buffers, some without
+ * the structure lock, so marks are atomic. Compactions are done by the
+ * rendering thread with the structure lock held.
+ */
+class VisibleIndexes {
+	/**
+	 * Entries of a chunk, a multiple of 64.
+	 */
+	static final int CHUNK = 4096;
+
+	/**
+	 * Packed lists of the pool indexes of the visible nodes, and of the
+	 * extremities and attributes of the visible edges.
+	 */
+	class Lists {
+		protected final ByteBuffer nodes;
+		protected final ByteBuffer edges;
+		protected final ByteBuffer attributes;
+
+		/**
+		 * Version and offset of the segment of each chunk held by the
+		 * lists.
+		 */
+		protected final int[] nodeVersions;
+		protected final int[] nodeOffsets;
+		protected final int[] edgeVersions;
+		protected final int[] edgeOffsets;
+
+		protected int nodeCount;
+		protected int edgeCount;
+		protected int edgeRewrites;
+
+		/**
+		 * Views drawing the lists.
+		 */
+		protected final AtomicInteger readers = new AtomicInteger();
+
+		Lists(int nodeChunks, int edgeChunks) {
+			nodes = allocate(nodeChunks * CHUNK);
+			edges = allocate(2 * edgeChunks * CHUNK);
+			attributes = allocate(GraphBuffers.EDGE_ATTRIBUTE_COMPONENTS
+					* edgeChunks * CHUNK);
+			nodeVersions = new int[nodeChunks];
+			nodeOffsets = new int[nodeChunks];
+			edgeVersions = new int[edgeChunks];
+			edgeOffsets = new int[edgeChunks];
+
+			Arrays.fill(nodeVersions, -1);
+			Arrays.fill(edgeVersions, -1);
+		}
+
+		/**
+		 * Indexes whose lists these are, the same for the lists published
+		 * one after the other.
+		 */
+		Object getOwner() {
+			return VisibleIndexes.this;
+		}
+
+		int getNodeCount() {
+			return nodeCount;
+		}
+
+		int getEdgeCount() {
+			return edgeCount;
+		}
+
+		/**
+		 * Count of the changes of the packed edges which are not appends
+		 * to the lists published before, as
+		 * {@link GraphBuffers#getEdgeRewrites()}.
+		 */
+		int getEdgeRewrites() {
+			return edgeRewrites;
+		}
+
+		/**
+		 * Views of the lists, in the format of the views created by
+		 * {@link GraphBuffers}.
+		 */
+		ByteBuffer createNodeView() {
+			return nodes.duplicate().order(ByteOrder.nativeOrder());
+		}
+
+		ByteBuffer createEdgeView() {
+			return edges.duplicate().order(ByteOrder.nativeOrder());
+		}
+
+		ByteBuffer createEdgeAttributeView() {
+			return attributes.duplicate().order(ByteOrder.nativeOrder());
+		}
+
+		/**
+		 * Stop drawing the lists, see {@link VisibleIndexes#acquire()}.
+		 */
+		void release() {
+			readers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Chunks of node positions and of edge indexes marked since the last
+	 * compaction.
+	 */
+	protected volatile AtomicLongArray dirtyNodes;
+	protected volatile AtomicLongArray dirtyEdges;
+
+	/**
+	 * Segments of each chunk, with their length and version.
+	 */
+	protected int[] nodeSegments;
+	protected int[] nodeLengths;
+	protected int[] nodeVersions;
+	protected int[] edgeSegments;
+	protected float[] attributeSegments;
+	protected int[] edgeLengths;
+	protected int[] edgeVersions;
+
+	/**
+	 * Lists drawn, and lists of the next compaction.
+	 */
+	protected volatile Lists front;
+	protected Lists back;
+
+	protected int edgeRewrites;
+
+	/**
+	 * True once the lists have been compacted and while elements are
+	 * hidden.
+	 */
+	protected volatile boolean active;
+
+	/**
+	 * Generation of the buffers and version of the node mask at the last
+	 * compaction.
+	 */
+	protected int generation = -1;
+	protected int maskVersion = -1;
+
+	/**
+	 * Size the chunk marks for some capacities of the buffers. All the
+	 * chunks are marked.
+	 */
+	void resize(int maxNodes, int maxEdges) {
+		dirtyNodes = new AtomicLongArray(words(maxNodes));
+		dirtyEdges = new AtomicLongArray(words(maxEdges));
+		active = false;
+	}
+
+	private static int words(int entries) {
+		return ((entries + CHUNK - 1) / CHUNK + 63) >>> 6;
+	}
+
+	boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * Stop drawing the lists, when no element is hidden. They are compacted
+	 * again entirely when elements are hidden again.
+	 */
+	void deactivate() {
+		active = false;
+	}
+
+	/**
+	 * Get the published lists, which are not written until they are
+	 * released.
+	 *
+	 * @return the lists, or null if no element is hidden
+	 */
+	Lists acquire() {
+		while (active) {
+			Lists lists = front;
+			lists.readers.incrementAndGet();
+
+			if (lists == front)
+				return lists;
+
+			lists.readers.decrementAndGet();
+		}
+
+		return null;
+	}
+
+	/**
+	 * The node at a position changed.
+	 */
+	void nodeChanged(int position) {
+		mark(dirtyNodes, position / CHUNK);
+	}
+
+	/**
+	 * The edge at an index changed.
+	 */
+	void edgeChanged(int index) {
+		mark(dirtyEdges, index / CHUNK);
+	}
+
+	private static void mark(AtomicLongArray dirty, int chunk) {
+		int word = chunk >>> 6;
+		long bit = 1L << chunk;
+
+		if (word >= dirty.length())
+			return;
+
+		for (;;) {
+			long current = dirty.get(word);
+
+			if ((current & bit) != 0
+					|| dirty.compareAndSet(word, current, current | bit))
+				return;
+		}
+	}
+
+	/**
+	 * Clear the mark of a chunk.
+	 *
+	 * @return true if the chunk was marked
+	 */
+	private static boolean take(AtomicLongArray dirty, int chunk) {
+		int word = chunk >>> 6;
+		long bit = 1L << chunk;
+
+		if (word >= dirty.length())
+			return true;
+
+		for (;;) {
+			long current = dirty.get(word);
+
+			if ((current & bit) == 0)
+				return false;
+
+			if (dirty.compareAndSet(word, current, current & ~bit))
+				return true;
+		}
+	}
+
+	/**
+	 * Bring the lists up to date with the buffers, unless a view still draws
+	 * the back lists.
+	 *
+	 * @param indexes
+	 *            node indexes of the buffers
+	 * @param nodeCount
+	 *            count of the active node positions
+	 * @param edgeColumn
+	 *            edges of the buffers
+	 * @param attributeColumn
+	 *            edge attributes of the buffers
+	 * @param edgeCount
+	 *            count of the active edges
+	 */
+	void compact(IntBuffer indexes, int nodeCount, IntBuffer edgeColumn,
+			FloatBuffer attributeColumn, int edgeCount,
+			VisibilityMask nodeMask, VisibilityMask edgeMask, int generation) {
+		if (back != null && back.readers.get() > 0)
+			return;
+
+		/*
+		 * The version is read first, so that bits changed by other shards
+		 * during the compaction are seen by the next one.
+		 */
+		int version = nodeMask.getVersion();
+		boolean all = !active || generation != this.generation;
+
+		if (allocate(indexes.capacity(), edgeColumn.capacity() / 2))
+			all = true;
+
+		Lists previous = active ? front : null;
+
+		compactNodes(indexes, Math.min(nodeCount, indexes.capacity()),
+				nodeMask, all);
+		compactEdges(edgeColumn, attributeColumn, Math.min(edgeCount,
+				edgeColumn.capacity() / 2), nodeMask, edgeMask, all
+				|| version != maskVersion, previous);
+
+		this.generation = generation;
+		maskVersion = version;
+
+		Lists published = back;
+		back = front;
+		front = published;
+		active = true;
+	}
+
+	/**
+	 * Allocate the segments if they are smaller than the buffers, and the
+	 * back lists if they are smaller than the segments.
+	 *
+	 * @return true if the segments have been replaced
+	 */
+	protected boolean allocate(int maxNodes, int maxEdges) {
+		boolean replaced = false;
+		int nodeChunks = (maxNodes + CHUNK - 1) / CHUNK;
+		int edgeChunks = (maxEdges + CHUNK - 1) / CHUNK;
+
+		if (nodeLengths == null || nodeLengths.length < nodeChunks
+				|| edgeLengths.length < edgeChunks) {
+			nodeSegments = new int[nodeChunks * CHUNK];
+			nodeLengths = new int[nodeChunks];
+			nodeVersions = new int[nodeChunks];
+			edgeSegments = new int[2 * edgeChunks * CHUNK];
+			attributeSegments = new float[GraphBuffers.EDGE_ATTRIBUTE_COMPONENTS
+					* edgeChunks * CHUNK];
+			edgeLengths = new int[edgeChunks];
+			edgeVersions = new int[edgeChunks];
+			replaced = true;
+		}
+
+		if (back == null || back.nodeVersions.length < nodeLengths.length
+				|| back.edgeVersions.length < edgeLengths.length)
+			back = new Lists(nodeLengths.length, edgeLengths.length);
+
+		return replaced;
+	}
+
+	private static ByteBuffer allocate(int entries) {
+		return ByteBuffer.allocateDirect(entries * GraphBuffers.INT_BYTES)
+				.order(ByteOrder.nativeOrder());
+	}
+
+	protected void compactNodes(IntBuffer indexes, int count,
+			VisibilityMask mask, boolean all) {
+		Lists lists = back;
+		IntBuffer packed = lists.nodes.asIntBuffer();
+		int chunks = (count + CHUNK - 1) / CHUNK;
+		int offset = 0;
+
+		for (int c = 0; c < chunks; c++) {
+			if (take(dirtyNodes, c) || all) {
+				int from = c * CHUNK;
+				int to = Math.min(count, from + CHUNK);
+				int length = 0;
+
+				for (int i = from; i < to; i++) {
+					int pool = indexes.get(i);
+
+					if (!mask.isHidden(pool))
+						nodeSegments[from + length++] = pool;
+				}
+
+				nodeLengths[c] = length;
+				nodeVersions[c]++;
+			}
+
+			if (lists.nodeVersions[c] != nodeVersions[c]
+					|| lists.nodeOffsets[c] != offset) {
+				packed.position(offset);
+				packed.put(nodeSegments, c * CHUNK, nodeLengths[c]);
+				lists.nodeVersions[c] = nodeVersions[c];
+				lists.nodeOffsets[c] = offset;
+			}
+
+			offset += nodeLengths[c];
+		}
+
+		lists.nodeCount = offset;
+	}
+
+	/**
+	 * @param previous
+	 *            lists published before, whose edges are compared to the
+	 *            new ones to count rewrites, null if there are none
+	 */
+	protected void compactEdges(IntBuffer edgeColumn,
+			FloatBuffer attributeColumn, int count, VisibilityMask nodeMask,
+			VisibilityMask edgeMask, boolean all, Lists previous) {
+		final int components = GraphBuffers.EDGE_ATTRIBUTE_COMPONENTS;
+
+		Lists lists = back;
+		IntBuffer packed = lists.edges.asIntBuffer();
+		FloatBuffer packedAttributes = lists.attributes.asFloatBuffer();
+		int chunks = (count + CHUNK - 1) / CHUNK;
+		int offset = 0;
+		int firstChange = Integer.MAX_VALUE;
+
+		for (int c = 0; c < chunks; c++) {
+			boolean dirty = take(dirtyEdges, c) || all;
+
+			if (dirty) {
+				int from = c * CHUNK;
+				int to = Math.min(count, from + CHUNK);
+				int length = 0;
+
+				for (int e = from; e < to; e++) {
+					if (edgeMask.isHidden(e))
+						continue;
+
+					int a = edgeColumn.get(2 * e);
+					int b = edgeColumn.get(2 * e + 1);
+
+					if (nodeMask.isHidden(a) || nodeMask.isHidden(b))
+						continue;
+
+					int s = from + length++;
+
+					edgeSegments[2 * s] = a;
+					edgeSegments[2 * s + 1] = b;
+
+					for (int k = 0; k < components; k++)
+						attributeSegments[components * s + k] = attributeColumn
+								.get(components * e + k);
+				}
+
+				edgeLengths[c] = length;
+				edgeVersions[c]++;
+			}
+
+			if (lists.edgeVersions[c] != edgeVersions[c]
+					|| lists.edgeOffsets[c] != offset) {
+				packed.position(2 * offset);
+				packed.put(edgeSegments, 2 * c * CHUNK, 2 * edgeLengths[c]);
+				packedAttributes.position(components * offset);
+				packedAttributes.put(attributeSegments, components * c
+						* CHUNK, components * edgeLengths[c]);
+
+				lists.edgeVersions[c] = edgeVersions[c];
+				lists.edgeOffsets[c] = offset;
+			}
+
+			/*
+			 * The previous lists hold the segments as they were before this
+			 * compaction.
+			 */
+			if (previous == null || dirty || c >= previous.edgeOffsets.length
+					|| previous.edgeOffsets[c] != offset)
+				firstChange = Math.min(firstChange, offset);
+
+			offset += edgeLengths[c];
+		}
+
+		/*
+		 * Changes over the edges of the previous lists are rewrites, changes
+		 * after them are appends. Lists compacted again entirely replace
+		 * whatever was drawn before.
+		 */
+		if (previous == null || firstChange < previous.edgeCount
+				|| offset < previous.edgeCount)
+			edgeRewrites++;
+
+		lists.edgeCount = offset;
+		lists.edgeRewrites = edgeRewrites;
+	}
+}
@@ -0,0 +1,31 @@
+#version 330 core
+
+/*
+ * Core profile fragment shader, for nodes and edges.
+ *
+ * With OIT defined, fragments are accumulated for the weighted blended
+ * transparency of TransparencyRenderer: weighted colour and alpha in the
+ * first target, weight and alpha in the second one.
+ */
+
+in vec4 vertexColor;
+
+#ifdef OIT
+layout(location = 0) out vec4 accumulation;
+layout(location = 1) out vec4 weights;
+
+void main() {
+	float a = vertexColor.a;
+	float z = 1.0 - gl_FragCoord.z;
+	float w = clamp(a * max(0.01, 3000.0 * z * z * z), 0.01, 3000.0);
+
+	accumulation = vec4(vertexColor.rgb * a * w, a);
+	weights = vec4(a * w, 0.0, 0.0, a);
+}
+#else
+out vec4 fragmentColor;
+
+void main() {
+	fragmentColor = vertexColor;
+}
+#endif
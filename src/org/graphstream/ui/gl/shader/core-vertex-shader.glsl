@@ -0,0 +1,34 @@
+#version 330 core
+
+/*
+ * Core profile vertex shader, for nodes and edges.
+ *
+ * Vertices are interpolated between the position of the node at the
+ * beginning of its transition (previous.xyz, at time previous.w) and its
+ * current position, eased like Transition.progress(). With a duration of 0,
+ * vertices are drawn at their position.
+ */
+
+layout(location = 0) in vec3 position;
+layout(location = 1) in vec4 color;
+layout(location = 2) in float size;
+layout(location = 3) in vec4 previous;
+
+uniform mat4 viewProjection;
+uniform float time;
+uniform float duration;
+
+out vec4 vertexColor;
+
+void main() {
+	float t = 1.0;
+
+	if (duration > 0.0) {
+		t = clamp((time - previous.w) / duration, 0.0, 1.0);
+		t = t * t * (3.0 - 2.0 * t);
+	}
+
+	gl_Position = viewProjection * vec4(mix(previous.xyz, position, t), 1.0);
+	gl_PointSize = size;
+	vertexColor = color;
+}
@@ -0,0 +1,28 @@
+#version 120
+
+/*
+ * Density fragment shader.
+ *
+ * Writes the weight of the fragment, added to the density by the blending.
+ * Points have a gaussian falloff from their center so that the density is
+ * smooth, lines have a constant weight.
+ */
+
+uniform float weight;
+uniform bool points;
+
+void main() {
+	float w = weight;
+
+	if (points) {
+		vec2 d = gl_PointCoord * 2.0 - 1.0;
+		float r2 = dot(d, d);
+
+		if (r2 > 1.0)
+			discard;
+
+		w *= exp(-4.0 * r2);
+	}
+
+	gl_FragColor = vec4(w, 0.0, 0.0, 0.0);
+}
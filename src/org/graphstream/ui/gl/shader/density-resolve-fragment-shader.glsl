@@ -0,0 +1,25 @@
+#version 120
+
+/*
+ * Density resolve fragment shader.
+ *
+ * The density is scaled logarithmically, 1 being reached at the saturation
+ * density, and mapped to the colour ramp. Pixels without density are left
+ * to the background.
+ */
+
+uniform sampler2D density;
+uniform sampler1D ramp;
+uniform float saturation;
+
+void main() {
+	float d = texture2D(density, gl_TexCoord[0].st).r;
+
+	if (d <= 0.0)
+		discard;
+
+	float v = clamp(log(1.0 + d) / log(1.0 + saturation), 0.0, 1.0);
+	vec4 color = texture1D(ramp, v);
+
+	gl_FragColor = vec4(color.rgb, color.a * smoothstep(0.0, 0.05, v));
+}
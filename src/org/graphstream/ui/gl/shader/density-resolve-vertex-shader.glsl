@@ -0,0 +1,10 @@
+#version 120
+
+/*
+ * Density resolve vertex shader, drawing a quad covering the viewport.
+ */
+
+void main() {
+	gl_Position = gl_Vertex;
+	gl_TexCoord[0] = gl_MultiTexCoord0;
+}
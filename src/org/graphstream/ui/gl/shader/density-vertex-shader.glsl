@@ -0,0 +1,16 @@
+#version 120
+
+/*
+ * Density vertex shader.
+ *
+ * Nodes are splatted as points of a fixed size in pixels. Edges, when their
+ * density is accumulated too, are drawn as lines with the same shader.
+ */
+
+uniform mat4 viewProjection;
+uniform float splatSize;
+
+void main() {
+	gl_Position = viewProjection * gl_Vertex;
+	gl_PointSize = splatSize;
+}
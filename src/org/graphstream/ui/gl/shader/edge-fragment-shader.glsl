@@ -0,0 +1,34 @@
+#version 150 compatibility
+
+/*
+ * Edge fragment shader.
+ *
+ * Coverage of the body and of the arrow head is computed from the distance
+ * to their border, which anti-aliases edges without any multisampling.
+ */
+
+in vec2 local;
+in vec4 color;
+
+flat in float edgeLength;
+flat in float halfWidth;
+flat in float arrowLength;
+flat in float arrowHalfWidth;
+
+void main() {
+	float u = local.x;
+	float v = abs(local.y);
+	float w = halfWidth;
+
+	if (arrowLength > 0.0 && u > edgeLength - arrowLength)
+		w = arrowHalfWidth * (edgeLength - u) / arrowLength;
+
+	float coverage = clamp(w + 0.5 - v, 0.0, 1.0)
+			* clamp(u + 0.5, 0.0, 1.0)
+			* clamp(edgeLength - u + 0.5, 0.0, 1.0);
+
+	if (coverage <= 0.0)
+		discard;
+
+	gl_FragColor = vec4(color.rgb, color.a * coverage);
+}
@@ -0,0 +1,97 @@
+#version 150 compatibility
+
+/*
+ * Edge vertex shader.
+ *
+ * Each edge is an instance of a quad of four vertices drawn as a triangle
+ * strip. Nothing is read from vertex arrays: the extremities of the edge
+ * are fetched from the edge buffer with gl_InstanceID, and their positions
+ * from the node vertices buffer, so node data is never duplicated. The
+ * quad is built in window coordinates around the segment, wide enough for
+ * the edge, its arrow and a pixel of anti-aliasing.
+ */
+
+uniform samplerBuffer vertices;
+uniform samplerBuffer previous;
+uniform samplerBuffer colors;
+uniform isamplerBuffer edges;
+uniform samplerBuffer attributes;
+
+uniform mat4 viewProjection;
+uniform vec2 viewport;
+uniform float time;
+uniform float duration;
+uniform bool colored;
+uniform vec4 edgeColor;
+uniform float arrowSize;
+
+/*
+ * Position in the quad, in pixels: along the edge from its source, and
+ * across from its axis.
+ */
+out vec2 local;
+out vec4 color;
+
+flat out float edgeLength;
+flat out float halfWidth;
+flat out float arrowLength;
+flat out float arrowHalfWidth;
+
+vec3 position(int node) {
+	vec3 p = vec3(texelFetch(vertices, 3 * node).r,
+			texelFetch(vertices, 3 * node + 1).r,
+			texelFetch(vertices, 3 * node + 2).r);
+
+	if (duration > 0.0) {
+		vec4 from = texelFetch(previous, node);
+		float t = clamp((time - from.w) / duration, 0.0, 1.0);
+
+		p = mix(from.xyz, p, t * t * (3.0 - 2.0 * t));
+	}
+
+	return p;
+}
+
+void main() {
+	ivec2 edge = texelFetch(edges, gl_InstanceID).xy;
+	vec2 edgeAttribute = texelFetch(attributes, gl_InstanceID).xy;
+
+	vec4 c0 = viewProjection * vec4(position(edge.x), 1.0);
+	vec4 c1 = viewProjection * vec4(position(edge.y), 1.0);
+
+	if (c0.w <= 0.0 || c1.w <= 0.0) {
+		// Behind the eye, the quad is moved out of the clip volume.
+		gl_Position = vec4(2.0, 2.0, 2.0, 1.0);
+		return;
+	}
+
+	vec2 s0 = (c0.xy / c0.w * 0.5 + 0.5) * viewport;
+	vec2 s1 = (c1.xy / c1.w * 0.5 + 0.5) * viewport;
+	vec2 d = s1 - s0;
+	float len = length(d);
+	vec2 direction = len > 0.0 ? d / len : vec2(1.0, 0.0);
+	vec2 normal = vec2(-direction.y, direction.x);
+
+	float width = max(edgeAttribute.x, 0.0);
+	bool directed = edgeAttribute.y > 0.5;
+	float arrow = arrowSize + 2.0 * width;
+
+	halfWidth = 0.5 * width;
+	arrowLength = directed ? min(arrow, len) : 0.0;
+	arrowHalfWidth = directed ? 0.4 * arrow : 0.0;
+	edgeLength = len;
+
+	float extent = max(halfWidth, arrowHalfWidth) + 1.0;
+	float u = float(gl_VertexID >> 1);
+	float v = float(gl_VertexID & 1) * 2.0 - 1.0;
+	float end = u * 2.0 - 1.0;
+
+	vec2 p = mix(s0, s1, u) + direction * end + normal * v * extent;
+	float depth = mix(c0.z / c0.w, c1.z / c1.w, u);
+
+	local = vec2(u * len + end, v * extent);
+	color = colored ? mix(texelFetch(colors, edge.x),
+			texelFetch(colors, edge.y), u) : edgeColor;
+
+	gl_Position = vec4(p / viewport * 2.0 - 1.0, depth, 1.0);
+}
@@ -0,0 +1,134 @@
+#version 430 core
+
+/*
+ * Force directed layout, see ComputeLayout.
+ *
+ * Pass 0 computes one iteration of CPUForceLayout.iterate() for each node of
+ * the node list, from the positions to the next positions. Pass 1 copies the
+ * next positions of the nodes of the list to the positions, which are also
+ * the vertex buffer the nodes are drawn from. Nodes repulsing a node are read
+ * by tiles of the work group in shared memory, in the order of the node list,
+ * so that sums are done in the same order as on the CPU.
+ */
+
+layout(local_size_x = 64) in;
+
+layout(std430, binding = 0) buffer Positions { float positions[]; };
+layout(std430, binding = 1) buffer Next { float next[]; };
+layout(std430, binding = 2) readonly buffer Nodes { uint nodes[]; };
+layout(std430, binding = 3) readonly buffer Offsets { uint offsets[]; };
+layout(std430, binding = 4) readonly buffer Neighbors { uint neighbors[]; };
+
+uniform uint count;
+uniform float k;
+uniform float gravity;
+uniform float temperature;
+uniform bool flatLayout;
+uniform int pass;
+
+const float MIN_DISTANCE = 0.01;
+
+shared vec3 tile[64];
+shared uint tilePools[64];
+
+vec3 load(uint p) {
+	return vec3(positions[3u * p], positions[3u * p + 1u], positions[3u * p + 2u]);
+}
+
+/*
+ * Same as ForceLayout.jitter().
+ */
+vec3 jitter(uint i, uint j) {
+	uint h = i * 2654435761u ^ j * 40503u;
+
+	return vec3(float(h & 1023u), float((h >> 10) & 1023u),
+			float((h >> 20) & 1023u)) / 511.5 - 1.0;
+}
+
+void main() {
+	uint index = gl_GlobalInvocationID.x;
+	bool inRange = index < count;
+
+	if (pass == 1) {
+		if (inRange) {
+			uint p = 3u * nodes[index];
+			positions[p] = next[p];
+			positions[p + 1u] = next[p + 1u];
+			positions[p + 2u] = next[p + 2u];
+		}
+
+		return;
+	}
+
+	uint p = inRange ? nodes[index] : 0u;
+	vec3 position = inRange ? load(p) : vec3(0.0);
+	vec3 force = vec3(0.0);
+	float min2 = MIN_DISTANCE * k * MIN_DISTANCE * k;
+
+	for (uint start = 0u; start < count; start += 64u) {
+		uint t = start + gl_LocalInvocationID.x;
+
+		if (t < count) {
+			tilePools[gl_LocalInvocationID.x] = nodes[t];
+			tile[gl_LocalInvocationID.x] = load(nodes[t]);
+		}
+
+		barrier();
+
+		uint n = min(64u, count - start);
+
+		for (uint i = 0u; inRange && i < n; i++) {
+			if (tilePools[i] == p)
+				continue;
+
+			vec3 d = position - tile[i];
+
+			if (flatLayout)
+				d.z = 0.0;
+
+			float r2 = d.x * d.x + d.y * d.y + d.z * d.z;
+
+			if (r2 < min2) {
+				d = jitter(p, tilePools[i]) * (MIN_DISTANCE * k);
+
+				if (flatLayout)
+					d.z = 0.0;
+
+				r2 = d.x * d.x + d.y * d.y + d.z * d.z;
+			}
+
+			force += d * (k * k / r2);
+		}
+
+		barrier();
+	}
+
+	if (!inRange)
+		return;
+
+	for (uint e = offsets[p]; e < offsets[p + 1u]; e++) {
+		vec3 d = load(neighbors[e]) - position;
+
+		if (flatLayout)
+			d.z = 0.0;
+
+		force += d * (sqrt(d.x * d.x + d.y * d.y + d.z * d.z) / k);
+	}
+
+	force -= gravity * position;
+
+	if (flatLayout)
+		force.z = 0.0;
+
+	float f = sqrt(force.x * force.x + force.y * force.y + force.z * force.z);
+
+	if (f > 0.0)
+		position += force * (min(f, temperature) / f);
+
+	if (flatLayout)
+		position.z = 0.0;
+
+	next[3u * p] = position.x;
+	next[3u * p + 1u] = position.y;
+	next[3u * p + 2u] = position.z;
+}
@@ -0,0 +1,9 @@
+#version 120
+
+/*
+ * Node fragment shader.
+ */
+
+void main() {
+	gl_FragColor = gl_Color;
+}
@@ -0,0 +1,32 @@
+#version 120
+
+/*
+ * Node vertex shader.
+ *
+ * Nodes are drawn at a position interpolated between the position they had
+ * at the beginning of their transition (previous.xyz, at time previous.w)
+ * and their vertex, eased like Transition.progress(). With a duration of 0,
+ * nodes are drawn at their vertex.
+ */
+
+attribute float nodeSize;
+attribute vec4 previous;
+
+uniform mat4 viewProjection;
+uniform float time;
+uniform float duration;
+
+void main() {
+	float t = 1.0;
+
+	if (duration > 0.0) {
+		t = clamp((time - previous.w) / duration, 0.0, 1.0);
+		t = t * t * (3.0 - 2.0 * t);
+	}
+
+	vec4 position = vec4(mix(previous.xyz, gl_Vertex.xyz, t), 1.0);
+
+	gl_Position = viewProjection * position;
+	gl_FrontColor = gl_Color;
+	gl_PointSize = nodeSize;
+}
@@ -0,0 +1,29 @@
+#version 330 core
+
+/*
+ * Transparency composite fragment shader.
+ *
+ * The accumulation holds the sum of the weighted colours and the revealage,
+ * the weights the sum of the weights. The weighted average colour is drawn
+ * with an opacity of 1 - revealage. Pixels without primitive are left to the
+ * background.
+ */
+
+uniform sampler2D accumulation;
+uniform sampler2D weights;
+
+in vec2 texCoord;
+
+out vec4 fragmentColor;
+
+void main() {
+	vec4 accumulated = texture(accumulation, texCoord);
+	float revealage = accumulated.a;
+
+	if (revealage >= 1.0)
+		discard;
+
+	float weight = texture(weights, texCoord).r;
+
+	fragmentColor = vec4(accumulated.rgb / max(weight, 1e-5), 1.0 - revealage);
+}
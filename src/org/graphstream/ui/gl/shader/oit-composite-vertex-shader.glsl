@@ -0,0 +1,15 @@
+#version 330 core
+
+/*
+ * Transparency composite vertex shader, drawing a triangle covering the
+ * viewport from the vertex ids 0, 1 and 2.
+ */
+
+out vec2 texCoord;
+
+void main() {
+	vec2 corner = vec2(float((gl_VertexID << 1) & 2), float(gl_VertexID & 2));
+
+	texCoord = corner;
+	gl_Position = vec4(corner * 2.0 - 1.0, 0.0, 1.0);
+}
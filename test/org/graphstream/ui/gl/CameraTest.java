@@ -0,0 +1,103 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl;
+
+import static org.junit.Assert.assertTrue;
+
+import org.graphstream.ui.gl.Camera.Mode;
+import org.junit.Test;
+
+/**
+ * Tests of {@link Camera}.
+ */
+public class CameraTest {
+	/**
+	 * Check that the corners of a box are inside the frustum once the
+	 * camera has settled in the centered mode.
+	 */
+	static void checkCentered(float[] min, float[] max, Camera camera) {
+		float[] centroid = new float[3];
+
+		for (int i = 0; i < 3; i++)
+			centroid[i] = (min[i] + max[i]) / 2;
+
+		camera.setMode(Mode.CENTERED);
+
+		for (int i = 0; i < 200; i++)
+			camera.center(min, max, centroid, 0.75f);
+
+		float[] m = camera.getViewProjectionMatrix();
+		float[] clip = new float[4];
+
+		for (int corner = 0; corner < 8; corner++) {
+			float x = (corner & 1) == 0 ? min[0] : max[0];
+			float y = (corner & 2) == 0 ? min[1] : max[1];
+			float z = (corner & 4) == 0 ? min[2] : max[2];
+
+			Matrix4.transform(m, x, y, z, clip);
+
+			String where = String.format("corner %d: %f %f %f %f", corner,
+					clip[0], clip[1], clip[2], clip[3]);
+
+			assertTrue(where, clip[3] > 0);
+
+			for (int i = 0; i < 3; i++)
+				assertTrue(where, Math.abs(clip[i]) <= clip[3]);
+		}
+	}
+
+	static Camera createCamera() {
+		Camera camera = new Camera(null);
+		camera.setFrustum(-1, 1, -0.75f, 0.75f);
+
+		return camera;
+	}
+
+	@Test
+	public void testCenteredSmallGraph() {
+		checkCentered(new float[] { -1, -1, -1 }, new float[] { 1, 1, 1 },
+				createCamera());
+	}
+
+	@Test
+	public void testCenteredLargeGraph() {
+		float[] min = { 4000, -1200, -700 };
+		float[] max = { 6000, 800, 900 };
+		Camera camera = createCamera();
+
+		checkCentered(min, max, camera);
+
+		camera.rotate(30, 0, 1, 0, true);
+		camera.rotate(-50, 1, 0, 0, true);
+		checkCentered(min, max, camera);
+	}
+
+	@Test
+	public void testCenteredFlatGraph() {
+		checkCentered(new float[] { -5000, -5000, 0 }, new float[] { 5000,
+				5000, 0 }, createCamera());
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.graphstream.ui.gl.Context.NodeColorMode;
+import org.graphstream.ui.gl.Context.NodeSizeMode;
+import org.junit.Test;
+
+/**
+ * Tests of {@link GraphBuffersJournal}: events recorded must reach the
+ * buffers as the events of the source would.
+ */
+public class GraphBuffersJournalTest {
+	static GraphBuffers createBuffers() {
+		GraphBuffers gb = new GraphBuffers(null);
+		gb.init(NodeColorMode.EachNodeOneColor, NodeSizeMode.EachNodeOneSize,
+				100, 100);
+
+		return gb;
+	}
+
+	static File createFile() throws IOException {
+		File file = File.createTempFile("journal", ".gsj");
+		file.deleteOnExit();
+
+		return file;
+	}
+
+	@Test
+	public void testJournaledUpdatesRefreshNodes() throws Exception {
+		GraphBuffers gb = createBuffers();
+		GraphBuffersJournal journal = new GraphBuffersJournal(gb, createFile());
+
+		gb.setExpiry(200, 0);
+
+		journal.nodeAdded("test", 0, "refreshed");
+		journal.nodeAdded("test", 0, "stale");
+		journal.edgeAdded("test", 0, "e", "refreshed", "refreshed", false);
+
+		long end = System.currentTimeMillis() + 600;
+
+		for (int i = 0; System.currentTimeMillis() < end; i++) {
+			journal.nodeAttributeChanged("test", 0, "refreshed", "xyz", null,
+					new Object[] { (double) i, 0.0, 0.0 });
+			journal.edgeAttributeChanged("test", 0, "e", "ui.width", null,
+					1.0 + i % 2);
+			gb.expire();
+			Thread.sleep(20);
+		}
+
+		for (int i = 0; i < 10; i++)
+			gb.expire();
+
+		journal.close();
+
+		float[] xyz = new float[3];
+
+		assertTrue(gb.getNodePosition("refreshed", xyz));
+		assertFalse(gb.getNodePosition("stale", xyz));
+		assertEquals(1, gb.getActiveEdgeCount());
+	}
+
+	@Test
+	public void testReplayedAttributes() throws Exception {
+		File file = createFile();
+		GraphBuffersJournal journal = new GraphBuffersJournal(
+				createBuffers(), file);
+
+		journal.nodeAdded("test", 0, "a");
+		journal.nodeAttributeAdded("test", 0, "a", "xyz", new Object[] { 1.0,
+				2.0, 3.0 });
+		journal.nodeAttributeChanged("test", 0, "a", "x", null, 4f);
+		journal.close();
+
+		GraphBuffers replayed = createBuffers();
+		JournalReplay replay = new JournalReplay(file);
+
+		replay.addSink(replayed);
+		replay.seek(Long.MAX_VALUE, replayed);
+		replay.close();
+
+		float[] xyz = new float[3];
+
+		assertTrue(replayed.getNodePosition("a", xyz));
+		assertEquals(4, xyz[0], 0);
+		assertEquals(2, xyz[1], 0);
+		assertEquals(3, xyz[2], 0);
+	}
+}
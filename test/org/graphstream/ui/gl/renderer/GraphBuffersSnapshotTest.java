@@ -0,0 +1,184 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+
+import org.graphstream.ui.gl.Context.NodeColorMode;
+import org.graphstream.ui.gl.Context.NodeSizeMode;
+import org.graphstream.ui.gl.renderer.GraphBuffers.GraphBuffer;
+import org.junit.Test;
+
+/**
+ * Tests of {@link GraphBuffersSnapshot}: loaded regions must be mapped from
+ * the file, not copied, and must not write through to it.
+ */
+public class GraphBuffersSnapshotTest {
+	/**
+	 * Position of the region table in the header, after the magic number,
+	 * version, byte order, flags, last indexes and region count.
+	 */
+	static final int REGION_TABLE = 24;
+
+	static GraphBuffers createGraph() {
+		GraphBuffers gb = new GraphBuffers(null);
+		gb.init(NodeColorMode.EachNodeOneColor, NodeSizeMode.EachNodeOneSize,
+				1000, 1000);
+
+		for (int i = 0; i < 100; i++) {
+			gb.nodeAdded("test", 0, "n" + i);
+			gb.moveNode("n" + i, i, 2 * i, 3 * i);
+		}
+
+		for (int i = 1; i < 100; i++)
+			gb.edgeAdded("test", 0, "e" + i, "n" + (i - 1), "n" + i, false);
+
+		return gb;
+	}
+
+	static File save(GraphBuffers gb) throws IOException {
+		File file = File.createTempFile("snapshot", ".gsb");
+		file.deleteOnExit();
+		gb.saveSnapshot(file);
+
+		return file;
+	}
+
+	static GraphBuffers load(File file) throws IOException {
+		GraphBuffers gb = new GraphBuffers(null);
+		gb.init(NodeColorMode.EachNodeOneColor, NodeSizeMode.EachNodeOneSize,
+				10, 10);
+		gb.loadSnapshot(file);
+
+		return gb;
+	}
+
+	/**
+	 * Overwrite the last value of a region in a snapshot file, whose header
+	 * gives the offset and length of each region.
+	 */
+	static void overwriteLast(File file, GraphBuffer region, int value)
+			throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+		try {
+			raf.seek(REGION_TABLE + 16 * region.ordinal());
+
+			long offset = raf.readLong();
+			long length = raf.readLong();
+			ByteBuffer data = ByteBuffer.allocate(4).order(
+					ByteOrder.nativeOrder());
+
+			data.putInt(value).flip();
+			raf.getChannel().write(data, offset + length - 4);
+		} finally {
+			raf.close();
+		}
+	}
+
+	static int getLast(GraphBuffers gb, GraphBuffer region) {
+		ByteBuffer buffer = gb.getBuffer(region);
+
+		return buffer.getInt(buffer.capacity() - 4);
+	}
+
+	@Test
+	public void testRegionsAreMapped() throws IOException {
+		File file = save(createGraph());
+		GraphBuffers loaded = load(file);
+
+		float[] xyz = new float[3];
+
+		assertTrue(loaded.getNodePosition("n42", xyz));
+		assertEquals(42, xyz[0], 0);
+		assertEquals(84, xyz[1], 0);
+		assertEquals(126, xyz[2], 0);
+		assertEquals(100, loaded.getActiveIndexCount());
+		assertEquals(99, loaded.getActiveEdgeCount());
+
+		/*
+		 * Pages of a private mapping which were not written still show the
+		 * file, so a change of the file reaches the buffers only if they are
+		 * mapped, not copied.
+		 */
+		for (GraphBuffer region : GraphBuffer.values()) {
+			ByteBuffer buffer = loaded.getBuffer(region);
+
+			assertTrue(region.name(), buffer instanceof MappedByteBuffer);
+			assertFalse(region.name(), buffer.isReadOnly());
+
+			overwriteLast(file, region, 0x12345678);
+			assertEquals(region.name(), 0x12345678, getLast(loaded, region));
+		}
+	}
+
+	@Test
+	public void testWritesDoNotReachTheFile() throws IOException {
+		File file = save(createGraph());
+		long length = file.length();
+		GraphBuffers loaded = load(file);
+
+		loaded.moveNode("n42", -1, -1, -1);
+		loaded.nodeRemoved("test", 0, "n7");
+
+		assertEquals(length, file.length());
+
+		float[] xyz = new float[3];
+		GraphBuffers again = load(file);
+
+		assertTrue(again.getNodePosition("n42", xyz));
+		assertEquals(42, xyz[0], 0);
+		assertTrue(again.getNodePosition("n7", xyz));
+	}
+
+	@Test
+	public void testReadOnlyFileIsCopied() throws IOException {
+		File file = save(createGraph());
+
+		// Privileged users can write the file anyway.
+		if (!file.setWritable(false) || file.canWrite())
+			return;
+
+		GraphBuffers loaded = load(file);
+		float[] xyz = new float[3];
+
+		assertTrue(loaded.getNodePosition("n42", xyz));
+		assertEquals(84, xyz[1], 0);
+
+		file.setWritable(true);
+		overwriteLast(file, GraphBuffer.NODE_VERTICES, 0x12345678);
+		assertFalse(getLast(loaded, GraphBuffer.NODE_VERTICES) == 0x12345678);
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ * This file is part of GraphStream.
+ *
+ * GraphStream is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * GraphStream is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with GraphStream.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2006 - 2010
+ * 	Julien Baudry
+ * 	Antoine Dutot
+ * 	Yoann Pigné
+ * 	Guilhelm Savin
+ *
+ * UGLI : GraphStream OpenGL Viewer
+ *  Copyright 2010 Guilhelm Savin
+ */
+package org.graphstream.ui.gl.renderer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link IdSearchIndex}. Enough ids are added to fill the buffer
+ * several times, so that lookups go through several runs and merges.
+ */
+public class IdSearchIndexTest {
+	/**
+	 * Ids of the reference set beginning with, or containing, some text.
+	 */
+	static String[] expected(TreeSet<String> all, String text,
+			boolean substring) {
+		ArrayList<String> found = new ArrayList<String>();
+
+		for (String id : all)
+			if (substring ? id.contains(text) : id.startsWith(text))
+				found.add(id);
+
+		return found.toArray(new String[found.size()]);
+	}
+
+	static String[] find(IdSearchIndex index, String text, boolean substring,
+			int max) {
+		String[] ids = new String[max];
+		int count = substring ? index.findSubstring(text, ids) : index
+				.findPrefix(text, ids);
+
+		return Arrays.copyOf(ids, count);
+	}
+
+	static void check(IdSearchIndex index, TreeSet<String> all, String text) {
+		String[] prefix = expected(all, text, false);
+		String[] substring = expected(all, text, true);
+
+		assertArrayEquals(text, prefix, find(index, text, false, all.size() + 1));
+		assertArrayEquals(text, substring,
+				find(index, text, true, all.size() + 1));
+		assertEquals(all.size(), index.size());
+	}
+
+	@Test
+	public void testLookupAcrossMerges() {
+		IdSearchIndex index = new IdSearchIndex();
+		TreeSet<String> all = new TreeSet<String>();
+
+		for (int i = 0; i < 10 * IdSearchIndex.BUFFER + 17; i++) {
+			String id = "node-" + i;
+
+			index.add(id);
+			all.add(id);
+		}
+
+		check(index, all, "node-1");
+		check(index, all, "node-10");
+		check(index, all, "99");
+		check(index, all, "node-10257");
+		check(index, all, "edge");
+		check(index, all, "");
+
+		String[] first = find(index, "node-1", false, 5);
+
+		assertArrayEquals(new String[] { "node-1", "node-10", "node-100",
+				"node-1000", "node-10000" }, first);
+	}
+
+	@Test
+	public void testBulkAndIncremental() {
+		IdSearchIndex index = new IdSearchIndex();
+		TreeSet<String> all = new TreeSet<String>();
+		ArrayList<String> bulk = new ArrayList<String>();
+
+		for (int i = 0; i < 5000; i++)
+			bulk.add("b" + i);
+
+		index.addAll(bulk);
+		all.addAll(bulk);
+
+		for (int i = 0; i < 3000; i++) {
+			index.add("a" + i);
+			all.add("a" + i);
+		}
+
+		check(index, all, "a12");
+		check(index, all, "b12");
+		check(index, all, "12");
+	}
+
+	@Test
+	public void testLookupAfterRemovals() {
+		IdSearchIndex index = new IdSearchIndex();
+		TreeSet<String> all = new TreeSet<String>();
+		int count = 3 * IdSearchIndex.BUFFER + 100;
+
+		for (int i = 0; i < count; i++) {
+			index.add("n" + i);
+			all.add("n" + i);
+		}
+
+		// Ids still buffered, and ids in runs.
+		for (int i = 0; i < count; i += 7) {
+			index.remove("n" + i);
+			all.remove("n" + i);
+		}
+
+		check(index, all, "n1");
+		check(index, all, "n70");
+		check(index, all, "0");
+
+		// The tombstones are dropped by the next merges.
+		for (int i = count; i < 2 * count; i++) {
+			index.add("n" + i);
+			all.add("n" + i);
+		}
+
+		check(index, all, "n1");
+		check(index, all, "7");
+	}
+
+	@Test
+	public void testReAddRemovedFromRun() {
+		IdSearchIndex index = new IdSearchIndex();
+		TreeSet<String> all = new TreeSet<String>();
+
+		for (int i = 0; i < 5 * IdSearchIndex.BUFFER; i++) {
+			index.add("x" + i);
+			all.add("x" + i);
+		}
+
+		// "x5" is in a run, removing it leaves a tombstone.
+		index.remove("x5");
+		all.remove("x5");
+		check(index, all, "x5");
+
+		index.add("x5");
+		all.add("x5");
+		check(index, all, "x5");
+
+		// The run is too large to be merged with the next one, which must
+		// not hold a second copy of "x5".
+		for (int i = 0; i < IdSearchIndex.BUFFER - 1; i++) {
+			index.add("z" + i);
+			all.add("z" + i);
+		}
+
+		check(index, all, "x5");
+
+		// Removed again, then merged away before being added back.
+		index.remove("x5");
+		all.remove("x5");
+
+		for (int i = 0; i < 2 * IdSearchIndex.BUFFER; i++) {
+			index.add("y" + i);
+			all.add("y" + i);
+		}
+
+		check(index, all, "x5");
+
+		index.add("x5");
+		all.add("x5");
+		check(index, all, "x5");
+		check(index, all, "5");
+	}
+
+	@Test
+	public void testRandomOperations() {
+		Random random = new Random(7);
+		IdSearchIndex index = new IdSearchIndex();
+		TreeSet<String> all = new TreeSet<String>();
+		ArrayList<String> present = new ArrayList<String>();
+
+		for (int step = 0; step < 20000; step++) {
+			if (present.isEmpty() || random.nextInt(3) > 0) {
+				String id = "r" + random.nextInt(10000);
+
+				if (all.add(id)) {
+					index.add(id);
+					present.add(id);
+				}
+			} else {
+				String id = present.remove(random.nextInt(present.size()));
+
+				index.remove(id);
+				all.remove(id);
+			}
+
+			if (step % 1000 == 999)
+				check(index, all, "r" + random.nextInt(100));
+		}
+	}
+}